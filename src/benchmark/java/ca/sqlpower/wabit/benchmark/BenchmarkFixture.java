@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.benchmark;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.sql.JDBCDataSource;
+import ca.sqlpower.sql.PlDotIni;
+import ca.sqlpower.wabit.WabitSession;
+import ca.sqlpower.wabit.WabitSessionContextImpl;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.report.ContentBox;
+import ca.sqlpower.wabit.report.Report;
+import ca.sqlpower.wabit.report.ResultSetRenderer;
+import ca.sqlpower.wabit.report.WabitLabel;
+import ca.sqlpower.wabit.rs.query.QueryCache;
+
+/**
+ * The embedded database every benchmark runs against. It is the in-memory
+ * HSQLDB of the regression test data sources with a single fact table of
+ * sales, so the benchmarks need nothing besides the test resources to run.
+ * <p>
+ * The table has {@link #getRowCount()} rows spread over
+ * {@link #REGION_COUNT} regions and one product for every ten rows, which
+ * makes the number of categories and OLAP members grow with the row count
+ * the same way it does for real reports.
+ * <p>
+ * The fixture is meant to be created in a JMH trial level setup method and
+ * {@link #close() closed} in the matching tear down.
+ */
+public class BenchmarkFixture {
+
+	/**
+	 * The name of the sales table. HSQLDB stores unquoted identifiers in
+	 * upper case, which matters to Mondrian as it quotes the names it is
+	 * given.
+	 */
+	public static final String TABLE_NAME = "BENCHMARK_SALES";
+
+	/**
+	 * The query selecting every row of the sales table in a stable order.
+	 */
+	public static final String SELECT_ALL =
+		"select region, product, quantity, price, sold from " + TABLE_NAME +
+		" order by region, product";
+
+	/**
+	 * The number of distinct regions in the sales table.
+	 */
+	public static final int REGION_COUNT = 8;
+
+	private final int rowCount;
+
+	private final PlDotIni plIni;
+
+	private final JDBCDataSource dataSource;
+
+	private final WabitSessionContextImpl context;
+
+	private final WabitSession session;
+
+	/**
+	 * Creates the sales table with the given number of rows and a session
+	 * whose workspace knows about the regression data source.
+	 */
+	public BenchmarkFixture(int rowCount) throws Exception {
+		this.rowCount = rowCount;
+		plIni = new PlDotIni();
+		plIni.read(new File("src/test/resources/pl.regression.ini"));
+		dataSource = plIni.getDataSource("regression_test", JDBCDataSource.class);
+
+		context = new WabitSessionContextImpl(false, false, plIni, "", false);
+		session = context.createSession();
+		context.registerChildSession(session);
+		context.setActiveSession(session);
+		session.getWorkspace().addDataSource(dataSource);
+
+		createTable();
+	}
+
+	private void createTable() throws SQLException {
+		Connection con = dataSource.createConnection();
+		try {
+			Statement stmt = con.createStatement();
+			stmt.execute("drop table " + TABLE_NAME + " if exists");
+			stmt.execute("create table " + TABLE_NAME + " (" +
+					"region varchar(50), product varchar(50), quantity integer, " +
+					"price decimal(10,2), sold date)");
+			stmt.close();
+
+			PreparedStatement insert = con.prepareStatement("insert into " + TABLE_NAME +
+					" (region, product, quantity, price, sold) values (?, ?, ?, ?, ?)");
+			long firstDay = Date.valueOf("2010-01-01").getTime();
+			for (int i = 0; i < rowCount; i++) {
+				insert.setString(1, "Region " + (i % REGION_COUNT));
+				insert.setString(2, "Product " + (i / 10));
+				insert.setInt(3, i % 100);
+				insert.setBigDecimal(4, BigDecimal.valueOf(i % 10000, 2));
+				insert.setDate(5, new Date(firstDay + (i % 365) * 24L * 60 * 60 * 1000));
+				insert.executeUpdate();
+			}
+			insert.close();
+		} finally {
+			con.close();
+		}
+	}
+
+	/**
+	 * Returns a new query cache in the fixture's workspace that runs the
+	 * given SQL against the sales database.
+	 */
+	public QueryCache createQuery(String sql) {
+		QueryCache query = new QueryCache(context);
+		query.setDataSource(dataSource);
+		query.setUserModifiedQuery(sql);
+		getWorkspace().addQuery(query, session);
+		return query;
+	}
+
+	/**
+	 * Adds a report to the fixture's workspace with the results of the given
+	 * query filling its page and a page number label in the footer.
+	 */
+	public Report createReport(String name, QueryCache query) {
+		Report report = new Report(name);
+		
+		ContentBox results = new ContentBox();
+		results.setContentRenderer(new ResultSetRenderer(query));
+		results.setX(0);
+		results.setY(0);
+		results.setWidth(report.getPage().getWidth());
+		results.setHeight(report.getPage().getHeight() - 40);
+		report.getPage().addContentBox(results);
+		
+		ContentBox footer = new ContentBox();
+		footer.setContentRenderer(new WabitLabel("Page ${page_number} of ${page_count}"));
+		footer.setX(0);
+		footer.setY(report.getPage().getHeight() - 30);
+		footer.setWidth(report.getPage().getWidth());
+		footer.setHeight(20);
+		report.getPage().addContentBox(footer);
+		
+		getWorkspace().addReport(report);
+		return report;
+	}
+
+	/**
+	 * Executes the given SQL and returns its whole result in memory.
+	 */
+	public CachedRowSet executeQuery(String sql) throws SQLException {
+		Connection con = dataSource.createConnection();
+		try {
+			Statement stmt = con.createStatement();
+			CachedRowSet rs = new CachedRowSet();
+			rs.populate(stmt.executeQuery(sql));
+			stmt.close();
+			return rs;
+		} finally {
+			con.close();
+		}
+	}
+
+	/**
+	 * Drops the sales table and closes the fixture's session context.
+	 */
+	public void close() throws SQLException {
+		Connection con = dataSource.createConnection();
+		try {
+			Statement stmt = con.createStatement();
+			stmt.execute("drop table " + TABLE_NAME + " if exists");
+			stmt.close();
+		} finally {
+			con.close();
+		}
+		context.close();
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public PlDotIni getPlIni() {
+		return plIni;
+	}
+
+	public JDBCDataSource getDataSource() {
+		return dataSource;
+	}
+
+	public WabitSessionContextImpl getContext() {
+		return context;
+	}
+
+	public WabitSession getSession() {
+		return session;
+	}
+
+	public WabitWorkspace getWorkspace() {
+		return session.getWorkspace();
+	}
+}
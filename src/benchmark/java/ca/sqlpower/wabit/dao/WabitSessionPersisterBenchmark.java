@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.dao;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.sqlpower.wabit.WabitSession;
+import ca.sqlpower.wabit.benchmark.BenchmarkFixture;
+import ca.sqlpower.wabit.dao.session.WorkspacePersisterListener;
+import ca.sqlpower.wabit.rs.query.QueryCache;
+
+/**
+ * Measures persisting a whole workspace into an empty session through a
+ * {@link WabitSessionPersister}, which is what a server does when a client
+ * uploads a workspace. The persist calls are made by a
+ * {@link WorkspacePersisterListener} and the measured time includes the
+ * persister's commit, where the objects are actually created.
+ * <p>
+ * As with {@link WorkspaceXMLDAOBenchmark} the parameter is the number of
+ * reports in the workspace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {
+		"-Djava.awt.headless=true", 
+		"-Dca.sqlpower.wabit.rs.ResultSetHandle.headless=true"})
+public class WabitSessionPersisterBenchmark {
+
+	@Param({"1", "10", "100"})
+	private int reportCount;
+
+	private BenchmarkFixture fixture;
+
+	/**
+	 * The session the workspace gets persisted into. A new one is made for
+	 * every invocation as a workspace can only be persisted once.
+	 */
+	private WabitSession targetSession;
+
+	private WorkspacePersisterListener listener;
+
+	@Setup
+	public void setUp() throws Exception {
+		fixture = new BenchmarkFixture(100);
+		QueryCache query = fixture.createQuery(BenchmarkFixture.SELECT_ALL);
+		for (int i = 0; i < reportCount; i++) {
+			fixture.createReport("Report " + i, query);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void createTarget() {
+		targetSession = fixture.getContext().createSession();
+		WabitSessionPersister persister = new WabitSessionPersister(
+				"benchmark target", targetSession, targetSession.getWorkspace(), true);
+		listener = new WorkspacePersisterListener(fixture.getSession(), persister, true);
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeTarget() {
+		targetSession.close();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@Benchmark
+	public WabitSession persistWorkspace() {
+		listener.persistObject(fixture.getWorkspace());
+		return targetSession;
+	}
+}
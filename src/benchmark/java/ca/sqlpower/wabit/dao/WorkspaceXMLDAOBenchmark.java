@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.sqlpower.wabit.WabitSession;
+import ca.sqlpower.wabit.benchmark.BenchmarkFixture;
+import ca.sqlpower.wabit.rs.query.QueryCache;
+
+/**
+ * Measures saving a workspace to XML with {@link WorkspaceXMLDAO} and loading
+ * it back with {@link OpenWorkspaceXMLDAO}. The size of a saved workspace
+ * depends on the objects in it rather than on the rows its queries return,
+ * so the parameter here is the number of reports, each with a result set
+ * and a label.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {
+		"-Djava.awt.headless=true", 
+		"-Dca.sqlpower.wabit.rs.ResultSetHandle.headless=true"})
+public class WorkspaceXMLDAOBenchmark {
+
+	@Param({"1", "10", "100"})
+	private int reportCount;
+
+	private BenchmarkFixture fixture;
+
+	/**
+	 * The saved workspace, loaded by {@link #load()}.
+	 */
+	private byte[] savedWorkspace;
+
+	@Setup
+	public void setUp() throws Exception {
+		fixture = new BenchmarkFixture(100);
+		QueryCache query = fixture.createQuery(BenchmarkFixture.SELECT_ALL);
+		for (int i = 0; i < reportCount; i++) {
+			fixture.createReport("Report " + i, query);
+		}
+		savedWorkspace = save().toByteArray();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream save() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new WorkspaceXMLDAO(out, fixture.getContext()).saveActiveWorkspace();
+		return out;
+	}
+
+	@Benchmark
+	public WabitSession load() {
+		OpenWorkspaceXMLDAO dao = new OpenWorkspaceXMLDAO(fixture.getContext(), 
+				new ByteArrayInputStream(savedWorkspace), savedWorkspace.length);
+		WabitSession session = dao.openWorkspaces();
+		session.close();
+		return session;
+	}
+}
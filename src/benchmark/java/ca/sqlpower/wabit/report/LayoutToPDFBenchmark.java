@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.sqlpower.object.SPVariableHelper;
+import ca.sqlpower.wabit.benchmark.BenchmarkFixture;
+import ca.sqlpower.wabit.rs.ResultSetEvent;
+import ca.sqlpower.wabit.rs.ResultSetListener;
+import ca.sqlpower.wabit.rs.query.QueryCache;
+
+/**
+ * Measures writing a report with a result set of the fixture's sales to PDF,
+ * which includes laying out the result set and counting its pages. The query
+ * is executed once before measuring, as a printed report reuses the results
+ * it already has.
+ * <p>
+ * The parallelism parameter compares writing the pages on the calling thread
+ * with rendering them on {@link LayoutToPDF#setParallelism(int) render lanes}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {
+		"-Djava.awt.headless=true", 
+		"-Dca.sqlpower.wabit.rs.ResultSetHandle.headless=true"})
+public class LayoutToPDFBenchmark {
+
+	/**
+	 * Discards the PDF, only its size is kept.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		
+		private long count;
+		
+		@Override
+		public void write(int b) {
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	@Param({"1000", "10000", "100000"})
+	private int rowCount;
+
+	@Param({"1", "4"})
+	private int parallelism;
+
+	private BenchmarkFixture fixture;
+
+	private Report report;
+
+	@Setup
+	public void setUp() throws Exception {
+		fixture = new BenchmarkFixture(rowCount);
+		QueryCache query = fixture.createQuery(BenchmarkFixture.SELECT_ALL);
+		report = fixture.createReport("Sales", query);
+		query.execute(new SPVariableHelper(report), new ResultSetListener() {
+			public void executionComplete(ResultSetEvent evt) {
+				// not interested
+			}
+			public void executionStarted(ResultSetEvent evt) {
+				// not interested
+			}
+			public void newData(ResultSetEvent evt) {
+				// not interested
+			}
+		}, false);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@Benchmark
+	public long writePDF() throws Exception {
+		CountingOutputStream out = new CountingOutputStream();
+		LayoutToPDF pdfMaker = new LayoutToPDF(out, report, null);
+		pdfMaker.setParallelism(parallelism);
+		pdfMaker.writePDF();
+		return out.count;
+	}
+}
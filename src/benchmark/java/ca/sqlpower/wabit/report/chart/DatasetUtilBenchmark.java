@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.chart;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.data.category.CategoryDataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.wabit.benchmark.BenchmarkFixture;
+
+/**
+ * Measures turning a result set into the data set of a bar chart, with one
+ * category per product and the quantity and price columns as series. As
+ * there is a product for every ten rows this also shows how the cost of
+ * finding a row's category grows with the number of categories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class DatasetUtilBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	private int rowCount;
+
+	private BenchmarkFixture fixture;
+
+	private CachedRowSet resultSet;
+
+	private final List<ChartColumn> columns = new ArrayList<ChartColumn>();
+
+	private List<ChartColumn> categoryColumns;
+
+	@Setup
+	public void setUp() throws Exception {
+		fixture = new BenchmarkFixture(rowCount);
+		resultSet = fixture.executeQuery(BenchmarkFixture.SELECT_ALL);
+
+		ChartColumn product = new ChartColumn("PRODUCT", Types.VARCHAR);
+		product.setRoleInChart(ColumnRole.CATEGORY);
+		columns.add(product);
+		ChartColumn quantity = new ChartColumn("QUANTITY", Types.INTEGER);
+		quantity.setRoleInChart(ColumnRole.SERIES);
+		columns.add(quantity);
+		ChartColumn price = new ChartColumn("PRICE", Types.DECIMAL);
+		price.setRoleInChart(ColumnRole.SERIES);
+		columns.add(price);
+		categoryColumns = Collections.singletonList(product);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+
+	@Benchmark
+	public CategoryDataset createCategoryDataset() {
+		return DatasetUtil.createCategoryDataset(columns, resultSet, categoryColumns);
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.resultset;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.wabit.benchmark.BenchmarkFixture;
+import ca.sqlpower.wabit.report.ColumnInfo;
+import ca.sqlpower.wabit.report.DataType;
+import ca.sqlpower.wabit.report.ColumnInfo.GroupAndBreak;
+import ca.sqlpower.wabit.report.ResultSetRenderer.BorderStyles;
+
+/**
+ * Measures laying out a result set into report cells the way a
+ * {@link ca.sqlpower.wabit.report.ResultSetRenderer} does, grouped by region
+ * with subtotals and grand totals on the quantity and price columns.
+ * <p>
+ * Counting the pages is measured separately from creating the cells of every
+ * page as the renderer only does the latter for pages that get rendered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class ReportPositionRendererBenchmark {
+
+	/**
+	 * The height of the content box the result set is laid out in, about
+	 * the height of a letter page less its margins.
+	 */
+	private static final double BOX_HEIGHT = 650;
+
+	@Param({"1000", "10000", "100000"})
+	private int rowCount;
+
+	private BenchmarkFixture fixture;
+
+	private CachedRowSet resultSet;
+
+	private List<ColumnInfo> columns;
+
+	private Graphics2D graphics;
+
+	@Setup
+	public void setUp() throws Exception {
+		fixture = new BenchmarkFixture(rowCount);
+		resultSet = fixture.executeQuery(BenchmarkFixture.SELECT_ALL);
+
+		columns = new ArrayList<ColumnInfo>();
+		ColumnInfo region = new ColumnInfo("REGION", "Region");
+		region.setWillGroupOrBreak(GroupAndBreak.GROUP);
+		columns.add(region);
+		columns.add(new ColumnInfo("PRODUCT", "Product"));
+		ColumnInfo quantity = new ColumnInfo("QUANTITY", "Quantity");
+		quantity.setDataType(DataType.NUMERIC);
+		quantity.setWillSubtotal(true);
+		columns.add(quantity);
+		ColumnInfo price = new ColumnInfo("PRICE", "Price");
+		price.setDataType(DataType.NUMERIC);
+		price.setWillSubtotal(true);
+		columns.add(price);
+		ColumnInfo sold = new ColumnInfo("SOLD", "Sold");
+		sold.setDataType(DataType.DATE);
+		columns.add(sold);
+
+		graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		graphics.dispose();
+		fixture.close();
+	}
+
+	private ReportPositionRenderer createRenderer() {
+		return new ReportPositionRenderer(
+				new Font("SansSerif", Font.BOLD, 10), 
+				new Font("SansSerif", Font.PLAIN, 10), 
+				Color.BLACK, 
+				Color.BLACK, 
+				BorderStyles.NONE, 
+				500, 
+				"");
+	}
+
+	@Benchmark
+	public int countPages() throws SQLException {
+		return createRenderer().createPagedLayout(
+				graphics, resultSet, columns, BOX_HEIGHT, true).getPageCount();
+	}
+
+	@Benchmark
+	public List<List<ResultSetCell>> layoutAllPages() throws SQLException {
+		return createRenderer().createPagedLayout(
+				graphics, resultSet, columns, BOX_HEIGHT, true).getAllPageCells(graphics);
+	}
+}
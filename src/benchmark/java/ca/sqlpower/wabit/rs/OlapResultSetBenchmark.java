@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapStatement;
+import org.olap4j.OlapWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.sqlpower.wabit.benchmark.BenchmarkFixture;
+
+/**
+ * Measures flattening a Mondrian cell set into an {@link OlapResultSet}. The
+ * cube is defined inline over the fixture's sales table and the query cross
+ * joins regions with products, so the cell set has a row for every region
+ * and product pair.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class OlapResultSetBenchmark {
+
+	private static final String SCHEMA =
+		"<Schema name='Benchmark'>" +
+		" <Cube name='Sales'>" +
+		"  <Table name='" + BenchmarkFixture.TABLE_NAME + "'/>" +
+		"  <Dimension name='Region'>" +
+		"   <Hierarchy hasAll='true'>" +
+		"    <Level name='Region' column='REGION' uniqueMembers='true'/>" +
+		"   </Hierarchy>" +
+		"  </Dimension>" +
+		"  <Dimension name='Product'>" +
+		"   <Hierarchy hasAll='true'>" +
+		"    <Level name='Product' column='PRODUCT' uniqueMembers='true'/>" +
+		"   </Hierarchy>" +
+		"  </Dimension>" +
+		"  <Measure name='Quantity' column='QUANTITY' aggregator='sum'/>" +
+		"  <Measure name='Price' column='PRICE' aggregator='avg'/>" +
+		" </Cube>" +
+		"</Schema>";
+
+	private static final String MDX =
+		"SELECT {[Measures].[Quantity], [Measures].[Price]} ON COLUMNS, " +
+		"NON EMPTY CrossJoin([Region].[Region].Members, [Product].[Product].Members) ON ROWS " +
+		"FROM [Sales]";
+
+	@Param({"1000", "10000", "100000"})
+	private int rowCount;
+
+	private BenchmarkFixture fixture;
+
+	private Connection connection;
+
+	private CellSet cellSet;
+
+	@Setup
+	public void setUp() throws Exception {
+		fixture = new BenchmarkFixture(rowCount);
+
+		Class.forName("mondrian.olap4j.MondrianOlap4jDriver");
+		connection = DriverManager.getConnection(
+				"jdbc:mondrian:Jdbc=" + fixture.getDataSource().getUrl() + 
+				";JdbcUser=" + fixture.getDataSource().getUser() + 
+				";JdbcPassword=" + fixture.getDataSource().getPass() + 
+				";JdbcDrivers=" + fixture.getDataSource().getDriverClass() + 
+				";CatalogContent=" + SCHEMA);
+		OlapConnection olapConnection = 
+			((OlapWrapper) connection).unwrap(OlapConnection.class);
+		OlapStatement statement = olapConnection.createStatement();
+		cellSet = statement.executeOlapQuery(MDX);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		cellSet.close();
+		connection.close();
+		fixture.close();
+	}
+
+	@Benchmark
+	public OlapResultSet populate() throws SQLException {
+		OlapResultSet resultSet = new OlapResultSet();
+		resultSet.populate(cellSet);
+		return resultSet;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.sqlpower.object.SPVariableHelper;
+import ca.sqlpower.wabit.benchmark.BenchmarkFixture;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
+
+/**
+ * Measures executing a query and copying its rows into the
+ * {@link ca.sqlpower.sql.CachedRowSet} or {@link ColumnarResultSet} of a new
+ * {@link ResultSetHandle}, the first stage of every report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {
+		"-Djava.awt.headless=true", 
+		"-Dca.sqlpower.wabit.rs.ResultSetHandle.headless=true"})
+public class ResultSetHandleBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	private int rowCount;
+	
+	@Param({"RELATIONAL", "COLUMNAR"})
+	private ResultSetType type;
+	
+	private BenchmarkFixture fixture;
+	
+	private SPVariableHelper variables;
+	
+	@Setup
+	public void setUp() throws Exception {
+		fixture = new BenchmarkFixture(rowCount);
+		variables = new SPVariableHelper(fixture.getWorkspace());
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception {
+		fixture.close();
+	}
+	
+	@Benchmark
+	public ResultSet populate() {
+		ResultSetHandle handle = new ResultSetHandle(
+				fixture.getContext(), 
+				fixture.getDataSource(), 
+				BenchmarkFixture.SELECT_ALL, 
+				variables, 
+				type, 
+				rowCount, 
+				null);
+		handle.populate(false);
+		return handle.getResultSet();
+	}
+}
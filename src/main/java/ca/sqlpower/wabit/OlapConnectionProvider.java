@@ -43,8 +43,26 @@ public interface OlapConnectionProvider {
     public OlapConnection createConnection(Olap4jDataSource dataSource) 
     		throws SQLException, ClassNotFoundException, NamingException;
     
+    /**
+     * Creates a statement for the given MDX query with its variables
+     * substituted in. The statement may be given a connection of its own,
+     * once the caller is done with the statement it must pass the statement's
+     * connection to {@link #releaseConnection(Olap4jDataSource, OlapConnection, boolean)}.
+     */
     public PreparedOlapStatement createPreparedStatement(
     		Olap4jDataSource dataSource,
     		String mdx,
     		SPVariableHelper helper);
+
+    /**
+     * Releases the connection of a statement created by
+     * {@link #createPreparedStatement(Olap4jDataSource, String, SPVariableHelper)}.
+     * Providers that share one connection between all statements can ignore
+     * this call.
+     * 
+     * @param broken
+     *            True if the connection failed while it was used and should
+     *            not be used again.
+     */
+    public void releaseConnection(Olap4jDataSource dataSource, OlapConnection connection, boolean broken);
 }
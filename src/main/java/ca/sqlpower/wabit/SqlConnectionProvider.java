@@ -35,6 +35,12 @@ public interface SqlConnectionProvider extends SQLDatabaseMapping {
 	 */
 	public Connection createConnection(JDBCDataSource dataSource) throws SQLObjectException; 
 	
+	/**
+	 * Creates a statement for the given query with its variables substituted
+	 * in. The statement gets a connection of its own, the caller must close
+	 * the statement's connection once it is done with the statement to release
+	 * the connection.
+	 */
 	public PreparedStatement createPreparedStatement(
 			JDBCDataSource dataSource,
 			String sql,
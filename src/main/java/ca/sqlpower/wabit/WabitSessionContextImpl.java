@@ -59,9 +59,11 @@ import ca.sqlpower.util.DefaultUserPrompter;
 import ca.sqlpower.util.UserPrompter;
 import ca.sqlpower.util.UserPrompter.UserPromptOptions;
 import ca.sqlpower.util.UserPrompter.UserPromptResponse;
+import ca.sqlpower.wabit.enterprise.client.HttpClientRegistry;
 import ca.sqlpower.wabit.enterprise.client.WabitClientSession;
 import ca.sqlpower.wabit.enterprise.client.WorkspaceLocation;
 import ca.sqlpower.wabit.rs.olap.OlapConnectionPool;
+import ca.sqlpower.wabit.rs.query.JDBCConnectionPool;
 
 /**
  * This is the canonical headless implementation of WabitSessionContext
@@ -103,10 +105,14 @@ public class WabitSessionContextImpl implements WabitSessionContext {
      * The connection pools we've created due to calling {@link #createConnection(Olap4jDataSource)}.
      */
     private final Map<Olap4jDataSource, OlapConnectionPool> olapConnectionPools = 
-    		new HashMap<Olap4jDataSource, OlapConnectionPool>();
+    		Collections.synchronizedMap(new HashMap<Olap4jDataSource, OlapConnectionPool>());
     
-    private final Map<JDBCDataSource, Connection> sqlConnections = 
-        	new HashMap<JDBCDataSource, Connection>();
+    /**
+     * The connection pools we've created for the queries executed through
+     * {@link #createPreparedStatement(JDBCDataSource, String, SPVariableHelper)}.
+     */
+    private final Map<JDBCDataSource, JDBCConnectionPool> sqlConnectionPools = 
+        	Collections.synchronizedMap(new HashMap<JDBCDataSource, JDBCConnectionPool>());
     
     /**
      * The database instances we've created due to calls to {@link #getDatabase(SPDataSource)}.
@@ -281,12 +287,25 @@ public class WabitSessionContextImpl implements WabitSessionContext {
 	            logger.error("Couldn't save PL.INI file!", e); //$NON-NLS-1$
 	        }
 	    }
-	    for (Entry<JDBCDataSource, Connection> entry : this.sqlConnections.entrySet()) {
-	    	try {
-				entry.getValue().close();
-			} catch (SQLException e) {
-				logger.error(e);
-			}
+	    synchronized (sqlConnectionPools) {
+	    	for (Entry<JDBCDataSource, JDBCConnectionPool> entry : sqlConnectionPools.entrySet()) {
+	    		try {
+	    			entry.getValue().close();
+	    		} catch (SQLException e) {
+	    			logger.error(e);
+	    		}
+	    	}
+	    	sqlConnectionPools.clear();
+	    }
+	    synchronized (olapConnectionPools) {
+	    	for (OlapConnectionPool pool : olapConnectionPools.values()) {
+	    		try {
+	    			pool.disconnect();
+	    		} catch (SQLException e) {
+	    			logger.error(e);
+	    		}
+	    	}
+	    	olapConnectionPools.clear();
 	    }
 	    if (writeDSCollectionPathToPrefs) {
 	    	prefs.put(PREFS_PL_INI_PATH, getPlDotIniPath());
@@ -299,6 +318,9 @@ public class WabitSessionContextImpl implements WabitSessionContext {
 				return;
 			}
 		}
+		// Server sessions send their last changes and close themselves on
+		// the server as they close so the clients are shut down after them.
+		HttpClientRegistry.shutdownAll();
 	}
 	
 	/**
@@ -410,9 +432,34 @@ public class WabitSessionContextImpl implements WabitSessionContext {
         return Collections.unmodifiableList(childSessions);
     }
 
+    /**
+     * Borrows a connection from the data source's pool. The connection must
+     * be closed to return it to the pool.
+     */
     public Connection borrowConnection(JDBCDataSource dataSource)
             throws SQLObjectException {
-        return getDatabase(dataSource).getConnection();
+        if (dataSource == null) return null;
+        try {
+            return getConnectionPool(dataSource).getConnection();
+        } catch (SQLException e) {
+            throw new SQLObjectException(e);
+        }
+    }
+
+    /**
+     * Returns the connection pool for the given data source, creating it the
+     * first time it is asked for.
+     */
+    private JDBCConnectionPool getConnectionPool(JDBCDataSource dataSource) {
+        synchronized (sqlConnectionPools) {
+            JDBCConnectionPool pool = sqlConnectionPools.get(dataSource);
+            if (pool == null) {
+                dataSource = new JDBCDataSource(dataSource);  // defensive copy for cache key
+                pool = new JDBCConnectionPool(dataSource);
+                sqlConnectionPools.put(dataSource, pool);
+            }
+            return pool;
+        }
     }
 
     public int getRowLimit() {
@@ -456,21 +503,45 @@ public class WabitSessionContextImpl implements WabitSessionContext {
     		throws SQLException, ClassNotFoundException, NamingException 
 	{
         if (dataSource == null) return null;
-        OlapConnectionPool olapConnectionPool = olapConnectionPools.get(dataSource);
-        if (olapConnectionPool == null) {
-            olapConnectionPool = new OlapConnectionPool(dataSource, this);
-            olapConnectionPools.put(dataSource, olapConnectionPool);
+        return getOlapConnectionPool(dataSource).getConnection();
+    }
+
+    /**
+     * Returns the connection pool for the given data source, creating it the
+     * first time it is asked for.
+     */
+    private OlapConnectionPool getOlapConnectionPool(Olap4jDataSource dataSource) 
+    		throws SQLException, ClassNotFoundException, NamingException 
+    {
+        synchronized (olapConnectionPools) {
+            OlapConnectionPool olapConnectionPool = olapConnectionPools.get(dataSource);
+            if (olapConnectionPool == null) {
+                olapConnectionPool = new OlapConnectionPool(dataSource, this);
+                olapConnectionPools.put(dataSource, olapConnectionPool);
+            }
+            return olapConnectionPool;
         }
-        return olapConnectionPool.getConnection();
     }
     
+    /**
+     * Prepares the statement on a connection borrowed from the data source's
+     * pool so queries on the same cube do not wait on each other.
+     */
     public PreparedOlapStatement createPreparedStatement(
     		Olap4jDataSource dataSource, String mdx, SPVariableHelper helper) 
     {
+    	OlapConnectionPool pool = null;
+    	OlapConnection conn = null;
     	try {
-    		OlapConnection conn = createConnection(dataSource);
+    		pool = getOlapConnectionPool(dataSource);
+    		conn = pool.borrowConnection();
+    		if (conn == null) {
+    			throw new IllegalStateException("The data source " + dataSource.getName() + 
+    					" is missing its Mondrian schema or its relational data source.");
+    		}
 			return helper.substituteForDb(conn, mdx);
 		} catch (SQLException e) {
+			if (conn != null) pool.returnConnection(conn, false);
 			throw new RuntimeException(e);
 		} catch (ClassNotFoundException e) {
 			throw new RuntimeException(e);
@@ -479,35 +550,37 @@ public class WabitSessionContextImpl implements WabitSessionContext {
 		}
     }
     
+    public void releaseConnection(Olap4jDataSource dataSource, OlapConnection connection, boolean broken) {
+    	if (dataSource == null || connection == null) return;
+    	OlapConnectionPool pool = olapConnectionPools.get(dataSource);
+    	if (pool != null) {
+    		pool.returnConnection(connection, broken);
+    	}
+    }
+    
     public Connection createConnection(JDBCDataSource dataSource) throws SQLObjectException {
     	if (dataSource == null) return null;
     	return getDatabase(dataSource).getConnection();
     }
     
+    /**
+     * Prepares the statement on a connection borrowed from the data source's
+     * pool. Closing the statement's connection returns it to the pool.
+     */
     public PreparedStatement createPreparedStatement(
 			JDBCDataSource dataSource,
 			String sql,
 			SPVariableHelper helper) throws SQLObjectException 
 	{
-    	Connection conn = this.sqlConnections.get(dataSource);
-    	if (conn == null) {
-    		conn = getDatabase(dataSource).getConnection();
-    		this.sqlConnections.put(dataSource, conn);
-    	} else
-			try {
-				if (conn.isClosed()) {
-					this.sqlConnections.remove(dataSource);
-					conn = getDatabase(dataSource).getConnection();
-					this.sqlConnections.put(dataSource, conn);
-				}
-			} catch (SQLException e1) {
-				// TODO Auto-generated catch block
-				throw new SQLObjectException(e1);
-			}
-    	
+    	Connection conn = borrowConnection(dataSource);
     	try {
 			return helper.substituteForDb(conn, sql);
 		} catch (SQLException e) {
+			try {
+				conn.close();
+			} catch (SQLException ex) {
+				logger.error("Could not return a connection to the pool", ex);
+			}
 			throw new SQLObjectException(e);
 		}
     }
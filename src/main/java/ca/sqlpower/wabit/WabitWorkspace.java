@@ -19,6 +19,7 @@
 
 package ca.sqlpower.wabit;
 
+import java.beans.PropertyChangeEvent;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,9 +30,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.event.UndoableEditListener;
 
@@ -40,6 +44,8 @@ import org.apache.log4j.Logger;
 import ca.sqlpower.enterprise.client.Group;
 import ca.sqlpower.enterprise.client.User;
 import ca.sqlpower.object.ObjectDependentException;
+import ca.sqlpower.object.SPChildEvent;
+import ca.sqlpower.object.SPListener;
 import ca.sqlpower.object.SPObject;
 import ca.sqlpower.object.SPSimpleVariableResolver;
 import ca.sqlpower.object.SPVariableResolver;
@@ -51,6 +57,7 @@ import ca.sqlpower.sql.JDBCDataSourceType;
 import ca.sqlpower.sql.SPDataSource;
 import ca.sqlpower.sqlobject.UserDefinedSQLType;
 import ca.sqlpower.util.SQLPowerUtils;
+import ca.sqlpower.util.TransactionEvent;
 import ca.sqlpower.wabit.enterprise.client.ReportTask;
 import ca.sqlpower.wabit.image.WabitImage;
 import ca.sqlpower.wabit.report.Report;
@@ -156,6 +163,51 @@ public class WabitWorkspace extends AbstractWabitObject implements DataSourceCol
     private WabitSession session;
 
     private final SPSimpleVariableResolver variableResolver;
+
+	/**
+	 * Every object in this workspace, including the workspace itself, by
+	 * UUID. This makes {@link #findByUuid(String, Class)} a constant time
+	 * lookup instead of a walk of the whole tree, which matters to the
+	 * persisters that look up an object for every call they receive. The
+	 * index is kept up to date by {@link #uuidIndexListener}, which listens
+	 * to every object in the workspace. It is read from other threads than
+	 * the one modifying the workspace, such as the server's persister
+	 * threads.
+	 */
+    private final Map<String, SPObject> uuidIndex = new ConcurrentHashMap<String, SPObject>();
+
+	/**
+	 * Adds the objects added to the workspace to {@link #uuidIndex}, removes
+	 * the ones removed from it and follows the objects whose UUID changes.
+	 */
+    private final SPListener uuidIndexListener = new SPListener() {
+    	public void childAdded(SPChildEvent e) {
+    		addToUuidIndex(e.getChild());
+    	}
+    	public void childRemoved(SPChildEvent e) {
+    		removeFromUuidIndex(e.getChild());
+    	}
+    	public void propertyChanged(PropertyChangeEvent evt) {
+    		if (!"UUID".equalsIgnoreCase(evt.getPropertyName())) return;
+    		SPObject source = (SPObject) evt.getSource();
+    		Object oldUUID = evt.getOldValue();
+    		if (oldUUID != null && uuidIndex.get(oldUUID) == source) {
+    			uuidIndex.remove(oldUUID);
+    		}
+    		if (source.getUUID() != null) {
+    			uuidIndex.put(source.getUUID(), source);
+    		}
+    	}
+    	public void transactionStarted(TransactionEvent e) {
+    		// The index follows every change as it happens.
+    	}
+    	public void transactionEnded(TransactionEvent e) {
+    		// The index follows every change as it happens.
+    	}
+    	public void transactionRollback(TransactionEvent e) {
+    		// The index follows every change as it happens.
+    	}
+    };
     
     private class WorkspaceVariableResolver extends SPSimpleVariableResolver {
 		public WorkspaceVariableResolver(SPObject owner, String namespace, String userFriendlyName) {
@@ -261,8 +313,81 @@ public class WabitWorkspace extends AbstractWabitObject implements DataSourceCol
     public WabitWorkspace() {
         listeners = new ArrayList<DatabaseListChangeListener>();
         this.variableResolver = new WorkspaceVariableResolver(this, this.getUUID(), "Workspace - " + this.getName());
+        addToUuidIndex(this);
 		setName(DEFAULT_NAME);
     }
+
+	/**
+	 * Indexes the given object and its descendants by UUID and starts
+	 * following their changes.
+	 */
+    private void addToUuidIndex(SPObject object) {
+    	SQLPowerUtils.unlistenToHierarchy(object, uuidIndexListener);
+    	SQLPowerUtils.listenToHierarchy(object, uuidIndexListener);
+    	putInUuidIndex(object);
+    }
+    
+    private void putInUuidIndex(SPObject object) {
+    	if (object.getUUID() != null) {
+    		uuidIndex.put(object.getUUID(), object);
+    	}
+    	for (SPObject child : object.getChildren()) {
+    		putInUuidIndex(child);
+    	}
+    }
+    
+    /**
+     * Removes the given object and its descendants from the UUID index.
+     */
+    private void removeFromUuidIndex(SPObject object) {
+    	SQLPowerUtils.unlistenToHierarchy(object, uuidIndexListener);
+    	removeHierarchyFromUuidIndex(object);
+    }
+    
+    private void removeHierarchyFromUuidIndex(SPObject object) {
+    	if (object.getUUID() != null && uuidIndex.get(object.getUUID()) == object) {
+    		uuidIndex.remove(object.getUUID());
+    	}
+    	for (SPObject child : object.getChildren()) {
+    		removeHierarchyFromUuidIndex(child);
+    	}
+    }
+
+	/**
+	 * Compares the UUID index used by {@link #findByUuid(String, Class)} to
+	 * the objects actually in this workspace. This walks the whole tree and
+	 * is meant for tests.
+	 * 
+	 * @return A description of each difference found, empty if the index is
+	 *         consistent with the tree.
+	 */
+    public List<String> checkUuidIndex() {
+    	List<String> problems = new ArrayList<String>();
+    	Map<SPObject, Boolean> inTree = new IdentityHashMap<SPObject, Boolean>();
+    	checkUuidIndex(this, inTree, problems);
+    	for (Map.Entry<String, SPObject> entry : uuidIndex.entrySet()) {
+    		if (!inTree.containsKey(entry.getValue())) {
+    			problems.add("The index has " + entry.getValue() + " under " + entry.getKey() + 
+    					" but it is not in the workspace.");
+    		} else if (!entry.getKey().equals(entry.getValue().getUUID())) {
+    			problems.add("The index has " + entry.getValue() + " under " + entry.getKey() + 
+    					" but its UUID is " + entry.getValue().getUUID() + ".");
+    		}
+    	}
+    	return problems;
+    }
+    
+    private void checkUuidIndex(SPObject object, Map<SPObject, Boolean> inTree, List<String> problems) {
+    	inTree.put(object, Boolean.TRUE);
+    	SPObject indexed = uuidIndex.get(object.getUUID());
+    	if (indexed != object) {
+    		problems.add("The index has " + indexed + " under " + object.getUUID() + 
+    				" instead of " + object + ".");
+    	}
+    	for (SPObject child : object.getChildren()) {
+    		checkUuidIndex(child, inTree, problems);
+    	}
+    }
     
     public List<SPObject> getChildren() {
     	List<SPObject> allChildren = new ArrayList<SPObject>();
@@ -912,7 +1037,9 @@ public class WabitWorkspace extends AbstractWabitObject implements DataSourceCol
     /**
      * Locates the WabitObject inside this workspace which has the given UUID,
      * returning null if the item is not found. Throws ClassCastException if in
-     * item is found, but it is not of the expected type.
+     * item is found, but it is not of the expected type. The objects are
+     * looked up in an index kept as the workspace changes, see
+     * {@link #checkUuidIndex()}.
      * 
      * @param <T>
      *            The expected type of the item
@@ -927,7 +1054,10 @@ public class WabitWorkspace extends AbstractWabitObject implements DataSourceCol
      *         workspace.
      */
     public <T extends SPObject> T findByUuid(String uuid, Class<T> expectedType) {
-        return SQLPowerUtils.findByUuid(this, uuid, expectedType);
+    	if (uuid == null) return null;
+    	SPObject object = uuidIndex.get(uuid);
+    	if (object == null) return null;
+        return expectedType.cast(object);
     }
 
     @Override
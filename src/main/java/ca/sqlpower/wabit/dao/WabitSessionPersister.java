@@ -85,6 +85,7 @@ import ca.sqlpower.wabit.dao.session.WabitSessionPersisterSuperConverter;
 import ca.sqlpower.wabit.dao.session.WorkspacePersisterListener;
 import ca.sqlpower.wabit.enterprise.client.ReportTask;
 import ca.sqlpower.wabit.image.WabitImage;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.report.CellSetRenderer;
 import ca.sqlpower.wabit.report.ChartRenderer;
 import ca.sqlpower.wabit.report.ColumnInfo;
@@ -197,8 +198,8 @@ public class WabitSessionPersister implements SPPersister {
 	 */
 	protected final Comparator<String> removedObjectComparator = new Comparator<String>() {
 		public int compare(String uuid1, String uuid2) {
-			SPObject spo1 = SQLPowerUtils.findByUuid(root, uuid1, SPObject.class);
-			SPObject spo2 = SQLPowerUtils.findByUuid(root, uuid2, SPObject.class);
+			SPObject spo1 = findByUuid(uuid1, SPObject.class);
+			SPObject spo2 = findByUuid(uuid2, SPObject.class);
 			
 			if (uuid1.equals(uuid2)) {
 				return 0;
@@ -326,6 +327,18 @@ public class WabitSessionPersister implements SPPersister {
 	 */
 	private final WabitObject root;
 
+	/**
+	 * Returns the object under {@link #root} with the given UUID, or null.
+	 * Workspaces keep an index of their objects by UUID, other roots are
+	 * searched.
+	 */
+	private <T extends SPObject> T findByUuid(String uuid, Class<T> expectedType) {
+		if (root instanceof WabitWorkspace) {
+			return ((WabitWorkspace) root).findByUuid(uuid, expectedType);
+		}
+		return SQLPowerUtils.findByUuid(root, uuid, expectedType);
+	}
+
 	/**
 	 * Name of this persister (for debugging purposes).
 	 */
@@ -452,7 +465,7 @@ public class WabitSessionPersister implements SPPersister {
 
 		// Iterate through list of existing WabitObjects in the workspace and
 		// build the rest of the ancestor list.
-		SPObject spo = SQLPowerUtils.findByUuid(root, uuid, SPObject.class);
+		SPObject spo = findByUuid(uuid, SPObject.class);
 		if (spo != null) {
 			resultList.add(0, createPersistedObjectFromSPObject(spo));
 			List<SPObject> ancestorList = SQLPowerUtils.getAncestorList(spo);
@@ -616,8 +629,7 @@ public class WabitSessionPersister implements SPPersister {
 		for (PersistedSPObject pwo : orderedPersistedObjects) {
 			if (pwo.isLoaded())
 				continue;
-			SPObject parent = SQLPowerUtils.findByUuid(root, pwo
-					.getParentUUID(), SPObject.class);
+			SPObject parent = findByUuid(pwo.getParentUUID(), SPObject.class);
 			SPObject spo = loadWabitObject(pwo);
 			if (spo != null) {
 				SPListener removeChildOnAddListener = new AbstractSPListener() {
@@ -1049,8 +1061,7 @@ public class WabitSessionPersister implements SPPersister {
 	 */
 	private boolean exists(String uuid) {
 		return (!objectsToRemove.containsKey(uuid) && (persistedObjects
-				.containsKey(uuid) || SQLPowerUtils.findByUuid(root, uuid,
-				SPObject.class) != null));
+				.containsKey(uuid) || findByUuid(uuid, SPObject.class) != null));
 	}
 
 	/**
@@ -1085,7 +1096,7 @@ public class WabitSessionPersister implements SPPersister {
 		Object newValue;
 
 		for (String uuid : persistedProperties.keySet()) {
-			spo = SQLPowerUtils.findByUuid(root, uuid, SPObject.class);
+			spo = findByUuid(uuid, SPObject.class);
 			if (spo == null) {
 				throw new IllegalStateException("Couldn't locate object "
 						+ uuid + " in session");
@@ -1216,10 +1227,8 @@ public class WabitSessionPersister implements SPPersister {
 	 */
 	private void commitRemovals() throws SPPersistenceException {
 		for (String uuid : objectsToRemove.keySet()) {
-			SPObject spo = SQLPowerUtils.findByUuid(root, uuid,
-					SPObject.class);
-			SPObject parent = SQLPowerUtils.findByUuid(root, objectsToRemove
-					.get(uuid), SPObject.class);
+			SPObject spo = findByUuid(uuid, SPObject.class);
+			SPObject parent = findByUuid(objectsToRemove.get(uuid), SPObject.class);
 			try {
 				int index = parent.getChildren().indexOf(spo);
 				index -= parent.childPositionOffset(spo.getClass());
@@ -1251,7 +1260,7 @@ public class WabitSessionPersister implements SPPersister {
 			final String parentUuid = entry.getParentUUID();
 			final SPObject objectToRestore = entry.getRemovedChild();
 			final int index = entry.getIndex();
-			final SPObject parent = SQLPowerUtils.findByUuid(root, parentUuid, SPObject.class);
+			final SPObject parent = findByUuid(parentUuid, SPObject.class);
 			try {
 				parent.addChild(objectToRestore, index);
 			} catch (Throwable t) {
@@ -1268,7 +1277,7 @@ public class WabitSessionPersister implements SPPersister {
 				final String parentUuid = entry.getUUID();
 				final String propertyName = entry.getPropertyName();
 				final Object rollbackValue = entry.getRollbackValue();
-				final SPObject parent = SQLPowerUtils.findByUuid(root, parentUuid, SPObject.class);
+				final SPObject parent = findByUuid(parentUuid, SPObject.class);
 				if (parent != null) {
 					this.applyProperty(parent, propertyName, rollbackValue);
 				}
@@ -1286,8 +1295,8 @@ public class WabitSessionPersister implements SPPersister {
 				// We need to verify if the entry specifies a parent.
 				// WabitWorkspaces don't have parents so we can't remove them really...
 				if (entry.getParentId() != null) {
-					final SPObject parent = SQLPowerUtils.findByUuid(root, entry.getParentId(), SPObject.class);
-					final SPObject child = SQLPowerUtils.findByUuid(root, entry.getChildId(), SPObject.class);
+					final SPObject parent = findByUuid(entry.getParentId(), SPObject.class);
+					final SPObject child = findByUuid(entry.getChildId(), SPObject.class);
 					parent.removeChild(child);
 				}
 			} catch (Throwable t) {
@@ -1332,7 +1341,7 @@ public class WabitSessionPersister implements SPPersister {
 				this.rollback();
 				throw new SPPersistenceException("Cannot persist objects while outside a transaction.");
 			}
-			SPObject objectToPersist = SQLPowerUtils.findByUuid(root, uuid, SPObject.class);
+			SPObject objectToPersist = findByUuid(uuid, SPObject.class);
 			boolean isWorkspace= objectToPersist instanceof WabitWorkspace;
 			if (objectToPersist != null && isWorkspace) {
 				//reset now or the next object persisted will fail a few lines down.
@@ -1478,8 +1487,7 @@ public class WabitSessionPersister implements SPPersister {
 		}
 		
 		Object propertyValue = null;
-		SPObject spo = SQLPowerUtils.findByUuid(root, uuid,
-				SPObject.class);
+		SPObject spo = findByUuid(uuid, SPObject.class);
 		
 		if (lastPropertyValueFound != null) {
 			if (!unconditional && !lastPropertyValueFound.equals(oldValue)) {
@@ -1904,6 +1912,9 @@ public class WabitSessionPersister implements SPPersister {
 			return converter.convertToBasicType(query
 					.getExecuteQueriesWithCrossJoins());
 
+		} else if (propertyName.equals("columnarResults")) {
+			return converter.convertToBasicType(query.isColumnarResults());
+
 		} else if (propertyName.equals("dataSource")) {
 			return converter.convertToBasicType(query.getDataSource());
 
@@ -1968,6 +1979,10 @@ public class WabitSessionPersister implements SPPersister {
 			query.setExecuteQueriesWithCrossJoins((Boolean) converter
 					.convertToComplexType(newValue, Boolean.class));
 
+		} else if (propertyName.equals("columnarResults")) {
+			query.setColumnarResults((Boolean) converter
+					.convertToComplexType(newValue, Boolean.class));
+
 		} else if (propertyName.equals("dataSource")) {
 			query.setDataSourceWithoutSideEffects((JDBCDataSource) converter.convertToComplexType(
 					newValue, JDBCDataSource.class)); 
@@ -2905,6 +2920,9 @@ public class WabitSessionPersister implements SPPersister {
 		if (propertyName.equals("roleInChart")) {
 			return converter.convertToBasicType(chartColumn.getRoleInChart());
 
+		} else if (propertyName.equals("aggregate")) {
+			return converter.convertToBasicType(chartColumn.getAggregate());
+
 		} else if (propertyName.equals("XAxisIdentifier")) {
 			return converter.convertToBasicType(chartColumn
 					.getXAxisIdentifier());
@@ -2937,6 +2955,10 @@ public class WabitSessionPersister implements SPPersister {
 			chartColumn.setRoleInChart((ColumnRole) converter
 					.convertToComplexType(newValue, ColumnRole.class));
 
+		} else if (propertyName.equals("aggregate")) {
+			chartColumn.setAggregate((AggregateFunction) converter
+					.convertToComplexType(newValue, AggregateFunction.class));
+
 		} else if (propertyName.equals("XAxisIdentifier")) {
 			chartColumn.setXAxisIdentifier((ChartColumn) converter
 					.convertToComplexType(newValue, ChartColumn.class));
@@ -3827,6 +3849,9 @@ public class WabitSessionPersister implements SPPersister {
 		} else if (propertyName.equals(ColumnInfo.WILL_SUBTOTAL_CHANGED)) {
 			return converter.convertToBasicType(colInfo.getWillSubtotal());
 
+		} else if (propertyName.equals(ColumnInfo.AGGREGATE_CHANGED)) {
+			return converter.convertToBasicType(colInfo.getAggregate());
+
 		} else if (propertyName.equals(ColumnInfo.FORMAT_CHANGED)) {
 			return converter.convertToBasicType(colInfo.getFormat());
 
@@ -3879,6 +3904,10 @@ public class WabitSessionPersister implements SPPersister {
 			colInfo.setWillSubtotal((Boolean) converter.convertToComplexType(
 					newValue, Boolean.class));
 
+		} else if (propertyName.equals(ColumnInfo.AGGREGATE_CHANGED)) {
+			colInfo.setAggregate((AggregateFunction) converter
+					.convertToComplexType(newValue, AggregateFunction.class));
+
 		} else if (propertyName.equals(ColumnInfo.FORMAT_CHANGED)) {
 			colInfo.setFormat((Format) converter.convertToComplexType(newValue,
 					Format.class));
@@ -80,6 +80,7 @@ import ca.sqlpower.wabit.WabitObject;
 import ca.sqlpower.wabit.WabitSession;
 import ca.sqlpower.wabit.WabitSessionContext;
 import ca.sqlpower.wabit.image.WabitImage;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.report.CellSetRenderer;
 import ca.sqlpower.wabit.report.ChartRenderer;
 import ca.sqlpower.wabit.report.ColumnInfo;
@@ -505,6 +506,8 @@ public class WorkspaceSAXHandler extends DefaultHandler {
         		    cache.setAutomaticallyExecuting(Boolean.parseBoolean(aval));
         		} else if (aname.equals("streaming")) {
         		    cache.setStreaming(Boolean.parseBoolean(aval));
+        		} else if (aname.equals("columnar-results")) {
+        		    cache.setColumnarResults(Boolean.parseBoolean(aval));
         		} else {
         			logger.warn("Unexpected attribute of <query>: " + aname + "=" + aval);
         		}
@@ -864,6 +867,8 @@ public class WorkspaceSAXHandler extends DefaultHandler {
                     //already handled
                 } else if (aname.equals("role")) {
                     colIdentifier.setRoleInChart(ColumnRole.valueOf(aval));
+                } else if (aname.equals("aggregate")) {
+                    colIdentifier.setAggregate(AggregateFunction.valueOf(aval));
                 } else if (aname.matches("x-axis-.*")) {
                     ChartColumn xAxisIdentifier = loadColumnIdentifier(attributes, "x-axis-");
                     colIdentifier.setXAxisIdentifier(xAxisIdentifier);
@@ -1165,6 +1170,8 @@ public class WorkspaceSAXHandler extends DefaultHandler {
         		    colInfo.setWillGroupOrBreak(GroupAndBreak.valueOf(aval));
         		} else if (aname.equals("will-subtotal")) {
         			colInfo.setWillSubtotal(Boolean.parseBoolean(aval));
+        		} else if (aname.equals("aggregate")) {
+        			colInfo.setAggregate(AggregateFunction.valueOf(aval));
         		}else {
         			logger.warn("Unexpected attribute of <column-info>: " + aname + "=" + aval);
         		}
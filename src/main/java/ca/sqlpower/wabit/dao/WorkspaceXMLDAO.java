@@ -402,6 +402,7 @@ public class WorkspaceXMLDAO {
 							printAttribute("data-type", ci.getDataType().name());
 							printAttribute("group-or-break", ci.getWillGroupOrBreak().name());
 							printAttribute("will-subtotal", Boolean.toString(ci.getWillSubtotal()));
+							printAttribute("aggregate", ci.getAggregate().name());
 							xml.niprintln(out, ">");
 							xml.indent++;
 							if (ci.getFormat() instanceof SimpleDateFormat) {
@@ -573,6 +574,7 @@ public class WorkspaceXMLDAO {
         printCommonAttributes(col);
         printAttribute("data-type", col.getDataType().name());
         printAttribute("role", col.getRoleInChart().name());
+        printAttribute("aggregate", col.getAggregate().name());
         saveColumnIdentifier(out, col.getXAxisIdentifier(), "x-axis-");
         xml.niprintln(out, "/>");
     }
@@ -762,6 +764,7 @@ public class WorkspaceXMLDAO {
 		printAttribute("prompt-for-cross-joins", cache.getPromptForCrossJoins());
 		printAttribute("automatically-executing", cache.isAutomaticallyExecuting());
 		printAttribute("streaming", cache.isStreaming());
+		printAttribute("columnar-results", cache.isColumnarResults());
 		if (!cache.getPromptForCrossJoins()) {
 		    printAttribute("execute-queries-with-cross-joins", cache.getExecuteQueriesWithCrossJoins());
 		}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.dao.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister.DataType;
+
+/**
+ * The constants and primitive readers and writers of the binary persistence
+ * encoding shared by {@link WabitBinaryPersister} and
+ * {@link WabitBinaryMessageDecoder}.
+ * <p>
+ * A message is a sequence of frames. Each frame starts with {@link #MAGIC}
+ * and {@link #VERSION}, followed by the encoded {@link SPPersister} calls and
+ * {@link #END}. Every call is an opcode byte followed by its arguments.
+ * Numbers are written as variable length integers, strings as their length
+ * followed by their UTF-8 bytes and image data as its length followed by the
+ * raw bytes. UUIDs, types and property names are interned: the first time one
+ * appears in a frame it is written in full and afterwards only its position in
+ * the frame's string table is written.
+ */
+final class BinaryPersistFormat {
+
+	/**
+	 * The MIME type of a message in this encoding.
+	 */
+	static final String CONTENT_TYPE = "application/x-wabit-persist";
+	
+	static final int MAGIC = 0x57425031; // "WBP1"
+	
+	static final int VERSION = 1;
+	
+	static final int END = 0;
+	static final int BEGIN = 1;
+	static final int COMMIT = 2;
+	static final int ROLLBACK = 3;
+	static final int PERSIST_OBJECT = 4;
+	static final int PERSIST_PROPERTY = 5;
+	static final int PERSIST_PROPERTY_UNCONDITIONALLY = 6;
+	static final int REMOVE_OBJECT = 7;
+	
+	static final int VALUE_NULL = 0;
+	static final int VALUE_STRING = 1;
+	static final int VALUE_INTERNED_STRING = 2;
+	static final int VALUE_TRUE = 3;
+	static final int VALUE_FALSE = 4;
+	static final int VALUE_INTEGER = 5;
+	static final int VALUE_LONG = 6;
+	static final int VALUE_SHORT = 7;
+	static final int VALUE_DOUBLE = 8;
+	static final int VALUE_FLOAT = 9;
+	static final int VALUE_BIG_DECIMAL = 10;
+	static final int VALUE_BIG_INTEGER = 11;
+	static final int VALUE_DATE = 12;
+	static final int VALUE_BYTES = 13;
+
+	/**
+	 * Reference written in place of an interned string that is null.
+	 */
+	private static final int STRING_NULL = 0;
+
+	/**
+	 * Reference written in place of an interned string the first time it
+	 * appears in a frame. The string itself follows.
+	 */
+	private static final int STRING_NEW = 1;
+	
+	private BinaryPersistFormat() {
+		// constants and helpers only
+	}
+
+	/**
+	 * Writes the strings of one frame, writing each distinct string in full
+	 * only once.
+	 */
+	static class StringTableWriter {
+		
+		private final Map<String, Integer> table = new HashMap<String, Integer>();
+		
+		void write(DataOutputStream out, String s) throws IOException {
+			if (s == null) {
+				writeVarInt(out, STRING_NULL);
+				return;
+			}
+			Integer index = table.get(s);
+			if (index != null) {
+				writeVarInt(out, index + 2);
+			} else {
+				writeVarInt(out, STRING_NEW);
+				writeString(out, s);
+				table.put(s, table.size());
+			}
+		}
+		
+		void clear() {
+			table.clear();
+		}
+	}
+
+	/**
+	 * Reads the strings written by a {@link StringTableWriter}.
+	 */
+	static class StringTableReader {
+		
+		private final List<String> table = new ArrayList<String>();
+		
+		String read(DataInputStream in) throws IOException {
+			int ref = readVarInt(in);
+			if (ref == STRING_NULL) {
+				return null;
+			} else if (ref == STRING_NEW) {
+				String s = readString(in);
+				table.add(s);
+				return s;
+			} else if (ref - 2 < table.size()) {
+				return table.get(ref - 2);
+			} else {
+				throw new IOException("Reference to string " + (ref - 2) + 
+						" but only " + table.size() + " strings have been read");
+			}
+		}
+		
+		void clear() {
+			table.clear();
+		}
+	}
+	
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+	
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+	
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+	
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		writeBytes(out, s.getBytes("UTF-8"));
+	}
+	
+	static String readString(DataInputStream in) throws IOException {
+		return new String(readBytes(in), "UTF-8");
+	}
+	
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0) throw new IOException("Negative length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writes a property value. {@link DataType#REFERENCE} values are UUIDs and
+	 * go through the string table, image data given as an {@link InputStream}
+	 * is written as raw bytes and is read back as a
+	 * {@link ByteArrayInputStream}.
+	 * 
+	 * @throws SPPersistenceException
+	 *             If the value is not one of the simple types the persisters
+	 *             exchange.
+	 */
+	static void writeValue(DataOutputStream out, StringTableWriter strings, 
+			String uuid, DataType type, Object value) throws IOException, SPPersistenceException {
+		if (value == null) {
+			out.writeByte(VALUE_NULL);
+		} else if (value instanceof String && type == DataType.REFERENCE) {
+			out.writeByte(VALUE_INTERNED_STRING);
+			strings.write(out, (String) value);
+		} else if (value instanceof String) {
+			out.writeByte(VALUE_STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(((Boolean) value).booleanValue() ? VALUE_TRUE : VALUE_FALSE);
+		} else if (value instanceof Integer) {
+			out.writeByte(VALUE_INTEGER);
+			int i = (Integer) value;
+			writeVarInt(out, (i << 1) ^ (i >> 31));
+		} else if (value instanceof Long) {
+			out.writeByte(VALUE_LONG);
+			long l = (Long) value;
+			writeVarLong(out, (l << 1) ^ (l >> 63));
+		} else if (value instanceof Short) {
+			out.writeByte(VALUE_SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Double) {
+			out.writeByte(VALUE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(VALUE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof BigDecimal) {
+			out.writeByte(VALUE_BIG_DECIMAL);
+			writeString(out, value.toString());
+		} else if (value instanceof BigInteger) {
+			out.writeByte(VALUE_BIG_INTEGER);
+			writeBytes(out, ((BigInteger) value).toByteArray());
+		} else if (value instanceof Date) {
+			out.writeByte(VALUE_DATE);
+			out.writeLong(((Date) value).getTime());
+		} else if (value instanceof InputStream) {
+			out.writeByte(VALUE_BYTES);
+			writeBytes(out, toByteArray((InputStream) value));
+		} else if (value instanceof byte[]) {
+			out.writeByte(VALUE_BYTES);
+			writeBytes(out, (byte[]) value);
+		} else {
+			throw new SPPersistenceException(uuid, "Cannot encode the value " + value + 
+					" of type " + value.getClass() + " for the data type " + type);
+		}
+	}
+	
+	static Object readValue(DataInputStream in, StringTableReader strings) throws IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case VALUE_NULL:
+			return null;
+		case VALUE_STRING:
+			return readString(in);
+		case VALUE_INTERNED_STRING:
+			return strings.read(in);
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_INTEGER:
+			int i = readVarInt(in);
+			return (i >>> 1) ^ -(i & 1);
+		case VALUE_LONG:
+			long l = readVarLong(in);
+			return (l >>> 1) ^ -(l & 1);
+		case VALUE_SHORT:
+			return in.readShort();
+		case VALUE_DOUBLE:
+			return in.readDouble();
+		case VALUE_FLOAT:
+			return in.readFloat();
+		case VALUE_BIG_DECIMAL:
+			return new BigDecimal(readString(in));
+		case VALUE_BIG_INTEGER:
+			return new BigInteger(readBytes(in));
+		case VALUE_DATE:
+			return new Date(in.readLong());
+		case VALUE_BYTES:
+			return new ByteArrayInputStream(readBytes(in));
+		default:
+			throw new IOException("Unknown value tag " + tag);
+		}
+	}
+	
+	private static byte[] toByteArray(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toByteArray();
+	}
+}
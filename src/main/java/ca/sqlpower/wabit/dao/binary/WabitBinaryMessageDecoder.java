@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.dao.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import ca.sqlpower.dao.MessageDecoder;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.dao.SPPersister.DataType;
+
+/**
+ * Decodes messages written by a {@link WabitBinaryPersister} and makes the
+ * {@link SPPersister} calls they describe on a target persister.
+ */
+public class WabitBinaryMessageDecoder implements MessageDecoder<byte[]> {
+
+	/**
+	 * The persister that receives the decoded calls.
+	 */
+	private final SPPersister persister;
+	
+	private final BinaryPersistFormat.StringTableReader strings = new BinaryPersistFormat.StringTableReader();
+
+	public WabitBinaryMessageDecoder(SPPersister persister) {
+		this.persister = persister;
+	}
+
+	/**
+	 * Decodes every frame in the given message in order and forwards each
+	 * call to the target persister.
+	 * 
+	 * @throws SPPersistenceException
+	 *             If the message is not in the binary persistence encoding or
+	 *             the target persister fails to apply a call.
+	 */
+	public void decode(byte[] message) throws SPPersistenceException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+		try {
+			while (in.available() > 0) {
+				decodeFrame(in);
+			}
+		} catch (IOException e) {
+			throw new SPPersistenceException(null, e);
+		}
+	}
+	
+	private void decodeFrame(DataInputStream in) throws IOException, SPPersistenceException {
+		int magic = in.readInt();
+		if (magic != BinaryPersistFormat.MAGIC) {
+			throw new IOException("Not a binary persistence frame: 0x" + Integer.toHexString(magic));
+		}
+		int version = in.readUnsignedByte();
+		if (version != BinaryPersistFormat.VERSION) {
+			throw new IOException("Unsupported binary persistence version " + version);
+		}
+		strings.clear();
+		
+		int opcode;
+		while ((opcode = in.readUnsignedByte()) != BinaryPersistFormat.END) {
+			switch (opcode) {
+			case BinaryPersistFormat.BEGIN:
+				persister.begin();
+				break;
+			case BinaryPersistFormat.COMMIT:
+				persister.commit();
+				break;
+			case BinaryPersistFormat.ROLLBACK:
+				persister.rollback();
+				break;
+			case BinaryPersistFormat.PERSIST_OBJECT: {
+				String parentUUID = strings.read(in);
+				String type = strings.read(in);
+				String uuid = strings.read(in);
+				int index = BinaryPersistFormat.readVarInt(in);
+				persister.persistObject(parentUUID, type, uuid, index);
+				break;
+			}
+			case BinaryPersistFormat.PERSIST_PROPERTY: {
+				String uuid = strings.read(in);
+				String propertyName = strings.read(in);
+				DataType type = readDataType(in);
+				Object oldValue = BinaryPersistFormat.readValue(in, strings);
+				Object newValue = BinaryPersistFormat.readValue(in, strings);
+				persister.persistProperty(uuid, propertyName, type, oldValue, newValue);
+				break;
+			}
+			case BinaryPersistFormat.PERSIST_PROPERTY_UNCONDITIONALLY: {
+				String uuid = strings.read(in);
+				String propertyName = strings.read(in);
+				DataType type = readDataType(in);
+				Object newValue = BinaryPersistFormat.readValue(in, strings);
+				persister.persistProperty(uuid, propertyName, type, newValue);
+				break;
+			}
+			case BinaryPersistFormat.REMOVE_OBJECT: {
+				String parentUUID = strings.read(in);
+				String uuid = strings.read(in);
+				persister.removeObject(parentUUID, uuid);
+				break;
+			}
+			default:
+				throw new IOException("Unknown binary persistence opcode " + opcode);
+			}
+		}
+	}
+	
+	private DataType readDataType(DataInputStream in) throws IOException {
+		String name = strings.read(in);
+		if (name == null) return null;
+		try {
+			return DataType.valueOf(name);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unknown data type " + name);
+		}
+	}
+}
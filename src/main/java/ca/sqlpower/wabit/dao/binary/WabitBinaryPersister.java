@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.dao.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import ca.sqlpower.dao.MessageSender;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.dao.json.WabitJSONPersister;
+
+/**
+ * A {@link SPPersister} implementation that serializes {@link SPPersister}
+ * method calls into the compact binary encoding described in
+ * {@link BinaryPersistFormat} and transmits them to a destination using a
+ * {@link MessageSender}. This is the binary counterpart of the
+ * {@link WabitJSONPersister}: each outermost transaction becomes one frame
+ * which is sent and flushed when the transaction commits.
+ */
+public class WabitBinaryPersister implements SPPersister {
+	
+	/**
+	 * The MIME type of the messages this persister sends.
+	 */
+	public static final String CONTENT_TYPE = BinaryPersistFormat.CONTENT_TYPE;
+
+	private final MessageSender<byte[]> messageSender;
+	
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	
+	private final DataOutputStream out = new DataOutputStream(buffer);
+	
+	private final BinaryPersistFormat.StringTableWriter strings = new BinaryPersistFormat.StringTableWriter();
+	
+	private int transactionCount = 0;
+
+	/**
+	 * Create a {@link WabitBinaryPersister} that uses the given
+	 * {@link MessageSender} to transmit the encoded frames.
+	 */
+	public WabitBinaryPersister(MessageSender<byte[]> messageSender) {
+		this.messageSender = messageSender;
+	}
+
+	public void begin() throws SPPersistenceException {
+		startCall(BinaryPersistFormat.BEGIN);
+		transactionCount++;
+	}
+
+	public void commit() throws SPPersistenceException {
+		if (transactionCount == 0) {
+			throw new SPPersistenceException(null, "Commit attempted while not in a transaction");
+		}
+		startCall(BinaryPersistFormat.COMMIT);
+		transactionCount--;
+		endCall();
+	}
+
+	public void persistObject(String parentUUID, String type, String uuid,
+			int index) throws SPPersistenceException {
+		if (! WabitWorkspace.class.getSimpleName().equals(type) && parentUUID == null) {
+			throw new NullPointerException("Child is not a WabitWorkspace, but has a null parent ID. Child's ID is " + uuid);
+		}
+		startCall(BinaryPersistFormat.PERSIST_OBJECT);
+		try {
+			strings.write(out, parentUUID);
+			strings.write(out, type);
+			strings.write(out, uuid);
+			BinaryPersistFormat.writeVarInt(out, index);
+		} catch (IOException e) {
+			throw new SPPersistenceException(uuid, e);
+		}
+		endCall();
+	}
+
+	public void persistProperty(String uuid, String propertyName,
+			DataType propertyType, Object oldValue, Object newValue)
+			throws SPPersistenceException {
+		startCall(BinaryPersistFormat.PERSIST_PROPERTY);
+		try {
+			writePropertyHeader(uuid, propertyName, propertyType);
+			BinaryPersistFormat.writeValue(out, strings, uuid, propertyType, oldValue);
+			BinaryPersistFormat.writeValue(out, strings, uuid, propertyType, newValue);
+		} catch (IOException e) {
+			throw new SPPersistenceException(uuid, e);
+		}
+		endCall();
+	}
+
+	public void persistProperty(String uuid, String propertyName,
+			DataType propertyType, Object newValue)
+			throws SPPersistenceException {
+		startCall(BinaryPersistFormat.PERSIST_PROPERTY_UNCONDITIONALLY);
+		try {
+			writePropertyHeader(uuid, propertyName, propertyType);
+			BinaryPersistFormat.writeValue(out, strings, uuid, propertyType, newValue);
+		} catch (IOException e) {
+			throw new SPPersistenceException(uuid, e);
+		}
+		endCall();
+	}
+
+	public void removeObject(String parentUUID, String uuid)
+			throws SPPersistenceException {
+		startCall(BinaryPersistFormat.REMOVE_OBJECT);
+		try {
+			strings.write(out, parentUUID);
+			strings.write(out, uuid);
+		} catch (IOException e) {
+			throw new SPPersistenceException(uuid, e);
+		}
+		endCall();
+	}
+
+	/**
+	 * Discards everything persisted since the outermost transaction began.
+	 * Nothing of the transaction has been sent yet, so the destination never
+	 * sees it.
+	 */
+	public void rollback() {
+		resetFrame();
+		messageSender.clear();
+		transactionCount = 0;
+	}
+	
+	private void writePropertyHeader(String uuid, String propertyName, 
+			DataType propertyType) throws IOException {
+		strings.write(out, uuid);
+		strings.write(out, propertyName);
+		strings.write(out, propertyType == null ? null : propertyType.name());
+	}
+
+	/**
+	 * Writes the opcode of a call, starting a new frame first if this is the
+	 * first call since the last frame was sent.
+	 */
+	private void startCall(int opcode) throws SPPersistenceException {
+		try {
+			if (buffer.size() == 0) {
+				out.writeInt(BinaryPersistFormat.MAGIC);
+				out.writeByte(BinaryPersistFormat.VERSION);
+			}
+			out.writeByte(opcode);
+		} catch (IOException e) {
+			throw new SPPersistenceException(null, e);
+		}
+	}
+
+	/**
+	 * Sends the current frame once the call that was just written is no
+	 * longer inside a transaction.
+	 */
+	private void endCall() throws SPPersistenceException {
+		if (transactionCount > 0) return;
+		try {
+			out.writeByte(BinaryPersistFormat.END);
+			out.flush();
+			byte[] frame = buffer.toByteArray();
+			resetFrame();
+			messageSender.send(frame);
+			messageSender.flush();
+		} catch (IOException e) {
+			throw new SPPersistenceException(null, e);
+		}
+	}
+	
+	private void resetFrame() {
+		buffer.reset();
+		strings.clear();
+	}
+}
@@ -30,6 +30,7 @@ import ca.sqlpower.query.Item;
 import ca.sqlpower.query.SQLJoin;
 import ca.sqlpower.util.SQLPowerUtils;
 import ca.sqlpower.wabit.WabitObject;
+import ca.sqlpower.wabit.WabitWorkspace;
 import ca.sqlpower.wabit.rs.query.QueryCache;
 
 public class SQLJoinConverter implements BidirectionalConverter<String, SQLJoin> {
@@ -52,7 +53,12 @@ public class SQLJoinConverter implements BidirectionalConverter<String, SQLJoin>
 		String leftItemID = pieces[2];
 		String rightTableID = pieces[3];
 		String rightItemID = pieces[4];
-		QueryCache query = SQLPowerUtils.findByUuid(root, queryID, QueryCache.class);
+		QueryCache query;
+		if (root instanceof WabitWorkspace) {
+			query = ((WabitWorkspace) root).findByUuid(queryID, QueryCache.class);
+		} else {
+			query = SQLPowerUtils.findByUuid(root, queryID, QueryCache.class);
+		}
 		
 		List<Container> fromTables = query.getFromTableList();
 		Container leftContainer = null;
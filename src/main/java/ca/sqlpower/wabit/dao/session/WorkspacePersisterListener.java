@@ -22,11 +22,19 @@ package ca.sqlpower.wabit.dao.session;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyDescriptor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.jcip.annotations.GuardedBy;
 
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.log4j.Logger;
@@ -136,6 +144,29 @@ public class WorkspacePersisterListener implements SPListener {
 		ignored.add(new PropertyToIgnore("modifiedOlapQuery", CellSetRenderer.class));
 		ignoreList = Collections.unmodifiableList(ignored);
 	}
+
+	/**
+	 * The names of the properties of each class whose changes are persisted:
+	 * the ones with a setter that are not in the {@link #ignoreList}. Filled
+	 * in the first time an object of the class fires a property change, so the
+	 * bean introspection is done once per class instead of once per event.
+	 */
+	private static final Map<Class<?>, Map<String, Boolean>> persistedPropertiesByClass = 
+		new ConcurrentHashMap<Class<?>, Map<String, Boolean>>();
+
+	/**
+	 * The delay in milliseconds client sessions use for
+	 * {@link #setCoalesceDelay(long)}. Set by the system property
+	 * <code>ca.sqlpower.wabit.dao.session.WorkspacePersisterListener.coalesceDelay</code>,
+	 * 200 by default.
+	 */
+	public static final long DEFAULT_COALESCE_DELAY = 
+		Long.getLong(WorkspacePersisterListener.class.getName() + ".coalesceDelay", 200);
+
+	/**
+	 * Schedules the sending of coalesced property changes for all listeners.
+	 */
+	private static final Timer coalesceTimer = new Timer("persister-coalesce", true);
 	
 	/**
 	 * This will be the list we will use to rollback persisted properties
@@ -173,6 +204,30 @@ public class WorkspacePersisterListener implements SPListener {
 	
 	private int transactionCount = 0;
 
+	/**
+	 * How long in milliseconds property changes are held to be coalesced
+	 * before they are sent. 0 sends every transaction when it ends.
+	 */
+	private long coalesceDelay = 0;
+
+	/**
+	 * The property changes held to be sent together, keyed by the UUID of
+	 * their object and the property name. Repeated changes to the same
+	 * property are collapsed into one change from the first old value to the
+	 * last new value. The timer thread reads them when they are due, so
+	 * they and {@link #coalesceTask} are guarded by this map.
+	 */
+	@GuardedBy("coalescedProperties")
+	private final Map<List<String>, PersistedSPOProperty> coalescedProperties = 
+		new LinkedHashMap<List<String>, PersistedSPOProperty>();
+
+	/**
+	 * The scheduled sending of the {@link #coalescedProperties}, or null if
+	 * there are none.
+	 */
+	@GuardedBy("coalescedProperties")
+	private TimerTask coalesceTask;
+
 
 	/**
 	 * This will connect a new instance of this listener to the workspace and
@@ -197,6 +252,11 @@ public class WorkspacePersisterListener implements SPListener {
 		session.addSessionLifecycleListener(new SessionLifecycleListener<WabitSession>() {
 			
 			public void sessionClosing(SessionLifecycleEvent<WabitSession> e) {
+				try {
+					listener.flush();
+				} catch (SPPersistenceException ex) {
+					logger.error("Could not send the last changes before closing", ex);
+				}
 				SQLPowerUtils.unlistenToHierarchy(session.getWorkspace(), listener);
 			}
 
@@ -268,6 +328,27 @@ public class WorkspacePersisterListener implements SPListener {
 		this.eventSource = eventSource;
 	}
 
+	/**
+	 * Sets how long property changes are held so repeated changes to the same
+	 * property can be collapsed and sent as one transaction. Transactions that
+	 * add or remove objects are never held; any held changes are sent at the
+	 * start of them. A delay of 0, the default, sends every transaction as it
+	 * ends.
+	 * <p>
+	 * Held changes are sent through the session's
+	 * {@link WabitSession#runInForeground(Runnable)}, so this should only be
+	 * used with sessions that have a foreground thread to hand them to.
+	 * Otherwise they are sent on a timer thread alongside the thread making
+	 * changes to the workspace.
+	 */
+	public void setCoalesceDelay(long coalesceDelay) {
+		this.coalesceDelay = coalesceDelay;
+	}
+	
+	public long getCoalesceDelay() {
+		return coalesceDelay;
+	}
+
 	/**
 	 * Returns true if the WabitSessionPersister that this listener complements
 	 * is currently in the middle of an update. In that case, none of the
@@ -420,6 +501,9 @@ public class WorkspacePersisterListener implements SPListener {
 			this.persistProperty(uuid, "roleInChart", DataType.STRING,
 					converter.convertToBasicType(chartColumn.getRoleInChart()));
 
+			this.persistProperty(uuid, "aggregate", DataType.STRING,
+					converter.convertToBasicType(chartColumn.getAggregate()));
+
 			this.persistProperty(uuid, "XAxisIdentifier",
 					DataType.REFERENCE, converter.convertToBasicType(
 							chartColumn.getXAxisIdentifier(), DataType.REFERENCE));
@@ -501,6 +585,9 @@ public class WorkspacePersisterListener implements SPListener {
 			this.persistProperty(uuid, ColumnInfo.WILL_SUBTOTAL_CHANGED,
 					DataType.BOOLEAN, converter.convertToBasicType(
 							columnInfo.getWillSubtotal()));
+			this.persistProperty(uuid, ColumnInfo.AGGREGATE_CHANGED,
+					DataType.STRING, converter.convertToBasicType(
+							columnInfo.getAggregate()));
 			this.persistProperty(uuid, "format", DataType.STRING, 
 					converter.convertToBasicType(columnInfo.getFormat()));
 
@@ -677,6 +764,9 @@ public class WorkspacePersisterListener implements SPListener {
 			this.persistProperty(uuid, "executeQueriesWithCrossJoins",
 					DataType.BOOLEAN, 
 					converter.convertToBasicType(query.getExecuteQueriesWithCrossJoins()));
+			this.persistProperty(uuid, "columnarResults",
+					DataType.BOOLEAN, 
+					converter.convertToBasicType(query.isColumnarResults()));
 			
 		} else if (child instanceof ReportTask) {
 			ReportTask task = (ReportTask) child;
@@ -949,29 +1039,12 @@ public class WorkspacePersisterListener implements SPListener {
 		Object oldValue = evt.getOldValue();
 		Object newValue = evt.getNewValue();
 		
-		PropertyDescriptor propertyDescriptor;
-		try {
-			propertyDescriptor= PropertyUtils.getPropertyDescriptor(source, propertyName);
-		} catch (Exception ex) {
-			this.rollback();
-			throw new RuntimeException(ex);
-		}
-		
-		//Not persisting non-settable properties
-		if (propertyDescriptor == null 
-				|| propertyDescriptor.getWriteMethod() == null) {
+		//Not persisting non-settable or ignored properties
+		if (!isPersistedProperty(source.getClass(), propertyName)) {
 			this.transactionEnded(TransactionEvent.createEndTransactionEvent(this));
 			return;
 		}
 		
-		for (PropertyToIgnore ignoreProperty : ignoreList) {
-			if (ignoreProperty.getPropertyName().equals(propertyName) && 
-					ignoreProperty.getClassType().isAssignableFrom(source.getClass())) {
-				this.transactionEnded(TransactionEvent.createEndTransactionEvent(this));
-				return;
-			}
-		}
-		
 		
 		//XXX special case that I want to remove even though I'm implementing it
 		List<Object> additionalParams = new ArrayList<Object>();
@@ -993,6 +1066,31 @@ public class WorkspacePersisterListener implements SPListener {
 		this.transactionEnded(TransactionEvent.createEndTransactionEvent(this));
 	}
 	
+	/**
+	 * Returns true if changes to the given property of objects of the given
+	 * class are persisted: it has a setter and is not in the
+	 * {@link #ignoreList}.
+	 */
+	private static boolean isPersistedProperty(Class<?> beanClass, String propertyName) {
+		Map<String, Boolean> persisted = persistedPropertiesByClass.get(beanClass);
+		if (persisted == null) {
+			persisted = new ConcurrentHashMap<String, Boolean>();
+			for (PropertyDescriptor descriptor : PropertyUtils.getPropertyDescriptors(beanClass)) {
+				boolean isPersisted = descriptor.getWriteMethod() != null;
+				for (PropertyToIgnore ignoreProperty : ignoreList) {
+					if (ignoreProperty.getPropertyName().equals(descriptor.getName()) && 
+							ignoreProperty.getClassType().isAssignableFrom(beanClass)) {
+						isPersisted = false;
+					}
+				}
+				persisted.put(descriptor.getName(), isPersisted);
+			}
+			persistedPropertiesByClass.put(beanClass, persisted);
+		}
+		Boolean isPersisted = persisted.get(propertyName);
+		return isPersisted != null && isPersisted;
+	}
+	
 	private void persistProperty(
 			String uuid, 
 			String propertyName,
@@ -1047,6 +1145,7 @@ public class WorkspacePersisterListener implements SPListener {
 			this.persistedObjects.clear();
 			this.persistedProperties.clear();
 			this.transactionCount = 0;
+			takeCoalescedProperties();
 			target.rollback();
 			return;
 		}
@@ -1067,6 +1166,7 @@ public class WorkspacePersisterListener implements SPListener {
 			this.persistedObjects.clear();
 			this.persistedProperties.clear();
 			this.transactionCount = 0;
+			takeCoalescedProperties();
 			this.headingToWinconsin = false;
 			target.rollback();
 		}
@@ -1082,13 +1182,23 @@ public class WorkspacePersisterListener implements SPListener {
 				if (objectsToRemove.isEmpty() && persistedObjects.isEmpty() && 
 						persistedProperties.isEmpty()) return;
 				
+				if (coalesceDelay > 0 && objectsToRemove.isEmpty() && persistedObjects.isEmpty()) {
+					coalesce(persistedProperties.values());
+					return;
+				}
+				
+				List<PersistedSPOProperty> heldProperties = takeCoalescedProperties();
+				
 				this.objectsToRemoveRollbackList.clear();
 				this.persistedObjectsRollbackList.clear();
 				this.persistedPropertiesRollbackList.clear();
 				target.begin();
+				// Held changes go first so they are not sent after the
+				// removal of their object.
+				commitProperties(heldProperties);
 				commitRemovals();
 				commitObjects();
-				commitProperties();
+				commitProperties(persistedProperties.values());
 				target.commit();
 				logger.debug("...commit completed.");
 			} catch (Throwable t) {
@@ -1127,11 +1237,104 @@ public class WorkspacePersisterListener implements SPListener {
 		}
 	}
 	
-	private void commitProperties() throws SPPersistenceException {
+	/**
+	 * Adds the given property changes to the {@link #coalescedProperties} and
+	 * schedules them to be sent if they are not already.
+	 */
+	private void coalesce(Collection<PersistedSPOProperty> properties) {
+		synchronized (coalescedProperties) {
+			coalesceProperties(properties);
+		}
+	}
+	
+	@GuardedBy("coalescedProperties")
+	private void coalesceProperties(Collection<PersistedSPOProperty> properties) {
+		for (PersistedSPOProperty property : properties) {
+			List<String> key = Arrays.asList(property.getUUID(), property.getPropertyName());
+			PersistedSPOProperty previous = coalescedProperties.get(key);
+			if (previous == null) {
+				coalescedProperties.put(key, property);
+			} else {
+				coalescedProperties.put(key, new PersistedSPOProperty(
+						property.getUUID(), 
+						property.getPropertyName(), 
+						property.getDataType(), 
+						previous.getOldValue(), 
+						property.getNewValue(), 
+						previous.isUnconditional()));
+			}
+		}
+		logger.debug(coalescedProperties.size() + " property changes held");
+		if (coalesceTask == null && !coalescedProperties.isEmpty()) {
+			coalesceTask = new TimerTask() {
+				@Override
+				public void run() {
+					// Nothing may be thrown from here, the timer is shared by
+					// every listener and would stop running tasks.
+					try {
+						session.runInForeground(new Runnable() {
+							public void run() {
+								try {
+									flush();
+								} catch (SPPersistenceException e) {
+									logger.error("Could not send the held property changes", e);
+								}
+							}
+						});
+					} catch (RuntimeException e) {
+						logger.error("Could not send the held property changes", e);
+					}
+				}
+			};
+			coalesceTimer.schedule(coalesceTask, coalesceDelay);
+		}
+	}
+
+	/**
+	 * Sends the property changes held by the coalescing mode to the target
+	 * persister as one transaction. Does nothing if no changes are held. This
+	 * must be called on the foreground thread of the session.
+	 * 
+	 * @see #setCoalesceDelay(long)
+	 */
+	public void flush() throws SPPersistenceException {
+		List<PersistedSPOProperty> properties = takeCoalescedProperties();
+		if (properties.isEmpty()) return;
+		logger.debug("Sending " + properties.size() + " held property changes");
+		try {
+			this.persistedPropertiesRollbackList.clear();
+			target.begin();
+			commitProperties(properties);
+			target.commit();
+		} catch (Throwable t) {
+			this.rollback();
+			throw new SPPersistenceException(null, t);
+		} finally {
+			this.persistedPropertiesRollbackList.clear();
+		}
+	}
+	
+	/**
+	 * Removes and returns the held property changes and cancels their
+	 * scheduled sending.
+	 */
+	private List<PersistedSPOProperty> takeCoalescedProperties() {
+		synchronized (coalescedProperties) {
+			List<PersistedSPOProperty> properties = 
+				new ArrayList<PersistedSPOProperty>(coalescedProperties.values());
+			coalescedProperties.clear();
+			if (coalesceTask != null) {
+				coalesceTask.cancel();
+				coalesceTask = null;
+			}
+			return properties;
+		}
+	}
+	
+	private void commitProperties(Collection<PersistedSPOProperty> properties) throws SPPersistenceException {
 		logger.debug("commitProperties()");
-		for (Entry<String, PersistedSPOProperty> entry : persistedProperties.entries()) {
-			PersistedSPOProperty wop = entry.getValue();
-			String uuid = entry.getKey();
+		for (PersistedSPOProperty wop : properties) {
+			String uuid = wop.getUUID();
 			if (wop.isUnconditional()) {
 				target.persistProperty(
 					uuid,
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.dao.MessageSender;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.enterprise.client.SPServerInfo;
+import ca.sqlpower.wabit.dao.binary.WabitBinaryPersister;
+
+/**
+ * Sends the frames of a {@link WabitBinaryPersister} to a Wabit Enterprise
+ * Server. The frames given to {@link #send(byte[])} are held until
+ * {@link #flush()} posts them to the workspace in a single gzip compressed
+ * request.
+ */
+public class BinaryHttpMessageSender implements MessageSender<byte[]> {
+	
+	private static final Logger logger = Logger.getLogger(BinaryHttpMessageSender.class);
+	
+	private final HttpClient httpClient;
+	
+	private final SPServerInfo serverInfo;
+	
+	private final String workspaceUUID;
+	
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	public BinaryHttpMessageSender(HttpClient httpClient, SPServerInfo serverInfo, 
+			String workspaceUUID) {
+		this.httpClient = httpClient;
+		this.serverInfo = serverInfo;
+		this.workspaceUUID = workspaceUUID;
+	}
+
+	public void send(byte[] content) throws SPPersistenceException {
+		pending.write(content, 0, content.length);
+	}
+
+	public void flush() throws SPPersistenceException {
+		if (pending.size() == 0) return;
+		byte[] content = pending.toByteArray();
+		pending.reset();
+		try {
+			HttpPost request = new HttpPost(WabitClientSession.getServerURI(serverInfo, 
+					"workspaces/" + workspaceUUID));
+			request.setEntity(HttpCompression.createGzipEntity(content, 
+					WabitBinaryPersister.CONTENT_TYPE));
+			logger.debug("Posting " + content.length + " bytes of persist calls compressed to " + 
+					request.getEntity().getContentLength());
+			httpClient.execute(request, new ResponseHandler<Void>() {
+				public Void handleResponse(HttpResponse response)
+						throws ClientProtocolException, IOException {
+					if (response.getStatusLine().getStatusCode() != 200) {
+						throw new ClientProtocolException(
+								"Failed to send changes to the server. Reason:\n" +
+								EntityUtils.toString(response.getEntity()));
+					}
+					if (response.getEntity() != null) {
+						response.getEntity().consumeContent();
+					}
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			throw new SPPersistenceException(null, e);
+		}
+	}
+
+	public void clear() {
+		pending.reset();
+	}
+}
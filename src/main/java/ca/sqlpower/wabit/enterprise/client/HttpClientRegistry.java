@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.enterprise.client.SPServerInfo;
+
+/**
+ * Hands out one shared {@link HttpClient} per Wabit Enterprise Server. The
+ * clients pool their connections and keep them alive between requests, so
+ * the requests of all client sessions, font loading and data source updates
+ * on the same server reuse the same connections instead of each paying for
+ * connection setup and authentication. The clients are shared: callers must
+ * not shut down their connection managers.
+ * <p>
+ * The number of connections to each server is limited to the value of the
+ * system property
+ * <code>ca.sqlpower.wabit.enterprise.client.HttpClientRegistry.maxConnectionsPerRoute</code>,
+ * 6 by default. One of them is held by the {@link ServerUpdateChannel}'s
+ * long-poll request. A request waits at most the number of milliseconds in
+ * the system property
+ * <code>ca.sqlpower.wabit.enterprise.client.HttpClientRegistry.connectionRequestTimeout</code>,
+ * 30000 by default, for a connection to become free before failing.
+ */
+public class HttpClientRegistry {
+	
+	private static final Logger logger = Logger.getLogger(HttpClientRegistry.class);
+	
+	static final int MAX_CONNECTIONS_PER_ROUTE = 
+		Integer.getInteger(HttpClientRegistry.class.getName() + ".maxConnectionsPerRoute", 6);
+
+	/**
+	 * How long in milliseconds an idle connection is kept when the server does
+	 * not say how long it keeps connections alive.
+	 */
+	private static final long DEFAULT_KEEP_ALIVE = 30000;
+	
+	private static final int CONNECTION_TIMEOUT = 2000;
+
+	/**
+	 * How long in milliseconds a request waits for a pooled connection. This
+	 * keeps a response whose entity is never consumed, which holds on to its
+	 * connection, from blocking every later request forever.
+	 */
+	static final long CONNECTION_REQUEST_TIMEOUT = 
+		Long.getLong(HttpClientRegistry.class.getName() + ".connectionRequestTimeout", 30000L);
+
+	/**
+	 * The context attribute holding the time a request was sent.
+	 */
+	private static final String REQUEST_START_ATTRIBUTE = HttpClientRegistry.class.getName() + ".requestStart";
+
+	/**
+	 * The client of one server and the timing of its requests.
+	 */
+	private static class Entry {
+		
+		private final DefaultHttpClient client;
+		
+		private final HttpRequestMetrics metrics = new HttpRequestMetrics();
+		
+		Entry(DefaultHttpClient client) {
+			this.client = client;
+		}
+	}
+
+	/**
+	 * The entry of each server, keyed by {@link #serverKey(SPServerInfo)}.
+	 */
+	@GuardedBy("entries")
+	private static final Map<String, Entry> entries = new HashMap<String, Entry>();
+	
+	private HttpClientRegistry() {
+		// static access only
+	}
+
+	/**
+	 * Returns the shared client for the given server, creating it if
+	 * necessary. The client authenticates with the server info's current user
+	 * name and password.
+	 */
+	public static HttpClient getClient(SPServerInfo serverInfo) {
+		Entry entry = getEntry(serverInfo);
+		entry.client.getCredentialsProvider().setCredentials(
+				new AuthScope(serverInfo.getServerAddress(), AuthScope.ANY_PORT), 
+				new UsernamePasswordCredentials(serverInfo.getUsername(), serverInfo.getPassword()));
+		entry.client.getConnectionManager().closeExpiredConnections();
+		return entry.client;
+	}
+
+	/**
+	 * Returns the timing of the requests sent to the given server so far.
+	 */
+	public static HttpRequestMetrics getMetrics(SPServerInfo serverInfo) {
+		return getEntry(serverInfo).metrics;
+	}
+
+	/**
+	 * Shuts down the clients of all servers and closes their connections.
+	 * Clients asked for afterwards are new ones.
+	 */
+	public static void shutdownAll() {
+		synchronized (entries) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				logger.debug("Shutting down client for " + entry.getKey() + ": " + entry.getValue().metrics);
+				entry.getValue().client.getConnectionManager().shutdown();
+			}
+			entries.clear();
+		}
+	}
+	
+	static String serverKey(SPServerInfo serverInfo) {
+		return serverInfo.getUsername() + "@" + serverInfo.getServerAddress() + ":" + 
+			serverInfo.getPort() + serverInfo.getPath();
+	}
+	
+	private static Entry getEntry(SPServerInfo serverInfo) {
+		synchronized (entries) {
+			String key = serverKey(serverInfo);
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				entry = createEntry();
+				entries.put(key, entry);
+			}
+			return entry;
+		}
+	}
+	
+	private static Entry createEntry() {
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+		ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS_PER_ROUTE * 4);
+		ConnManagerParams.setTimeout(params, CONNECTION_REQUEST_TIMEOUT);
+		
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+		
+		DefaultHttpClient client = new DefaultHttpClient(connectionManager, params);
+		client.setCookieStore(WabitClientSession.getCookieStore());
+		client.setKeepAliveStrategy(keepAliveStrategy);
+		
+		final Entry entry = new Entry(client);
+		client.addRequestInterceptor(new HttpRequestInterceptor() {
+			public void process(HttpRequest request, HttpContext context)
+					throws HttpException, IOException {
+				context.setAttribute(REQUEST_START_ATTRIBUTE, System.currentTimeMillis());
+			}
+		});
+		client.addResponseInterceptor(new HttpResponseInterceptor() {
+			public void process(HttpResponse response, HttpContext context)
+					throws HttpException, IOException {
+				Long start = (Long) context.getAttribute(REQUEST_START_ATTRIBUTE);
+				if (start == null) return;
+				long time = System.currentTimeMillis() - start;
+				entry.metrics.record(time, response.getStatusLine().getStatusCode());
+				if (logger.isDebugEnabled()) {
+					logger.debug("Response " + response.getStatusLine() + " after " + time + " ms");
+				}
+			}
+		});
+		return entry;
+	}
+
+	/**
+	 * Keeps connections alive as long as the server's Keep-Alive header says,
+	 * or {@link #DEFAULT_KEEP_ALIVE} if it does not say.
+	 */
+	private static final ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			HeaderElementIterator it = new BasicHeaderElementIterator(
+					response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+			while (it.hasNext()) {
+				HeaderElement element = it.nextElement();
+				if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+					try {
+						return Long.parseLong(element.getValue()) * 1000;
+					} catch (NumberFormatException e) {
+						// fall back to the default
+					}
+				}
+			}
+			return DEFAULT_KEEP_ALIVE;
+		}
+	};
+}
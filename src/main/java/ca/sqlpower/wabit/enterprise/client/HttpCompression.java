@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * Compresses the bodies of requests sent to a Wabit Enterprise Server and
+ * decompresses the bodies of its responses.
+ */
+public class HttpCompression {
+
+	public static final String ACCEPT_ENCODING = "Accept-Encoding";
+	
+	public static final String CONTENT_ENCODING = "Content-Encoding";
+	
+	public static final String GZIP = "gzip";
+	
+	public static final String DEFLATE = "deflate";
+	
+	private HttpCompression() {
+		// utility class
+	}
+
+	/**
+	 * Asks the server to compress the body of its response to the given
+	 * request.
+	 */
+	public static void acceptCompressedResponse(HttpRequest request) {
+		request.setHeader(ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+	}
+
+	/**
+	 * Returns an entity holding the given content compressed with gzip and
+	 * labelled with the given content type.
+	 */
+	public static HttpEntity createGzipEntity(byte[] content, String contentType) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 16);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(content);
+		gzip.close();
+		ByteArrayEntity entity = new ByteArrayEntity(compressed.toByteArray());
+		entity.setContentType(contentType);
+		entity.setContentEncoding(GZIP);
+		return entity;
+	}
+
+	/**
+	 * Returns the content of the given entity, decompressing it according to
+	 * its content encoding. Content that is not compressed is returned as it
+	 * is.
+	 */
+	public static InputStream getContent(HttpEntity entity) throws IOException {
+		InputStream content = entity.getContent();
+		Header encoding = entity.getContentEncoding();
+		if (encoding == null) return content;
+		if (GZIP.equalsIgnoreCase(encoding.getValue().trim())) {
+			return new GZIPInputStream(content);
+		} else if (DEFLATE.equalsIgnoreCase(encoding.getValue().trim())) {
+			return new InflaterInputStream(content);
+		}
+		return content;
+	}
+
+	/**
+	 * Reads the whole, decompressed content of the given entity.
+	 */
+	public static byte[] toByteArray(HttpEntity entity) throws IOException {
+		InputStream content = getContent(entity);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = content.read(buffer)) != -1) {
+				bytes.write(buffer, 0, count);
+			}
+			return bytes.toByteArray();
+		} finally {
+			content.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Timing of the requests sent to one server through the
+ * {@link HttpClientRegistry}. The time of a request runs from just before it
+ * is sent until its response headers have been received; reading the body of
+ * the response is not included. Long-poll requests of the
+ * {@link ServerUpdateChannel} are counted like any other, so the maximum time
+ * is mostly the time the server held them.
+ */
+@ThreadSafe
+public class HttpRequestMetrics {
+	
+	@GuardedBy("this")
+	private long requestCount;
+	
+	@GuardedBy("this")
+	private long errorCount;
+	
+	@GuardedBy("this")
+	private long totalTime;
+	
+	@GuardedBy("this")
+	private long maxTime;
+
+	/**
+	 * Records a request that took the given number of milliseconds and was
+	 * answered with the given status code.
+	 */
+	synchronized void record(long millis, int statusCode) {
+		requestCount++;
+		if (statusCode >= 400) {
+			errorCount++;
+		}
+		totalTime += millis;
+		maxTime = Math.max(maxTime, millis);
+	}
+	
+	public synchronized long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Returns the number of requests that were answered with an error status.
+	 */
+	public synchronized long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * Returns the total time of all requests in milliseconds.
+	 */
+	public synchronized long getTotalTime() {
+		return totalTime;
+	}
+	
+	public synchronized long getMaxTime() {
+		return maxTime;
+	}
+	
+	public synchronized long getAverageTime() {
+		if (requestCount == 0) return 0;
+		return totalTime / requestCount;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return requestCount + " requests (" + errorCount + " errors), average " + 
+			getAverageTime() + " ms, max " + maxTime + " ms";
+	}
+}
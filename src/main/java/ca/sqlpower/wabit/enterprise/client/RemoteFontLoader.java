@@ -36,16 +36,11 @@ import java.util.regex.Pattern;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.apache.http.util.EntityUtils;
 
 import ca.sqlpower.dao.session.SPFontLoader;
@@ -146,14 +141,8 @@ public class RemoteFontLoader implements SPFontLoader {
 						serverInfos.getPath(), 
 						URLEncoder.encode(fontName, "utf-8"));
 				
-				// Create a client
-				HttpParams params = new BasicHttpParams();
-		        HttpConnectionParams.setConnectionTimeout(params, 2000);
-		        DefaultHttpClient httpClient = new DefaultHttpClient(params);
-		        httpClient.setCookieStore(WabitClientSession.getCookieStore());
-		        httpClient.getCredentialsProvider().setCredentials(
-		            new AuthScope(serverUrl.getHost(), AuthScope.ANY_PORT), 
-		            new UsernamePasswordCredentials(serverInfos.getUsername(), serverInfos.getPassword()));
+				// Use the server's shared client
+				HttpClient httpClient = HttpClientRegistry.getClient(serverInfos);
 		    
 		        // Execute the query and parse the response.
 		        HttpUriRequest request = new HttpGet(serverUrl.toURI());
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+/**
+ * One batch of persistence calls the server sent for a workspace, already
+ * decompressed but not yet decoded.
+ */
+public class ServerUpdate {
+	
+	private final WireFormat format;
+	
+	private final byte[] content;
+	
+	private final String charset;
+	
+	public ServerUpdate(WireFormat format, byte[] content, String charset) {
+		this.format = format;
+		this.content = content;
+		this.charset = charset;
+	}
+	
+	public WireFormat getFormat() {
+		return format;
+	}
+	
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * The character set of {@link #getContent()} when it is text.
+	 */
+	public String getCharset() {
+		return charset;
+	}
+}
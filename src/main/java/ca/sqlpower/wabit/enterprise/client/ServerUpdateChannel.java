@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.enterprise.client.SPServerInfo;
+
+/**
+ * Carries the updates of every open workspace on one Wabit Enterprise Server
+ * over a single long-poll request at a time, sent through the server's shared
+ * {@link HttpClientRegistry} client. Instead of each client session polling
+ * its own workspace on its own thread, sessions register a
+ * {@link ServerUpdateListener} with the channel for their server. The
+ * channel's thread asks the server for the updates of all registered
+ * workspaces at once; the server holds the request until at least one of them
+ * has changed or {@link #LONG_POLL_TIMEOUT} passes, and the channel hands each
+ * workspace's batch to its listener.
+ * <p>
+ * The response is a sequence of entries, each the workspace UUID and the
+ * content type of the batch as modified UTF-8 strings, followed by the length
+ * of the batch as an int and the batch itself. The whole response may be
+ * compressed as described by {@link HttpCompression}.
+ * <p>
+ * When the connection fails the channel retries with an exponentially growing
+ * delay. Servers that do not provide the channel answer with an error status,
+ * in which case every listener is told through
+ * {@link ServerUpdateListener#channelUnsupported()} and the channel is not
+ * used for that server again.
+ */
+public class ServerUpdateChannel {
+	
+	private static final Logger logger = Logger.getLogger(ServerUpdateChannel.class);
+
+	/**
+	 * The content type of the channel's responses.
+	 */
+	public static final String CONTENT_TYPE = "application/x-wabit-updates";
+
+	/**
+	 * The path of the channel relative to the server's base URI.
+	 */
+	private static final String UPDATES_REL_PATH = "updates";
+
+	/**
+	 * The longest time in milliseconds the server is asked to hold a request
+	 * when none of the workspaces have changed.
+	 */
+	static final int LONG_POLL_TIMEOUT = 30000;
+	
+	private static final long MIN_RETRY_DELAY = 1000;
+	
+	private static final long MAX_RETRY_DELAY = 60000;
+
+	/**
+	 * The channel of each server, keyed by
+	 * {@link HttpClientRegistry#serverKey(SPServerInfo)}.
+	 */
+	@GuardedBy("channels")
+	private static final Map<String, ServerUpdateChannel> channels = 
+		new HashMap<String, ServerUpdateChannel>();
+
+	/**
+	 * Returns the channel for the given server, creating it if necessary.
+	 */
+	public static ServerUpdateChannel getChannel(SPServerInfo serverInfo) {
+		synchronized (channels) {
+			String key = HttpClientRegistry.serverKey(serverInfo);
+			ServerUpdateChannel channel = channels.get(key);
+			if (channel == null) {
+				channel = new ServerUpdateChannel(serverInfo);
+				channels.put(key, channel);
+			}
+			return channel;
+		}
+	}
+	
+	private final SPServerInfo serverInfo;
+
+	/**
+	 * The listener of each registered workspace, keyed by the workspace's
+	 * UUID.
+	 */
+	@GuardedBy("this")
+	private final Map<String, ServerUpdateListener> listeners = 
+		new LinkedHashMap<String, ServerUpdateListener>();
+
+	/**
+	 * The thread polling the server, or null if no workspaces are registered.
+	 */
+	@GuardedBy("this")
+	private Thread thread;
+
+	/**
+	 * The request waiting on the server. It is aborted when a workspace is
+	 * registered so the next request asks for the new set, unless its
+	 * response is already being read.
+	 */
+	@GuardedBy("this")
+	private HttpGet currentRequest;
+
+	/**
+	 * Set once the server has started answering the {@link #currentRequest}.
+	 * The server removes the batches it sends from its queues and cannot send
+	 * them again, so a request whose response is being read is never aborted:
+	 * the batches of every workspace in the response would be lost. The next
+	 * request picks up the new set of workspaces instead.
+	 */
+	@GuardedBy("this")
+	private boolean readingResponse;
+
+	/**
+	 * Set once the server has answered that it does not provide the channel.
+	 */
+	@GuardedBy("this")
+	private boolean unsupported;
+	
+	private ServerUpdateChannel(SPServerInfo serverInfo) {
+		this.serverInfo = serverInfo;
+	}
+
+	/**
+	 * Starts delivering the updates of the given workspace to the given
+	 * listener, replacing any listener the workspace had. If the server is
+	 * already known not to provide the channel the listener is told so right
+	 * away.
+	 */
+	public void register(String workspaceUUID, ServerUpdateListener listener) {
+		synchronized (this) {
+			if (!unsupported) {
+				listeners.put(workspaceUUID, listener);
+				if (thread == null) {
+					thread = new Thread(new Runnable() {
+						public void run() {
+							poll();
+						}
+					}, "updates-" + serverInfo.getServerAddress());
+					thread.setDaemon(true);
+					thread.start();
+				} else {
+					abortCurrentRequest();
+				}
+				return;
+			}
+		}
+		listener.channelUnsupported();
+	}
+
+	/**
+	 * Stops delivering the updates of the given workspace. The request
+	 * waiting on the server is left alone, the updates it brings back for
+	 * the workspace are dropped, unless this was the last workspace. The
+	 * channel's thread exits once no workspaces are registered.
+	 */
+	public synchronized void unregister(String workspaceUUID) {
+		if (listeners.remove(workspaceUUID) != null && listeners.isEmpty()) {
+			if (currentRequest != null) {
+				currentRequest.abort();
+			}
+		}
+	}
+
+	/**
+	 * Aborts the request waiting on the server so the next one asks for the
+	 * current set of workspaces, unless the server has already started
+	 * answering it. See {@link #readingResponse}.
+	 */
+	@GuardedBy("this")
+	private void abortCurrentRequest() {
+		if (currentRequest != null && !readingResponse) {
+			currentRequest.abort();
+		}
+	}
+
+	/**
+	 * The body of the channel's thread.
+	 */
+	private void poll() {
+		logger.info("Update channel for " + serverInfo.getServerAddress() + " starting");
+		final ResponseHandler<Map<String, List<ServerUpdate>>> handler = 
+			new ResponseHandler<Map<String, List<ServerUpdate>>>() {
+			public Map<String, List<ServerUpdate>> handleResponse(HttpResponse response)
+					throws ClientProtocolException, IOException {
+				synchronized (ServerUpdateChannel.this) {
+					readingResponse = true;
+				}
+				return updatesHandler.handleResponse(response);
+			}
+		};
+		long retryDelay = MIN_RETRY_DELAY;
+		while (true) {
+			HttpGet request;
+			synchronized (this) {
+				if (listeners.isEmpty()) {
+					thread = null;
+					currentRequest = null;
+					logger.info("Update channel for " + serverInfo.getServerAddress() + 
+							" exiting, no workspaces are open");
+					return;
+				}
+				try {
+					request = createRequest(listeners.keySet());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				currentRequest = request;
+				readingResponse = false;
+			}
+			try {
+				// The client is looked up for each request as the registry
+				// replaces the clients it shut down.
+				HttpClient httpClient = HttpClientRegistry.getClient(serverInfo);
+				Map<String, List<ServerUpdate>> updates = httpClient.execute(request, handler);
+				retryDelay = MIN_RETRY_DELAY;
+				for (Map.Entry<String, List<ServerUpdate>> entry : updates.entrySet()) {
+					ServerUpdateListener listener;
+					synchronized (this) {
+						listener = listeners.get(entry.getKey());
+					}
+					if (listener == null) continue;
+					for (ServerUpdate update : entry.getValue()) {
+						listener.updateReceived(update);
+					}
+				}
+			} catch (HttpResponseException e) {
+				if (e.getStatusCode() == 404 || e.getStatusCode() == 405 || e.getStatusCode() == 501) {
+					logger.info("Server " + serverInfo.getServerAddress() + 
+							" does not provide the update channel (" + e.getStatusCode() + ")");
+					channelUnsupported();
+					return;
+				}
+				retryDelay = retry(e, retryDelay);
+			} catch (Exception e) {
+				if (request.isAborted()) {
+					logger.debug("Update request aborted, the open workspaces changed");
+					continue;
+				}
+				retryDelay = retry(e, retryDelay);
+			}
+		}
+	}
+
+	/**
+	 * Waits before the next attempt to contact the server and returns the
+	 * delay to wait after the attempt after that.
+	 */
+	private long retry(Exception e, long retryDelay) {
+		logger.error("Failed to contact server. Will retry in " + retryDelay + " ms.", e);
+		try {
+			Thread.sleep(retryDelay);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+	}
+
+	/**
+	 * Unregisters every listener and tells it that the server does not provide
+	 * the channel.
+	 */
+	private void channelUnsupported() {
+		List<ServerUpdateListener> unsupportedListeners;
+		synchronized (this) {
+			unsupported = true;
+			unsupportedListeners = new ArrayList<ServerUpdateListener>(listeners.values());
+			listeners.clear();
+			thread = null;
+			currentRequest = null;
+		}
+		for (ServerUpdateListener listener : unsupportedListeners) {
+			listener.channelUnsupported();
+		}
+	}
+	
+	private HttpGet createRequest(Iterable<String> workspaceUUIDs) throws Exception {
+		StringBuilder query = new StringBuilder("timeout=").append(LONG_POLL_TIMEOUT);
+		for (String uuid : workspaceUUIDs) {
+			query.append("&workspace=").append(uuid);
+		}
+		URI base = WabitClientSession.getServerURI(serverInfo, UPDATES_REL_PATH);
+		HttpGet request = new HttpGet(new URI(base.toString() + "?" + query));
+		request.setHeader("Accept", CONTENT_TYPE);
+		request.setHeader(WireFormat.HEADER, WireFormat.BINARY.getName() + ", " + WireFormat.JSON.getName());
+		HttpCompression.acceptCompressedResponse(request);
+		HttpConnectionParams.setSoTimeout(request.getParams(), LONG_POLL_TIMEOUT * 2);
+		return request;
+	}
+	
+	private static final ResponseHandler<Map<String, List<ServerUpdate>>> updatesHandler = 
+		new ResponseHandler<Map<String, List<ServerUpdate>>>() {
+		public Map<String, List<ServerUpdate>> handleResponse(HttpResponse response)
+				throws ClientProtocolException, IOException {
+			HttpEntity entity = response.getEntity();
+			if (response.getStatusLine().getStatusCode() >= 300) {
+				if (entity != null) {
+					entity.consumeContent();
+				}
+				throw new HttpResponseException(response.getStatusLine().getStatusCode(), 
+						response.getStatusLine().getReasonPhrase());
+			}
+			if (entity == null) {
+				return new LinkedHashMap<String, List<ServerUpdate>>();
+			}
+			if (entity.getContentType() == null || 
+					!entity.getContentType().getValue().startsWith(CONTENT_TYPE)) {
+				entity.consumeContent();
+				throw new ClientProtocolException("Unexpected update content type " + entity.getContentType());
+			}
+			InputStream in = HttpCompression.getContent(entity);
+			try {
+				return readUpdates(in);
+			} finally {
+				in.close();
+			}
+		}
+	};
+
+	/**
+	 * Reads the batches of a response to the channel's request, grouped by the
+	 * UUID of their workspace. Batches for the same workspace are kept in the
+	 * order they were sent.
+	 */
+	static Map<String, List<ServerUpdate>> readUpdates(InputStream content) throws IOException {
+		Map<String, List<ServerUpdate>> batches = new LinkedHashMap<String, List<ServerUpdate>>();
+		DataInputStream in = new DataInputStream(content);
+		while (true) {
+			String workspaceUUID;
+			try {
+				workspaceUUID = in.readUTF();
+			} catch (EOFException e) {
+				break;
+			}
+			String contentType = in.readUTF();
+			int length = in.readInt();
+			if (length < 0) throw new IOException("Negative update length " + length);
+			byte[] batch = new byte[length];
+			in.readFully(batch);
+			List<ServerUpdate> workspaceBatches = batches.get(workspaceUUID);
+			if (workspaceBatches == null) {
+				workspaceBatches = new ArrayList<ServerUpdate>();
+				batches.put(workspaceUUID, workspaceBatches);
+			}
+			workspaceBatches.add(new ServerUpdate(WireFormat.fromContentType(contentType), 
+					batch, charsetOf(contentType)));
+		}
+		return batches;
+	}
+	
+	private static String charsetOf(String contentType) {
+		int index = contentType.toLowerCase().indexOf("charset=");
+		if (index == -1) return "UTF-8";
+		return contentType.substring(index + "charset=".length()).trim();
+	}
+}
@@ -32,27 +32,25 @@ import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.swing.SwingUtilities;
 
+import net.jcip.annotations.GuardedBy;
+
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpOptions;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
@@ -61,6 +59,7 @@ import org.json.JSONObject;
 
 import ca.sqlpower.dao.MessageSender;
 import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
 import ca.sqlpower.dao.json.JSONHttpMessageSender;
 import ca.sqlpower.dao.json.SPJSONMessageDecoder;
 import ca.sqlpower.enterprise.client.SPServerInfo;
@@ -80,6 +79,8 @@ import ca.sqlpower.wabit.WabitSessionContext;
 import ca.sqlpower.wabit.WabitSessionImpl;
 import ca.sqlpower.wabit.WabitWorkspace;
 import ca.sqlpower.wabit.dao.WabitSessionPersister;
+import ca.sqlpower.wabit.dao.binary.WabitBinaryMessageDecoder;
+import ca.sqlpower.wabit.dao.binary.WabitBinaryPersister;
 import ca.sqlpower.wabit.dao.json.WabitJSONPersister;
 import ca.sqlpower.wabit.dao.session.WorkspacePersisterListener;
 import ca.sqlpower.wabit.swingui.WabitSwingSessionContext;
@@ -97,8 +98,46 @@ public class WabitClientSession extends WabitSessionImpl {
      * The relative path to the Mondrian schemas from the server's base URI.
      */
     private static final String MONDRIAN_SCHEMA_REL_PATH = "mondrian-schema/";
+
+    /**
+     * If false the session never offers the {@link WireFormat#BINARY} format
+     * to the server and exchanges persistence calls as JSON. Set by the system
+     * property
+     * <code>ca.sqlpower.wabit.enterprise.client.WabitClientSession.binaryWireFormat</code>.
+     */
+    private static final boolean OFFER_BINARY_WIRE_FORMAT = 
+    	!"false".equals(System.getProperty(WabitClientSession.class.getName() + ".binaryWireFormat"));
+    
+    /**
+     * Polls the server for this session's updates when the server does not
+     * provide the {@link ServerUpdateChannel}. Null while the channel is used.
+     */
+    @GuardedBy("this")
+    private Updater updater;
+
+    /**
+     * Set when this session starts closing, so no {@link Updater} is started
+     * afterwards.
+     */
+    @GuardedBy("this")
+    private boolean closing;
+
+    /**
+     * Sends this session's local changes to the server, null until
+     * {@link #startUpdaterThread()} is called. Its held changes are flushed
+     * first thing in {@link #close()}, while the server session still exists.
+     */
+    private WorkspacePersisterListener persisterListener;
     
-    private final Updater updater;
+    /**
+     * Decodes JSON updates from the server onto the {@link #sessionPersister}.
+     */
+    private final SPJSONMessageDecoder jsonDecoder;
+    
+    /**
+     * Decodes binary updates from the server onto the {@link #sessionPersister}.
+     */
+    private final WabitBinaryMessageDecoder binaryDecoder;
 
     /**
      * This workspace's location information.
@@ -108,9 +147,17 @@ public class WabitClientSession extends WabitSessionImpl {
 	private final HttpClient outboundHttpClient;
 	
 	/**
-	 * Handles output Wabit persistence calls for this WabitServerSession
+	 * The format persistence calls are exchanged with the server in, as
+	 * negotiated when this session was created.
 	 */
-	private final WabitJSONPersister jsonPersister;
+	private final WireFormat wireFormat;
+	
+	/**
+	 * Handles output Wabit persistence calls for this WabitServerSession. This
+	 * is a {@link WabitBinaryPersister} or a {@link WabitJSONPersister}
+	 * depending on the {@link #wireFormat}.
+	 */
+	private final SPPersister outboundPersister;
 
 	/**
 	 * Applies Wabit persistence calls coming from a Wabit server to this WabitServerSession
@@ -144,7 +191,7 @@ public class WabitClientSession extends WabitSessionImpl {
         }
 
         super.fontLoader = new RemoteFontLoader(workspaceLocation.getServiceInfo());
-        outboundHttpClient = createHttpClient(workspaceLocation.getServiceInfo());
+        outboundHttpClient = HttpClientRegistry.getClient(workspaceLocation.getServiceInfo());
         
         getWorkspace().setUUID(workspaceLocation.getUuid());
         getWorkspace().setName("Loading Workspace...");
@@ -155,11 +202,19 @@ public class WabitClientSession extends WabitSessionImpl {
         		WabitClientSession.this, true);
         // Whatever updates come from the server, it can override the user's stuff.
         sessionPersister.setGodMode(true);
-        updater = new Updater(workspaceLocation.getUuid(), new SPJSONMessageDecoder(sessionPersister));
+        jsonDecoder = new SPJSONMessageDecoder(sessionPersister);
+        binaryDecoder = new WabitBinaryMessageDecoder(sessionPersister);
         
-        MessageSender<JSONObject> httpSender = new JSONHttpMessageSender(outboundHttpClient, workspaceLocation.getServiceInfo(),
-        		workspaceLocation.getUuid());
-		jsonPersister = new WabitJSONPersister(httpSender);
+        wireFormat = negotiateWireFormat(outboundHttpClient, workspaceLocation);
+        logger.debug("Exchanging persistence calls with the server as " + wireFormat);
+        if (wireFormat == WireFormat.BINARY) {
+        	outboundPersister = new WabitBinaryPersister(new BinaryHttpMessageSender(
+        			outboundHttpClient, workspaceLocation.getServiceInfo(), workspaceLocation.getUuid()));
+        } else {
+        	MessageSender<JSONObject> httpSender = new JSONHttpMessageSender(outboundHttpClient, workspaceLocation.getServiceInfo(),
+        			workspaceLocation.getUuid());
+        	outboundPersister = new WabitJSONPersister(httpSender);
+        }
 		
 		try {
 			ServerInfoProvider.getServerVersion(
@@ -173,20 +228,47 @@ public class WabitClientSession extends WabitSessionImpl {
 		}
     }
 
-	public static HttpClient createHttpClient(SPServerInfo serviceInfo) {
-		HttpParams params = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(params, 2000);
-        DefaultHttpClient httpClient = new DefaultHttpClient(params);
-        httpClient.setCookieStore(cookieStore);
-        httpClient.getCredentialsProvider().setCredentials(
-            new AuthScope(serviceInfo.getServerAddress(), AuthScope.ANY_PORT), 
-            new UsernamePasswordCredentials(serviceInfo.getUsername(), serviceInfo.getPassword()));
-        return httpClient;
+	/**
+	 * Asks the server which {@link WireFormat} to exchange the given
+	 * workspace's persistence calls in. Servers that do not understand the
+	 * question, or fail to answer it, get {@link WireFormat#JSON}.
+	 */
+	private static WireFormat negotiateWireFormat(HttpClient httpClient, WorkspaceLocation workspaceLocation) {
+		if (!OFFER_BINARY_WIRE_FORMAT) return WireFormat.JSON;
+		try {
+			HttpOptions request = new HttpOptions(getServerURI(workspaceLocation.getServiceInfo(), 
+					"workspaces/" + workspaceLocation.getUuid()));
+			request.setHeader(WireFormat.HEADER, WireFormat.BINARY.getName() + ", " + WireFormat.JSON.getName());
+			HttpResponse response = httpClient.execute(request);
+			if (response.getEntity() != null) {
+				response.getEntity().consumeContent();
+			}
+			if (response.getStatusLine().getStatusCode() != 200) return WireFormat.JSON;
+			return WireFormat.fromResponse(response);
+		} catch (Exception e) {
+			logger.info("Could not negotiate the wire format with the server, using JSON", e);
+			return WireFormat.JSON;
+		}
+	}
+	
+	/**
+	 * Returns the format this session exchanges persistence calls with the
+	 * server in.
+	 */
+	public WireFormat getWireFormat() {
+		return wireFormat;
 	}
 
     @Override
     public boolean close() {
     	logger.debug("Closing Client Session");
+    	if (persisterListener != null) {
+    		try {
+    			persisterListener.flush();
+    		} catch (SPPersistenceException e) {
+    			logger.error("Could not send the last changes before closing", e);
+    		}
+    	}
     	try {
     		HttpUriRequest request = new HttpDelete(getServerURI(workspaceLocation.getServiceInfo(), 
     				"session/" + getWorkspace().getUUID()));
@@ -200,8 +282,14 @@ public class WabitClientSession extends WabitSessionImpl {
 				//do nothing here because we failed on logging the error.
 			}
 		}
-        outboundHttpClient.getConnectionManager().shutdown();
-        updater.interrupt();
+        ServerUpdateChannel.getChannel(workspaceLocation.getServiceInfo()).unregister(
+        		workspaceLocation.getUuid());
+        synchronized (this) {
+        	closing = true;
+        	if (updater != null) {
+        		updater.interrupt();
+        	}
+        }
         
         if (dataSourceCollection != null) {
             dataSourceCollectionUpdater.detach(dataSourceCollection);
@@ -311,7 +399,7 @@ public class WabitClientSession extends WabitSessionImpl {
                 List<NameValuePair> properties) {
         	if (postingProperties) return;
         	
-            HttpClient httpClient = createHttpClient(workspaceLocation.getServiceInfo());
+            HttpClient httpClient = HttpClientRegistry.getClient(workspaceLocation.getServiceInfo());
             try {
             	final ResponseHandler<Void> responseHandler = new ResponseHandler<Void>() {
             		public Void handleResponse(HttpResponse response)
@@ -374,8 +462,6 @@ public class WabitClientSession extends WabitSessionImpl {
                 
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
-            } finally {
-                httpClient.getConnectionManager().shutdown();
             }
         }
 
@@ -385,7 +471,7 @@ public class WabitClientSession extends WabitSessionImpl {
          * leaks.
          */
         public void databaseRemoved(DatabaseListChangeEvent e) {
-            HttpClient httpClient = createHttpClient(workspaceLocation.getServiceInfo());
+            HttpClient httpClient = HttpClientRegistry.getClient(workspaceLocation.getServiceInfo());
             try {
                 SPDataSource removedDS = e.getDataSource();
                 
@@ -418,8 +504,6 @@ public class WabitClientSession extends WabitSessionImpl {
                 
             } catch (Exception ex) {
                 throw new RuntimeException(ex);
-            } finally {
-                httpClient.getConnectionManager().shutdown();
             }
         }
         
@@ -507,25 +591,21 @@ public class WabitClientSession extends WabitSessionImpl {
      * @throws JSONException 
      */
     public static List<WorkspaceLocation> getWorkspaceNames(SPServerInfo serviceInfo) throws IOException, URISyntaxException, JSONException {
-    	HttpClient httpClient = createHttpClient(serviceInfo);
-    	try {
-    		HttpUriRequest request = new HttpGet(getServerURI(serviceInfo, "workspaces"));
-    		String responseBody = httpClient.execute(request, new BasicResponseHandler());
-    		JSONArray response;
-    		List<WorkspaceLocation> workspaces = new ArrayList<WorkspaceLocation>();
-    		response = new JSONArray(responseBody);
-    		logger.debug("Workspace list:\n" + responseBody);
-    		for (int i = 0; i < response.length(); i++) {
-    			JSONObject workspace = (JSONObject) response.get(i);
-    			workspaces.add(new WorkspaceLocation(
-    					workspace.getString("name"),
-    					workspace.getString("UUID"),
-    					serviceInfo));
-    		}
-    		return workspaces;
-    	} finally {
-    		httpClient.getConnectionManager().shutdown();
+    	HttpClient httpClient = HttpClientRegistry.getClient(serviceInfo);
+    	HttpUriRequest request = new HttpGet(getServerURI(serviceInfo, "workspaces"));
+    	String responseBody = httpClient.execute(request, new BasicResponseHandler());
+    	JSONArray response;
+    	List<WorkspaceLocation> workspaces = new ArrayList<WorkspaceLocation>();
+    	response = new JSONArray(responseBody);
+    	logger.debug("Workspace list:\n" + responseBody);
+    	for (int i = 0; i < response.length(); i++) {
+    		JSONObject workspace = (JSONObject) response.get(i);
+    		workspaces.add(new WorkspaceLocation(
+    				workspace.getString("name"),
+    				workspace.getString("UUID"),
+    				serviceInfo));
     	}
+    	return workspaces;
     }
 
 	/**
@@ -543,30 +623,22 @@ public class WabitClientSession extends WabitSessionImpl {
 	 * @throws JSONException
 	 */
     public static WorkspaceLocation createNewServerSession(SPServerInfo serviceInfo) throws URISyntaxException, ClientProtocolException, IOException, JSONException {
-    	HttpClient httpClient = createHttpClient(serviceInfo);
-    	try {
-    		HttpUriRequest request = new HttpPost(getServerURI(serviceInfo, "workspaces"));
-    		String responseBody = httpClient.execute(request, new BasicResponseHandler());
-    		JSONObject response = new JSONObject(responseBody);
-    		logger.debug("New Workspace:" + responseBody);
-    		return new WorkspaceLocation(
-    					response.getString("name"),
-    					response.getString("UUID"),
-    					serviceInfo);
-    	} finally {
-    		httpClient.getConnectionManager().shutdown();
-    	}
+    	HttpClient httpClient = HttpClientRegistry.getClient(serviceInfo);
+    	HttpUriRequest request = new HttpPost(getServerURI(serviceInfo, "workspaces"));
+    	String responseBody = httpClient.execute(request, new BasicResponseHandler());
+    	JSONObject response = new JSONObject(responseBody);
+    	logger.debug("New Workspace:" + responseBody);
+    	return new WorkspaceLocation(
+    			response.getString("name"),
+    			response.getString("UUID"),
+    			serviceInfo);
     }
 
     public void deleteServerWorkspace() throws URISyntaxException, ClientProtocolException, IOException {
     	SPServerInfo serviceInfo = workspaceLocation.getServiceInfo();
-    	HttpClient httpClient = createHttpClient(serviceInfo);
-    	try {
-    		HttpUriRequest request = new HttpDelete(getServerURI(serviceInfo, "workspaces/" + getWorkspace().getUUID()));
-    		httpClient.execute(request, new HttpResponseHandler());
-    	} finally {
-    		httpClient.getConnectionManager().shutdown();
-    	}
+    	HttpClient httpClient = HttpClientRegistry.getClient(serviceInfo);
+    	HttpUriRequest request = new HttpDelete(getServerURI(serviceInfo, "workspaces/" + getWorkspace().getUUID()));
+    	httpClient.execute(request, new HttpResponseHandler());
     }
     
 	/**
@@ -615,7 +687,7 @@ public class WabitClientSession extends WabitSessionImpl {
         return httpClient.execute(request, responseHandler);
     }
     
-    private static URI getServerURI(SPServerInfo serviceInfo, String contextRelativePath) throws URISyntaxException {
+    static URI getServerURI(SPServerInfo serviceInfo, String contextRelativePath) throws URISyntaxException {
         logger.debug("Getting server URI for: " + serviceInfo);
         String contextPath = serviceInfo.getPath();
         URI serverURI = new URI("http", null, serviceInfo.getServerAddress(), serviceInfo.getPort(),
@@ -624,19 +696,78 @@ public class WabitClientSession extends WabitSessionImpl {
         return serverURI;
     }
 
+	/**
+	 * Starts receiving this session's updates from the server and sending
+	 * local changes back to it. Updates arrive through the
+	 * {@link ServerUpdateChannel} shared by all sessions on the same server,
+	 * unless the server does not provide it, in which case this session polls
+	 * its workspace with its own {@link Updater}.
+	 */
 	public void startUpdaterThread() {
-		updater.start();
-		WorkspacePersisterListener.attachListener(this, jsonPersister, sessionPersister, true);
+		ServerUpdateChannel.getChannel(workspaceLocation.getServiceInfo()).register(
+				workspaceLocation.getUuid(), updateListener);
+		persisterListener = 
+			WorkspacePersisterListener.attachListener(this, outboundPersister, sessionPersister, true);
+		if (getContext() instanceof WabitSwingSessionContext) {
+			// Held changes are only sent on a real foreground thread.
+			persisterListener.setCoalesceDelay(WorkspacePersisterListener.DEFAULT_COALESCE_DELAY);
+		}
 	}
 
 	public void persistWorkspaceToServer() throws SPPersistenceException {
-		WorkspacePersisterListener tempListener = new WorkspacePersisterListener(this, jsonPersister, true);
+		WorkspacePersisterListener tempListener = new WorkspacePersisterListener(this, outboundPersister, true);
 		tempListener.persistObject(this.getWorkspace());
 	}
+
+	/**
+	 * Applies the updates the {@link ServerUpdateChannel} delivers for this
+	 * session's workspace, and falls back to an {@link Updater} for servers
+	 * without the channel.
+	 */
+	private final ServerUpdateListener updateListener = new ServerUpdateListener() {
+		public void updateReceived(ServerUpdate update) {
+			applyUpdate(update);
+		}
+		public void channelUnsupported() {
+			synchronized (WabitClientSession.this) {
+				if (updater != null || closing) return;
+				updater = new Updater(workspaceLocation.getUuid());
+				updater.start();
+			}
+		}
+	};
+
+	/**
+	 * Decodes the given update from the server onto this session's workspace
+	 * in the foreground.
+	 */
+	private void applyUpdate(final ServerUpdate update) {
+		runInForeground(new Runnable() {
+			public void run() {
+				try {
+					if (update.getFormat() == WireFormat.BINARY) {
+						binaryDecoder.decode(update.getContent());
+					} else {
+						jsonDecoder.decode(new String(update.getContent(), update.getCharset()));
+					}
+				} catch (Exception e) {
+					logger.error("Update from server failed!", e);
+					createUserPrompter(
+							"Wabit failed to apply an update that was just received from the Enterprise Server.\n"
+							+ "The error was:"
+							+ "\n" + e.getMessage(),
+							UserPromptType.MESSAGE, UserPromptOptions.OK,
+							UserPromptResponse.OK, UserPromptResponse.OK, "OK");
+					// TODO discard session and reload
+				}
+			}
+		});
+	}
 	
 	/**
-	 * Polls this session's server for updates until interrupted. There should
-	 * be exactly one instance of this class per WabitServerSession.
+	 * Polls this session's server for updates until interrupted. This is only
+	 * used for servers that do not provide the {@link ServerUpdateChannel};
+	 * there is at most one instance of this class per WabitServerSession.
 	 */
 	private class Updater extends Thread {
 		
@@ -645,8 +776,6 @@ public class WabitClientSession extends WabitSessionImpl {
 		 * contact the server again.
 		 */
 		private long retryDelay = 1000;
-		
-		private final SPJSONMessageDecoder jsonDecoder;
 
 		/**
 		 * Used by the Updater to handle inbound HTTP updates
@@ -662,10 +791,9 @@ public class WabitClientSession extends WabitSessionImpl {
 		 *            the ID of the workspace this updater is responsible for. This is
 		 *            used in creating the thread's name.
 		 */
-		Updater(String workspaceUUID, SPJSONMessageDecoder jsonDecoder) {
+		Updater(String workspaceUUID) {
 			super("updater-" + workspaceUUID);
-			this.jsonDecoder = jsonDecoder;
-			inboundHttpClient = createHttpClient(workspaceLocation.getServiceInfo());
+			inboundHttpClient = HttpClientRegistry.getClient(workspaceLocation.getServiceInfo());
 		}
 		
 		public void interrupt() {
@@ -684,25 +812,12 @@ public class WabitClientSession extends WabitSessionImpl {
 			try {
 				while (!this.isInterrupted() && !cancelled) {
 					try {
-						final String jsonArray = executeServerRequest(
-								inboundHttpClient, workspaceLocation.getServiceInfo(),
-								contextRelativePath, new BasicResponseHandler());
-		                runInForeground(new Runnable() {
-							public void run() {
-								try {
-									jsonDecoder.decode(jsonArray);
-								} catch (SPPersistenceException e) {
-									logger.error("Update from server failed!", e);
-									createUserPrompter(
-											"Wabit failed to apply an update that was just received from the Enterprise Server.\n"
-											+ "The error was:"
-											+ "\n" + e.getMessage(),
-											UserPromptType.MESSAGE, UserPromptOptions.OK,
-											UserPromptResponse.OK, UserPromptResponse.OK, "OK");
-									// TODO discard session and reload
-								}
-							}
-						});
+						HttpGet request = new HttpGet(getServerURI(
+								workspaceLocation.getServiceInfo(), contextRelativePath));
+						request.setHeader("Accept", WireFormat.BINARY.getContentType() + ", " + 
+								WireFormat.JSON.getContentType());
+						HttpCompression.acceptCompressedResponse(request);
+						applyUpdate(inboundHttpClient.execute(request, updateHandler));
 					} catch (Exception ex) {
 						logger.error("Failed to contact server. Will retry in " + retryDelay + " ms.", ex);
 						Thread.sleep(retryDelay);
@@ -711,11 +826,34 @@ public class WabitClientSession extends WabitSessionImpl {
 			} catch (InterruptedException ex) {
 				logger.info("Updater thread exiting normally due to interruption.");
 			}
-			
-			inboundHttpClient.getConnectionManager().shutdown();
 		}
 	}
 
+	/**
+	 * Reads a response to the {@link Updater}'s request for updates in the
+	 * format the server sent it in. Like the {@link BasicResponseHandler}, it
+	 * fails on error statuses.
+	 */
+	private static final ResponseHandler<ServerUpdate> updateHandler = new ResponseHandler<ServerUpdate>() {
+		public ServerUpdate handleResponse(HttpResponse response)
+				throws ClientProtocolException, IOException {
+			if (response.getStatusLine().getStatusCode() >= 300) {
+				if (response.getEntity() != null) {
+					response.getEntity().consumeContent();
+				}
+				throw new HttpResponseException(response.getStatusLine().getStatusCode(), 
+						response.getStatusLine().getReasonPhrase());
+			}
+			if (response.getEntity() == null) {
+				return new ServerUpdate(WireFormat.JSON, new byte[0], "UTF-8");
+			}
+			String charset = EntityUtils.getContentCharSet(response.getEntity());
+			return new ServerUpdate(WireFormat.fromEntity(response.getEntity()), 
+					HttpCompression.toByteArray(response.getEntity()), 
+					charset == null ? "UTF-8" : charset);
+		}
+	};
+
 	/**
 	 * Fetches the system workspace from the same server as this session.
 	 * Returns null if the user doesn't have access to a given workspace.
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpMessage;
+
+import ca.sqlpower.wabit.dao.binary.WabitBinaryPersister;
+import ca.sqlpower.wabit.dao.json.WabitJSONPersister;
+
+/**
+ * The encodings a client session and a Wabit Enterprise Server can exchange
+ * persistence calls in. The format is negotiated once per session: the client
+ * lists the formats it understands in the {@link #HEADER} of its negotiation
+ * request and the server answers with the one it picked. Servers that do not
+ * know about the header do not answer it, and the session stays with
+ * {@link #JSON}.
+ */
+public enum WireFormat {
+
+	/**
+	 * Persistence calls as JSON, sent by the {@link WabitJSONPersister}.
+	 */
+	JSON("json", "application/json"),
+
+	/**
+	 * Persistence calls in the compact binary encoding sent by the
+	 * {@link WabitBinaryPersister}.
+	 */
+	BINARY("binary", WabitBinaryPersister.CONTENT_TYPE);
+
+	/**
+	 * The header the formats are negotiated in.
+	 */
+	public static final String HEADER = "X-Wabit-Wire-Format";
+	
+	private final String name;
+	
+	private final String contentType;
+	
+	private WireFormat(String name, String contentType) {
+		this.name = name;
+		this.contentType = contentType;
+	}
+	
+	/**
+	 * The name of this format in the {@link #HEADER}.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Returns the format the server picked in its answer to a negotiation
+	 * request, or {@link #JSON} if it did not pick one this client knows.
+	 */
+	public static WireFormat fromResponse(HttpMessage response) {
+		if (response.getFirstHeader(HEADER) == null) return JSON;
+		String value = response.getFirstHeader(HEADER).getValue().trim();
+		for (WireFormat format : values()) {
+			if (format.getName().equalsIgnoreCase(value)) return format;
+		}
+		return JSON;
+	}
+
+	/**
+	 * Returns the format of the given entity based on its content type.
+	 * Entities of an unknown type are taken to be {@link #JSON}, which is what
+	 * servers that do not negotiate the format send.
+	 */
+	public static WireFormat fromEntity(HttpEntity entity) {
+		if (entity.getContentType() == null) return JSON;
+		return fromContentType(entity.getContentType().getValue());
+	}
+
+	/**
+	 * Returns the format with the given content type. Unknown content types
+	 * are taken to be {@link #JSON}.
+	 */
+	public static WireFormat fromContentType(String contentType) {
+		if (contentType != null && contentType.startsWith(BINARY.getContentType())) return BINARY;
+		return JSON;
+	}
+}
@@ -40,7 +40,6 @@ import ca.sqlpower.enterprise.client.User;
 import ca.sqlpower.enterprise.client.security.SPAccessManager;
 import ca.sqlpower.object.SPObject;
 import ca.sqlpower.object.WorkspaceGraphModel;
-import ca.sqlpower.util.SQLPowerUtils;
 import ca.sqlpower.wabit.WabitSession;
 import ca.sqlpower.wabit.WabitWorkspace;
 
@@ -162,8 +161,8 @@ public class WabitAccessManager implements SPAccessManager{
 		if (getCurrentSession() == null) {
 			return Collections.emptyList();
 		}
-		final SPObject workspace = getCurrentSession().getWorkspace();
-		SPObject root = SQLPowerUtils.findByUuid(workspace, rootUuid, SPObject.class);
+		final WabitWorkspace workspace = getCurrentSession().getWorkspace();
+		SPObject root = workspace.findByUuid(rootUuid, SPObject.class);
 		// Must find all dependent objects, but not ancestors
 		WorkspaceGraphModel graph = new WorkspaceGraphModel(workspace,
 				root, true, true);
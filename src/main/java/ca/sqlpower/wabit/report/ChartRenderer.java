@@ -21,12 +21,17 @@ package ca.sqlpower.wabit.report;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 
+import net.jcip.annotations.GuardedBy;
+
 import org.apache.log4j.Logger;
 import org.jfree.chart.ChartRenderingInfo;
 import org.jfree.chart.JFreeChart;
@@ -52,14 +57,103 @@ public class ChartRenderer extends AbstractWabitObject
 		implements WabitObjectReportRenderer, ContextAware {
 		
 	private static final Logger logger = Logger.getLogger(ChartRenderer.class);
+
+	/**
+	 * The number of points each series of an XY chart keeps for every unit of
+	 * width of the content box. Series with more points than that are
+	 * downsampled before the chart is drawn, as the extra points could not be
+	 * told apart. Setting the system property
+	 * <code>ca.sqlpower.wabit.report.ChartRenderer.pointsPerPixel</code> to 0
+	 * draws every point.
+	 */
+	private static final int POINTS_PER_PIXEL = 
+		Integer.getInteger(ChartRenderer.class.getName() + ".pointsPerPixel", 2);
+
+	/**
+	 * When painting on screen the chart is drawn once into an image that is
+	 * then reused until the chart's data, its properties or the size it is
+	 * drawn at change. Setting the system property
+	 * <code>ca.sqlpower.wabit.report.ChartRenderer.disableImageCache</code>
+	 * to true draws the chart every time instead. Printing never uses the
+	 * image.
+	 */
+	private static final boolean IMAGE_CACHE_ENABLED = 
+		!Boolean.getBoolean(ChartRenderer.class.getName() + ".disableImageCache");
+
+	/**
+	 * Category charts are rendered from their query grouped by the category
+	 * columns, letting the database aggregate the series instead of sending
+	 * every row. Setting the system property
+	 * <code>ca.sqlpower.wabit.report.ChartRenderer.disableDatabaseAggregation</code>
+	 * to true fetches every row and aggregates them in the chart instead,
+	 * for databases whose aggregate functions differ from the chart's own.
+	 */
+	private static final boolean AGGREGATE_IN_DATABASE = 
+		!Boolean.getBoolean(ChartRenderer.class.getName() + ".disableDatabaseAggregation");
+
+	/**
+	 * Charts drawn larger than this many device pixels are not kept as images,
+	 * to bound the memory a zoomed in report can use.
+	 */
+	private static final int MAX_CACHED_IMAGE_PIXELS = 4096 * 4096;
+
 	private boolean needsRefresh = false;
 
 	private final Chart chart;
-	
-	private Chart chartCache;
+
+	/**
+	 * The copy of {@link #chart} that is rendered. It is replaced by
+	 * {@link #refresh(boolean)} while holding this renderer's lock, but its
+	 * query runs after the lock is released.
+	 */
+	private volatile Chart chartCache;
+
+	/**
+	 * Incremented every time the data or the settings of the chart change.
+	 * The cached JFreeChart and image are only used while the version they
+	 * were made at is still current.
+	 */
+	private final AtomicInteger dataVersion = new AtomicInteger();
+
+	/**
+	 * The JFreeChart last made for this renderer, or null if it has to be
+	 * made again.
+	 */
+	@GuardedBy("this")
+	private JFreeChart cachedChart;
+
+	/**
+	 * The {@link #dataVersion} {@link #cachedChart} was made at.
+	 */
+	@GuardedBy("this")
+	private int cachedVersion;
+
+	/**
+	 * The area {@link #cachedChart} was laid out in.
+	 */
+	@GuardedBy("this")
+	private Rectangle2D cachedArea;
+
+	/**
+	 * The bottom of the plot area of {@link #cachedChart} when it is drawn in
+	 * {@link #cachedArea}, which is where the background gradient ends.
+	 */
+	@GuardedBy("this")
+	private int cachedPlotBottom;
+
+	/**
+	 * {@link #cachedChart} drawn at {@link #cachedImageScale} for painting on
+	 * screen, or null if it has not been drawn yet.
+	 */
+	@GuardedBy("this")
+	private BufferedImage cachedImage;
+
+	@GuardedBy("this")
+	private double cachedImageScale;
 	
 	private final ChartDataListener chartListener = new ChartDataListener() {
         public void chartDataChanged(ChartDataChangedEvent evt) {
+        	dataVersion.incrementAndGet();
         	if (getParent() != null) {
         		getParent().repaint();
         	}
@@ -70,6 +164,7 @@ public class ChartRenderer extends AbstractWabitObject
 
 		protected void propertyChangeImpl(java.beans.PropertyChangeEvent evt) {
     		needsRefresh  = true;
+    		dataVersion.incrementAndGet();
     	};
 	};
     
@@ -112,49 +207,139 @@ public class ChartRenderer extends AbstractWabitObject
 			SPVariableResolver variablesContext) 
 	{
 	    
+		// The query is run before taking the lock so painting the chart on
+		// another thread does not wait for it.
+		Chart currentCache = this.chartCache;
 		if (printing) {
 			// If we're printing a streaming query, we have to
 			// print whatever's displayed.
-			if (this.chartCache == null ||
-					(this.chartCache != null && !this.chartCache.getQuery().isStreaming())) {
+			if (currentCache == null || !currentCache.getQuery().isStreaming()) {
 				refresh(false);
 			}
-		} else if (needsRefresh || this.chartCache == null) {
+		} else if (needsRefresh || currentCache == null) {
 			// No chart loaded. Doing a refresh will trigger a new 
 			// redraw later on.
 			refresh();
 			return false;
 		}
 		
-		JFreeChart jFreeChart = null;
-		try {
-		    jFreeChart = ChartSwingUtil.createChartFromQuery(chartCache);
-			if (jFreeChart == null) {
-			    g.drawString("Loading...", 0, g.getFontMetrics().getHeight());
-			    return false;
-			}
+		synchronized (this) {
+			try {
+				Rectangle2D area = new Rectangle2D.Double(
+						0, 0, width, height);
+				if (!updateCachedChart(g, area)) {
+					g.drawString("Loading...", 0, g.getFontMetrics().getHeight());
+					return false;
+				}
 
-			Rectangle2D area = new Rectangle2D.Double(
-			        0, 0, width, height);
-
-			// first pass establishes rendering info but draws nothing
-			ChartRenderingInfo info = new ChartRenderingInfo();
-			Graphics2D dummyGraphics = (Graphics2D) g.create(0, 0, 0, 0);
-            jFreeChart.draw(dummyGraphics, area, info);
-			dummyGraphics.dispose();
-			
-			// now for real
-			Rectangle2D plotArea = info.getPlotInfo().getDataArea();
-            ChartGradientPainter.paintChartGradient(g, area, (int) plotArea.getMaxY());
-			jFreeChart.draw(g, area);
-            
-		} catch (Exception e) {
-		    logger.error("Error while rendering chart", e);
-		    g.drawString("Could not render chart: " + e.getMessage(), 0, g.getFontMetrics().getHeight());
+				if (printing || !IMAGE_CACHE_ENABLED || !paintCachedImage(g)) {
+					paintChart(g);
+				}
+
+			} catch (Exception e) {
+				logger.error("Error while rendering chart", e);
+				g.drawString("Could not render chart: " + e.getMessage(), 0, g.getFontMetrics().getHeight());
+			}
 		}
 		return false;
 	}
 
+	/**
+	 * Returns the JFreeChart kept for painting this renderer, or null if it
+	 * has to be made again. This is package private for testing.
+	 */
+	synchronized JFreeChart getCachedChart() {
+		return cachedChart;
+	}
+
+	/**
+	 * Makes sure {@link #cachedChart} shows the current data of the chart laid
+	 * out in the given area, making a new JFreeChart if it does not.
+	 * 
+	 * @return False if the chart cannot be made yet, for example because its
+	 *         query has not returned any results.
+	 */
+	@GuardedBy("this")
+	private boolean updateCachedChart(Graphics2D g, Rectangle2D area) throws Exception {
+		// Read the version before making the chart so data arriving while the
+		// chart is being made invalidates it.
+		int version = dataVersion.get();
+		if (cachedChart != null && cachedVersion == version && area.equals(cachedArea)) {
+			return true;
+		}
+		
+		clearCachedChart();
+		JFreeChart jFreeChart = ChartSwingUtil.createChartFromQuery(
+				chartCache, (int) Math.ceil(area.getWidth() * POINTS_PER_PIXEL));
+		if (jFreeChart == null) {
+			return false;
+		}
+		
+		// this pass establishes rendering info but draws nothing
+		ChartRenderingInfo info = new ChartRenderingInfo();
+		Graphics2D dummyGraphics = (Graphics2D) g.create(0, 0, 0, 0);
+		jFreeChart.draw(dummyGraphics, area, info);
+		dummyGraphics.dispose();
+		
+		cachedChart = jFreeChart;
+		cachedVersion = version;
+		cachedArea = (Rectangle2D) area.clone();
+		cachedPlotBottom = (int) info.getPlotInfo().getDataArea().getMaxY();
+		return true;
+	}
+
+	@GuardedBy("this")
+	private void paintChart(Graphics2D g) {
+		ChartGradientPainter.paintChartGradient(g, cachedArea, cachedPlotBottom);
+		cachedChart.draw(g, cachedArea);
+	}
+
+	/**
+	 * Paints the cached chart as an image drawn at the resolution of the given
+	 * graphics, drawing the image first if needed.
+	 * 
+	 * @return False if the chart could not be painted as an image because the
+	 *         graphics is rotated or sheared, or the image would be too large.
+	 */
+	@GuardedBy("this")
+	private boolean paintCachedImage(Graphics2D g) {
+		AffineTransform transform = g.getTransform();
+		if (transform.getShearX() != 0 || transform.getShearY() != 0) {
+			return false;
+		}
+		double scale = Math.max(Math.abs(transform.getScaleX()), Math.abs(transform.getScaleY()));
+		int imageWidth = (int) Math.ceil(cachedArea.getWidth() * scale);
+		int imageHeight = (int) Math.ceil(cachedArea.getHeight() * scale);
+		if (imageWidth <= 0 || imageHeight <= 0 
+				|| (long) imageWidth * imageHeight > MAX_CACHED_IMAGE_PIXELS) {
+			return false;
+		}
+		
+		if (cachedImage == null || cachedImageScale != scale) {
+			BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D imageGraphics = image.createGraphics();
+			imageGraphics.setRenderingHints(g.getRenderingHints());
+			imageGraphics.scale(scale, scale);
+			paintChart(imageGraphics);
+			imageGraphics.dispose();
+			cachedImage = image;
+			cachedImageScale = scale;
+		}
+		
+		Graphics2D imageGraphics = (Graphics2D) g.create();
+		imageGraphics.scale(1 / scale, 1 / scale);
+		imageGraphics.drawImage(cachedImage, 0, 0, null);
+		imageGraphics.dispose();
+		return true;
+	}
+
+	@GuardedBy("this")
+	private void clearCachedChart() {
+		cachedChart = null;
+		cachedArea = null;
+		cachedImage = null;
+	}
+
 	public void resetToFirstPage() {
 		//do nothing.
 	}
@@ -180,7 +365,8 @@ public class ChartRenderer extends AbstractWabitObject
     }
 
     @Override
-    public CleanupExceptions cleanup() {
+    public synchronized CleanupExceptions cleanup() {
+    	clearCachedChart();
     	if (this.chartCache != null) {
     		this.chartCache.removeChartDataListener(chartListener);
     		this.chartCache.cleanup();
@@ -194,14 +380,20 @@ public class ChartRenderer extends AbstractWabitObject
     }
     
 	public void refresh(boolean async) {
-		if (this.chartCache != null) {
-			this.chartCache.removeChartDataListener(chartListener);
-			this.chartCache.cleanup();
+		Chart newCache = new Chart(ChartRenderer.this.chart, this, AGGREGATE_IN_DATABASE);
+		newCache.addChartDataListener(chartListener);
+		Chart oldCache;
+		synchronized (this) {
+			oldCache = this.chartCache;
+			this.chartCache = newCache;
+			dataVersion.incrementAndGet();
+		}
+		if (oldCache != null) {
+			oldCache.removeChartDataListener(chartListener);
+			oldCache.cleanup();
 		}
-		this.chartCache = new Chart(ChartRenderer.this.chart, this);
-		this.chartCache.addChartDataListener(chartListener);
-		this.chartCache.refresh(async);
 		needsRefresh = false;
+		newCache.refresh(async);
 	}
 
     @Override
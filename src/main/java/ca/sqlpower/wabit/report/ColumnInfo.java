@@ -58,6 +58,7 @@ public class ColumnInfo extends AbstractWabitObject{
 	public static final String WIDTH_CHANGED = "width";
 	public static final String WILL_GROUP_OR_BREAK_CHANGED = "willGroupOrBreak";
 	public static final String WILL_SUBTOTAL_CHANGED = "willSubtotal";
+	public static final String AGGREGATE_CHANGED = "aggregate";
 	public static final String COLUMN_ALIAS = "columnAlias";
 	
 	private int width = DEFAULT_COL_WIDTH;
@@ -79,6 +80,13 @@ public class ColumnInfo extends AbstractWabitObject{
 	 * numeric columns should allow subtotals.
 	 */
 	private boolean willSubtotal = false;
+	
+	/**
+	 * The function used to combine the values of this column in its subtotals
+	 * and grand total. Columns that are not subtotaled are always summed in the
+	 * grand total.
+	 */
+	private AggregateFunction aggregate = AggregateFunction.SUM;
 
     /**
      * This is the column name as it is in the result set. If you want the
@@ -113,6 +121,7 @@ public class ColumnInfo extends AbstractWabitObject{
 		setName(columnInfo.getName());
 		this.willGroupOrBreak = columnInfo.willGroupOrBreak;
 		this.willSubtotal = columnInfo.willSubtotal;
+		this.aggregate = columnInfo.aggregate;
 	}
 
 	/**
@@ -183,6 +192,15 @@ public class ColumnInfo extends AbstractWabitObject{
 		this.willSubtotal = subtotal;
 	}
 
+	public AggregateFunction getAggregate() {
+		return aggregate;
+	}
+
+	public void setAggregate(AggregateFunction aggregate) {
+		firePropertyChange(AGGREGATE_CHANGED, this.aggregate, aggregate);
+		this.aggregate = aggregate;
+	}
+
 	public void setColumnAlias(String columnAlias) {
 		firePropertyChange(COLUMN_ALIAS, this.columnAlias, columnAlias);
 		this.columnAlias = columnAlias;
@@ -457,6 +457,10 @@ public class ContentBox extends AbstractWabitObject implements SPVariableResolve
     }
     
     public void repaint() {
+    	// Anything that needs to be repainted can change the number of pages.
+    	if (getParent() != null && getParent().getParent() instanceof Layout) {
+    		((Layout) getParent().getParent()).invalidatePagination();
+    	}
         runInForeground(new Runnable() {
             public void run() {
                 for (int i = repaintListeners.size() - 1; i >= 0; i--) {
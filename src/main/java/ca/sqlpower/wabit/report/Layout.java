@@ -28,19 +28,25 @@ import java.awt.print.PageFormat;
 import java.awt.print.Pageable;
 import java.awt.print.Printable;
 import java.awt.print.PrinterException;
+import java.beans.PropertyChangeEvent;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+import ca.sqlpower.object.AbstractPoolingSPListener;
+import ca.sqlpower.object.SPChildEvent;
+import ca.sqlpower.object.SPListener;
 import ca.sqlpower.object.SPObject;
 import ca.sqlpower.object.SPSimpleVariableResolver;
 import ca.sqlpower.object.SPVariableHelper;
 import ca.sqlpower.object.SPVariableResolver;
 import ca.sqlpower.object.SPVariableResolverProvider;
+import ca.sqlpower.util.SQLPowerUtils;
 import ca.sqlpower.wabit.AbstractWabitObject;
 import ca.sqlpower.wabit.WabitObject;
 import ca.sqlpower.wabit.WabitVersion;
@@ -63,6 +69,7 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
         pageFormat.setOrientation(PageFormat.LANDSCAPE);
         page = new Page("Default Page", pageFormat);
         page.setParent(this);
+        SQLPowerUtils.listenToHierarchy(page, paginationListener);
 	}
 	
 	public Layout(Page page) {
@@ -73,6 +80,7 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
 		super(uuid);
 		this.page = page;
 		page.setParent(this);
+		SQLPowerUtils.listenToHierarchy(page, paginationListener);
 	}
 	
 	@Override
@@ -104,6 +112,11 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
 	 * A property that defines which page is currently being printed.
 	 */
 	public static final String PAGE_NUMBER = "page_number";
+	
+	/**
+	 * A property that defines the number of pages in the layout.
+	 */
+	public static final String PAGE_COUNT = "page_count";
     
     /**
      * The page size and margin info.
@@ -114,7 +127,64 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
      */
     protected Page page;
     
-    private int pageCount = Integer.MAX_VALUE;
+    /**
+     * The number of pages found the last time the layout was printed to its
+     * last page. This is Integer.MAX_VALUE while the number of pages is not
+     * known.
+     */
+    private volatile int pageCount = Integer.MAX_VALUE;
+    
+    /**
+     * Incremented each time something changes that can change the number of
+     * pages in this layout.
+     */
+    private final AtomicInteger contentVersion = new AtomicInteger();
+    
+    /**
+     * The content version when the first page of the current print started.
+     */
+    private volatile int printingVersion;
+    
+    /**
+     * The content version the page count was found for. If this is not the
+     * current content version the pages have to be counted again.
+     */
+    private volatile int countedVersion = -1;
+    
+    /**
+     * The number of pages found by the print going on, or the last one done.
+     * This is Integer.MAX_VALUE until the print reaches its last page. Unlike
+     * {@link #pageCount} this is not thrown away when the content changes
+     * while printing, for example when a renderer runs its query as its
+     * first page is printed, so a print always ends on the page it found to
+     * be its last.
+     */
+    private volatile int printLoopPageCount = Integer.MAX_VALUE;
+    
+    /**
+     * Throws away the page count when anything in the page changes. Changes
+     * to the data of the content renderers are caught by
+     * {@link ContentBox#repaint()}.
+     */
+    private final SPListener paginationListener = new AbstractPoolingSPListener() {
+    	
+    	@Override
+    	protected void childAddedImpl(SPChildEvent e) {
+    		SQLPowerUtils.listenToHierarchy(e.getChild(), this);
+    		invalidatePagination();
+    	}
+    	
+    	@Override
+    	protected void childRemovedImpl(SPChildEvent e) {
+    		SQLPowerUtils.unlistenToHierarchy(e.getChild(), this);
+    		invalidatePagination();
+    	}
+    	
+    	@Override
+    	protected void propertyChangeImpl(PropertyChangeEvent evt) {
+    		invalidatePagination();
+    	}
+    };
     
     /**
      * This is the zoom level for the views of this layout.
@@ -140,7 +210,7 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
     		this.variables.update("system_user", System.getProperty("user.name"));
     		this.variables.update("wabit_version", WabitVersion.VERSION);
     		this.variables.update(PAGE_NUMBER, 0);
-    		this.variables.update("page_count", 0);
+    		this.variables.update(PAGE_COUNT, 0);
     	}
     }
     
@@ -149,10 +219,13 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
     }
     
     public void setPage(Page page) {
+    	SQLPowerUtils.unlistenToHierarchy(this.page, paginationListener);
     	fireChildRemoved(Page.class, this.page, 0);
     	this.page = page;
     	fireChildAdded(Page.class, page, 0);
     	page.setParent(this);
+    	SQLPowerUtils.listenToHierarchy(page, paginationListener);
+    	invalidatePagination();
     }
 
     public int childPositionOffset(Class<? extends SPObject> childType) {
@@ -190,58 +263,208 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
      * @param pageIndex the zero-based page number to print
      */
     public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
-                
+    	if (pageIndex > 0) {
+    		logger.debug("Print found " + printLoopPageCount + " pages, looking for page indexed " + pageIndex);
+    		if (pageIndex >= printLoopPageCount) {
+    			return Printable.NO_SUCH_PAGE;
+    		}
+    	}
+    	printPage(graphics, pageIndex, true);
+    	return Printable.PAGE_EXISTS;
+    }
+
+	/**
+	 * Prints a page of this report to the given graphics context. Unlike
+	 * {@link #print(Graphics, PageFormat, int)} this tells the caller if the
+	 * page printed was the last one, so a print loop can stop on its own
+	 * count. When the content that shows the number of pages is left out the
+	 * pages can be printed before the number of pages is known. Once the last
+	 * page has been printed the left out content can be printed with
+	 * {@link #printPageCountContent(Graphics, int, int)}.
+	 * 
+	 * @param pageIndex
+	 *            the zero-based page number to print
+	 * @param includePageCountContent
+	 *            false to leave out the content showing the number of pages
+	 * @return true if the layout needs more pages after this one
+	 * @see #isShowingPageCount(ContentBox)
+	 */
+    public boolean printPage(Graphics graphics, int pageIndex, boolean includePageCountContent) {
         if (pageIndex == 0) {
-            for (ContentBox cb : page.getContentBoxes()) {
-            	if (cb.getContentRenderer() != null) {
-            		cb.getContentRenderer().resetToFirstPage();
-            	}
-            }
+        	resetToFirstPage();
         }
-        logger.debug("Page count is " + pageCount + " looking or page indexed " + pageIndex);
-        if (pageIndex >= pageCount) {
-            return Printable.NO_SUCH_PAGE;
-        }
-        
         Graphics2D g2 = (Graphics2D) graphics;
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-        		RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.setColor(Color.BLACK);
-        if (this.variables != null) {
-        	if (!((Boolean) this.variables.resolve(COUNTING_PAGES, false))) {
-        		this.variables.update(PAGE_NUMBER, pageIndex + 1);
-        	}
-        }
+        prepareGraphics(g2);
+        updatePageNumber(pageIndex);
         boolean needMorePages = false;
         for (ContentBox cb : page.getContentBoxes()) {
-            logger.debug("(Page " + (pageIndex + 1) + ") rendering content box: "+ cb);
-            ReportContentRenderer r = cb.getContentRenderer();
-            if (r == null) {
-                logger.debug("Skipping content box with no renderer: " + cb);
-                continue;
+            if (!includePageCountContent && isShowingPageCount(cb)) {
+            	continue;
             }
-            Graphics2D contentGraphics = (Graphics2D) g2.create(
-                    (int) cb.getX(), (int) cb.getY(),
-                    (int) cb.getWidth(), (int) cb.getHeight());
-            needMorePages |= r.renderReportContent(contentGraphics, (int)cb.getWidth(), (int)cb.getHeight(), 1.0, pageIndex, true, this.variableHelper);
-            contentGraphics.dispose();
+            needMorePages |= renderContentBox(g2, cb, pageIndex);
         }
         if (!needMorePages) {
-            pageCount = pageIndex + 1;
+            printLoopPageCount = pageIndex + 1;
+            setPrintedPageCount(pageIndex + 1);
         }
-        return Printable.PAGE_EXISTS;
+        return needMorePages;
+    }
+
+	/**
+	 * Moves all of the content renderers back to their first page. This must
+	 * be done before printing the first page of the layout.
+	 */
+    public void resetToFirstPage() {
+    	printingVersion = contentVersion.get();
+    	printLoopPageCount = Integer.MAX_VALUE;
+    	for (ContentBox cb : page.getContentBoxes()) {
+    		if (cb.getContentRenderer() != null) {
+    			cb.getContentRenderer().resetToFirstPage();
+    		}
+    	}
+    }
+
+	/**
+	 * Sets up the graphics a page of this layout is printed to.
+	 */
+    public void prepareGraphics(Graphics2D g2) {
+    	g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+    			RenderingHints.VALUE_ANTIALIAS_ON);
+    	g2.setColor(Color.BLACK);
+    }
+
+	/**
+	 * Sets the page number variable to the page about to be printed, unless
+	 * the pages are only being counted.
+	 */
+    public void updatePageNumber(int pageIndex) {
+    	if (this.variables != null) {
+    		if (!((Boolean) this.variables.resolve(COUNTING_PAGES, false))) {
+    			this.variables.update(PAGE_NUMBER, pageIndex + 1);
+    		}
+    	}
+    }
+
+	/**
+	 * Prints the content of one content box of this layout at its position
+	 * on the page. The content boxes of a page can be printed on different
+	 * threads as long as each content box is given its pages in order.
+	 * 
+	 * @return true if the content box needs more pages to show all of its
+	 *         content.
+	 * @see #isPageDependent(ContentBox)
+	 */
+    public boolean renderContentBox(Graphics2D g2, ContentBox cb, int pageIndex) {
+    	logger.debug("(Page " + (pageIndex + 1) + ") rendering content box: "+ cb);
+    	ReportContentRenderer r = cb.getContentRenderer();
+    	if (r == null) {
+    		logger.debug("Skipping content box with no renderer: " + cb);
+    		return false;
+    	}
+    	Graphics2D contentGraphics = (Graphics2D) g2.create(
+    			(int) cb.getX(), (int) cb.getY(),
+    			(int) cb.getWidth(), (int) cb.getHeight());
+    	try {
+    		return r.renderReportContent(contentGraphics, (int)cb.getWidth(), (int)cb.getHeight(), 1.0, pageIndex, true, this.variableHelper);
+    	} finally {
+    		contentGraphics.dispose();
+    	}
+    }
+
+	/**
+	 * Returns true if the content of the given content box depends on the
+	 * page variables of this layout, like the page number. This content must
+	 * be printed while the page variables are set for its page.
+	 */
+    public boolean isPageDependent(ContentBox cb) {
+    	return cb.getContentRenderer() instanceof WabitLabel;
+    }
+
+	/**
+	 * Records the number of pages found by printing this layout from its
+	 * first page to its last page.
+	 */
+    public void setPrintedPageCount(int pageCount) {
+    	printLoopPageCount = pageCount;
+    	this.pageCount = pageCount;
+    	countedVersion = printingVersion;
+    	if (this.variables != null) {
+    		this.variables.update(PAGE_COUNT, pageCount);
+    	}
     }
 
+	/**
+	 * Prints the content left out by
+	 * {@link #printPage(Graphics, int, boolean)} for the given page. This is
+	 * done once the print has reached its last page, with the number of pages
+	 * the print counted. The cached pagination is not used as the content can
+	 * change while printing.
+	 */
+    public void printPageCountContent(Graphics graphics, int pageIndex, int pageCount) {
+    	Graphics2D g2 = (Graphics2D) graphics;
+    	prepareGraphics(g2);
+    	if (this.variables != null) {
+    		this.variables.update(PAGE_NUMBER, pageIndex + 1);
+    		this.variables.update(PAGE_COUNT, pageCount);
+    	}
+    	for (ContentBox cb : page.getContentBoxes()) {
+    		if (!isShowingPageCount(cb)) continue;
+    		renderContentBox(g2, cb, pageIndex);
+    	}
+    }
+
+	/**
+	 * Returns true if the given content box displays the number of pages in
+	 * this layout.
+	 */
+    public boolean isShowingPageCount(ContentBox cb) {
+    	ReportContentRenderer r = cb.getContentRenderer();
+    	return r instanceof WabitLabel && ((WabitLabel) r).getText() != null 
+    		&& ((WabitLabel) r).getText().contains(PAGE_COUNT);
+    }
+    
     /**
+     * Returns true if any content of this layout displays the number of pages.
+     */
+    public boolean isShowingPageCount() {
+    	for (ContentBox cb : page.getContentBoxes()) {
+    		if (isShowingPageCount(cb)) return true;
+    	}
+    	return false;
+    }
+
+	/**
+	 * Returns true if the number of pages in this layout is known without
+	 * counting them again.
+	 */
+    public boolean isPaginationKnown() {
+    	return countedVersion == contentVersion.get() && pageCount != Integer.MAX_VALUE;
+    }
+
+	/**
+	 * Throws away the number of pages in this layout. The pages will be
+	 * counted again the next time the number of pages is needed.
+	 */
+    public void invalidatePagination() {
+    	contentVersion.incrementAndGet();
+    	pageCount = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of pages in this layout. The pages are only counted
+     * if the content has changed since they were last counted or printed.
      * Before getting the page count the currentlyPrinting flag should be set.
      */
     public int getNumberOfPages() {
     	try {
-    		countPages();
+    		int count = pageCount;
+    		if (!isPaginationKnown()) {
+    			count = countPages();
+    		}
     		if (this.variables != null) {
-    			this.variables.update("page_count", pageCount);
+    			this.variables.update(PAGE_COUNT, count);
     		}
-    		return pageCount;
+    		return count;
     	} catch (PrinterException ex) {
     		throw new RuntimeException("Print exception occured while counting pages", ex);
     	}
@@ -258,7 +481,6 @@ public abstract class Layout extends AbstractWabitObject implements Pageable, Pr
     private int countPages() throws PrinterException {
     	boolean done = false;
     	int pageNum = 0;
-    	pageCount = Integer.MAX_VALUE;
     	BufferedImage dummyImage = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
     	Graphics g = dummyImage.getGraphics();
     	try {
@@ -20,13 +20,23 @@
 package ca.sqlpower.wabit.report;
 
 import java.awt.Graphics2D;
-import java.awt.print.Printable;
 import java.awt.print.PrinterException;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
@@ -39,6 +49,7 @@ import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTemplate;
 import com.itextpdf.text.pdf.PdfWriter;
 
 public class LayoutToPDF implements Monitorable {
@@ -48,6 +59,25 @@ public class LayoutToPDF implements Monitorable {
 	private final Watermarker watermarker;
 
 	private final MonitorableImpl monitorableHelper = new MonitorableImpl();
+
+	/**
+	 * The content of one content box on one page, recorded on a render lane.
+	 */
+	private static class RenderedContent {
+		private final RecordingGraphics2D recording;
+		private final boolean needMorePages;
+
+		RenderedContent(RecordingGraphics2D recording, boolean needMorePages) {
+			this.recording = recording;
+			this.needMorePages = needMorePages;
+		}
+	}
+
+	/**
+	 * The number of threads rendering page content. See
+	 * {@link #setParallelism(int)}.
+	 */
+	private int parallelism = Math.max(1, Integer.getInteger(LayoutToPDF.class.getName() + ".parallelism", 1));
 	
 	
 	/**
@@ -88,13 +118,25 @@ public class LayoutToPDF implements Monitorable {
 		this.watermarker = watermarker;
 	}
 	
+	/**
+	 * Writes the layout to the PDF going through its pages once. The number of
+	 * pages does not need to be known up front, content that shows the page
+	 * count is placed in a template on each page and filled in once the last
+	 * page has been written.
+	 * <p>
+	 * If the parallelism is greater than one the content boxes are rendered on
+	 * that many threads ahead of the page being written. See
+	 * {@link #setParallelism(int)}.
+	 */
 	public void writePDF()
     throws DocumentException, FileNotFoundException, PrinterException {
     	monitorableHelper.setStarted(true);
-		int pageNum = 0;
+		int pageNum;
 
-    	int numPages = layout.getNumberOfPages();
-    	monitorableHelper.setJobSize(numPages);
+		if (layout.isPaginationKnown()) {
+			monitorableHelper.setJobSize(layout.getNumberOfPages());
+		}
+		final boolean deferPageCount = layout.isShowingPageCount();
     	Page page = layout.getPage();
     	OutputStream out = fileOS;
     	Rectangle pageSize;
@@ -106,30 +148,23 @@ public class LayoutToPDF implements Monitorable {
     	pdfDoc.open();
     	pdfDoc.addCreator("Wabit " + WabitVersion.VERSION);
     	PdfContentByte pdfContent = pdfOut.getDirectContent();
+    	List<PdfTemplate> pageCountTemplates = new ArrayList<PdfTemplate>();
     	Graphics2D pdfGraphics = null;
     	try {
-    	    while(pageNum < numPages) {
+    	    if (parallelism > 1) {
+    	    	pageNum = writePagesInParallel(pdfDoc, pdfContent, pageSize, deferPageCount, pageCountTemplates);
+    	    } else {
+    	    	pageNum = writePages(pdfDoc, pdfContent, pageSize, deferPageCount, pageCountTemplates);
+    	    }
+    	    monitorableHelper.setJobSize(pageNum + 1);
+    	    
+    	    for (int i = 0; i < pageCountTemplates.size(); i++) {
     	    	monitorableHelper.checkCancelled();
-    	    	monitorableHelper.setProgress(pageNum);
-    	        pdfGraphics = pdfContent.createGraphics(pageSize.getWidth(), pageSize.getHeight());
-    	        int flag = layout.print(pdfGraphics, layout.getPageFormat(pageNum), pageNum);
-
-    	        if (watermarker != null) {
-    	        	java.awt.Rectangle watermarkSize = new java.awt.Rectangle();
-    	        	watermarkSize.setSize(
-    	        			Math.round(pageSize.getWidth()),
-    	        			Math.round(pageSize.getHeight()));
-    	        	watermarker.watermark(pdfGraphics, watermarkSize);
-    	        }
-    	        
-    	        pdfGraphics.dispose();
-    	        pdfGraphics = null;
-
-    	        if (flag == Printable.NO_SUCH_PAGE) break;
-
-    	        pdfDoc.newPage();
-
-    	        pageNum++;
+    	    	PdfTemplate template = pageCountTemplates.get(i);
+    	    	pdfGraphics = template.createGraphics(pageSize.getWidth(), pageSize.getHeight());
+    	    	layout.printPageCountContent(pdfGraphics, i, pageNum + 1);
+    	    	pdfGraphics.dispose();
+    	    	pdfGraphics = null;
     	    }
     	} finally {
     	    if (pdfGraphics != null) pdfGraphics.dispose();
@@ -138,6 +173,288 @@ public class LayoutToPDF implements Monitorable {
     	}
 	}
 
+	/**
+	 * Prints the pages of the layout to the PDF one after the other on the
+	 * calling thread.
+	 * 
+	 * @return The index of the last page written.
+	 */
+	private int writePages(Document pdfDoc, PdfContentByte pdfContent, Rectangle pageSize,
+			boolean deferPageCount, List<PdfTemplate> pageCountTemplates) throws PrinterException {
+		int pageNum = 0;
+		Graphics2D pdfGraphics = null;
+		try {
+			while (true) {
+				monitorableHelper.checkCancelled();
+				monitorableHelper.setProgress(pageNum);
+				pdfGraphics = pdfContent.createGraphics(pageSize.getWidth(), pageSize.getHeight());
+				boolean needMorePages = layout.printPage(pdfGraphics, pageNum, !deferPageCount);
+				pdfGraphics.dispose();
+				pdfGraphics = null;
+
+				finishPage(pdfContent, pageSize, deferPageCount, pageCountTemplates);
+
+				if (!needMorePages) break;
+
+				pdfDoc.newPage();
+
+				pageNum++;
+			}
+		} finally {
+			if (pdfGraphics != null) pdfGraphics.dispose();
+		}
+		return pageNum;
+	}
+
+	/**
+	 * Prints the pages of the layout to the PDF, rendering the content boxes
+	 * of the next few pages on other threads while the current page is
+	 * written.
+	 * <p>
+	 * Each content box is given to one render lane, a single thread, for all
+	 * of its pages. This way a content box is still asked for its pages in
+	 * order, which the content renderers need as they keep track of where
+	 * their last page ended. The content boxes that depend on the page
+	 * variables, like labels showing the page number, are printed by the
+	 * calling thread as each page is written.
+	 * <p>
+	 * Once a content box has rendered its last page its lane skips the pages
+	 * after it, and the pages queued past it are cancelled. No more pages are
+	 * queued once every content box on a lane has rendered its last page.
+	 * 
+	 * @return The index of the last page written.
+	 */
+	private int writePagesInParallel(Document pdfDoc, PdfContentByte pdfContent, Rectangle pageSize,
+			boolean deferPageCount, List<PdfTemplate> pageCountTemplates) throws PrinterException {
+		List<ContentBox> contentBoxes = new ArrayList<ContentBox>(layout.getPage().getContentBoxes());
+		ExecutorService[] lanes = new ExecutorService[parallelism];
+		for (int i = 0; i < lanes.length; i++) {
+			final String name = "PDF render lane " + i;
+			lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, name);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		
+		/*
+		 * The lane each content box is rendered on, null for the content
+		 * boxes that are printed as the page is written.
+		 */
+		List<ExecutorService> boxLanes = new ArrayList<ExecutorService>();
+		
+		/*
+		 * Set by a content box's lane once the box has rendered its last page.
+		 * The writing thread has its own copy so it only skips a box from the
+		 * page after the one the box finished on.
+		 */
+		List<AtomicBoolean> boxesFinished = new ArrayList<AtomicBoolean>();
+		boolean[] boxesWritten = new boolean[contentBoxes.size()];
+		int nextLane = 0;
+		for (ContentBox cb : contentBoxes) {
+			if (cb.getContentRenderer() != null && !layout.isPageDependent(cb)) {
+				boxLanes.add(lanes[nextLane % lanes.length]);
+				nextLane++;
+			} else {
+				boxLanes.add(null);
+			}
+			boxesFinished.add(new AtomicBoolean(false));
+		}
+		
+		LinkedList<List<Future<RenderedContent>>> pendingPages = new LinkedList<List<Future<RenderedContent>>>();
+		int pageNum = 0;
+		Graphics2D pdfGraphics = null;
+		try {
+			layout.resetToFirstPage();
+			int nextPageToRender = 0;
+			while (nextPageToRender < parallelism * 2 && !allFinished(boxLanes, boxesFinished)) {
+				pendingPages.add(renderPage(contentBoxes, boxLanes, boxesFinished, nextPageToRender, pageSize));
+				nextPageToRender++;
+			}
+			while (true) {
+				monitorableHelper.checkCancelled();
+				monitorableHelper.setProgress(pageNum);
+				List<Future<RenderedContent>> renderedContent = 
+					pendingPages.isEmpty() ? null : pendingPages.removeFirst();
+				if (!allFinished(boxLanes, boxesFinished)) {
+					pendingPages.add(renderPage(contentBoxes, boxLanes, boxesFinished, nextPageToRender, pageSize));
+					nextPageToRender++;
+				}
+				
+				pdfGraphics = pdfContent.createGraphics(pageSize.getWidth(), pageSize.getHeight());
+				layout.prepareGraphics(pdfGraphics);
+				layout.updatePageNumber(pageNum);
+				boolean needMorePages = false;
+				for (int i = 0; i < contentBoxes.size(); i++) {
+					ContentBox cb = contentBoxes.get(i);
+					if (boxLanes.get(i) != null) {
+						if (boxesWritten[i]) continue;
+						RenderedContent content = getRenderedContent(renderedContent.get(i));
+						content.recording.replay(pdfGraphics);
+						needMorePages |= content.needMorePages;
+						if (!content.needMorePages) {
+							boxesWritten[i] = true;
+							for (List<Future<RenderedContent>> futures : pendingPages) {
+								futures.get(i).cancel(false);
+							}
+						}
+					} else if (!deferPageCount || !layout.isShowingPageCount(cb)) {
+						needMorePages |= layout.renderContentBox(pdfGraphics, cb, pageNum);
+					}
+				}
+				pdfGraphics.dispose();
+				pdfGraphics = null;
+				
+				finishPage(pdfContent, pageSize, deferPageCount, pageCountTemplates);
+				
+				if (!needMorePages) {
+					layout.setPrintedPageCount(pageNum + 1);
+					break;
+				}
+				
+				pdfDoc.newPage();
+				
+				pageNum++;
+			}
+		} finally {
+			if (pdfGraphics != null) pdfGraphics.dispose();
+			for (List<Future<RenderedContent>> futures : pendingPages) {
+				for (Future<RenderedContent> future : futures) {
+					if (future != null) future.cancel(false);
+				}
+			}
+			for (ExecutorService lane : lanes) {
+				lane.shutdown();
+			}
+			try {
+				for (ExecutorService lane : lanes) {
+					lane.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return pageNum;
+	}
+
+	/**
+	 * Queues the content boxes that have a render lane to be recorded for the
+	 * given page.
+	 * 
+	 * @return The recorded content of each content box, in the order of the
+	 *         content boxes. The entries for the content boxes without a lane
+	 *         are null.
+	 */
+	private List<Future<RenderedContent>> renderPage(List<ContentBox> contentBoxes,
+			List<ExecutorService> boxLanes, List<AtomicBoolean> boxesFinished, 
+			final int pageIndex, final Rectangle pageSize) {
+		List<Future<RenderedContent>> futures = new ArrayList<Future<RenderedContent>>();
+		for (int i = 0; i < contentBoxes.size(); i++) {
+			final ContentBox cb = contentBoxes.get(i);
+			final AtomicBoolean finished = boxesFinished.get(i);
+			ExecutorService lane = boxLanes.get(i);
+			if (lane == null || finished.get()) {
+				futures.add(null);
+				continue;
+			}
+			futures.add(lane.submit(new Callable<RenderedContent>() {
+				public RenderedContent call() throws Exception {
+					if (finished.get()) {
+						return new RenderedContent(
+								new RecordingGraphics2D(pageSize.getWidth(), pageSize.getHeight()), false);
+					}
+					if (pageIndex == 0) {
+						cb.getContentRenderer().resetToFirstPage();
+					}
+					RecordingGraphics2D recording = new RecordingGraphics2D(pageSize.getWidth(), pageSize.getHeight());
+					layout.prepareGraphics(recording);
+					boolean needMorePages = layout.renderContentBox(recording, cb, pageIndex);
+					if (!needMorePages) {
+						finished.set(true);
+					}
+					return new RenderedContent(recording, needMorePages);
+				}
+			}));
+		}
+		return futures;
+	}
+
+	/**
+	 * Returns true if every content box that has a render lane has rendered
+	 * its last page.
+	 */
+	private static boolean allFinished(List<ExecutorService> boxLanes, List<AtomicBoolean> boxesFinished) {
+		for (int i = 0; i < boxLanes.size(); i++) {
+			if (boxLanes.get(i) != null && !boxesFinished.get(i).get()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for the content of a content box to be rendered by its lane.
+	 */
+	private RenderedContent getRenderedContent(Future<RenderedContent> future) throws PrinterException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PrinterException("Interrupted while waiting for a page to render.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Adds the page count template and the watermark on top of the page just
+	 * printed.
+	 */
+	private void finishPage(PdfContentByte pdfContent, Rectangle pageSize,
+			boolean deferPageCount, List<PdfTemplate> pageCountTemplates) {
+		if (deferPageCount) {
+			PdfTemplate template = pdfContent.createTemplate(pageSize.getWidth(), pageSize.getHeight());
+			pdfContent.addTemplate(template, 0, 0);
+			pageCountTemplates.add(template);
+		}
+
+		if (watermarker != null) {
+			Graphics2D pdfGraphics = pdfContent.createGraphics(pageSize.getWidth(), pageSize.getHeight());
+			try {
+				java.awt.Rectangle watermarkSize = new java.awt.Rectangle();
+				watermarkSize.setSize(
+						Math.round(pageSize.getWidth()),
+						Math.round(pageSize.getHeight()));
+				watermarker.watermark(pdfGraphics, watermarkSize);
+			} finally {
+				pdfGraphics.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Sets the number of threads used to render the content of the pages
+	 * ahead of the page being written. A parallelism of one writes the
+	 * pages one after the other on the thread calling {@link #writePDF()}.
+	 * The default comes from the system property
+	 * <code>ca.sqlpower.wabit.report.LayoutToPDF.parallelism</code>.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1, not " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
 
 	public Integer getJobSize() {
 		return monitorableHelper.getJobSize();
@@ -0,0 +1,933 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.report;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.RenderingHints.Key;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.RectangularShape;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A graphics that records everything drawn to it so it can be drawn to
+ * another graphics later. This lets the content of a page be rendered on a
+ * different thread than the one writing the page out, for example when a
+ * layout is exported to PDF in parallel.
+ * <p>
+ * The graphics keeps track of its own transform, clip, colours and fonts so
+ * the code drawing to it sees the same values it would have seen drawing to
+ * the real graphics. Text is measured with an image graphics in the same way
+ * the iText PDF graphics measures it. Graphics created from a recording
+ * graphics record into the same list of operations so everything is drawn in
+ * the order it was recorded in.
+ * <p>
+ * A recording graphics is not thread safe. It is meant to be drawn to by one
+ * thread and then replayed by another once drawing is done.
+ */
+public class RecordingGraphics2D extends Graphics2D {
+
+	/**
+	 * One recorded call on one of the graphics of a recording.
+	 */
+	private static abstract class Operation {
+
+		/**
+		 * The graphics in the recording this operation was called on.
+		 */
+		final int graphicsId;
+
+		Operation(int graphicsId) {
+			this.graphicsId = graphicsId;
+		}
+
+		/**
+		 * Calls the operation on the graphics it was recorded on.
+		 *
+		 * @param graphics
+		 *            The graphics being replayed to, indexed by the graphics
+		 *            id they were recorded with.
+		 */
+		abstract void replay(List<Graphics2D> graphics);
+
+		Graphics2D target(List<Graphics2D> graphics) {
+			return graphics.get(graphicsId);
+		}
+	}
+
+	/**
+	 * The state shared by all of the graphics of a recording.
+	 */
+	private static class Recording {
+		private final List<Operation> operations = new ArrayList<Operation>();
+		private int graphicsCount = 1;
+
+		/**
+		 * Used to measure text. This is the same kind of graphics the iText
+		 * PDF graphics measures text with.
+		 */
+		private final Graphics2D measuringGraphics =
+			new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB).createGraphics();
+	}
+
+	private final Recording recording;
+
+	private final int graphicsId;
+
+	private AffineTransform transform;
+
+	/**
+	 * The clip in device space, null if there is no clip.
+	 */
+	private Shape deviceClip;
+
+	private Paint paint;
+
+	private Color color;
+
+	private Color background;
+
+	private Font font;
+
+	private Stroke stroke;
+
+	private Composite composite;
+
+	private RenderingHints hints;
+
+	/**
+	 * Creates a recording graphics whose initial state is that of a new
+	 * iText PDF graphics of the given size.
+	 */
+	public RecordingGraphics2D(float width, float height) {
+		recording = new Recording();
+		graphicsId = 0;
+		transform = new AffineTransform();
+		deviceClip = new Area(new Rectangle(0, 0, Math.round(width), Math.round(height)));
+		color = Color.BLACK;
+		paint = color;
+		background = Color.WHITE;
+		font = new Font("sanserif", Font.PLAIN, 12);
+		stroke = new BasicStroke(1);
+		composite = AlphaComposite.SrcOver;
+		hints = new RenderingHints(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+		recording.measuringGraphics.setRenderingHints(hints);
+	}
+
+	private RecordingGraphics2D(RecordingGraphics2D parent) {
+		recording = parent.recording;
+		graphicsId = recording.graphicsCount++;
+		transform = new AffineTransform(parent.transform);
+		deviceClip = parent.deviceClip;
+		color = parent.color;
+		paint = parent.paint;
+		background = parent.background;
+		font = parent.font;
+		stroke = parent.stroke;
+		composite = parent.composite;
+		hints = (RenderingHints) parent.hints.clone();
+	}
+
+	/**
+	 * Draws everything recorded so far to the given graphics. The graphics
+	 * should be in the same state this recording started in.
+	 */
+	public void replay(Graphics2D target) {
+		List<Graphics2D> graphics = new ArrayList<Graphics2D>(recording.graphicsCount);
+		graphics.add(target);
+		for (int i = 1; i < recording.graphicsCount; i++) {
+			graphics.add(null);
+		}
+		for (Operation op : recording.operations) {
+			op.replay(graphics);
+		}
+	}
+
+	/**
+	 * Returns the number of operations recorded.
+	 */
+	public int getOperationCount() {
+		return recording.operations.size();
+	}
+
+	private void record(Operation op) {
+		recording.operations.add(op);
+	}
+
+	/**
+	 * Copies a shape so changes the caller makes to it after it is drawn do
+	 * not change the recording.
+	 */
+	private static Shape copy(Shape s) {
+		if (s == null) {
+			return null;
+		} else if (s instanceof RectangularShape) {
+			return (Shape) ((RectangularShape) s).clone();
+		} else if (s instanceof Line2D) {
+			return (Shape) ((Line2D) s).clone();
+		} else {
+			return new GeneralPath(s);
+		}
+	}
+
+	private static int[] copy(int[] points, int count) {
+		int[] copy = new int[count];
+		System.arraycopy(points, 0, copy, 0, count);
+		return copy;
+	}
+
+	// ---------------- Graphics state ----------------
+
+	@Override
+	public Graphics create() {
+		final RecordingGraphics2D child = new RecordingGraphics2D(this);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				graphics.set(child.graphicsId, (Graphics2D) target(graphics).create());
+			}
+		});
+		return child;
+	}
+
+	@Override
+	public void dispose() {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				if (graphicsId != 0) {
+					target(graphics).dispose();
+					graphics.set(graphicsId, null);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void translate(final int x, final int y) {
+		transform.translate(x, y);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).translate(x, y);
+			}
+		});
+	}
+
+	@Override
+	public void translate(final double tx, final double ty) {
+		transform.translate(tx, ty);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).translate(tx, ty);
+			}
+		});
+	}
+
+	@Override
+	public void rotate(final double theta) {
+		transform.rotate(theta);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).rotate(theta);
+			}
+		});
+	}
+
+	@Override
+	public void rotate(final double theta, final double x, final double y) {
+		transform.rotate(theta, x, y);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).rotate(theta, x, y);
+			}
+		});
+	}
+
+	@Override
+	public void scale(final double sx, final double sy) {
+		transform.scale(sx, sy);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).scale(sx, sy);
+			}
+		});
+	}
+
+	@Override
+	public void shear(final double shx, final double shy) {
+		transform.shear(shx, shy);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).shear(shx, shy);
+			}
+		});
+	}
+
+	@Override
+	public void transform(AffineTransform tx) {
+		final AffineTransform copy = new AffineTransform(tx);
+		transform.concatenate(copy);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).transform(copy);
+			}
+		});
+	}
+
+	@Override
+	public void setTransform(AffineTransform tx) {
+		final AffineTransform copy = new AffineTransform(tx);
+		transform = new AffineTransform(copy);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setTransform(copy);
+			}
+		});
+	}
+
+	@Override
+	public AffineTransform getTransform() {
+		return new AffineTransform(transform);
+	}
+
+	@Override
+	public Shape getClip() {
+		if (deviceClip == null) return null;
+		try {
+			return transform.createInverse().createTransformedShape(deviceClip);
+		} catch (NoninvertibleTransformException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public Rectangle getClipBounds() {
+		Shape clip = getClip();
+		return clip == null ? null : clip.getBounds();
+	}
+
+	@Override
+	public void setClip(Shape clip) {
+		final Shape copy = copy(clip);
+		deviceClip = copy == null ? null : new Area(transform.createTransformedShape(copy));
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setClip(copy);
+			}
+		});
+	}
+
+	@Override
+	public void setClip(final int x, final int y, final int width, final int height) {
+		deviceClip = new Area(transform.createTransformedShape(new Rectangle(x, y, width, height)));
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setClip(x, y, width, height);
+			}
+		});
+	}
+
+	@Override
+	public void clip(Shape s) {
+		final Shape copy = copy(s);
+		intersectClip(copy);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).clip(copy);
+			}
+		});
+	}
+
+	@Override
+	public void clipRect(final int x, final int y, final int width, final int height) {
+		intersectClip(new Rectangle(x, y, width, height));
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).clipRect(x, y, width, height);
+			}
+		});
+	}
+
+	private void intersectClip(Shape userClip) {
+		Area area = new Area(transform.createTransformedShape(userClip));
+		if (deviceClip != null) {
+			area.intersect(new Area(deviceClip));
+		}
+		deviceClip = area;
+	}
+
+	@Override
+	public Color getColor() {
+		return color;
+	}
+
+	@Override
+	public void setColor(final Color c) {
+		if (c == null) return;
+		color = c;
+		paint = c;
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setColor(c);
+			}
+		});
+	}
+
+	@Override
+	public Paint getPaint() {
+		return paint;
+	}
+
+	@Override
+	public void setPaint(final Paint p) {
+		if (p == null) return;
+		paint = p;
+		if (p instanceof Color) {
+			color = (Color) p;
+		}
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setPaint(p);
+			}
+		});
+	}
+
+	@Override
+	public Color getBackground() {
+		return background;
+	}
+
+	@Override
+	public void setBackground(final Color c) {
+		background = c;
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setBackground(c);
+			}
+		});
+	}
+
+	@Override
+	public void setPaintMode() {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setPaintMode();
+			}
+		});
+	}
+
+	@Override
+	public void setXORMode(final Color c) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setXORMode(c);
+			}
+		});
+	}
+
+	@Override
+	public Font getFont() {
+		return font;
+	}
+
+	@Override
+	public void setFont(final Font f) {
+		if (f == null) return;
+		font = f;
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setFont(f);
+			}
+		});
+	}
+
+	@Override
+	public FontMetrics getFontMetrics(Font f) {
+		return recording.measuringGraphics.getFontMetrics(f);
+	}
+
+	@Override
+	public FontRenderContext getFontRenderContext() {
+		boolean antialias = RenderingHints.VALUE_TEXT_ANTIALIAS_ON.equals(
+				hints.get(RenderingHints.KEY_TEXT_ANTIALIASING));
+		boolean fractions = RenderingHints.VALUE_FRACTIONALMETRICS_ON.equals(
+				hints.get(RenderingHints.KEY_FRACTIONALMETRICS));
+		return new FontRenderContext(new AffineTransform(), antialias, fractions);
+	}
+
+	@Override
+	public Stroke getStroke() {
+		return stroke;
+	}
+
+	@Override
+	public void setStroke(final Stroke s) {
+		stroke = s;
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setStroke(s);
+			}
+		});
+	}
+
+	@Override
+	public Composite getComposite() {
+		return composite;
+	}
+
+	@Override
+	public void setComposite(final Composite comp) {
+		composite = comp;
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setComposite(comp);
+			}
+		});
+	}
+
+	@Override
+	public Object getRenderingHint(Key hintKey) {
+		return hints.get(hintKey);
+	}
+
+	@Override
+	public void setRenderingHint(final Key hintKey, final Object hintValue) {
+		hints.put(hintKey, hintValue);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setRenderingHint(hintKey, hintValue);
+			}
+		});
+	}
+
+	@Override
+	public RenderingHints getRenderingHints() {
+		return (RenderingHints) hints.clone();
+	}
+
+	@Override
+	public void setRenderingHints(Map<?, ?> newHints) {
+		final RenderingHints copy = new RenderingHints(null);
+		copy.putAll(newHints);
+		hints = (RenderingHints) copy.clone();
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).setRenderingHints(copy);
+			}
+		});
+	}
+
+	@Override
+	public void addRenderingHints(Map<?, ?> newHints) {
+		final RenderingHints copy = new RenderingHints(null);
+		copy.putAll(newHints);
+		hints.putAll(copy);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).addRenderingHints(copy);
+			}
+		});
+	}
+
+	@Override
+	public GraphicsConfiguration getDeviceConfiguration() {
+		return recording.measuringGraphics.getDeviceConfiguration();
+	}
+
+	@Override
+	public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+		if (onStroke) {
+			s = stroke.createStrokedShape(s);
+		}
+		return transform.createTransformedShape(s).intersects(rect);
+	}
+
+	// ---------------- Drawing ----------------
+
+	@Override
+	public void draw(Shape s) {
+		final Shape copy = copy(s);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).draw(copy);
+			}
+		});
+	}
+
+	@Override
+	public void fill(Shape s) {
+		final Shape copy = copy(s);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).fill(copy);
+			}
+		});
+	}
+
+	@Override
+	public void drawLine(final int x1, final int y1, final int x2, final int y2) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawLine(x1, y1, x2, y2);
+			}
+		});
+	}
+
+	@Override
+	public void drawRect(final int x, final int y, final int width, final int height) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawRect(x, y, width, height);
+			}
+		});
+	}
+
+	@Override
+	public void fillRect(final int x, final int y, final int width, final int height) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).fillRect(x, y, width, height);
+			}
+		});
+	}
+
+	@Override
+	public void clearRect(final int x, final int y, final int width, final int height) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).clearRect(x, y, width, height);
+			}
+		});
+	}
+
+	@Override
+	public void draw3DRect(final int x, final int y, final int width, final int height, final boolean raised) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).draw3DRect(x, y, width, height, raised);
+			}
+		});
+	}
+
+	@Override
+	public void fill3DRect(final int x, final int y, final int width, final int height, final boolean raised) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).fill3DRect(x, y, width, height, raised);
+			}
+		});
+	}
+
+	@Override
+	public void drawRoundRect(final int x, final int y, final int width, final int height,
+			final int arcWidth, final int arcHeight) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+			}
+		});
+	}
+
+	@Override
+	public void fillRoundRect(final int x, final int y, final int width, final int height,
+			final int arcWidth, final int arcHeight) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+			}
+		});
+	}
+
+	@Override
+	public void drawOval(final int x, final int y, final int width, final int height) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawOval(x, y, width, height);
+			}
+		});
+	}
+
+	@Override
+	public void fillOval(final int x, final int y, final int width, final int height) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).fillOval(x, y, width, height);
+			}
+		});
+	}
+
+	@Override
+	public void drawArc(final int x, final int y, final int width, final int height,
+			final int startAngle, final int arcAngle) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawArc(x, y, width, height, startAngle, arcAngle);
+			}
+		});
+	}
+
+	@Override
+	public void fillArc(final int x, final int y, final int width, final int height,
+			final int startAngle, final int arcAngle) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).fillArc(x, y, width, height, startAngle, arcAngle);
+			}
+		});
+	}
+
+	@Override
+	public void drawPolyline(int[] xPoints, int[] yPoints, final int nPoints) {
+		final int[] xs = copy(xPoints, nPoints);
+		final int[] ys = copy(yPoints, nPoints);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawPolyline(xs, ys, nPoints);
+			}
+		});
+	}
+
+	@Override
+	public void drawPolygon(int[] xPoints, int[] yPoints, final int nPoints) {
+		final int[] xs = copy(xPoints, nPoints);
+		final int[] ys = copy(yPoints, nPoints);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawPolygon(xs, ys, nPoints);
+			}
+		});
+	}
+
+	@Override
+	public void drawPolygon(Polygon p) {
+		drawPolygon(p.xpoints, p.ypoints, p.npoints);
+	}
+
+	@Override
+	public void fillPolygon(int[] xPoints, int[] yPoints, final int nPoints) {
+		final int[] xs = copy(xPoints, nPoints);
+		final int[] ys = copy(yPoints, nPoints);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).fillPolygon(xs, ys, nPoints);
+			}
+		});
+	}
+
+	@Override
+	public void fillPolygon(Polygon p) {
+		fillPolygon(p.xpoints, p.ypoints, p.npoints);
+	}
+
+	@Override
+	public void copyArea(final int x, final int y, final int width, final int height,
+			final int dx, final int dy) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).copyArea(x, y, width, height, dx, dy);
+			}
+		});
+	}
+
+	@Override
+	public void drawString(final String str, final int x, final int y) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawString(str, x, y);
+			}
+		});
+	}
+
+	@Override
+	public void drawString(final String str, final float x, final float y) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawString(str, x, y);
+			}
+		});
+	}
+
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, final int x, final int y) {
+		final AttributedString text = new AttributedString(iterator);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawString(text.getIterator(), x, y);
+			}
+		});
+	}
+
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, final float x, final float y) {
+		final AttributedString text = new AttributedString(iterator);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawString(text.getIterator(), x, y);
+			}
+		});
+	}
+
+	@Override
+	public void drawChars(char[] data, int offset, int length, int x, int y) {
+		drawString(new String(data, offset, length), x, y);
+	}
+
+	@Override
+	public void drawGlyphVector(final GlyphVector g, final float x, final float y) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawGlyphVector(g, x, y);
+			}
+		});
+	}
+
+	@Override
+	public boolean drawImage(final Image img, AffineTransform xform, ImageObserver obs) {
+		final AffineTransform copy = xform == null ? null : new AffineTransform(xform);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, copy, null);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public void drawImage(final BufferedImage img, final BufferedImageOp op, final int x, final int y) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, op, x, y);
+			}
+		});
+	}
+
+	@Override
+	public void drawRenderedImage(final RenderedImage img, AffineTransform xform) {
+		final AffineTransform copy = new AffineTransform(xform);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawRenderedImage(img, copy);
+			}
+		});
+	}
+
+	@Override
+	public void drawRenderableImage(final RenderableImage img, AffineTransform xform) {
+		final AffineTransform copy = new AffineTransform(xform);
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawRenderableImage(img, copy);
+			}
+		});
+	}
+
+	@Override
+	public boolean drawImage(final Image img, final int x, final int y, ImageObserver observer) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, x, y, null);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public boolean drawImage(final Image img, final int x, final int y, final int width, final int height,
+			ImageObserver observer) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, x, y, width, height, null);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public boolean drawImage(final Image img, final int x, final int y, final Color bgcolor,
+			ImageObserver observer) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, x, y, bgcolor, null);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public boolean drawImage(final Image img, final int x, final int y, final int width, final int height,
+			final Color bgcolor, ImageObserver observer) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, x, y, width, height, bgcolor, null);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public boolean drawImage(final Image img, final int dx1, final int dy1, final int dx2, final int dy2,
+			final int sx1, final int sy1, final int sx2, final int sy2, ImageObserver observer) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+			}
+		});
+		return true;
+	}
+
+	@Override
+	public boolean drawImage(final Image img, final int dx1, final int dy1, final int dx2, final int dy2,
+			final int sx1, final int sy1, final int sx2, final int sy2, final Color bgcolor,
+			ImageObserver observer) {
+		record(new Operation(graphicsId) {
+			void replay(List<Graphics2D> graphics) {
+				target(graphics).drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, null);
+			}
+		});
+		return true;
+	}
+}
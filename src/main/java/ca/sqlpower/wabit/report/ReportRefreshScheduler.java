@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+import javax.swing.SwingUtilities;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.object.SPObject;
+import ca.sqlpower.object.SPVariableHelper;
+import ca.sqlpower.object.SPVariableResolver;
+import ca.sqlpower.object.SPVariableResolverProvider;
+import ca.sqlpower.wabit.WabitObject;
+import ca.sqlpower.wabit.WabitUtils;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.report.selectors.Selector;
+import ca.sqlpower.wabit.rs.ResultSetVariableResolver;
+import ca.sqlpower.wabit.rs.olap.OlapQuery;
+import ca.sqlpower.wabit.rs.query.QueryCache;
+
+/**
+ * Refreshes the content of a layout when the values of its selectors change,
+ * limited to the content that uses the changed values.
+ * <p>
+ * The content boxes' renderers, the objects they depend on through
+ * {@link WabitObject#getDependencies()} and the variable providers the
+ * queries and labels refer to form a dependency graph. A renderer is
+ * refreshed if it, or anything it depends on, refers to the variable of a
+ * selector whose value changed. The variables of the affected queries that
+ * provide variables to others are reloaded first, then the affected
+ * renderers are refreshed. Each refreshed renderer executes its query in the
+ * background, so the queries of independent renderers run in parallel
+ * through the {@link ca.sqlpower.wabit.rs.QueryScheduler}, and the other
+ * renderers keep the results they have.
+ * <p>
+ * Refresh requests are coalesced: any number of requests made before the
+ * Swing event thread gets to the pending refresh are handled by one refresh,
+ * which compares the value of every selector to the value it had at the
+ * previous refresh.
+ */
+public class ReportRefreshScheduler {
+
+	private static final Logger logger = Logger.getLogger(ReportRefreshScheduler.class);
+
+	/**
+	 * Finds the variables referred to in the text of queries and labels, with
+	 * the part between the braces in the first group.
+	 */
+	private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$\\{([^}]+)\\}");
+
+	private final Layout layout;
+
+	/**
+	 * Called on the Swing event thread after the affected renderers have been
+	 * refreshed, may be null.
+	 */
+	private final Runnable afterRefresh;
+
+	/**
+	 * The value of each selector at the last refresh.
+	 */
+	@GuardedBy("this")
+	private final Map<Selector, Object> selectorValues = new IdentityHashMap<Selector, Object>();
+
+	@GuardedBy("this")
+	private boolean refreshPending = false;
+
+	private final Runnable refreshRoutine = new Runnable() {
+		public void run() {
+			requestRefresh();
+		}
+	};
+
+	/**
+	 * @param layout
+	 *            The layout whose content is refreshed.
+	 * @param afterRefresh
+	 *            Called on the Swing event thread after a refresh that
+	 *            refreshed at least one renderer, for example to repaint the
+	 *            layout. May be null.
+	 */
+	public ReportRefreshScheduler(Layout layout, @Nullable Runnable afterRefresh) {
+		this.layout = layout;
+		this.afterRefresh = afterRefresh;
+		findChangedSelectors();
+	}
+
+	/**
+	 * Returns a routine that requests a refresh, to be given to the
+	 * components of the selectors.
+	 */
+	public Runnable getRefreshRoutine() {
+		return refreshRoutine;
+	}
+
+	/**
+	 * Schedules a refresh of the content affected by the selectors that
+	 * changed, unless one is already scheduled.
+	 */
+	public void requestRefresh() {
+		synchronized (this) {
+			if (refreshPending) return;
+			refreshPending = true;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				synchronized (ReportRefreshScheduler.this) {
+					refreshPending = false;
+				}
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Refreshes the content affected by the selectors whose value changed
+	 * since the last refresh.
+	 */
+	void refresh() {
+		Collection<Selector> changed = findChangedSelectors();
+		if (changed.isEmpty()) return;
+		
+		Set<WabitObject> affected = findAffected(changed);
+		logger.debug("Selectors " + changed + " affect " + affected);
+		
+		// The affected objects are in the order they were found, which puts
+		// every object after the ones it depends on.
+		boolean refreshed = false;
+		for (WabitObject object : affected) {
+			if (object instanceof QueryCache || object instanceof OlapQuery) {
+				SPVariableResolver resolver = ((SPVariableResolverProvider) object).getVariableResolver();
+				if (resolver instanceof ResultSetVariableResolver) {
+					((ResultSetVariableResolver) resolver).setUpdateNeeded(true);
+				}
+			} else if (object instanceof ReportContentRenderer) {
+				((ReportContentRenderer) object).refresh();
+				refreshed = true;
+			}
+		}
+		if (refreshed && afterRefresh != null) {
+			afterRefresh.run();
+		}
+	}
+
+	/**
+	 * Returns the selectors of the layout and its content boxes whose value
+	 * is not the one it was at the last call, and remembers their current
+	 * values. Selectors that were added since the last call count as changed.
+	 */
+	synchronized Collection<Selector> findChangedSelectors() {
+		List<Selector> selectors = new ArrayList<Selector>();
+		if (layout instanceof Report) {
+			selectors.addAll(((Report) layout).getSelectors());
+		}
+		for (ContentBox box : layout.getPage().getContentBoxes()) {
+			selectors.addAll(box.getSelectors());
+		}
+		
+		List<Selector> changed = new ArrayList<Selector>();
+		Map<Selector, Object> values = new IdentityHashMap<Selector, Object>();
+		for (Selector selector : selectors) {
+			Object value = selector.getCurrentValue();
+			values.put(selector, value);
+			if (!selectorValues.containsKey(selector) 
+					|| !ObjectUtils.equals(selectorValues.get(selector), value)) {
+				changed.add(selector);
+			}
+		}
+		selectorValues.clear();
+		selectorValues.putAll(values);
+		return changed;
+	}
+
+	/**
+	 * Returns the renderers of the layout's content boxes that use the
+	 * variables of the given selectors, and the queries providing variables
+	 * they depend on that do. Every object comes after the objects it
+	 * depends on.
+	 */
+	Set<WabitObject> findAffected(Collection<Selector> changed) {
+		Set<WabitObject> affected = new LinkedHashSet<WabitObject>();
+		Set<WabitObject> visited = new HashSet<WabitObject>();
+		WabitWorkspace workspace = WabitUtils.getWorkspace(layout);
+		for (ContentBox box : layout.getPage().getContentBoxes()) {
+			ReportContentRenderer renderer = box.getContentRenderer();
+			if (renderer != null) {
+				visit(renderer, changed, workspace, visited, affected);
+			}
+		}
+		return affected;
+	}
+
+	/**
+	 * Adds the given object to the affected objects, after the objects it
+	 * depends on, if it or one of them uses a changed selector. Objects that
+	 * are already being visited, which only happens for circular references,
+	 * are taken as not affected.
+	 */
+	private boolean visit(WabitObject object, Collection<Selector> changed, 
+			@Nullable WabitWorkspace workspace, Set<WabitObject> visited, 
+			Set<WabitObject> affected) {
+		if (!visited.add(object)) {
+			return affected.contains(object);
+		}
+		boolean isAffected = false;
+		List<WabitObject> dependencies = new ArrayList<WabitObject>(object.getDependencies());
+		for (String reference : findVariableReferences(object)) {
+			String namespace = SPVariableHelper.getNamespace(reference);
+			String key = SPVariableHelper.getKey(reference);
+			for (Selector selector : changed) {
+				if (ObjectUtils.equals(key, selector.getName()) && (namespace == null 
+						|| namespace.equals(selector.getParent().getUUID()))) {
+					isAffected = true;
+				}
+			}
+			if (namespace != null && workspace != null) {
+				SPObject provider = workspace.findByUuid(namespace, SPObject.class);
+				if (provider instanceof WabitObject && provider != object) {
+					dependencies.add((WabitObject) provider);
+				}
+			}
+		}
+		for (WabitObject dependency : dependencies) {
+			if (visit(dependency, changed, workspace, visited, affected)) {
+				isAffected = true;
+			}
+		}
+		if (isAffected) {
+			affected.add(object);
+		}
+		return isAffected;
+	}
+
+	/**
+	 * Returns the variables the text of the given query or label refers to,
+	 * with their namespace if they have one.
+	 */
+	private static Collection<String> findVariableReferences(WabitObject object) {
+		String text = null;
+		try {
+			if (object instanceof QueryCache) {
+				text = ((QueryCache) object).generateQuery();
+			} else if (object instanceof OlapQuery) {
+				text = ((OlapQuery) object).getTextualQuery();
+			} else if (object instanceof WabitLabel) {
+				text = ((WabitLabel) object).getText();
+			}
+		} catch (Exception e) {
+			logger.debug("Could not get the text of " + object + " to find its variables", e);
+		}
+		if (text == null) {
+			return new ArrayList<String>();
+		}
+		Set<String> references = new LinkedHashSet<String>();
+		Matcher matcher = VARIABLE_PATTERN.matcher(text);
+		while (matcher.find()) {
+			references.add(matcher.group(1));
+		}
+		return references;
+	}
+}
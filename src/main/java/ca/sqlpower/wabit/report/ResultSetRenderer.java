@@ -26,6 +26,7 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Stroke;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.math.BigDecimal;
 import java.sql.Date;
@@ -60,7 +61,9 @@ import ca.sqlpower.wabit.WabitUtils;
 import ca.sqlpower.wabit.report.ColumnInfo.GroupAndBreak;
 import ca.sqlpower.wabit.report.resultset.ReportPositionRenderer;
 import ca.sqlpower.wabit.report.resultset.ResultSetCell;
+import ca.sqlpower.wabit.report.resultset.ResultSetPageLayout;
 import ca.sqlpower.wabit.report.selectors.ContextAware;
+import ca.sqlpower.wabit.rs.ColumnarResultSet;
 import ca.sqlpower.wabit.rs.ResultSetEvent;
 import ca.sqlpower.wabit.rs.ResultSetHandle;
 import ca.sqlpower.wabit.rs.ResultSetListener;
@@ -164,17 +167,16 @@ public class ResultSetRenderer extends AbstractWabitObject
     }
 
     /**
-     * This list contains an in-order list of positions per page. Each entry in
-     * the outer list represents one page. The values in the inner list
-     * represents the {@link ResultSetCell}s in each page. This will be null if
-     * a change has occurred and requires the positions to be recreated from the
-     * {@link ReportPositionRenderer#createResultSetLayout(Graphics2D, ResultSet, List, ContentBox, boolean)}
+     * This layout knows where each page starts and creates the
+     * {@link ResultSetCell}s of a page when it gets rendered. This will be null
+     * if a change has occurred and requires the layout to be recreated from the
+     * {@link ReportPositionRenderer#createPagedLayout(Graphics2D, ResultSet, List, double, boolean)}
      * method. This is wrapped by a ThreadLocal to give each printing thread and
      * the UI thread different copies of the page positions. This is required as
      * the printing will render a result set without a limit while the screen
      * does have a limit to it.
      */
-    private final ThreadLocal<List<List<ResultSetCell>>> pageCells = new ThreadLocal<List<List<ResultSetCell>>>();
+    private final ThreadLocal<ResultSetPageLayout> pageCells = new ThreadLocal<ResultSetPageLayout>();
     
     /**
      * This decides if the grand totals will be printed at the end of a result
@@ -696,9 +698,8 @@ public class ResultSetRenderer extends AbstractWabitObject
     	synchronized (pageCells) {
     		try {
         		
-        		CachedRowSet rs = (CachedRowSet)this.resultSetHandle.getResultSet();
-        		
-            	if (rs.getData().size() == 0) {
+        		ResultSet rs = this.resultSetHandle.getResultSet();
+            	if (this.resultSetHandle.getRowCount() == 0) {
             	    renderMessage(g, width, height, 
             	            Collections.singletonList("The query '" + query.getName() + "' didn't return any data."));
             	    return false;
@@ -722,12 +723,21 @@ public class ResultSetRenderer extends AbstractWabitObject
             	return false;
             }
             
-            if (pageIndex >= pageCells.get().size()) {
-                logger.warn("Trying to print page " + pageIndex + " but only " + pageCells.get().size() + " pages exist.");
+            if (pageIndex >= pageCells.get().getPageCount()) {
+                logger.warn("Trying to print page " + pageIndex + " but only " + pageCells.get().getPageCount() + " pages exist.");
                 return false;
             }
             
-            List<ResultSetCell> currentPagePositions = pageCells.get().get(pageIndex);
+            List<ResultSetCell> currentPagePositions;
+            try {
+            	currentPagePositions = pageCells.get().getPageCells(g, pageIndex);
+            } catch (SQLException e) {
+            	List<String> message = new ArrayList<String>();
+            	message.add("The query '" + query.getName() + "' returned an exception:");
+            	message.add(WabitUtils.getRootCause(e).getMessage());
+            	renderMessage(g, width, height,message);
+            	return false;
+            }
             for (ResultSetCell position : currentPagePositions) {
             	Graphics2D g2 = (Graphics2D) g.create();
                 position.paint(g2);
@@ -763,7 +773,7 @@ public class ResultSetRenderer extends AbstractWabitObject
                 g.setStroke(oldStroke);
             }
             
-            boolean isLastPage = pageCells.get().size() - 1 == pageIndex;
+            boolean isLastPage = pageCells.get().getPageCount() - 1 == pageIndex;
             return !isLastPage;
 		}
     }
@@ -797,22 +807,37 @@ public class ResultSetRenderer extends AbstractWabitObject
      */
     private void maybeCreateResultSetLayout(
     		Graphics2D g, 
-    		CachedRowSet rs, 
+    		ResultSet rs, 
     		double width,
     		double height) throws SQLException {
     	
     	synchronized (pageCells) {
     		if (pageCells.get() != null) return; 
 		}
-        
-    	RowComparator comparator = new RowComparator();
+    	
+    	List<Integer> sortColumns = new ArrayList<Integer>();
     	for (int i = 0; i < getColumnInfoList().size(); i++) {
     	    if (!getColumnInfoList().get(i).getWillGroupOrBreak().equals(GroupAndBreak.NONE)) {
-    	        comparator.addSortColumn(i + 1, true);
+    	        sortColumns.add(i + 1);
     	    }
     	}
     	
-    	CachedRowSet rsCopy = rs.sort(comparator);
+    	ResultSet rsCopy;
+    	if (rs instanceof ColumnarResultSet) {
+    		// Only the row order is sorted, the columnar rows are not copied
+    		// and spilled rows stay on disk.
+    		int[] columns = new int[sortColumns.size()];
+    		for (int i = 0; i < columns.length; i++) {
+    			columns[i] = sortColumns.get(i);
+    		}
+    		rsCopy = ((ColumnarResultSet) rs).createSorted(columns);
+    	} else {
+    		RowComparator comparator = new RowComparator();
+    		for (int column : sortColumns) {
+    			comparator.addSortColumn(column, true);
+    		}
+    		rsCopy = ((CachedRowSet) rs).sort(comparator);
+    	}
     	
     	// Little validation. In some rare cases, the rending is started
     	// while the columns are still being put in. Should that happens,
@@ -835,8 +860,8 @@ public class ResultSetRenderer extends AbstractWabitObject
         				(int) getParent().getWidth(), 
         				nullString);
         
-        List<List<ResultSetCell>> layout = 
-        		reportPositionRenderer.createResultSetLayout(
+        ResultSetPageLayout layout = 
+        		reportPositionRenderer.createPagedLayout(
         				zeroClipGraphics, 
         				rsCopy, 
         				getColumnInfoList(), 
@@ -1083,8 +1108,13 @@ public class ResultSetRenderer extends AbstractWabitObject
     /**
      * This method should ONLY be needed for testing.
      */
-    List<List<ResultSetCell>> findCells() {
-        return Collections.unmodifiableList(pageCells.get());
+    List<List<ResultSetCell>> findCells() throws SQLException {
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            return Collections.unmodifiableList(pageCells.get().getAllPageCells(g));
+        } finally {
+            g.dispose();
+        }
     }
     
     public void setColBeingDragged(ColumnInfo colBeingDragged) {
@@ -1103,6 +1133,21 @@ public class ResultSetRenderer extends AbstractWabitObject
         return printingGrandTotals;
     }
 
+	/**
+	 * Makes this renderer render the results of the given handle instead of
+	 * executing its query again the next time it is rendered. This is for
+	 * callers that execute the queries of a report themselves, like the batch
+	 * report engine, and keep the handles for the whole time they render it.
+	 * 
+	 * @param rsh
+	 *            A handle from executing this renderer's query.
+	 */
+	public synchronized void setPrintedResultSetHandle(@Nonnull ResultSetHandle rsh) {
+		setResultSetHandle(rsh);
+		rsh.addResultSetListener(resultSetListener);
+		dirty = false;
+	}
+
 	public void refresh() {
 		this.pageCells.remove();
 		this.executeException = null;
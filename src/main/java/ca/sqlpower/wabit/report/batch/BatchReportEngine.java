@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.object.SPVariableHelper;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.enterprise.client.ReportTask;
+import ca.sqlpower.wabit.report.ChartRenderer;
+import ca.sqlpower.wabit.report.ContentBox;
+import ca.sqlpower.wabit.report.LayoutToPDF;
+import ca.sqlpower.wabit.report.Report;
+import ca.sqlpower.wabit.report.ReportContentRenderer;
+import ca.sqlpower.wabit.report.ResultSetRenderer;
+import ca.sqlpower.wabit.rs.ResultSetEvent;
+import ca.sqlpower.wabit.rs.ResultSetHandle;
+import ca.sqlpower.wabit.rs.ResultSetListener;
+import ca.sqlpower.wabit.rs.ResultSetProducerException;
+import ca.sqlpower.wabit.rs.WabitResultSetProducer;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetStatus;
+
+/**
+ * Renders the reports of {@link ReportTask}s to files without a user
+ * interface, for a server producing scheduled reports. Many reports are
+ * rendered at once, each on its own engine thread, and the queries of a
+ * report are all executed at the same time through the
+ * {@link ca.sqlpower.wabit.rs.QueryScheduler} before the report is rendered.
+ * The handles of the executions are given to the renderers and the CSV
+ * writer so they use the same results instead of executing the queries again
+ * one after the other.
+ * <p>
+ * The engine threads are headless as defined by
+ * {@link ResultSetHandle#setHeadlessThread(boolean)} so the query events are
+ * delivered on the engine and query threads instead of the Swing event
+ * thread.
+ * <p>
+ * Tasks for the same report are rendered one after the other on the same
+ * thread as a report keeps track of the page it is printing.
+ */
+public class BatchReportEngine {
+
+	private static final Logger logger = Logger.getLogger(BatchReportEngine.class);
+
+	/**
+	 * The formats the engine can render a report to.
+	 */
+	public enum OutputFormat {
+		
+		/**
+		 * The whole report as it would be printed.
+		 */
+		PDF,
+		
+		/**
+		 * One file for each result set in the report, with the values as
+		 * the database returned them.
+		 */
+		CSV
+	}
+
+	/**
+	 * The number of reports rendered at once when no parallelism is given.
+	 */
+	private static final int DEFAULT_PARALLELISM = Integer.getInteger(
+			"ca.sqlpower.wabit.report.batch.BatchReportEngine.parallelism",
+			Runtime.getRuntime().availableProcessors()).intValue();
+
+	private final ExecutorService executor;
+	
+	private final int parallelism;
+
+	/**
+	 * Creates an engine rendering as many reports at once as the system
+	 * property
+	 * <code>ca.sqlpower.wabit.report.batch.BatchReportEngine.parallelism</code>
+	 * says, the number of processors by default.
+	 */
+	public BatchReportEngine() {
+		this(DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Creates an engine rendering up to the given number of reports at once.
+	 */
+	public BatchReportEngine(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1, not " + parallelism);
+		}
+		this.parallelism = parallelism;
+		final AtomicInteger threadCount = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				Thread t = new Thread(new Runnable() {
+					public void run() {
+						ResultSetHandle.setHeadlessThread(true);
+						r.run();
+					}
+				}, "Batch report renderer " + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Renders the report of each task to the given formats. This blocks until
+	 * all of the reports are rendered. A report that fails to render does not
+	 * stop the others, its exception is kept in its {@link ReportRun}.
+	 * 
+	 * @param workspace
+	 *            The workspace the reports of the tasks belong to.
+	 * @param tasks
+	 *            The tasks to render the reports of.
+	 * @param formats
+	 *            The formats to render each report to.
+	 * @param output
+	 *            Where the files of each report are written.
+	 * @return The result and timings of each task.
+	 * @throws InterruptedException
+	 *             If the calling thread is interrupted while waiting for the
+	 *             reports. The reports still waiting are not rendered.
+	 */
+	public BatchRun render(@Nonnull WabitWorkspace workspace, @Nonnull Collection<ReportTask> tasks,
+			@Nonnull final Set<OutputFormat> formats, @Nonnull final ReportOutput output) 
+			throws InterruptedException {
+		long start = System.nanoTime();
+		
+		List<ReportRun> runs = new ArrayList<ReportRun>();
+		Map<Report, List<ReportRun>> runsByReport = new LinkedHashMap<Report, List<ReportRun>>();
+		for (ReportTask task : tasks) {
+			Report report = task.getReport();
+			if (report == null) {
+				throw new IllegalArgumentException("The report task " + task.getName() + " has no report.");
+			}
+			if (!workspace.getReports().contains(report)) {
+				throw new IllegalArgumentException("The report " + report.getName() + 
+						" is not in the workspace " + workspace.getName());
+			}
+			ReportRun run = new ReportRun(task, report.getName());
+			run.submittedNanos = start;
+			runs.add(run);
+			List<ReportRun> reportRuns = runsByReport.get(report);
+			if (reportRuns == null) {
+				reportRuns = new ArrayList<ReportRun>();
+				runsByReport.put(report, reportRuns);
+			}
+			reportRuns.add(run);
+		}
+		
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (Map.Entry<Report, List<ReportRun>> entry : runsByReport.entrySet()) {
+			final Report report = entry.getKey();
+			final List<ReportRun> reportRuns = entry.getValue();
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					for (ReportRun run : reportRuns) {
+						render(report, run, formats, output);
+					}
+				}
+			}));
+		}
+		
+		try {
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.error("Unexpected exception rendering a report", e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			throw e;
+		}
+		
+		BatchRun batch = new BatchRun(runs, (System.nanoTime() - start) / 1000000);
+		logger.info("Rendered " + batch);
+		return batch;
+	}
+
+	/**
+	 * Renders one task, recording its timings and any exception in its run.
+	 */
+	private void render(Report report, ReportRun run, Set<OutputFormat> formats, ReportOutput output) {
+		run.startedNanos = System.nanoTime();
+		run.queriesDoneNanos = run.startedNanos;
+		try {
+			Map<ResultSetRenderer, ResultSetHandle> handles = 
+				new LinkedHashMap<ResultSetRenderer, ResultSetHandle>();
+			run.queryCount = executeQueries(report, handles);
+			run.queriesDoneNanos = System.nanoTime();
+			if (formats.contains(OutputFormat.PDF)) {
+				writePDF(report, run, output);
+			}
+			if (formats.contains(OutputFormat.CSV)) {
+				writeCSV(report, handles, run, output);
+			}
+		} catch (Exception e) {
+			logger.error("Could not render the report " + report.getName(), e);
+			run.setException(e);
+		} finally {
+			run.finishedNanos = System.nanoTime();
+			logger.debug(run);
+		}
+	}
+
+	/**
+	 * Starts the queries of every result set and chart in the report at the
+	 * same time and waits for all of them to finish. Each result set renderer
+	 * is given the handle of its execution to print from.
+	 * <p>
+	 * Charts are refreshed instead of having their query executed, as they
+	 * may run a grouped version of it. Rendering the chart then waits for
+	 * that execution to finish if it has not yet.
+	 * 
+	 * @param handles
+	 *            The handle of each result set renderer's execution is added
+	 *            to this map.
+	 * @return The number of queries executed.
+	 */
+	private int executeQueries(Report report, Map<ResultSetRenderer, ResultSetHandle> handles) 
+			throws ResultSetProducerException, InterruptedException {
+		List<CountDownLatch> executions = new ArrayList<CountDownLatch>();
+		int chartCount = 0;
+		for (ContentBox cb : report.getPage().getContentBoxes()) {
+			ReportContentRenderer renderer = cb.getContentRenderer();
+			WabitResultSetProducer producer = null;
+			if (renderer instanceof ResultSetRenderer) {
+				producer = ((ResultSetRenderer) renderer).getContent();
+			} else if (renderer instanceof ChartRenderer) {
+				ChartRenderer chartRenderer = (ChartRenderer) renderer;
+				if (chartRenderer.getContent().getQuery() != null 
+						&& !chartRenderer.getContent().getQuery().isStreaming()) {
+					chartRenderer.refresh(true);
+					chartCount++;
+				}
+				continue;
+			}
+			if (producer == null || producer.isStreaming()) continue;
+			
+			final CountDownLatch complete = new CountDownLatch(1);
+			ResultSetHandle handle = producer.execute(new SPVariableHelper(renderer), new ResultSetListener() {
+				public void executionComplete(ResultSetEvent evt) {
+					complete.countDown();
+				}
+				public void executionStarted(ResultSetEvent evt) {
+					// not interested
+				}
+				public void newData(ResultSetEvent evt) {
+					// not interested
+				}
+			}, true);
+			if (handle != null) {
+				executions.add(complete);
+				handles.put((ResultSetRenderer) renderer, handle);
+			}
+		}
+		for (CountDownLatch complete : executions) {
+			complete.await();
+		}
+		for (Map.Entry<ResultSetRenderer, ResultSetHandle> entry : handles.entrySet()) {
+			entry.getKey().setPrintedResultSetHandle(entry.getValue());
+		}
+		return executions.size() + chartCount;
+	}
+	
+	private void writePDF(Report report, ReportRun run, ReportOutput output) throws Exception {
+		String fileName = report.getName() + ".pdf";
+		OutputStream out = output.open(run.getTask(), fileName);
+		try {
+			LayoutToPDF pdfMaker = new LayoutToPDF(out, report, null);
+			pdfMaker.writePDF();
+			run.pageCount = pdfMaker.getJobSize();
+		} finally {
+			out.close();
+		}
+		run.addFileName(fileName);
+	}
+
+	/**
+	 * Writes one CSV file for each result set renderer in the report, named
+	 * after the report and the position of the result set in it. The results
+	 * come from the handles of {@link #executeQueries(Report, Map)}.
+	 */
+	private void writeCSV(Report report, Map<ResultSetRenderer, ResultSetHandle> handles, 
+			ReportRun run, ReportOutput output) throws SQLException, IOException {
+		int resultSetCount = 0;
+		for (ContentBox cb : report.getPage().getContentBoxes()) {
+			if (!(cb.getContentRenderer() instanceof ResultSetRenderer)) continue;
+			ResultSetRenderer renderer = (ResultSetRenderer) cb.getContentRenderer();
+			if (renderer.getContent().isStreaming()) continue;
+			resultSetCount++;
+			
+			ResultSetHandle handle = handles.get(renderer);
+			if (handle == null) continue;
+			if (handle.getStatus() == ResultSetStatus.ERROR) {
+				SQLException e = new SQLException("The query " + renderer.getContent().getName() + " failed.");
+				e.initCause(handle.getException());
+				throw e;
+			}
+			
+			String fileName = report.getName() + "-" + resultSetCount + ".csv";
+			Writer out = new BufferedWriter(new OutputStreamWriter(output.open(run.getTask(), fileName), "UTF-8"));
+			try {
+				writeCSV(handle.getResultSet(), out);
+			} finally {
+				out.close();
+			}
+			run.addFileName(fileName);
+		}
+	}
+
+	/**
+	 * Writes the result set as comma separated values with a header row of
+	 * the column labels. Null values are left empty.
+	 * <p>
+	 * Package private for testing.
+	 */
+	static void writeCSV(ResultSet rs, Writer out) throws SQLException, IOException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int columnCount = rsmd.getColumnCount();
+		for (int col = 1; col <= columnCount; col++) {
+			if (col > 1) out.write(',');
+			writeCSVField(rsmd.getColumnLabel(col), out);
+		}
+		out.write("\r\n");
+		rs.beforeFirst();
+		while (rs.next()) {
+			for (int col = 1; col <= columnCount; col++) {
+				if (col > 1) out.write(',');
+				writeCSVField(rs.getString(col), out);
+			}
+			out.write("\r\n");
+		}
+	}
+	
+	private static void writeCSVField(String value, Writer out) throws IOException {
+		if (value == null) return;
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && 
+				value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+
+	/**
+	 * Returns an output writing the files of each task to a directory named
+	 * after the task's UUID in the given directory, so tasks for the same
+	 * report, or for reports with the same name, do not overwrite each
+	 * other's files. Characters that are not allowed in file names are
+	 * replaced with underscores.
+	 */
+	public static ReportOutput directoryOutput(final File directory) {
+		return new ReportOutput() {
+			public OutputStream open(ReportTask task, String fileName) throws IOException {
+				File taskDirectory = new File(directory, task.getUUID());
+				if (!taskDirectory.isDirectory() && !taskDirectory.mkdirs()) {
+					throw new IOException("Could not create the directory " + taskDirectory);
+				}
+				File file = new File(taskDirectory, fileName.replaceAll("[\\\\/:*?\"<>|]", "_"));
+				return new BufferedOutputStream(new FileOutputStream(file));
+			}
+		};
+	}
+
+	/**
+	 * Stops the engine threads once the reports being rendered are done.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
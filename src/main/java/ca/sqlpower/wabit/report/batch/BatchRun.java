@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of one call to
+ * {@link BatchReportEngine#render(ca.sqlpower.wabit.WabitWorkspace, java.util.Collection, java.util.Set, ReportOutput)}:
+ * the result of each report task along with the throughput and latency of the
+ * batch as a whole.
+ */
+public class BatchRun {
+
+	private final List<ReportRun> runs;
+	
+	private final long elapsedMillis;
+	
+	/**
+	 * The latency of each report, sorted, used for the percentiles.
+	 */
+	private final long[] sortedLatencies;
+
+	BatchRun(List<ReportRun> runs, long elapsedMillis) {
+		this.runs = Collections.unmodifiableList(new ArrayList<ReportRun>(runs));
+		this.elapsedMillis = elapsedMillis;
+		sortedLatencies = new long[runs.size()];
+		for (int i = 0; i < sortedLatencies.length; i++) {
+			sortedLatencies[i] = runs.get(i).getLatencyMillis();
+		}
+		Arrays.sort(sortedLatencies);
+	}
+
+	/**
+	 * Returns the result of each report task, in the order the tasks were
+	 * given.
+	 */
+	public List<ReportRun> getRuns() {
+		return runs;
+	}
+
+	/**
+	 * Returns the wall clock time the batch took.
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+	
+	public int getFailureCount() {
+		int failures = 0;
+		for (ReportRun run : runs) {
+			if (!run.isSuccessful()) failures++;
+		}
+		return failures;
+	}
+
+	/**
+	 * Returns the number of reports rendered per second over the whole batch.
+	 */
+	public double getThroughput() {
+		if (runs.isEmpty()) return 0;
+		return runs.size() * 1000.0 / Math.max(1, elapsedMillis);
+	}
+
+	/**
+	 * Returns the latency, from being submitted to being written, that the
+	 * given fraction of the reports did not exceed. For example 0.5 gives the
+	 * median and 0.95 the 95th percentile.
+	 */
+	public long getLatencyPercentile(double fraction) {
+		if (fraction < 0 || fraction > 1) {
+			throw new IllegalArgumentException("The fraction must be between 0 and 1, not " + fraction);
+		}
+		if (sortedLatencies.length == 0) return 0;
+		int index = (int) Math.ceil(fraction * sortedLatencies.length) - 1;
+		return sortedLatencies[Math.max(0, index)];
+	}
+	
+	public long getMaxLatencyMillis() {
+		return getLatencyPercentile(1);
+	}
+	
+	@Override
+	public String toString() {
+		return runs.size() + " reports (" + getFailureCount() + " failed) in " + elapsedMillis + 
+			"ms, " + String.format("%.2f", getThroughput()) + " reports/s, median latency " + 
+			getLatencyPercentile(0.5) + "ms, 95th percentile " + getLatencyPercentile(0.95) + 
+			"ms, max " + getMaxLatencyMillis() + "ms";
+	}
+}
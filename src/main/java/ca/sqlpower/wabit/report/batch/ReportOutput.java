@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.batch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ca.sqlpower.wabit.enterprise.client.ReportTask;
+
+/**
+ * Gives the {@link BatchReportEngine} somewhere to write the files it
+ * produces for a report task. A server would typically write them to a spool
+ * directory or keep them in memory to attach them to an email.
+ */
+public interface ReportOutput {
+
+	/**
+	 * Opens a stream for one of the files produced for the given task. The
+	 * engine closes the stream once the file is written. This may be called
+	 * by several engine threads at once, for different tasks.
+	 * 
+	 * @param task
+	 *            The task the file is produced for.
+	 * @param fileName
+	 *            The name of the file, made of the report name and an
+	 *            extension for the format. Names are only unique among the
+	 *            files of one task: tasks for the same report, or for reports
+	 *            with the same name, are given the same names.
+	 */
+	OutputStream open(ReportTask task, String fileName) throws IOException;
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import ca.sqlpower.wabit.enterprise.client.ReportTask;
+
+/**
+ * The outcome of rendering one {@link ReportTask} in a
+ * {@link BatchReportEngine}, with the time spent in each step. All times are
+ * in milliseconds.
+ */
+public class ReportRun {
+
+	private final ReportTask task;
+	
+	private final String reportName;
+
+	long submittedNanos;
+	long startedNanos;
+	long queriesDoneNanos;
+	long finishedNanos;
+	
+	int queryCount;
+	int pageCount;
+	
+	private final List<String> fileNames = new ArrayList<String>();
+	
+	private Throwable exception;
+
+	ReportRun(ReportTask task, String reportName) {
+		this.task = task;
+		this.reportName = reportName;
+	}
+	
+	void addFileName(String fileName) {
+		fileNames.add(fileName);
+	}
+	
+	void setException(Throwable exception) {
+		this.exception = exception;
+	}
+
+	public ReportTask getTask() {
+		return task;
+	}
+	
+	public String getReportName() {
+		return reportName;
+	}
+
+	/**
+	 * Returns the time the task waited for an engine thread.
+	 */
+	public long getQueueMillis() {
+		return toMillis(startedNanos - submittedNanos);
+	}
+
+	/**
+	 * Returns the time spent executing the queries of the report, before
+	 * any of it was rendered.
+	 */
+	public long getQueryMillis() {
+		return toMillis(queriesDoneNanos - startedNanos);
+	}
+
+	/**
+	 * Returns the time spent rendering the report to all of the formats.
+	 */
+	public long getRenderMillis() {
+		return toMillis(finishedNanos - queriesDoneNanos);
+	}
+
+	/**
+	 * Returns the time from the task being submitted to its files being
+	 * written.
+	 */
+	public long getLatencyMillis() {
+		return toMillis(finishedNanos - submittedNanos);
+	}
+
+	/**
+	 * Returns the number of queries executed ahead of rendering the report.
+	 */
+	public int getQueryCount() {
+		return queryCount;
+	}
+
+	/**
+	 * Returns the number of pages in the PDF, 0 if no PDF was rendered.
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Returns the names of the files written for the task.
+	 */
+	public List<String> getFileNames() {
+		return Collections.unmodifiableList(fileNames);
+	}
+
+	/**
+	 * Returns the exception that stopped the report from being rendered,
+	 * null if it was rendered successfully.
+	 */
+	@Nullable
+	public Throwable getException() {
+		return exception;
+	}
+	
+	public boolean isSuccessful() {
+		return exception == null;
+	}
+	
+	private static long toMillis(long nanos) {
+		return Math.max(0, nanos / 1000000);
+	}
+	
+	@Override
+	public String toString() {
+		return "Report " + reportName + (isSuccessful() ? "" : " failed") + 
+			": queued " + getQueueMillis() + "ms, queries " + getQueryMillis() + 
+			"ms, rendering " + getRenderMillis() + "ms, total " + getLatencyMillis() + "ms";
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.chart;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jfree.data.UnknownKeyException;
+import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A read-only {@link CategoryDataset} over the values of a
+ * {@link CategoryAggregator}. The series are the rows of the dataset and the
+ * categories its columns. Values are read straight from the aggregator's
+ * arrays and category keys are looked up through its hash index, so building
+ * the dataset does not copy anything and looking up a category does not
+ * depend on how many categories there are, unlike filling a
+ * DefaultCategoryDataset which searches its column keys on every value added.
+ */
+class AggregatedCategoryDataset extends AbstractDataset implements CategoryDataset {
+
+	private final CategoryAggregator aggregator;
+
+	private final List<String> seriesNames;
+
+	/**
+	 * @param seriesNames
+	 *            The name of each series of the aggregator, in the order of
+	 *            their index in it.
+	 */
+	AggregatedCategoryDataset(List<String> seriesNames, CategoryAggregator aggregator) {
+		if (seriesNames.size() != aggregator.getSeriesCount()) {
+			throw new IllegalArgumentException("There are " + seriesNames.size() + 
+					" series names for " + aggregator.getSeriesCount() + " series");
+		}
+		this.seriesNames = Collections.unmodifiableList(new ArrayList<String>(seriesNames));
+		this.aggregator = aggregator;
+	}
+
+	public int getRowCount() {
+		return seriesNames.size();
+	}
+
+	public int getColumnCount() {
+		return aggregator.getCategories().size();
+	}
+
+	public Number getValue(int row, int column) {
+		return aggregator.getValue(row, column);
+	}
+
+	public Comparable<?> getRowKey(int row) {
+		return seriesNames.get(row);
+	}
+
+	public int getRowIndex(Comparable key) {
+		return seriesNames.indexOf(key);
+	}
+
+	public List<String> getRowKeys() {
+		return seriesNames;
+	}
+
+	public Comparable<?> getColumnKey(int column) {
+		return aggregator.getCategories().get(column);
+	}
+
+	public int getColumnIndex(Comparable key) {
+		if (!(key instanceof String)) return -1;
+		return aggregator.indexOf((String) key);
+	}
+
+	public List<String> getColumnKeys() {
+		return Collections.unmodifiableList(aggregator.getCategories());
+	}
+
+	public Number getValue(Comparable rowKey, Comparable columnKey) {
+		int row = getRowIndex(rowKey);
+		if (row < 0) {
+			throw new UnknownKeyException("Unrecognised series: " + rowKey);
+		}
+		int column = getColumnIndex(columnKey);
+		if (column < 0) {
+			throw new UnknownKeyException("Unrecognised category: " + columnKey);
+		}
+		return getValue(row, column);
+	}
+
+	/**
+	 * Two category datasets are equal if they have the same keys in the same
+	 * order and the same values, the same test as DefaultCategoryDataset
+	 * uses.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof CategoryDataset)) return false;
+		CategoryDataset other = (CategoryDataset) obj;
+		if (!getRowKeys().equals(other.getRowKeys())) return false;
+		if (!getColumnKeys().equals(other.getColumnKeys())) return false;
+		for (int row = 0; row < getRowCount(); row++) {
+			for (int column = 0; column < getColumnCount(); column++) {
+				Number value = getValue(row, column);
+				Number otherValue = other.getValue(row, column);
+				if (value == null ? otherValue != null : !value.equals(otherValue)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * seriesNames.hashCode() + aggregator.getCategories().hashCode();
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.chart;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.sqlpower.wabit.report.AggregateFunction;
+
+/**
+ * Combines the values of the series of a category chart by category in a
+ * single pass over the rows. Each category name is given a dense index the
+ * first time it is seen, and the running sum, minimum, maximum and count of
+ * every series are kept in primitive arrays indexed by it. Looking up a
+ * category is a hash lookup so the cost of a row does not depend on how many
+ * categories there are.
+ * <p>
+ * Categories keep the order they were first seen in, the same order the
+ * chart shows them in.
+ */
+class CategoryAggregator {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final AggregateFunction[] functions;
+
+	/**
+	 * Maps each category name to its index in {@link #categories} and in the
+	 * value arrays.
+	 */
+	private final Map<String, Integer> categoryIndices = new HashMap<String, Integer>();
+
+	private final List<String> categories = new ArrayList<String>();
+
+	/**
+	 * The sum of the values of each series by category. For MIN and MAX series
+	 * this holds the smallest or largest value instead.
+	 */
+	private double[][] values;
+
+	/**
+	 * The number of non-null values of each series by category.
+	 */
+	private int[][] counts;
+
+	/**
+	 * The number of categories the value arrays have room for.
+	 */
+	private int capacity = INITIAL_CAPACITY;
+
+	/**
+	 * @param functions
+	 *            The aggregate function of each series, in the order the
+	 *            series values are given to {@link #add(int, int, double)}.
+	 */
+	CategoryAggregator(AggregateFunction[] functions) {
+		this.functions = functions.clone();
+		values = new double[functions.length][capacity];
+		counts = new int[functions.length][capacity];
+	}
+
+	/**
+	 * Returns the index of the given category, adding it if it has not been
+	 * seen before.
+	 */
+	int categoryIndex(String category) {
+		Integer index = categoryIndices.get(category);
+		if (index == null) {
+			index = categories.size();
+			categoryIndices.put(category, index);
+			categories.add(category);
+			if (index == capacity) {
+				grow();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the index of the given category, or -1 if it has not been seen.
+	 */
+	int indexOf(String category) {
+		Integer index = categoryIndices.get(category);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the number of series values are combined for.
+	 */
+	int getSeriesCount() {
+		return functions.length;
+	}
+
+	private void grow() {
+		capacity *= 2;
+		for (int i = 0; i < functions.length; i++) {
+			values[i] = Arrays.copyOf(values[i], capacity);
+			counts[i] = Arrays.copyOf(counts[i], capacity);
+		}
+	}
+
+	/**
+	 * Adds a non-null value of a series to a category.
+	 */
+	void add(int series, int category, double value) {
+		int count = counts[series][category]++;
+		switch (functions[series]) {
+		case MIN:
+			if (count == 0 || value < values[series][category]) {
+				values[series][category] = value;
+			}
+			break;
+		case MAX:
+			if (count == 0 || value > values[series][category]) {
+				values[series][category] = value;
+			}
+			break;
+		default:
+			values[series][category] += value;
+		}
+	}
+
+	/**
+	 * Returns the categories in the order they were first seen.
+	 */
+	List<String> getCategories() {
+		return categories;
+	}
+
+	/**
+	 * Returns the aggregated value of a series for a category. Sums and counts
+	 * of categories without values are 0, averages, minimums and maximums
+	 * are null as there is nothing to show.
+	 */
+	Double getValue(int series, int category) {
+		int count = counts[series][category];
+		switch (functions[series]) {
+		case COUNT:
+			return (double) count;
+		case SUM:
+			return values[series][category];
+		case AVERAGE:
+			return count == 0 ? null : values[series][category] / count;
+		default:
+			return count == 0 ? null : values[series][category];
+		}
+	}
+}
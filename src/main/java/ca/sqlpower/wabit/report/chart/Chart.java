@@ -24,24 +24,31 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import net.jcip.annotations.GuardedBy;
+
 import org.apache.log4j.Logger;
 import org.jfree.data.general.Dataset;
+import org.jfree.data.xy.XYDataset;
 
 import ca.sqlpower.object.CleanupExceptions;
 import ca.sqlpower.object.SPObject;
 import ca.sqlpower.object.SPVariableHelper;
-import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.query.SQLGroupFunction;
 import ca.sqlpower.sql.RowFilter;
 import ca.sqlpower.swingui.ColourScheme;
 import ca.sqlpower.util.WebColour;
 import ca.sqlpower.wabit.AbstractWabitObject;
 import ca.sqlpower.wabit.WabitObject;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.rs.ResultSetEvent;
 import ca.sqlpower.wabit.rs.ResultSetHandle;
 import ca.sqlpower.wabit.rs.ResultSetListener;
@@ -51,6 +58,7 @@ import ca.sqlpower.wabit.rs.ResultSetProducerListener;
 import ca.sqlpower.wabit.rs.WabitResultSetProducer;
 import ca.sqlpower.wabit.rs.olap.OlapQuery;
 import ca.sqlpower.wabit.rs.olap.RepeatedMember;
+import ca.sqlpower.wabit.rs.query.QueryCache;
 
 
 /**
@@ -147,7 +155,7 @@ public class Chart extends AbstractWabitObject {
      * the chart data. This is applied to the result set before creating the
      * dataset. If null, all rows of the result set will be accepted.
      */
-    private RowFilter resultSetFilter;
+    private OlapRowFilter resultSetFilter;
 
     /**
      * The current result set (not filtered). Gets updated by refreshData(), and
@@ -177,6 +185,39 @@ public class Chart extends AbstractWabitObject {
      */
     private SPObject variablesContextSource = this;
 
+    /**
+     * Tells if this chart may have its query grouped and aggregated by the
+     * database instead of fetching every row. Only copies of charts made for
+     * rendering set this, see {@link #Chart(Chart, SPObject, boolean)}, as
+     * editors need the rows of the query to show them to the user.
+     */
+    private boolean aggregateInDatabase;
+
+    /**
+     * True if the current {@link #resultSetHandle} is the grouped version of
+     * the query, with one row per category already aggregated by the
+     * database. Its columns are not those of the query, so the chart columns
+     * are not synchronized with it.
+     */
+    private boolean aggregatedInDatabase;
+    
+    private final Object streamingLock = new Object();
+
+    /**
+     * The points of the XY series of this chart while its query is
+     * streaming, kept up to date with the rows the query delivers so the
+     * dataset does not have to be made from every row again. Null until the
+     * dataset of a streaming XY chart is made.
+     */
+    @GuardedBy("streamingLock")
+    private StreamingSeriesCollection streamingSeries;
+
+    /**
+     * The handle whose rows {@link #streamingSeries} follows.
+     */
+    @GuardedBy("streamingLock")
+    private ResultSetHandle streamingSeriesHandle;
+
     /**
      * List of currently-registered data listeners. This list contains no nulls.
      */
@@ -189,7 +230,9 @@ public class Chart extends AbstractWabitObject {
     private final ResultSetListener resultSetListener = new ResultSetListener() {
 		public void newData(ResultSetEvent evt) {
 			logger.debug("Obtained new data for chart");
-			syncWithRs(evt.getSourceHandle().getResultSet());
+			if (!evt.hasNewRows() || !appendStreamedRows(evt)) {
+				syncWithRs(evt.getSourceHandle().getResultSet());
+			}
 			fireDataChangedEvent();
 		}
 		public void executionComplete(ResultSetEvent evt) {
@@ -231,6 +274,26 @@ public class Chart extends AbstractWabitObject {
     	this(chartToCopy);
 		this.variablesContextSource = variablesContextSource;
     }
+
+	/**
+	 * Creates a new chart, based on another one, for rendering. Like
+	 * {@link #Chart(Chart, SPObject)} but it can also let the database group
+	 * and aggregate the rows of a category chart when its query allows it.
+	 * The new chart's columns must not be modified in that case as they are
+	 * not synchronized with the grouped rows.
+	 * 
+	 * @param chartToCopy
+	 *            The original chart to copy.
+	 * @param variablesContextSource
+	 *            The source of variables to use.
+	 * @param aggregateInDatabase
+	 *            True to execute the query grouped by the category columns
+	 *            when possible.
+	 */
+    public Chart(Chart chartToCopy, SPObject variablesContextSource, boolean aggregateInDatabase) {
+    	this(chartToCopy, variablesContextSource);
+    	this.aggregateInDatabase = aggregateInDatabase;
+    }
     
     /**
      * Copy constructor.
@@ -271,32 +334,22 @@ public class Chart extends AbstractWabitObject {
     }
 
     /**
-     * Returns the current result set of the query that supplies data to this
-     * chart.
-     * <p>
-     * No matter how the result set was obtained, it will be filtered through
-     * the current {@link #resultSetFilter} before being returned.
+     * Returns the rows of the given result set that should be charted, by
+     * their 0-based position, according to the current
+     * {@link #resultSetFilter}. The rows are not copied, the dataset is built
+     * from the unfiltered result set skipping the rows not in the returned
+     * bitmap.
+     * 
+     * @return The rows of the result set accepted by the filter, or null if
+     *         every row should be charted.
      * 
-     * @return The current result set that should be charted, filtered through
-     *         {@link #resultSetFilter}.
-     *         
      * @see #getUnfilteredResultSet()
      */
-    private ResultSet getResultSet(boolean async) throws SQLException {
-        
-        ResultSet rs = getUnfilteredResultSet(async);
-        
-        if (rs == null) {
-        	return null;
-        }
-        
+    private BitSet getChartedRows(ResultSet rs) throws SQLException {
         if (resultSetFilter == null) {
-            return rs;
-        } else {
-            CachedRowSet filteredRs = new CachedRowSet();
-            filteredRs.populate(rs, resultSetFilter);
-            return filteredRs;
+            return null;
         }
+        return resultSetFilter.acceptedRows(rs);
     }
 
     /**
@@ -311,7 +364,7 @@ public class Chart extends AbstractWabitObject {
      * 
      * @return The unfiltered version of the current result set.
      * 
-     * @see #getResultSet()
+     * @see #getChartedRows(ResultSet)
      */
     public ResultSet getUnfilteredResultSet() {
     	return this.getUnfilteredResultSet(true);
@@ -327,7 +380,20 @@ public class Chart extends AbstractWabitObject {
     	}
     }
     
+    /**
+     * Returns true if the current results were grouped and aggregated by the
+     * database.
+     * <p>
+     * This is package private for testing.
+     */
+    boolean isAggregatedInDatabase() {
+    	return aggregatedInDatabase;
+    }
+    
     private void syncWithRs(ResultSet rs) {
+    	if (aggregatedInDatabase) {
+    		return;
+    	}
     	try {
         	synchronized (chartColumns) {
         		
@@ -385,6 +451,61 @@ public class Chart extends AbstractWabitObject {
         }
 	}
 
+    /**
+     * Adds the rows of a streaming query's new data event to
+     * {@link #streamingSeries} if they come from the handle it follows.
+     * 
+     * @return True if the points were updated, false if the chart has to go
+     *         through the rows of its query again.
+     */
+    private boolean appendStreamedRows(ResultSetEvent evt) {
+    	synchronized (streamingLock) {
+    		if (streamingSeries == null || streamingSeriesHandle != evt.getSourceHandle()) {
+    			return false;
+    		}
+    		streamingSeries.append(evt.getFirstRetainedRow(), evt.getStartRow(), evt.getNewRows());
+    		return true;
+    	}
+    }
+
+	/**
+	 * Creates the dataset of an XY chart whose query is streaming from the
+	 * points of {@link #streamingSeries}, making the points from the rows the
+	 * query kept if the series of the chart changed since they were made.
+	 * 
+	 * @return The dataset, or null if the query is not streaming or the
+	 *         dataset has to be made from the result set.
+	 */
+    private XYDataset createStreamedDataset(int maxPointsPerSeries) throws SQLException {
+    	ResultSetHandle handle = resultSetHandle;
+    	if (handle == null || handle.getStreamingRows() == null) {
+    		return null;
+    	}
+    	List<ChartColumn> columns;
+    	synchronized (chartColumns) {
+    		columns = new ArrayList<ChartColumn>(chartColumns);
+    	}
+    	synchronized (streamingLock) {
+    		if (streamingSeries == null || streamingSeriesHandle != handle 
+    				|| !streamingSeries.matches(columns)) {
+    			streamingSeries = null;
+    			streamingSeriesHandle = null;
+    			ResultSetMetaData metaData = handle.getResultSet().getMetaData();
+    			if (metaData == null) {
+    				return null;
+    			}
+    			streamingSeries = StreamingSeriesCollection.create(
+    					columns, metaData, handle.getStreamingRows().getCapacity());
+    			if (streamingSeries == null) {
+    				return null;
+    			}
+    			streamingSeriesHandle = handle;
+    		}
+    		streamingSeries.catchUp(handle.getStreamingRows());
+    		return streamingSeries.createDataset(maxPointsPerSeries);
+    	}
+    }
+
 	public static ChartColumn findByName(List<ChartColumn> cols, String name) {
         for (ChartColumn col : cols) {
             if (col.getName() != null && col.getName().equalsIgnoreCase(name)) {
@@ -440,24 +561,49 @@ public class Chart extends AbstractWabitObject {
     	return this.createDataset(true);
     }
     public Dataset createDataset(boolean async) {
+    	return this.createDataset(async, 0);
+    }
+
+	/**
+	 * Creates a JFreeChart dataset like {@link #createDataset(boolean)} but
+	 * with the series of XY charts reduced to at most the given number of
+	 * points. This is meant for displaying charts with more points than can
+	 * be seen at their size; the full data remains available from the other
+	 * createDataset methods and {@link #getUnfilteredResultSet()} for exporting.
+	 * Category datasets are not affected.
+	 * 
+	 * @param maxPointsPerSeries
+	 *            The most points each series of an XY dataset can have, or 0
+	 *            to keep them all.
+	 */
+    public Dataset createDataset(boolean async, int maxPointsPerSeries) {
         try {
-            ResultSet rs = getResultSet(async);
+            ResultSet rs = getUnfilteredResultSet(async);
             if (rs == null) {
-                logger.debug("Returning null data set because getResultSet() returned null");
+                logger.debug("Returning null data set because getUnfilteredResultSet() returned null");
                 return null;
             }
             
+            if (type.getDatasetType() == DatasetType.XY) {
+                XYDataset streamed = createStreamedDataset(maxPointsPerSeries);
+                if (streamed != null) {
+                    return streamed;
+                }
+            }
+            
             // Need to update chart columns from the new ResultSet before using them.
             syncWithRs(rs);
+            BitSet rows = getChartedRows(rs);
 
             switch (type.getDatasetType()) {
             case CATEGORY:
                 return DatasetUtil.createCategoryDataset(
                         chartColumns, rs,
-                        findRoleColumns(ColumnRole.CATEGORY));
+                        findRoleColumns(ColumnRole.CATEGORY),
+                        aggregatedInDatabase, rows);
             case XY:
                 return DatasetUtil.createSeriesCollection(
-                        chartColumns, rs);
+                        chartColumns, rs, maxPointsPerSeries, rows);
             default :
                 throw new IllegalStateException("Unknown chart type " + type);
             }
@@ -598,7 +744,7 @@ public class Chart extends AbstractWabitObject {
         firePropertyChange("query", oldQuery, newQuery);        	
     }
 
-    private void setResultSetFilter(RowFilter resultSetFilter) {
+    private void setResultSetFilter(OlapRowFilter resultSetFilter) {
         this.resultSetFilter = resultSetFilter;
     }
     
@@ -684,30 +830,94 @@ public class Chart extends AbstractWabitObject {
      */
     private final class OlapRowFilter implements RowFilter {
 
+        /**
+         * The result set {@link #acceptedRows} was computed for. The bitmap is
+         * reused as long as the result set, its number of rows and the
+         * category columns stay the same, which is the case between data
+         * changes.
+         */
+        @GuardedBy("this")
+        private ResultSet filteredResultSet;
+        
+        @GuardedBy("this")
+        private int filteredRowCount;
+        
+        @GuardedBy("this")
+        private List<String> filteredCategoryNames;
+        
+        @GuardedBy("this")
+        private BitSet acceptedRows;
+        
         public boolean acceptsRow(Object[] row) throws SQLException {
-            
-            // it would be nice to cache this, but we'd need a notification mechanism
-            // for flushing the cache every time the dependant data changes
-            List<ChartColumn> categoryColumns = findRoleColumns(ColumnRole.CATEGORY);
-            if (categoryColumns.isEmpty()) {
+            int[] categoryIndices = findCategoryIndices(resultSetHandle.getResultSet());
+            if (categoryIndices.length == 0) {
                 return true;
             }
             
-            int nullCategories = 0;
-            int repeatedMembers = 0;
+            int skippedCategories = 0;
+            for (int idx : categoryIndices) {
+                if (isSkipped(row[idx - 1])) {
+                    skippedCategories++;
+                }
+            }
+            return skippedCategories < categoryIndices.length;
+        }
+
+        /**
+         * Returns the rows of the given result set this filter accepts, by
+         * their 0-based position. The category column positions are resolved
+         * once and the rows are read once for each new result set or category
+         * column layout; other calls return the same bitmap.
+         */
+        synchronized BitSet acceptedRows(ResultSet rs) throws SQLException {
+            List<String> categoryNames = new ArrayList<String>();
+            for (ChartColumn catCol : findRoleColumns(ColumnRole.CATEGORY)) {
+                categoryNames.add(catCol.getName());
+            }
+            int rowCount = rs.last() ? rs.getRow() : 0;
+            if (acceptedRows != null && rs == filteredResultSet 
+                    && rowCount == filteredRowCount 
+                    && categoryNames.equals(filteredCategoryNames)) {
+                return acceptedRows;
+            }
             
-            for (ChartColumn catCol : categoryColumns) {
-                int idx = resultSetHandle.getResultSet().findColumn(catCol.getName());
-                Object val = row[idx - 1];
-                
-                if (val == null) {
-                    nullCategories++;
-                } else if (val instanceof RepeatedMember) {
-                    repeatedMembers++;
+            int[] categoryIndices = findCategoryIndices(rs);
+            BitSet accepted = new BitSet(rowCount);
+            rs.beforeFirst();
+            for (int row = 0; rs.next(); row++) {
+                int skippedCategories = 0;
+                for (int idx : categoryIndices) {
+                    if (isSkipped(rs.getObject(idx))) {
+                        skippedCategories++;
+                    }
+                }
+                if (categoryIndices.length == 0 || skippedCategories < categoryIndices.length) {
+                    accepted.set(row);
                 }
             }
             
-            return nullCategories + repeatedMembers < categoryColumns.size();
+            filteredResultSet = rs;
+            filteredRowCount = rowCount;
+            filteredCategoryNames = categoryNames;
+            acceptedRows = accepted;
+            return accepted;
+        }
+        
+        private int[] findCategoryIndices(ResultSet rs) throws SQLException {
+            List<ChartColumn> categoryColumns = findRoleColumns(ColumnRole.CATEGORY);
+            int[] categoryIndices = new int[categoryColumns.size()];
+            for (int i = 0; i < categoryIndices.length; i++) {
+                categoryIndices[i] = rs.findColumn(categoryColumns.get(i).getName());
+            }
+            return categoryIndices;
+        }
+        
+        /**
+         * Null categories and repeated members do not name a category of
+         * their own. Rows where every category is one of these are hidden.
+         */
+        private boolean isSkipped(Object categoryValue) {
+            return categoryValue == null || categoryValue instanceof RepeatedMember;
         }
         
     }
@@ -842,31 +1052,109 @@ public class Chart extends AbstractWabitObject {
             resultSetHandle.removeResultSetListener(resultSetListener);
             resultSetHandle.cancel();
         }
+    	synchronized (streamingLock) {
+    		streamingSeries = null;
+    		streamingSeriesHandle = null;
+    	}
     	
     	try {
         	if (query != null) {
         		if (Chart.this.variablesContextSource == null) {
         			throw new AssertionError("Program error. Chart objects need a variables context defined.");
         		}
-        		this.resultSetHandle = 
+        		this.resultSetHandle = null;
+        		this.aggregatedInDatabase = false;
+        		if (aggregateInDatabase) {
+        			this.resultSetHandle = executeGrouped(async);
+        			this.aggregatedInDatabase = (resultSetHandle != null);
+        		}
+        		if (resultSetHandle == null) {
+        			this.resultSetHandle = 
         				query.execute(
             					new SPVariableHelper(Chart.this.variablesContextSource), 
             					Chart.this.resultSetListener,
             					async);
+        		}
         		
         		// Need to disable the refresh flag before getting result set
         		// or else infinite recursion could occur.
         		needsRefresh = false;
-        		ResultSet rs = getResultSet(async);
+        		ResultSet rs = getUnfilteredResultSet(async);
         		if (rs != null) {
         			syncWithRs(rs);
         		}
         	}
         } catch (ResultSetProducerException e) {
             throw new RuntimeException(e);
-        } catch (SQLException e) {
-        	throw new RuntimeException(e);
-		}
+        }
+    }
+    
+    /**
+     * Executes the query grouped by the category columns with the series
+     * columns aggregated by the database, if this chart and its query allow
+     * it. This is only done for relational category charts without a row
+     * filter, as the filter applies to the rows before they are combined.
+     * <p>
+     * Queries with a row limit are not grouped either. The limit applies to
+     * the rows the chart aggregates when they are fetched, while a grouped
+     * query would apply it to the categories, so the rendered chart would
+     * not show the same totals as the chart editor.
+     * 
+     * @return The handle of the grouped query, or null if the query has to be
+     *         executed normally.
+     */
+    private ResultSetHandle executeGrouped(boolean async) throws ResultSetProducerException {
+    	if (!(query instanceof QueryCache) || type == null 
+    			|| type.getDatasetType() != DatasetType.CATEGORY || resultSetFilter != null
+    			|| ((QueryCache) query).getRowLimit() > 0) {
+    		return null;
+    	}
+    	List<String> categoryNames = new ArrayList<String>();
+    	Map<String, SQLGroupFunction> seriesFunctions = new LinkedHashMap<String, SQLGroupFunction>();
+    	synchronized (chartColumns) {
+    		for (ChartColumn col : chartColumns) {
+    			if (col.getRoleInChart() == ColumnRole.CATEGORY) {
+    				categoryNames.add(col.getColumnName());
+    			} else if (col.getRoleInChart() == ColumnRole.SERIES) {
+    				SQLGroupFunction function = toGroupFunction(col.getAggregate());
+    				if (function == null) return null;
+    				seriesFunctions.put(col.getColumnName(), function);
+    			}
+    		}
+    	}
+    	if (categoryNames.isEmpty() || seriesFunctions.isEmpty()) {
+    		return null;
+    	}
+    	return ((QueryCache) query).executeGrouped(
+    			categoryNames, 
+    			seriesFunctions, 
+    			new SPVariableHelper(variablesContextSource), 
+    			resultSetListener, 
+    			async);
+    }
+
+	/**
+	 * Returns the SQL function that combines rows the same way as the given
+	 * aggregate function does in {@link DatasetUtil}, or null if there is
+	 * none. Averages are not pushed to the database as some databases, like
+	 * HSQLDB and SQL Server, average integer columns in integer arithmetic
+	 * and truncate the result.
+	 */
+    private static SQLGroupFunction toGroupFunction(AggregateFunction aggregate) {
+    	switch (aggregate) {
+    	case SUM:
+    		return SQLGroupFunction.SUM;
+    	case COUNT:
+    		return SQLGroupFunction.COUNT;
+    	case AVERAGE:
+    		return null;
+    	case MIN:
+    		return SQLGroupFunction.MIN;
+    	case MAX:
+    		return SQLGroupFunction.MAX;
+    	default:
+    		throw new IllegalArgumentException("Unknown aggregate function " + aggregate);
+    	}
     }
     
     /**
@@ -29,6 +29,7 @@ import ca.sqlpower.object.SPObject;
 import ca.sqlpower.sql.SQL;
 import ca.sqlpower.wabit.AbstractWabitObject;
 import ca.sqlpower.wabit.WabitObject;
+import ca.sqlpower.wabit.report.AggregateFunction;
 
 /**
  * This class handles some of the generic methods to the ColumnIdentifier.
@@ -82,6 +83,13 @@ public class ChartColumn extends AbstractWabitObject {
     
     private ChartColumn xAxisIdentifier;
     
+    /**
+     * How the values of this column are combined when several rows fall in
+     * the same category. This only applies to series columns of category
+     * charts.
+     */
+    private AggregateFunction aggregate = AggregateFunction.SUM;
+    
     private final String columnName;
 
     private final DataType dataType;
@@ -127,6 +135,7 @@ public class ChartColumn extends AbstractWabitObject {
     	this.dataType = column.getDataType();
     	this.roleInChart = column.getRoleInChart();
     	this.xAxisIdentifier = column.getXAxisIdentifier();
+    	this.aggregate = column.getAggregate();
     }
 
     public ColumnRole getRoleInChart() {
@@ -149,6 +158,19 @@ public class ChartColumn extends AbstractWabitObject {
         firePropertyChange("XAxisIdentifier", oldIdentifier, xAxisIdentifier);
     }
     
+    public AggregateFunction getAggregate() {
+        return aggregate;
+    }
+    
+    public void setAggregate(@Nonnull AggregateFunction aggregate) {
+        if (aggregate == null) {
+            throw new NullPointerException("null aggregate not allowed");
+        }
+        AggregateFunction oldAggregate = this.aggregate;
+        this.aggregate = aggregate;
+        firePropertyChange("aggregate", oldAggregate, aggregate);
+    }
+    
     public DataType getDataType() {
         return dataType;
     }
@@ -19,15 +19,18 @@
 
 package ca.sqlpower.wabit.report.chart;
 
+import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.jfree.data.category.CategoryDataset;
-import org.jfree.data.general.DatasetUtilities;
 import org.jfree.data.time.FixedMillisecond;
 import org.jfree.data.time.TimePeriodValues;
 import org.jfree.data.time.TimePeriodValuesCollection;
@@ -36,6 +39,7 @@ import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 
 import ca.sqlpower.sql.SQL;
+import ca.sqlpower.wabit.report.AggregateFunction;
 
 /**
  * Package private helper class for building datasets from Chart instances.
@@ -53,6 +57,10 @@ class DatasetUtil {
      * This is done differently from the OLAP version as they each get
      * information in different ways.
      * <p>
+     * The rows are read once. Rows with the same category names are combined
+     * using the {@link ChartColumn#getAggregate() aggregate function} of each
+     * series column, skipping null values.
+     * <p>
      * This is package private for testing.
      */
     static CategoryDataset createCategoryDataset(
@@ -60,6 +68,48 @@ class DatasetUtil {
             ResultSet resultSet, 
             List<ChartColumn> categoryColumnIdentifiers) 
     {
+        return createCategoryDataset(columnNamesInOrder, resultSet, categoryColumnIdentifiers, false);
+    }
+
+    /**
+     * Creates a CategoryDataset like
+     * {@link #createCategoryDataset(List, ResultSet, List)}, for result sets
+     * whose rows may already have been aggregated by the database.
+     * 
+     * @param preAggregated
+     *            True if the series values of the result set are already the
+     *            aggregates of each category, as returned by a grouped query.
+     *            Rows of the same category are then combined with
+     *            {@link #combineAggregates(AggregateFunction)} of the series'
+     *            aggregate function, as counting the grouped rows again would
+     *            give one for every category.
+     */
+    static CategoryDataset createCategoryDataset(
+            List<ChartColumn> columnNamesInOrder,
+            ResultSet resultSet, 
+            List<ChartColumn> categoryColumnIdentifiers,
+            boolean preAggregated) 
+    {
+        return createCategoryDataset(columnNamesInOrder, resultSet, 
+                categoryColumnIdentifiers, preAggregated, null);
+    }
+
+    /**
+     * Creates a CategoryDataset like
+     * {@link #createCategoryDataset(List, ResultSet, List, boolean)} from only
+     * some of the rows of the result set.
+     * 
+     * @param rows
+     *            The rows to chart, by their 0-based position in the result
+     *            set, or null to chart every row.
+     */
+    static CategoryDataset createCategoryDataset(
+            List<ChartColumn> columnNamesInOrder,
+            ResultSet resultSet, 
+            List<ChartColumn> categoryColumnIdentifiers,
+            boolean preAggregated,
+            BitSet rows) 
+    {
     	
     	try {
 			if (resultSet.getMetaData().getColumnCount() == 0) {
@@ -69,68 +119,75 @@ class DatasetUtil {
 			throw new AssertionError(e1);
 		}
 		
-        //Create a list of unique category row names to label each bar with. Category rows
-        //with the same name are currently summed.
-        List<String> uniqueNamesInCategory = new ArrayList<String>();
-        final List<String> categoryColumnNames = new ArrayList<String>();
-        for (ChartColumn chartCol : categoryColumnIdentifiers) {
-            categoryColumnNames.add(chartCol.getColumnName());
-        }
-        List<Integer> columnIndicies = new ArrayList<Integer>();
-        try {
-            for (String categoryColumnName : categoryColumnNames) {
-                columnIndicies.add(resultSet.findColumn(categoryColumnName));
-            }
-            resultSet.beforeFirst();
-            while (resultSet.next()) {
-                List<String> categoryRowNames = new ArrayList<String>();
-                for (Integer columnIndex : columnIndicies) {
-                    categoryRowNames.add(resultSet.getString(columnIndex));
-                }
-                String categoryRowName = ChartUtil.createCategoryName(categoryRowNames);
-                if (!uniqueNamesInCategory.contains(categoryRowName)) {
-                    uniqueNamesInCategory.add(categoryRowName);
-                }
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-        
-        List<String> seriesColumnNames = new ArrayList<String>();
+        List<ChartColumn> seriesColumns = new ArrayList<ChartColumn>();
         for (ChartColumn chartCol : columnNamesInOrder) {
             if (chartCol.getRoleInChart().equals(ColumnRole.SERIES)) {
-                seriesColumnNames.add(chartCol.getColumnName());
+                seriesColumns.add(chartCol);
             }
         }
         
-        double[][] data = new double[seriesColumnNames.size()][uniqueNamesInCategory.size()];
+        // Column positions are resolved once instead of by name on every row.
+        int[] categoryIndices = new int[categoryColumnIdentifiers.size()];
+        int[] seriesIndices = new int[seriesColumns.size()];
+        AggregateFunction[] functions = new AggregateFunction[seriesColumns.size()];
+        CategoryAggregator aggregator;
         try {
+            for (int i = 0; i < categoryIndices.length; i++) {
+                categoryIndices[i] = resultSet.findColumn(
+                        categoryColumnIdentifiers.get(i).getColumnName());
+            }
+            for (int i = 0; i < seriesIndices.length; i++) {
+                seriesIndices[i] = resultSet.findColumn(seriesColumns.get(i).getColumnName());
+                functions[i] = preAggregated 
+                        ? combineAggregates(seriesColumns.get(i).getAggregate()) 
+                        : seriesColumns.get(i).getAggregate();
+            }
+            aggregator = new CategoryAggregator(functions);
+            
+            //Category rows with the same name are combined with the aggregate
+            //function of each series column.
+            List<String> categoryRowNames = new ArrayList<String>(categoryIndices.length);
             resultSet.beforeFirst();
-            int j = 0;
-            while (resultSet.next()) {
-                List<String> categoryRowNames = new ArrayList<String>();
-                for (Integer columnIndex : columnIndicies) {
+            for (int row = 0; resultSet.next(); row++) {
+                if (rows != null && !rows.get(row)) continue;
+                categoryRowNames.clear();
+                for (int columnIndex : categoryIndices) {
                     categoryRowNames.add(resultSet.getString(columnIndex));
                 }
-                String categoryRowName = ChartUtil.createCategoryName(categoryRowNames);
-                for (String colName : seriesColumnNames) {
-                    if (logger.isDebugEnabled() && (seriesColumnNames.indexOf(colName) == -1 || uniqueNamesInCategory.indexOf(categoryRowName) == -1)) {
-                        logger.debug("Index of series " + colName + " is " + seriesColumnNames.indexOf(colName) + ", index of category " + categoryColumnIdentifiers + " is " + uniqueNamesInCategory.indexOf(categoryRowName));
-                    }
+                int category = aggregator.categoryIndex(
+                        ChartUtil.createCategoryName(categoryRowNames));
+                for (int i = 0; i < seriesIndices.length; i++) {
                     //XXX Getting numeric values as double causes problems for BigDecimal and BigInteger.
-                    //XXX Add a property to decide if the values should be summed or aggregated in a 
-                    // different way like max, min, avg, etc
-                    data[seriesColumnNames.indexOf(colName)][uniqueNamesInCategory.indexOf(categoryRowName)] += 
-                        resultSet.getDouble(colName);
+                    double value = resultSet.getDouble(seriesIndices[i]);
+                    if (!resultSet.wasNull()) {
+                        aggregator.add(i, category, value);
+                    }
                 }
-                j++;
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        CategoryDataset dataset = DatasetUtilities.createCategoryDataset(seriesColumnNames.toArray(new String[]{}), uniqueNamesInCategory.toArray(new String[]{}), data);
         
-        return dataset;
+        List<String> seriesNames = new ArrayList<String>(seriesColumns.size());
+        for (ChartColumn seriesColumn : seriesColumns) {
+            seriesNames.add(seriesColumn.getColumnName());
+        }
+        return new AggregatedCategoryDataset(seriesNames, aggregator);
+    }
+
+    /**
+     * Returns the function that combines values already aggregated with the
+     * given function. Grouped rows of one category only need to be combined
+     * when distinct values of the category columns have the same name in the
+     * chart. Counts are added together, the other functions are applied
+     * again. Charts do not have averages aggregated by the database, an
+     * average of averages would ignore how many rows each one came from.
+     */
+    static AggregateFunction combineAggregates(AggregateFunction aggregate) {
+        if (aggregate == AggregateFunction.COUNT) {
+            return AggregateFunction.SUM;
+        }
+        return aggregate;
     }
 
     /**
@@ -141,6 +198,41 @@ class DatasetUtil {
      */
     static XYDataset createSeriesCollection(
             List<ChartColumn> columnNamesInOrder, ResultSet resultSet) {
+        return createSeriesCollection(columnNamesInOrder, resultSet, 0);
+    }
+
+    /**
+     * Helper method for creating line and scatter charts in the
+     * createJFreeChart method. This is for relational queries only.
+     * <p>
+     * Series with more than the given number of points are
+     * {@link SeriesDownsampler downsampled} to that many points. The points
+     * of every series are added in x order.
+     * 
+     * @param maxPointsPerSeries
+     *            The most points each series of the dataset can have, or 0
+     *            to keep every row of the result set.
+     * @return An XYDataset for use in a JFreeChart or null if an 
+     * XYDataset cannot be created.
+     */
+    static XYDataset createSeriesCollection(
+            List<ChartColumn> columnNamesInOrder, ResultSet resultSet, 
+            int maxPointsPerSeries) {
+        return createSeriesCollection(columnNamesInOrder, resultSet, maxPointsPerSeries, null);
+    }
+
+    /**
+     * Creates an XYDataset like
+     * {@link #createSeriesCollection(List, ResultSet, int)} from only some of
+     * the rows of the result set.
+     * 
+     * @param rows
+     *            The rows to chart, by their 0-based position in the result
+     *            set, or null to chart every row.
+     */
+    static XYDataset createSeriesCollection(
+            List<ChartColumn> columnNamesInOrder, ResultSet resultSet, 
+            int maxPointsPerSeries, BitSet rows) {
         boolean allNumeric = true;
         boolean allDate = true;
         
@@ -170,56 +262,134 @@ class DatasetUtil {
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        if (allNumeric) {
+        if (!allNumeric && !allDate) {
+            return null;
+        }
+        List<String> seriesNames = new ArrayList<String>();
+        List<SeriesPoints> seriesPoints = new ArrayList<SeriesPoints>();
+        for (ChartColumn chartCol : columnNamesInOrder) {
+            ChartColumn xAxisColIdentifier = chartCol.getXAxisIdentifier();
+            if (!chartCol.getRoleInChart().equals(ColumnRole.SERIES)
+                    || xAxisColIdentifier == null) continue;
+            seriesNames.add(chartCol.getColumnName());
+            seriesPoints.add(readPoints(resultSet, xAxisColIdentifier, chartCol, rows));
+        }
+        return createSeriesCollection(seriesNames, seriesPoints, !allNumeric, maxPointsPerSeries);
+    }
+
+    /**
+     * Creates an XYDataset from the points of each series, which must already
+     * be in x order.
+     * 
+     * @param seriesNames
+     *            The name of each series, in the same order as their points.
+     * @param dates
+     *            True if the x values are dates in milliseconds, which makes
+     *            the dataset a {@link TimePeriodValuesCollection}. Otherwise it
+     *            is an {@link XYSeriesCollection}.
+     * @param maxPointsPerSeries
+     *            The most points each series of the dataset can have, or 0
+     *            to keep every point.
+     */
+    static XYDataset createSeriesCollection(List<String> seriesNames, 
+            List<SeriesPoints> seriesPoints, boolean dates, int maxPointsPerSeries) {
+        if (!dates) {
             logger.debug("Creating a new XYSeriesCollection dataset");
             XYSeriesCollection xyCollection = new XYSeriesCollection();
-            for (ChartColumn chartCol : columnNamesInOrder) {
-                ChartColumn xAxisColIdentifier = chartCol.getXAxisIdentifier();
-                if (!chartCol.getRoleInChart().equals(ColumnRole.SERIES)
-                        || xAxisColIdentifier == null) continue;
-                XYSeries newSeries = new XYSeries(chartCol.getColumnName());
-                try {
-                    resultSet.beforeFirst();
-                    while (resultSet.next()) {
-                        //XXX: need to switch from double to bigDecimal if it is needed.
-                        newSeries.add(resultSet.getDouble(xAxisColIdentifier.getColumnName()), resultSet.getDouble(chartCol.getColumnName()));
-                    }
-                } catch (SQLException e) {
-                    throw new RuntimeException(e);
+            for (int s = 0; s < seriesNames.size(); s++) {
+                SeriesPoints points = seriesPoints.get(s);
+                XYSeries newSeries = new XYSeries(seriesNames.get(s));
+                for (int i : SeriesDownsampler.downsample(
+                        points.x, points.y, points.count, maxPointsPerSeries)) {
+                    // The points come in x order so there is nothing to sort and
+                    // listeners are told about the whole series at once below.
+                    newSeries.add(points.x[i], points.y[i], false);
                 }
+                newSeries.fireSeriesChanged();
                 xyCollection.addSeries(newSeries);
             }
             return xyCollection;
-        } else if (allDate) {
+        } else {
             logger.debug("Creating a new TimePeriodValuesCollection dataset");
             TimePeriodValuesCollection timeCollection = new TimePeriodValuesCollection();
-            for (ChartColumn chartCol : columnNamesInOrder) {
-                ChartColumn xAxisColIdentifier = chartCol.getXAxisIdentifier();
-                if (!chartCol.getRoleInChart().equals(ColumnRole.SERIES)
-                        || xAxisColIdentifier == null) continue;
-                TimePeriodValues newSeries = new TimePeriodValues(chartCol.getColumnName());
-                try {
-                    resultSet.beforeFirst();
-                    while (resultSet.next()) {
-                        int columnType = resultSet.getMetaData().getColumnType(resultSet.findColumn(xAxisColIdentifier.getColumnName()));
-                        if (columnType == Types.DATE) {
-                            newSeries.add(new FixedMillisecond(
-                                    resultSet.getDate(xAxisColIdentifier.getColumnName())),
-                                    resultSet.getDouble(((ChartColumn) chartCol).getColumnName()));
-                        } else if (columnType == Types.TIMESTAMP){
-                            newSeries.add(new FixedMillisecond(
-                                    resultSet.getTimestamp(xAxisColIdentifier.getColumnName())),
-                                    resultSet.getDouble(((ChartColumn) chartCol).getColumnName()));
-                        }
-                    }
-                } catch (SQLException e) {
-                    throw new RuntimeException(e);
+            for (int s = 0; s < seriesNames.size(); s++) {
+                SeriesPoints points = seriesPoints.get(s);
+                TimePeriodValues newSeries = new TimePeriodValues(seriesNames.get(s));
+                // TimePeriodValues.add always fires a change event, so they
+                // are held back until the whole series has been added.
+                newSeries.setNotify(false);
+                for (int i : SeriesDownsampler.downsample(
+                        points.x, points.y, points.count, maxPointsPerSeries)) {
+                    newSeries.add(new FixedMillisecond((long) points.x[i]), points.y[i]);
                 }
+                newSeries.setNotify(true);
                 timeCollection.addSeries(newSeries);
             }
             return timeCollection;
-        } else {
-            return null;
+        }
+    }
+
+    /**
+     * The x and y values of one series, read from the result set in row order.
+     */
+    static class SeriesPoints {
+        double[] x;
+        double[] y;
+        int count;
+        
+        SeriesPoints(int capacity) {
+            x = new double[capacity];
+            y = new double[capacity];
+        }
+        
+        void add(double xValue, double yValue) {
+            if (count == x.length) {
+                int capacity = Math.max(16, count * 2);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+            }
+            x[count] = xValue;
+            y[count] = yValue;
+            count++;
+        }
+    }
+
+    /**
+     * Reads the points of a series from the given rows of the result set, or
+     * every row if rows is null. Dates and timestamps on the x axis are read
+     * as milliseconds. Rows with a null date or timestamp are left out, so
+     * they are not taken as points at 0 when the series is downsampled.
+     * Numeric nulls are read as 0 as before.
+     */
+    private static SeriesPoints readPoints(ResultSet resultSet, 
+            ChartColumn xAxisColIdentifier, ChartColumn seriesCol, BitSet rows) {
+        try {
+            int xIndex = resultSet.findColumn(xAxisColIdentifier.getColumnName());
+            int yIndex = resultSet.findColumn(seriesCol.getColumnName());
+            int xType = resultSet.getMetaData().getColumnType(xIndex);
+            SeriesPoints points = new SeriesPoints(16);
+            resultSet.beforeFirst();
+            for (int row = 0; resultSet.next(); row++) {
+                if (rows != null && !rows.get(row)) continue;
+                //XXX: need to switch from double to bigDecimal if it is needed.
+                double y = resultSet.getDouble(yIndex);
+                if (xType == Types.DATE) {
+                    Date date = resultSet.getDate(xIndex);
+                    if (date != null) {
+                        points.add(date.getTime(), y);
+                    }
+                } else if (xType == Types.TIMESTAMP) {
+                    Timestamp timestamp = resultSet.getTimestamp(xIndex);
+                    if (timestamp != null) {
+                        points.add(timestamp.getTime(), y);
+                    }
+                } else {
+                    points.add(resultSet.getDouble(xIndex), y);
+                }
+            }
+            return points;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
     }
 
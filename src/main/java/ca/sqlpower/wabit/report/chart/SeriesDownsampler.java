@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.chart;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reduces the points of a chart series to about as many as can be told apart
+ * on the page, using the largest-triangle-three-buckets algorithm. The first
+ * and last points are always kept. The points in between are split into
+ * equal buckets and from each bucket the point forming the largest triangle
+ * with the point kept from the previous bucket and the average of the next
+ * bucket is kept, which preserves the peaks and troughs that give a line its
+ * shape.
+ * <p>
+ * Package private helper for {@link DatasetUtil}.
+ */
+class SeriesDownsampler {
+
+	/**
+	 * The smallest number of points a series can be reduced to: the first
+	 * point, the last point and one bucket in between.
+	 */
+	static final int MINIMUM_POINTS = 3;
+
+	private SeriesDownsampler() {
+		// static utility class
+	}
+
+	/**
+	 * Returns the indices of the points of a series to keep, in ascending x
+	 * order. If the series already has no more than the given number of
+	 * points, or the limit is less than {@link #MINIMUM_POINTS}, all points
+	 * are kept.
+	 * 
+	 * @param x
+	 *            The x values of the points. Only the first count values are
+	 *            used and they do not need to be sorted.
+	 * @param y
+	 *            The y values of the points.
+	 * @param count
+	 *            The number of points in the series.
+	 * @param maxPoints
+	 *            The most points to keep.
+	 */
+	static int[] downsample(final double[] x, double[] y, int count, int maxPoints) {
+		int[] order = sortedOrder(x, count);
+		if (maxPoints < MINIMUM_POINTS || count <= maxPoints) {
+			return order;
+		}
+
+		int[] kept = new int[maxPoints];
+		int keptCount = 0;
+		kept[keptCount++] = order[0];
+
+		// The first and last points are not in any bucket.
+		double bucketSize = (double) (count - 2) / (maxPoints - 2);
+		int previous = order[0];
+		for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+			int nextStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+			int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, count);
+			double averageX = 0;
+			double averageY = 0;
+			for (int i = nextStart; i < nextEnd; i++) {
+				averageX += x[order[i]];
+				averageY += y[order[i]];
+			}
+			int nextLength = nextEnd - nextStart;
+			averageX /= nextLength;
+			averageY /= nextLength;
+
+			int start = (int) Math.floor(bucket * bucketSize) + 1;
+			int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+			double largestArea = -1;
+			int largest = order[start];
+			for (int i = start; i < end; i++) {
+				int point = order[i];
+				// Twice the area of the triangle, which is enough to compare.
+				double area = Math.abs(
+						(x[previous] - averageX) * (y[point] - y[previous]) - 
+						(x[previous] - x[point]) * (averageY - y[previous]));
+				if (area > largestArea) {
+					largestArea = area;
+					largest = point;
+				}
+			}
+			kept[keptCount++] = largest;
+			previous = largest;
+		}
+
+		kept[keptCount++] = order[count - 1];
+		return kept;
+	}
+
+	/**
+	 * Returns the indices of the first count points ordered by their x
+	 * values. Rows usually come from the database already ordered so the
+	 * sort is skipped when they are.
+	 */
+	private static int[] sortedOrder(final double[] x, int count) {
+		boolean sorted = true;
+		for (int i = 1; i < count && sorted; i++) {
+			sorted = x[i - 1] <= x[i];
+		}
+		int[] order = new int[count];
+		if (sorted) {
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			return order;
+		}
+
+		Integer[] boxedOrder = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			boxedOrder[i] = i;
+		}
+		Arrays.sort(boxedOrder, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(x[o1], x[o2]);
+			}
+		});
+		for (int i = 0; i < count; i++) {
+			order[i] = boxedOrder[i];
+		}
+		return order;
+	}
+}
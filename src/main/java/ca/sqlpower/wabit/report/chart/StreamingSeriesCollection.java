@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.chart;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfree.data.xy.XYDataset;
+
+import ca.sqlpower.sql.SQL;
+import ca.sqlpower.wabit.report.chart.DatasetUtil.SeriesPoints;
+import ca.sqlpower.wabit.rs.RowRingBuffer;
+
+/**
+ * The points of the XY series of a chart following a streaming query. Every
+ * row the query delivers adds one point to each series and the points of the
+ * rows the query no longer keeps are dropped, so the chart's dataset can be
+ * made again without going through the rows of the query. The rows are
+ * numbered the way {@link RowRingBuffer} numbers them.
+ * <p>
+ * The points of all the series are kept in rings of the same size, the point
+ * of a row is at the same index for every series.
+ */
+class StreamingSeriesCollection {
+
+    private final String[] seriesNames;
+    private final String[] xColumnNames;
+    
+    /**
+     * The 0-based indexes of the x and y value of each series in the rows.
+     */
+    private final int[] xIndexes;
+    private final int[] yIndexes;
+    
+    /**
+     * True if the x values are dates, false if they are numbers.
+     */
+    private final boolean dates;
+    
+    /**
+     * The most points each series keeps, 0 to keep every point.
+     */
+    private final int capacity;
+    
+    private double[][] x;
+    private double[][] y;
+    private boolean[][] present;
+    
+    /**
+     * The index of the point of {@link #startRow} in the rings.
+     */
+    private int head;
+    
+    private long startRow;
+    private long endRow;
+
+    /**
+     * Returns the collection for the XY series of the given chart columns,
+     * or null if the columns cannot be charted as an XY dataset.
+     * 
+     * @param metaData
+     *            The columns of the rows the collection will be given.
+     * @param capacity
+     *            The most points each series keeps, this should be the row
+     *            limit of the streaming query. 0 keeps every point.
+     */
+    static StreamingSeriesCollection create(List<ChartColumn> columns, 
+            ResultSetMetaData metaData, int capacity) throws SQLException {
+        List<ChartColumn> seriesColumns = findSeriesColumns(columns);
+        int[] xIndexes = new int[seriesColumns.size()];
+        int[] yIndexes = new int[seriesColumns.size()];
+        boolean allNumeric = true;
+        boolean allDate = true;
+        for (int i = 0; i < seriesColumns.size(); i++) {
+            ChartColumn seriesColumn = seriesColumns.get(i);
+            xIndexes[i] = findColumn(metaData, seriesColumn.getXAxisIdentifier().getColumnName());
+            yIndexes[i] = findColumn(metaData, seriesColumn.getColumnName());
+            if (xIndexes[i] < 0 || yIndexes[i] < 0) {
+                return null;
+            }
+            int columnType = metaData.getColumnType(xIndexes[i] + 1);
+            if (columnType != Types.DATE && columnType != Types.TIMESTAMP) {
+                allDate = false;
+            } 
+            if (!SQL.isNumeric(columnType)) {
+                allNumeric = false;
+            }
+        }
+        if (!allNumeric && !allDate) {
+            return null;
+        }
+        return new StreamingSeriesCollection(seriesColumns, xIndexes, yIndexes, !allNumeric, capacity);
+    }
+    
+    private StreamingSeriesCollection(List<ChartColumn> seriesColumns, int[] xIndexes, 
+            int[] yIndexes, boolean dates, int capacity) {
+        seriesNames = new String[seriesColumns.size()];
+        xColumnNames = new String[seriesColumns.size()];
+        for (int i = 0; i < seriesColumns.size(); i++) {
+            seriesNames[i] = seriesColumns.get(i).getColumnName();
+            xColumnNames[i] = seriesColumns.get(i).getXAxisIdentifier().getColumnName();
+        }
+        this.xIndexes = xIndexes;
+        this.yIndexes = yIndexes;
+        this.dates = dates;
+        this.capacity = Math.max(0, capacity);
+        int length = capacity > 0 ? Math.min(capacity, 1024) : 16;
+        x = new double[seriesNames.length][length];
+        y = new double[seriesNames.length][length];
+        present = new boolean[seriesNames.length][length];
+    }
+    
+    /**
+     * Returns the columns charted as XY series, in order, like
+     * {@link DatasetUtil#createSeriesCollection(List, java.sql.ResultSet)}
+     * charts them.
+     */
+    private static List<ChartColumn> findSeriesColumns(List<ChartColumn> columns) {
+        List<ChartColumn> seriesColumns = new ArrayList<ChartColumn>();
+        for (ChartColumn column : columns) {
+            if (column.getRoleInChart().equals(ColumnRole.SERIES) 
+                    && column.getXAxisIdentifier() != null) {
+                seriesColumns.add(column);
+            }
+        }
+        return seriesColumns;
+    }
+    
+    /**
+     * Returns the 0-based index of the column with the given label, or name,
+     * ignoring case, or -1 if there is none.
+     */
+    private static int findColumn(ResultSetMetaData metaData, String name) throws SQLException {
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (name.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                return i - 1;
+            }
+        }
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (name.equalsIgnoreCase(metaData.getColumnName(i))) {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tells if this collection charts the same series against the same x
+     * columns as the given chart columns do.
+     */
+    boolean matches(List<ChartColumn> columns) {
+        List<ChartColumn> seriesColumns = findSeriesColumns(columns);
+        if (seriesColumns.size() != seriesNames.length) {
+            return false;
+        }
+        for (int i = 0; i < seriesNames.length; i++) {
+            if (!seriesNames[i].equals(seriesColumns.get(i).getColumnName())
+                    || !xColumnNames[i].equals(seriesColumns.get(i).getXAxisIdentifier().getColumnName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the points of the given rows that are not in this collection yet
+     * and drops the points of the rows before the first retained row.
+     * 
+     * @param firstRetainedRow
+     *            The oldest row the query still keeps.
+     * @param start
+     *            The number of the first of the given rows.
+     */
+    void append(long firstRetainedRow, long start, List<Object[]> rows) {
+        evictBefore(firstRetainedRow);
+        for (int i = Math.max(0, (int) Math.min(rows.size(), endRow - start)); i < rows.size(); i++) {
+            if (start + i > endRow) {
+                // the rows in between were evicted before they were delivered
+                evictBefore(start + i);
+            }
+            add(rows.get(i));
+        }
+    }
+
+    /**
+     * Adds the points of the rows of the buffer that are not in this
+     * collection yet, dropping those the buffer no longer has.
+     */
+    void catchUp(RowRingBuffer buffer) {
+        synchronized (buffer) {
+            long start = Math.max(endRow, buffer.getStartRow());
+            append(buffer.getStartRow(), start, buffer.getRows(start, buffer.getEndRow()));
+        }
+    }
+    
+    /**
+     * Returns the number after the last row this collection has the points of.
+     */
+    long getEndRow() {
+        return endRow;
+    }
+    
+    /**
+     * Drops the points of the rows before the given one. If the given row is
+     * after the last row of this collection every point is dropped and the
+     * next row added is the given one.
+     */
+    private void evictBefore(long row) {
+        if (row >= endRow) {
+            head = 0;
+            startRow = endRow = row;
+        } else if (row > startRow) {
+            head = (int) ((head + row - startRow) % x[0].length);
+            startRow = row;
+        }
+    }
+
+    /**
+     * Adds the points of the row after the last one, dropping the points of
+     * the oldest row if the collection is full.
+     */
+    private void add(Object[] row) {
+        int length = seriesNames.length == 0 ? 0 : x[0].length;
+        int size = (int) (endRow - startRow);
+        if (length == 0) {
+            endRow++;
+            startRow = endRow;
+            return;
+        }
+        if (size == length) {
+            if (capacity > 0 && size == capacity) {
+                head = (head + 1) % length;
+                startRow++;
+                size--;
+            } else {
+                grow();
+                length = x[0].length;
+            }
+        }
+        int index = (head + size) % length;
+        for (int s = 0; s < seriesNames.length; s++) {
+            Object xValue = row[xIndexes[s]];
+            if (dates) {
+                boolean isDate = xValue instanceof java.util.Date;
+                x[s][index] = isDate ? ((java.util.Date) xValue).getTime() : 0;
+                present[s][index] = isDate;
+            } else {
+                x[s][index] = toDouble(xValue);
+                present[s][index] = true;
+            }
+            y[s][index] = toDouble(row[yIndexes[s]]);
+        }
+        endRow++;
+    }
+    
+    private void grow() {
+        int length = x[0].length;
+        int newLength = length * 2;
+        if (capacity > 0) {
+            newLength = Math.min(newLength, capacity);
+        }
+        for (int s = 0; s < seriesNames.length; s++) {
+            double[] newX = new double[newLength];
+            double[] newY = new double[newLength];
+            boolean[] newPresent = new boolean[newLength];
+            System.arraycopy(x[s], head, newX, 0, length - head);
+            System.arraycopy(x[s], 0, newX, length - head, head);
+            System.arraycopy(y[s], head, newY, 0, length - head);
+            System.arraycopy(y[s], 0, newY, length - head, head);
+            System.arraycopy(present[s], head, newPresent, 0, length - head);
+            System.arraycopy(present[s], 0, newPresent, length - head, head);
+            x[s] = newX;
+            y[s] = newY;
+            present[s] = newPresent;
+        }
+        head = 0;
+    }
+
+    /**
+     * Reads a value the way {@link java.sql.ResultSet#getDouble(int)} would,
+     * nulls are 0.
+     */
+    private static double toDouble(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).getTime();
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? 1 : 0;
+        }
+        return Double.parseDouble(value.toString().trim());
+    }
+
+    /**
+     * Creates a dataset of the points in this collection.
+     * 
+     * @param maxPointsPerSeries
+     *            The most points each series of the dataset can have, or 0
+     *            to keep every point.
+     * @see DatasetUtil#createSeriesCollection(List, List, boolean, int)
+     */
+    XYDataset createDataset(int maxPointsPerSeries) {
+        int size = (int) (endRow - startRow);
+        List<String> names = new ArrayList<String>();
+        List<SeriesPoints> points = new ArrayList<SeriesPoints>();
+        for (int s = 0; s < seriesNames.length; s++) {
+            SeriesPoints seriesPoints = new SeriesPoints(Math.max(1, size));
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % x[s].length;
+                // Rows without a date are left out before downsampling.
+                if (present[s][index]) {
+                    seriesPoints.add(x[s][index], y[s][index]);
+                }
+            }
+            names.add(seriesNames[s]);
+            points.add(seriesPoints);
+        }
+        return DatasetUtil.createSeriesCollection(names, points, dates, maxPointsPerSeries);
+    }
+}
@@ -26,14 +26,12 @@ import java.awt.Graphics2D;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
-import java.math.BigDecimal;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -41,11 +39,12 @@ import ca.sqlpower.object.HorizontalAlignment;
 import ca.sqlpower.sql.CachedRowSet;
 import ca.sqlpower.wabit.report.ColumnInfo;
 import ca.sqlpower.wabit.report.ContentBox;
-import ca.sqlpower.wabit.report.DataType;
 import ca.sqlpower.wabit.report.ResultSetRenderer;
 import ca.sqlpower.wabit.report.ColumnInfo.GroupAndBreak;
 import ca.sqlpower.wabit.report.ResultSetRenderer.BorderStyles;
 import ca.sqlpower.wabit.report.resultset.ResultSetCell.BorderType;
+import ca.sqlpower.wabit.report.resultset.TotalsAccumulator.RowValues;
+import ca.sqlpower.wabit.report.resultset.TotalsAccumulator.TotaledColumns;
 
 /**
  * This class renders the result set. A new renderer should be created each time
@@ -74,13 +73,6 @@ public class ReportPositionRenderer {
     
     private final String nullString;
 
-    /**
-     * This is the current page being created by
-     * {@link #createResultSetLayout(Graphics2D, ResultSet, List, ContentBox, boolean)}.
-     * Since the layout can only be done once this will only increment.
-     */
-    private int currentPage;
-    
     /**
      * This boolean is used to enforce that the layout of a report position renderer can only
      * be done once.
@@ -90,6 +82,128 @@ public class ReportPositionRenderer {
 	private final Color dataColour;
 
 	private final Color headerColour;
+
+    /**
+     * The running values of a layout at one point of the result set. A copy is
+     * taken at the start of each page so the page can be laid out again on its
+     * own without going through the rows of the pages before it.
+     */
+    static class LayoutState {
+        
+        /**
+         * The row the next group of rows starts with. This is one past the
+         * last row when the grand totals are next.
+         */
+        private int row = 1;
+        
+        /**
+         * The page the layout is currently adding cells to.
+         */
+        private int page = 0;
+        
+        private int yPosition = 0;
+        
+        private List<Object> sectionKey = null;
+        
+        private TotaledColumns totaledColumns;
+        
+        private TotalsAccumulator grandTotals;
+        
+        private TotalsAccumulator sectionTotals;
+        
+        /**
+         * The subtotals of each grouping column, indexed by the column. The
+         * entries of columns that do not group are null.
+         */
+        private TotalsAccumulator[] groupingTotals;
+        
+        LayoutState copy() {
+            LayoutState copy = new LayoutState();
+            copy.totaledColumns = totaledColumns;
+            copy.grandTotals = grandTotals.copy();
+            copy.sectionTotals = sectionTotals.copy();
+            copy.groupingTotals = new TotalsAccumulator[groupingTotals.length];
+            for (int i = 0; i < groupingTotals.length; i++) {
+                if (groupingTotals[i] != null) {
+                    copy.groupingTotals[i] = groupingTotals[i].copy();
+                }
+            }
+            copyTo(copy);
+            return copy;
+        }
+
+        /**
+         * Copies the values of this state into a state that was created as a
+         * copy of this state. This lets the layout keep the state before each
+         * row without creating a new state for every row.
+         */
+        void copyTo(LayoutState target) {
+            target.row = row;
+            target.page = page;
+            target.yPosition = yPosition;
+            target.sectionKey = sectionKey;
+            grandTotals.copyTo(target.grandTotals);
+            sectionTotals.copyTo(target.sectionTotals);
+            for (int i = 0; i < groupingTotals.length; i++) {
+                if (groupingTotals[i] != null) {
+                    groupingTotals[i].copyTo(target.groupingTotals[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the cells placed on the pages of a layout. A collector can keep
+     * every page, only one page, or just the state at the start of each page.
+     */
+    private static class PageCollector {
+        
+        /**
+         * The page to keep the cells of, or -1 to keep every page.
+         */
+        private final int targetPage;
+        
+        private final List<List<ResultSetCell>> pages = new ArrayList<List<ResultSetCell>>();
+        
+        /**
+         * If not null the state at the start of each page is added to this
+         * list instead of keeping any cells.
+         */
+        private final List<LayoutState> pageStarts;
+        
+        PageCollector(int targetPage, List<LayoutState> pageStarts) {
+            this.targetPage = targetPage;
+            this.pageStarts = pageStarts;
+        }
+        
+        /**
+         * Called when the cells for a page start being placed.
+         * 
+         * @param before
+         *            The state before the group of rows that starts the page.
+         */
+        void pageStarted(int page, LayoutState before) {
+            if (pageStarts != null) {
+                pageStarts.add(before.copy());
+            } else if (targetPage == -1 || targetPage == page) {
+                pages.add(new ArrayList<ResultSetCell>());
+            }
+        }
+        
+        void addCells(int page, List<ResultSetCell> cells) {
+            if (pageStarts == null && (targetPage == -1 || targetPage == page)) {
+                pages.get(pages.size() - 1).addAll(cells);
+            }
+        }
+        
+        /**
+         * Returns true if the layout does not need to go further than the
+         * given page.
+         */
+        boolean isDone(int page) {
+            return targetPage != -1 && page > targetPage;
+        }
+    }
     
     public ReportPositionRenderer(Font headerFont, Font bodyFont, Color dataColour, Color headerColour, BorderStyles borderType, int availableWidth, String nullString) {
         this.headerFont = headerFont;
@@ -108,6 +222,10 @@ public class ReportPositionRenderer {
 	 * return immediately. This includes but is not limited to: font changes,
 	 * break changes, new columns being sub-totaled, different graphics in use
 	 * such as printing vs painting, and changes to the query.
+	 * <p>
+	 * This creates the cells of every page up front. Large result sets should
+	 * use {@link #createPagedLayout(Graphics2D, ResultSet, List, double, boolean)}
+	 * which only creates the cells of the page being rendered.
 	 * 
 	 * @param g
 	 *            This should be a graphics object that is the same as the
@@ -130,69 +248,133 @@ public class ReportPositionRenderer {
     public List<List<ResultSetCell>> createResultSetLayout(Graphics2D g, ResultSet rs, List<ColumnInfo> columnInfoList,
     		double boxHeight, boolean isPrintingGrandTotals) throws SQLException {
         
-    	if (hasLayoutStarted) 
-    			throw new IllegalStateException("The layout of a report position renderer should only " +
-        		"be done once per renderer. Create a new renderer if a new layout is needed");
-        hasLayoutStarted = true;
+    	startLayout();
         
         CachedRowSet rsCopy = new CachedRowSet();
         rsCopy.populate(rs);
-        rsCopy.beforeFirst();
         
-        List<BigDecimal> grandTotals = new ArrayList<BigDecimal>();
-        for (ColumnInfo ci : columnInfoList) {
-            if (ci.getDataType() == DataType.NUMERIC ||
-            		(ci.getWillSubtotal()
-            			&& ci.getDataType() == DataType.NUMERIC)) {
-                grandTotals.add(BigDecimal.ZERO);
-            } else {
-                grandTotals.add(null);
-            }
-        }
-        
-        List<BigDecimal> sectionTotals = new ArrayList<BigDecimal>();
-        sectionTotals = new ArrayList<BigDecimal>();
-        for (ColumnInfo ci : columnInfoList) {
-            if (ci.getWillSubtotal()) {
-                sectionTotals.add(BigDecimal.ZERO);
-            } else {
-                sectionTotals.add(null);
-            }
-        }
-        
-        Map<Integer, List<BigDecimal>> groupingTotalMap = new HashMap<Integer, List<BigDecimal>>();
+        PageCollector collector = new PageCollector(-1, null);
+        layout(g, rsCopy, columnInfoList, boxHeight, isPrintingGrandTotals, 
+        		createInitialState(columnInfoList, rsCopy.getMetaData()), collector);
+        return collector.pages;
+    }
+
+	/**
+	 * Lays out the given result set into pages without keeping the cells of
+	 * any of the pages. The rows are gone through once to find where each page
+	 * starts, and only the position in the result set and the running totals
+	 * at the start of each page are kept. The cells of a page are created when
+	 * the page is asked for from the returned layout.
+	 * 
+	 * @param g
+	 *            See
+	 *            {@link #createResultSetLayout(Graphics2D, ResultSet, List, double, boolean)}.
+	 * @param rs
+	 *            The result set to lay out. The layout keeps this result set to
+	 *            create the cells of each page from, it must not be modified or
+	 *            moved by anything else afterwards.
+	 * @param columnInfoList
+	 *            List of the columns metadata we know about.
+	 * @param boxHeight
+	 *            The height of the box that contains the result set.
+	 * @param isPrintingGrandTotals
+	 *            Wether or not to display grand totals at the end.
+	 */
+    public ResultSetPageLayout createPagedLayout(Graphics2D g, ResultSet rs, List<ColumnInfo> columnInfoList,
+    		double boxHeight, boolean isPrintingGrandTotals) throws SQLException {
+    	
+    	startLayout();
+    	
+    	List<ColumnInfo> columns = new ArrayList<ColumnInfo>(columnInfoList);
+    	List<LayoutState> pageStarts = new ArrayList<LayoutState>();
+    	layout(g, rs, columns, boxHeight, isPrintingGrandTotals, 
+    			createInitialState(columns, rs.getMetaData()), new PageCollector(-1, pageStarts));
+    	return new ResultSetPageLayout(this, rs, columns, boxHeight, isPrintingGrandTotals, pageStarts);
+    }
+
+	/**
+	 * Creates the cells of one page of a layout made by
+	 * {@link #createPagedLayout(Graphics2D, ResultSet, List, double, boolean)}.
+	 * The layout starts again from the state saved at the start of the page and
+	 * stops as soon as the page is full.
+	 */
+    List<ResultSetCell> layoutPage(Graphics2D g, ResultSet rs, List<ColumnInfo> columnInfoList,
+    		double boxHeight, boolean isPrintingGrandTotals, LayoutState pageStart, int pageIndex) 
+    		throws SQLException {
+    	PageCollector collector = new PageCollector(pageIndex, null);
+    	layout(g, rs, columnInfoList, boxHeight, isPrintingGrandTotals, pageStart.copy(), collector);
+    	if (collector.pages.isEmpty()) {
+    		return Collections.emptyList();
+    	}
+    	return collector.pages.get(0);
+    }
+    
+    private void startLayout() {
+    	if (hasLayoutStarted) 
+    		throw new IllegalStateException("The layout of a report position renderer should only " +
+    				"be done once per renderer. Create a new renderer if a new layout is needed");
+    	hasLayoutStarted = true;
+    }
+    
+    private LayoutState createInitialState(List<ColumnInfo> columnInfoList, 
+    		ResultSetMetaData metaData) throws SQLException {
+        LayoutState state = new LayoutState();
         
+        state.totaledColumns = new TotaledColumns(columnInfoList, metaData);
+        state.grandTotals = state.totaledColumns.createGrandTotals();
+        state.sectionTotals = state.totaledColumns.createSubtotals();
+        state.groupingTotals = new TotalsAccumulator[columnInfoList.size()];
         for (int i = 0; i < columnInfoList.size(); i++) {
             if (columnInfoList.get(i).getWillGroupOrBreak().equals(GroupAndBreak.GROUP)) {
-                List<BigDecimal> groupingTotals = new ArrayList<BigDecimal>();
-                for (ColumnInfo ci : columnInfoList) {
-                    if (ci.getWillSubtotal()) {
-                        groupingTotals.add(BigDecimal.ZERO);
-                    } else {
-                        groupingTotals.add(null);
-                    }
-                }
-                groupingTotalMap.put(Integer.valueOf(i), groupingTotals);
+                state.groupingTotals[i] = state.totaledColumns.createSubtotals();
             }
         }
+        return state;
+    }
+
+	/**
+	 * Lays out the rows of the result set starting at the row and with the
+	 * running totals in the given state, handing the cells of each page to the
+	 * collector. The layout stops at the end of the result set or once the
+	 * collector has all the pages it needs.
+	 */
+    private void layout(Graphics2D g, ResultSet rsCopy, List<ColumnInfo> columnInfoList,
+    		double boxHeight, boolean isPrintingGrandTotals, LayoutState state, 
+    		PageCollector collector) throws SQLException {
         
-        int yPosition = 0;
-        List<Object> sectionKey = null;
-        
-        List<List<ResultSetCell>> cellsGroupedPerPage = new ArrayList<List<ResultSetCell>>();
+        if (state.page == 0 && state.row == 1) {
+        	collector.pageStarted(0, state);
+        }
         
-        currentPage = 0;
-        cellsGroupedPerPage.add(new ArrayList<ResultSetCell>());
+        if (state.row <= 1) {
+        	rsCopy.beforeFirst();
+        } else {
+        	rsCopy.absolute(state.row - 1);
+        }
        
         List<List<ResultSetCell>> headerRows = new ArrayList<List<ResultSetCell>>();
+        if (state.sectionKey != null) {
+        	headerRows.add(Collections.singletonList(renderSectionHeader(g, state.sectionKey, columnInfoList)));
+        	headerRows.add(renderColumnHeaders(g, columnInfoList));
+        }
+
+        final RowValues rowValues = new RowValues(state.totaledColumns);
+        
+        // The state before the current row is only needed when the start
+        // of each page is being kept.
+        final LayoutState before = collector.pageStarts != null ? state.copy() : state;
 
         //for each result set entry
-        while (rsCopy.next()) {
+        while (!collector.isDone(state.page) && rsCopy.next()) {
+        	
+        	if (before != state) {
+        		state.copyTo(before);
+        	}
         
         	// This is a temp list of rows we will need to print.
             List<List<ResultSetCell>> rowsToAdd = new ArrayList<List<ResultSetCell>>();
             
-            if (!rsCopy.isFirst() && sectionKey == null) 
+            if (!rsCopy.isFirst() && state.sectionKey == null) 
                 throw new IllegalStateException("The initial section key was undefined! " +
                         "Cannot start laying out the result set.");
                       
@@ -201,11 +383,11 @@ public class ReportPositionRenderer {
             
             final List<Object> newSectionKey = createRowSectionKey(rsCopy, columnInfoList);
             
-            if (sectionKey == null 
-            		|| !newSectionKey.equals(sectionKey)
+            if (state.sectionKey == null 
+            		|| !newSectionKey.equals(state.sectionKey)
                     || rsCopy.isFirst()) 
             {
-                sectionKey = newSectionKey;
+                state.sectionKey = newSectionKey;
                 forcePrintHeaders = true;
                 if (hasOnePageBreakingColumn(columnInfoList)){
                 	forcePageBreak = true;
@@ -213,7 +395,7 @@ public class ReportPositionRenderer {
             }
             
             headerRows.clear();
-            headerRows.add(Collections.singletonList(renderSectionHeader(g, sectionKey, columnInfoList)));
+            headerRows.add(Collections.singletonList(renderSectionHeader(g, state.sectionKey, columnInfoList)));
             headerRows.add(renderColumnHeaders(g, columnInfoList));
             
             //create a row of values, decide if we need to hide grouped columns
@@ -221,33 +403,14 @@ public class ReportPositionRenderer {
             rowsToAdd.addAll(Collections.singletonList(rowCells));
             
             //Increment totals counters
-            for (ColumnInfo ci : columnInfoList) {
-                final int colIndex = columnInfoList.indexOf(ci);
-                if (ci.getWillSubtotal()) {
-                    final BigDecimal valueToAdd = rsCopy.getBigDecimal(colIndex + 1);
-                    BigDecimal total = sectionTotals.get(colIndex);
-                    total = total.add(valueToAdd);
-                    sectionTotals.set(colIndex, total);
-                    
-                    for (List<BigDecimal> subtotals : groupingTotalMap.values()) {
-                        BigDecimal groupTotal = subtotals.get(colIndex);
-                        groupTotal = groupTotal.add(valueToAdd);
-                        subtotals.set(colIndex, groupTotal);
-                    }
-                }
-                if (ci.getDataType() == DataType.NUMERIC ||
-                		(ci.getWillSubtotal()
-                				&& ci.getDataType() == DataType.NUMERIC)) {
-                    final BigDecimal valueToAdd = rsCopy.getBigDecimal(colIndex + 1);
-                    BigDecimal total = grandTotals.get(colIndex);
-                    BigDecimal cellValue = valueToAdd;
-                    if (cellValue == null) {
-                        cellValue = BigDecimal.valueOf(0);
-                    }
-                    total = total.add(cellValue);
-                    grandTotals.set(colIndex, total);
+            rowValues.read(rsCopy);
+            state.sectionTotals.add(rowValues);
+            for (TotalsAccumulator groupTotals : state.groupingTotals) {
+                if (groupTotals != null) {
+                    groupTotals.add(rowValues);
                 }
             }
+            state.grandTotals.add(rowValues);
 
             //decide if we need to print subtotals for breaks
             boolean hasNext = rsCopy.next();
@@ -268,10 +431,10 @@ public class ReportPositionRenderer {
             // changes or section breaks;
             
             // Start by looking for section breaks
-            if (!hasNext || !nextSectionKey.equals(sectionKey)) { 
+            if (!hasNext || !nextSectionKey.equals(state.sectionKey)) { 
                 for (int i = columnInfoList.size() - 1; i >= 0; i--) {
-                    if (groupingTotalMap.get(i) != null) {
-                        List<BigDecimal> groupingTotals = groupingTotalMap.get(i);
+                    if (state.groupingTotals[i] != null) {
+                        TotalsAccumulator groupingTotals = state.groupingTotals[i];
                         String groupingText = "Total for " + rsCopy.getString(i + 1);
 
                         rowsToAdd.addAll(
@@ -282,21 +445,16 @@ public class ReportPositionRenderer {
 		                        		false,
 		                                groupingText, 
 		                                i,
-		                                cellsGroupedPerPage,
 		                                boxHeight,
 		                                false));
 
-                        for (int j = 0; j < groupingTotals.size(); j++) {
-                            if (groupingTotals.get(j) != null) {
-                                groupingTotals.set(j, BigDecimal.ZERO);
-                            }
-                        }
+                        groupingTotals.reset();
                     }
                 }
                 
                 StringBuffer sectionKeyText = new StringBuffer();
-                for (int i = 0; i < sectionKey.size(); i++) {
-                	Object value = sectionKey.get(i);
+                for (int i = 0; i < state.sectionKey.size(); i++) {
+                	Object value = state.sectionKey.get(i);
                 	if (value != null) {
                 		if (sectionKeyText.length() > 0) {
                 			sectionKeyText.append(";");
@@ -309,23 +467,15 @@ public class ReportPositionRenderer {
                 	rowsToAdd.addAll(
                 			renderTotals(
                 					g, 
-                					sectionTotals, 
+                					state.sectionTotals, 
                 					columnInfoList, 
                 					false,
                 					sectionKeyText.toString(), 
                 					0,
-                					cellsGroupedPerPage,
                 					boxHeight,
                 					false));
                 	
-                	sectionTotals = new ArrayList<BigDecimal>();
-                	for (ColumnInfo ci : columnInfoList) {
-                		if (ci.getWillSubtotal()) {
-                			sectionTotals.add(BigDecimal.ZERO);
-                		} else {
-                			sectionTotals.add(null);
-                		}
-                	}
+                	state.sectionTotals.reset();
                 }
                 
             // Now look for grouping changes
@@ -334,11 +484,11 @@ public class ReportPositionRenderer {
                 for (int i = columnInfoList.size() - 1; i >= 0; i--) {
                     Object oldValue = rsCopy.getObject(i + 1);
                     Object nextValue = nextRowValues.get(i);
-                    if (groupingTotalMap.get(i) != null && 
+                    if (state.groupingTotals[i] != null && 
                             ((oldValue != null && !oldValue.equals(nextValue))
                             || (oldValue == null && nextValue != null))) {
                     	
-                        List<BigDecimal> groupingTotals = groupingTotalMap.get(i);
+                        TotalsAccumulator groupingTotals = state.groupingTotals[i];
                         String groupingText = String.valueOf(rsCopy.getString(i + 1));
                         
                         rowsToAdd.addAll(
@@ -349,59 +499,57 @@ public class ReportPositionRenderer {
                         				false,
                         				"Total for " + groupingText, 
                         				i,
-                        				cellsGroupedPerPage,
                         				boxHeight,
                         				true));
                         
                         
-                        for (int j = 0; j < groupingTotals.size(); j++) {
-                            if (groupingTotals.get(j) != null) {
-                                groupingTotals.set(j, BigDecimal.ZERO);
-                            }
-                        }
+                        groupingTotals.reset();
                     }
                 }
                 
             }
             
             // Print whatever sub total rows.
-            yPosition = addRowsGroup(
-            				rowsToAdd, 
-            				cellsGroupedPerPage, 
-            				headerRows, 
-            				boxHeight, 
-            				yPosition, 
-            				forcePrintHeaders,
-            				forcePageBreak);
+            addRowsGroup(
+            		rowsToAdd, 
+            		collector, 
+            		headerRows, 
+            		boxHeight, 
+            		state,
+            		before,
+            		forcePrintHeaders,
+            		forcePageBreak);
             
+            state.row++;
         }
         
         // We might need to print grand totals.
-        if (isPrintingGrandTotals) {
-        	yPosition = addRowsGroup(
+        if (isPrintingGrandTotals && !collector.isDone(state.page)) {
+        	if (before != state) {
+        		state.copyTo(before);
+        	}
+        	addRowsGroup(
         			renderTotals(
         				g, 
-        				grandTotals, 
+        				state.grandTotals, 
         				columnInfoList, 
         				true, 
         				"Grand Total", 
         				0,
-        				cellsGroupedPerPage,
         				boxHeight,
         				false),
-    				cellsGroupedPerPage,
+    				collector,
     				headerRows,
     				boxHeight,
-    				yPosition,
+    				state,
+    				before,
     				false,
     				false);
         }
-        
-        return cellsGroupedPerPage;
     }
 
     /**
-     * This helper method for {@link #createResultSetLayout(Graphics2D, ResultSet, List, ContentBox, boolean)}
+     * This helper method for {@link #layout(Graphics2D, ResultSet, List, double, boolean, LayoutState, PageCollector)}
      * will return a list of objects that defines a new section of the result set when laid out.
      * The list contains one value per column in the result set where each value could be the value
      * in that column in the current row if it is part of the section header or null if it is not
@@ -409,11 +557,12 @@ public class ReportPositionRenderer {
      */
     private List<Object> createRowSectionKey(ResultSet rs,
             List<ColumnInfo> columnInfoList) throws SQLException {
-        List<Object> newSectionKey = new ArrayList<Object>();
-        for (ColumnInfo ci : columnInfoList) {
+        List<Object> newSectionKey = new ArrayList<Object>(columnInfoList.size());
+        for (int i = 0; i < columnInfoList.size(); i++) {
+            ColumnInfo ci = columnInfoList.get(i);
             if (ci.getWillGroupOrBreak().equals(GroupAndBreak.BREAK)
             		|| ci.getWillGroupOrBreak().equals(GroupAndBreak.PAGEBREAK)) {
-                newSectionKey.add(rs.getObject(columnInfoList.indexOf(ci) + 1));
+                newSectionKey.add(rs.getObject(i + 1));
             } else {
                 newSectionKey.add(null);
             }
@@ -433,38 +582,42 @@ public class ReportPositionRenderer {
     
     /**
      * This is a helper method for
-     * {@link #createResultSetLayout(Graphics2D, ResultSet)}. This will add the
-     * groups of rows to the current or next page of the cellsGroupedPerPage as well as
-     * increment the yPosition and possibly the current page count.
+     * {@link #layout(Graphics2D, ResultSet, List, double, boolean, LayoutState, PageCollector)}.
+     * This will add the groups of rows to the current or next page of the
+     * collector as well as increment the yPosition and possibly the current
+     * page count of the state.
      * 
      * This method takes a list of rows to add and will make all those stick
      * together. It wont add a page break between those.
      * 
-     * @param cells
+     * @param rows
      *            The {@link ResultSetCell}s to add to the pages
-     * @param cellsGroupedPerPage
-     *            The list of pages that contain cells. This value will be
-     *            modified to contain the given cells in the current or next
-     *            page.
-     * @param contentBox
-     *            The content box the {@link ResultSetRenderer} is contained in
-     *            to get visible dimesnsions.
-     * @param yPosition
-     *            The current y position that can be used to layout cells. The
-     *            space above this position contains cells already.
+     * @param collector
+     *            Receives the given cells for the current or next page.
+     * @param boxHeight
+     *            The height of the content box the {@link ResultSetRenderer}
+     *            is contained in.
+     * @param state
+     *            The current y position that can be used to layout cells and
+     *            the current page. The space above the y position contains
+     *            cells already. These will be updated to define where new
+     *            cells can be placed below.
+     * @param before
+     *            The state before the given rows were gone through. This is
+     *            given to the collector if a new page is started.
      * @param forcePrintHeaders 
-     * @return The new y position that defines where new cells can be placed
-     *         below
      */
-    private int addRowsGroup(
+    private void addRowsGroup(
     		List<List<ResultSetCell>> rows, 
-    		List<List<ResultSetCell>> cellsGroupedPerPage,
+    		PageCollector collector,
     		List<List<ResultSetCell>> headers,
             double boxHeight, 
-            int yPosition, 
+            LayoutState state, 
+            LayoutState before,
             boolean forcePrintHeaders,
             boolean forcePageBreak) 
     {
+    	int yPosition = state.yPosition;
     	boolean headerAreIn = false;
     	List<List<ResultSetCell>> rowsToPrint = new ArrayList<List<ResultSetCell>>();
 
@@ -524,7 +677,7 @@ public class ReportPositionRenderer {
     		
     		// It fits. we can add them all to this page.
     		for (List<ResultSetCell> currentRow : rowsToPrint) {
-    			cellsGroupedPerPage.get(currentPage).addAll(currentRow);
+    			collector.addCells(state.page, currentRow);
     		}
     		
     		// Let's not forget to increment the yPosition pointer.
@@ -536,8 +689,8 @@ public class ReportPositionRenderer {
     		// is taller than the remaining space on this page
     		
 			yPosition = 0;
-			currentPage++;
-			cellsGroupedPerPage.add(new ArrayList<ResultSetCell>());
+			state.page++;
+			collector.pageStarted(state.page, before);
 			
 			// For every row of cells...
 			for (List<ResultSetCell> currentRow : rowsToPrint) {
@@ -554,11 +707,11 @@ public class ReportPositionRenderer {
 				}
 				
 				yPosition += maxY;
-				cellsGroupedPerPage.get(currentPage).addAll(currentRow);
+				collector.addCells(state.page, currentRow);
 			}
     	}
     	
-        return yPosition;
+        state.yPosition = yPosition;
     }
 
     /**
@@ -704,12 +857,13 @@ public class ReportPositionRenderer {
             List<ColumnInfo> colInfo) 
     {
         StringBuffer headerBuffer = new StringBuffer();
-        for (Object headerObject : sectionHeader) {
+        for (int i = 0; i < sectionHeader.size(); i++) {
+            Object headerObject = sectionHeader.get(i);
             if (headerObject != null) {
                 if (headerBuffer.length() > 0) {
                     headerBuffer.append(", ");
                 }
-                headerBuffer.append(colInfo.get(sectionHeader.indexOf(headerObject)).getName() + ":" + headerObject);
+                headerBuffer.append(colInfo.get(i).getName() + ":" + headerObject);
             }
         }
         String header = headerBuffer.toString();
@@ -796,22 +950,20 @@ public class ReportPositionRenderer {
      * 
      * @param g
      *            Used to define size dimensions of the {@link ResultSetCell}.
-     * @param totalsRow
-     *            A list of totals for each column. If the column has no totals
-     *            the entry in the list should be null.
+     * @param totals
+     *            The totals to render. Columns the totals do not include are
+     *            left empty.
      * @param colInfo
      *            A list of column information for each column in the result
      *            set.
-     * @param cellsGroupedPerPage 
      */
     private List<List<ResultSetCell>> renderTotals(
     		Graphics2D g, 
-    		List<BigDecimal> totalsRow, 
+    		TotalsAccumulator totals, 
     		List<ColumnInfo> colInfo,
             boolean isGrandTotal, 
             String breakText, 
             int breakTextPosition,
-            List<List<ResultSetCell>> cellsGroupedPerPage,
             double boxHeight,
             boolean insertPaddingBelow) 
     {
@@ -819,15 +971,7 @@ public class ReportPositionRenderer {
     	List<List<ResultSetCell>> rowsToAdd = new ArrayList<List<ResultSetCell>>();
         int localX = 0;
         
-        boolean hasTotals = false;
-        for (BigDecimal total : totalsRow) {
-            if (total != null) {
-                hasTotals = true;
-                break;
-            }
-        }
-        
-        if (hasTotals) {
+        if (totals.hasTotals()) {
         	Font boldBodyFont = bodyFont.deriveFont(Font.BOLD);
         	FontMetrics bodyFM = g.getFontMetrics(boldBodyFont);
         	FontMetrics headerFM = g.getFontMetrics(headerFont);
@@ -880,7 +1024,7 @@ public class ReportPositionRenderer {
         	rowsToAdd.add(Collections.singletonList(textCell));
         	
         	List<ResultSetCell> newCells = new ArrayList<ResultSetCell>();
-        	for (int subCol = 0; subCol < totalsRow.size(); subCol++) {
+        	for (int subCol = 0; subCol < colInfo.size(); subCol++) {
         		int y = rowHeight;
         		ColumnInfo ci = colInfo.get(subCol);
         		
@@ -889,11 +1033,13 @@ public class ReportPositionRenderer {
         		
         		Insets padding = getPadding(ci);
         		y += padding.top;
-        		BigDecimal subtotal = totalsRow.get(subCol);
         		y += padding.bottom;
-        		if (subtotal != null) {
+        		if (totals.isTotaled(subCol)) {
+        			Number subtotal = totals.getValue(subCol);
         			String formattedValue;
-        			if (ci.getFormat() != null) {
+        			if (subtotal == null) {
+        				formattedValue = replaceNull(null);
+        			} else if (ci.getFormat() != null) {
         				formattedValue = ci.getFormat().format(subtotal);
         			} else {
         				formattedValue = subtotal.toString();
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.report.resultset;
+
+import java.awt.Graphics2D;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.jcip.annotations.GuardedBy;
+
+import ca.sqlpower.wabit.report.ColumnInfo;
+import ca.sqlpower.wabit.report.resultset.ReportPositionRenderer.LayoutState;
+
+/**
+ * The pages of a result set laid out by
+ * {@link ReportPositionRenderer#createPagedLayout(Graphics2D, ResultSet, List, double, boolean)}.
+ * Only the number of pages and the position and running totals at the start
+ * of each page are known up front, the {@link ResultSetCell}s of a page are
+ * created when the page is asked for. The cells of the last page asked for are
+ * kept as the same page tends to be painted many times in a row.
+ */
+public class ResultSetPageLayout {
+
+	private final ReportPositionRenderer renderer;
+
+	/**
+	 * The rows being laid out. This is moved around to create the cells of
+	 * each page so it is only used while holding this layout's lock.
+	 */
+	@GuardedBy("this")
+	private final ResultSet rs;
+
+	private final List<ColumnInfo> columnInfoList;
+
+	private final double boxHeight;
+
+	private final boolean printingGrandTotals;
+
+	/**
+	 * The state of the layout at the start of each page, one entry per page.
+	 */
+	private final List<LayoutState> pageStarts;
+
+	@GuardedBy("this")
+	private int lastPageIndex = -1;
+
+	@GuardedBy("this")
+	private List<ResultSetCell> lastPageCells;
+
+	ResultSetPageLayout(ReportPositionRenderer renderer, ResultSet rs,
+			List<ColumnInfo> columnInfoList, double boxHeight,
+			boolean printingGrandTotals, List<LayoutState> pageStarts) {
+		this.renderer = renderer;
+		this.rs = rs;
+		this.columnInfoList = columnInfoList;
+		this.boxHeight = boxHeight;
+		this.printingGrandTotals = printingGrandTotals;
+		this.pageStarts = pageStarts;
+	}
+
+	public int getPageCount() {
+		return pageStarts.size();
+	}
+
+	/**
+	 * Returns the cells of the given page, positioned relative to the top of
+	 * the page.
+	 *
+	 * @param g
+	 *            Used to size the cells. This should be the same kind of
+	 *            graphics the layout was made with or the cells may not fit
+	 *            the page the same way.
+	 */
+	public synchronized List<ResultSetCell> getPageCells(Graphics2D g, int pageIndex) throws SQLException {
+		if (pageIndex < 0 || pageIndex >= pageStarts.size()) {
+			throw new IndexOutOfBoundsException("Page " + pageIndex + " requested but only " +
+					pageStarts.size() + " pages exist.");
+		}
+		if (pageIndex != lastPageIndex) {
+			Graphics2D zeroClipGraphics = (Graphics2D) g.create(0, 0, 0, 0);
+			try {
+				lastPageCells = Collections.unmodifiableList(
+						renderer.layoutPage(zeroClipGraphics, rs, columnInfoList, boxHeight,
+								printingGrandTotals, pageStarts.get(pageIndex), pageIndex));
+			} finally {
+				zeroClipGraphics.dispose();
+			}
+			lastPageIndex = pageIndex;
+		}
+		return lastPageCells;
+	}
+
+	/**
+	 * Creates the cells of every page. This defeats the purpose of this
+	 * layout and should only be used for small result sets and testing.
+	 */
+	public List<List<ResultSetCell>> getAllPageCells(Graphics2D g) throws SQLException {
+		List<List<ResultSetCell>> pages = new ArrayList<List<ResultSetCell>>();
+		for (int i = 0; i < getPageCount(); i++) {
+			pages.add(getPageCells(g, i));
+		}
+		return pages;
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.report.resultset;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+import ca.sqlpower.wabit.report.AggregateFunction;
+import ca.sqlpower.wabit.report.ColumnInfo;
+import ca.sqlpower.wabit.report.DataType;
+
+/**
+ * The running totals of one row of totals in a result set layout, such as the
+ * subtotals of a group or the grand totals. Integer columns are totaled in
+ * <code>long</code>s and floating point columns in <code>double</code>s so
+ * adding a row does not create any objects. Only exact decimal columns, and
+ * columns whose type is not known to be numeric, are totaled as
+ * {@link BigDecimal}s.
+ * <p>
+ * The values of a row are read once into a {@link RowValues} and then added
+ * to each of the accumulators that need them.
+ */
+class TotalsAccumulator {
+
+	/**
+	 * How the values of a column are stored while being totaled.
+	 */
+	enum ValueKind {
+		LONG,
+		DOUBLE,
+		DECIMAL
+	}
+
+	/**
+	 * The columns of a result set that are totaled in a layout. This is
+	 * worked out once from the column information and the result set's meta
+	 * data so the per row work does not have to look anything up.
+	 */
+	static class TotaledColumns {
+
+		/**
+		 * The 1-based result set column of each slot.
+		 */
+		private final int[] resultSetColumns;
+
+		private final ValueKind[] kinds;
+
+		/**
+		 * The slot of each column in the layout or -1 if the column is not
+		 * totaled.
+		 */
+		private final int[] slotOfColumn;
+
+		/**
+		 * The function each slot's subtotals use, null if the column is not
+		 * subtotaled.
+		 */
+		private final AggregateFunction[] subtotalFunctions;
+
+		/**
+		 * The function each slot's grand total uses, null if the column has
+		 * no grand total.
+		 */
+		private final AggregateFunction[] grandTotalFunctions;
+
+		TotaledColumns(List<ColumnInfo> columnInfoList, ResultSetMetaData metaData) throws SQLException {
+			slotOfColumn = new int[columnInfoList.size()];
+			int slotCount = 0;
+			for (int i = 0; i < columnInfoList.size(); i++) {
+				ColumnInfo ci = columnInfoList.get(i);
+				if (ci.getWillSubtotal() || ci.getDataType() == DataType.NUMERIC) {
+					slotOfColumn[i] = slotCount++;
+				} else {
+					slotOfColumn[i] = -1;
+				}
+			}
+			resultSetColumns = new int[slotCount];
+			kinds = new ValueKind[slotCount];
+			subtotalFunctions = new AggregateFunction[slotCount];
+			grandTotalFunctions = new AggregateFunction[slotCount];
+			for (int i = 0; i < columnInfoList.size(); i++) {
+				int slot = slotOfColumn[i];
+				if (slot == -1) continue;
+				ColumnInfo ci = columnInfoList.get(i);
+				resultSetColumns[slot] = i + 1;
+				kinds[slot] = kindOf(metaData.getColumnType(i + 1));
+				if (ci.getWillSubtotal()) {
+					subtotalFunctions[slot] = ci.getAggregate();
+				}
+				if (ci.getDataType() == DataType.NUMERIC) {
+					grandTotalFunctions[slot] = ci.getWillSubtotal() ? ci.getAggregate() : AggregateFunction.SUM;
+				}
+			}
+		}
+
+		private static ValueKind kindOf(int sqlType) {
+			switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+				return ValueKind.LONG;
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return ValueKind.DOUBLE;
+			default:
+				return ValueKind.DECIMAL;
+			}
+		}
+
+		/**
+		 * Creates an accumulator for the subtotals of a section or group.
+		 */
+		TotalsAccumulator createSubtotals() {
+			return new TotalsAccumulator(this, subtotalFunctions);
+		}
+
+		/**
+		 * Creates an accumulator for the grand totals.
+		 */
+		TotalsAccumulator createGrandTotals() {
+			return new TotalsAccumulator(this, grandTotalFunctions);
+		}
+
+		int getSlotCount() {
+			return resultSetColumns.length;
+		}
+	}
+
+	/**
+	 * The values of the totaled columns in one row of the result set.
+	 */
+	static class RowValues {
+
+		private final TotaledColumns columns;
+		private final long[] longValues;
+		private final double[] doubleValues;
+		private final BigDecimal[] decimalValues;
+		private final boolean[] nullValues;
+
+		RowValues(TotaledColumns columns) {
+			this.columns = columns;
+			int slots = columns.getSlotCount();
+			longValues = new long[slots];
+			doubleValues = new double[slots];
+			decimalValues = new BigDecimal[slots];
+			nullValues = new boolean[slots];
+		}
+
+		/**
+		 * Reads the totaled columns of the row the result set is on.
+		 */
+		void read(ResultSet rs) throws SQLException {
+			for (int slot = 0; slot < columns.resultSetColumns.length; slot++) {
+				int column = columns.resultSetColumns[slot];
+				switch (columns.kinds[slot]) {
+				case LONG:
+					longValues[slot] = rs.getLong(column);
+					nullValues[slot] = rs.wasNull();
+					break;
+				case DOUBLE:
+					doubleValues[slot] = rs.getDouble(column);
+					nullValues[slot] = rs.wasNull();
+					break;
+				default:
+					decimalValues[slot] = rs.getBigDecimal(column);
+					nullValues[slot] = decimalValues[slot] == null;
+				}
+			}
+		}
+	}
+
+	private final TotaledColumns columns;
+
+	/**
+	 * The function each slot is totaled with or null if this accumulator does
+	 * not total the slot.
+	 */
+	private final AggregateFunction[] functions;
+
+	/**
+	 * The number of non-null values added to each slot.
+	 */
+	private final long[] counts;
+
+	private final long[] longSums;
+	private final long[] longMins;
+	private final long[] longMaxes;
+
+	private final double[] doubleSums;
+	private final double[] doubleMins;
+	private final double[] doubleMaxes;
+
+	/**
+	 * The sums of the decimal slots. Long slots also keep the part of their
+	 * sum that overflowed a long here.
+	 */
+	private final BigDecimal[] decimalSums;
+	private final BigDecimal[] decimalMins;
+	private final BigDecimal[] decimalMaxes;
+
+	private TotalsAccumulator(TotaledColumns columns, AggregateFunction[] functions) {
+		this.columns = columns;
+		this.functions = functions;
+		int slots = columns.getSlotCount();
+		counts = new long[slots];
+		longSums = new long[slots];
+		longMins = new long[slots];
+		longMaxes = new long[slots];
+		doubleSums = new double[slots];
+		doubleMins = new double[slots];
+		doubleMaxes = new double[slots];
+		decimalSums = new BigDecimal[slots];
+		decimalMins = new BigDecimal[slots];
+		decimalMaxes = new BigDecimal[slots];
+	}
+
+	/**
+	 * Adds the values of a row to the totals. Null values are skipped.
+	 */
+	void add(RowValues row) {
+		for (int slot = 0; slot < functions.length; slot++) {
+			if (functions[slot] == null || row.nullValues[slot]) continue;
+			final boolean first = counts[slot] == 0;
+			counts[slot]++;
+			switch (columns.kinds[slot]) {
+			case LONG:
+				long longValue = row.longValues[slot];
+				long sum = longSums[slot] + longValue;
+				if (((longSums[slot] ^ sum) & (longValue ^ sum)) < 0) {
+					decimalSums[slot] = BigDecimal.valueOf(longSums[slot]).add(BigDecimal.valueOf(longValue))
+							.add(decimalSums[slot] == null ? BigDecimal.ZERO : decimalSums[slot]);
+					sum = 0;
+				}
+				longSums[slot] = sum;
+				if (first || longValue < longMins[slot]) longMins[slot] = longValue;
+				if (first || longValue > longMaxes[slot]) longMaxes[slot] = longValue;
+				break;
+			case DOUBLE:
+				double doubleValue = row.doubleValues[slot];
+				doubleSums[slot] += doubleValue;
+				if (first || doubleValue < doubleMins[slot]) doubleMins[slot] = doubleValue;
+				if (first || doubleValue > doubleMaxes[slot]) doubleMaxes[slot] = doubleValue;
+				break;
+			default:
+				BigDecimal decimalValue = row.decimalValues[slot];
+				decimalSums[slot] = first ? decimalValue : decimalSums[slot].add(decimalValue);
+				if (first || decimalValue.compareTo(decimalMins[slot]) < 0) decimalMins[slot] = decimalValue;
+				if (first || decimalValue.compareTo(decimalMaxes[slot]) > 0) decimalMaxes[slot] = decimalValue;
+			}
+		}
+	}
+
+	/**
+	 * Starts all of the totals over as if no rows were added.
+	 */
+	void reset() {
+		Arrays.fill(counts, 0);
+		Arrays.fill(longSums, 0);
+		Arrays.fill(doubleSums, 0);
+		Arrays.fill(decimalSums, null);
+		Arrays.fill(decimalMins, null);
+		Arrays.fill(decimalMaxes, null);
+	}
+
+	TotalsAccumulator copy() {
+		TotalsAccumulator copy = new TotalsAccumulator(columns, functions);
+		copyTo(copy);
+		return copy;
+	}
+
+	/**
+	 * Replaces the totals of the given accumulator, which must total the same
+	 * columns as this one, with the totals of this accumulator.
+	 */
+	void copyTo(TotalsAccumulator target) {
+		System.arraycopy(counts, 0, target.counts, 0, counts.length);
+		System.arraycopy(longSums, 0, target.longSums, 0, longSums.length);
+		System.arraycopy(longMins, 0, target.longMins, 0, longMins.length);
+		System.arraycopy(longMaxes, 0, target.longMaxes, 0, longMaxes.length);
+		System.arraycopy(doubleSums, 0, target.doubleSums, 0, doubleSums.length);
+		System.arraycopy(doubleMins, 0, target.doubleMins, 0, doubleMins.length);
+		System.arraycopy(doubleMaxes, 0, target.doubleMaxes, 0, doubleMaxes.length);
+		System.arraycopy(decimalSums, 0, target.decimalSums, 0, decimalSums.length);
+		System.arraycopy(decimalMins, 0, target.decimalMins, 0, decimalMins.length);
+		System.arraycopy(decimalMaxes, 0, target.decimalMaxes, 0, decimalMaxes.length);
+	}
+
+	/**
+	 * Returns true if at least one column is totaled by this accumulator.
+	 */
+	boolean hasTotals() {
+		for (AggregateFunction function : functions) {
+			if (function != null) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the column at the given 0-based index of the layout is
+	 * totaled by this accumulator.
+	 */
+	boolean isTotaled(int column) {
+		int slot = columns.slotOfColumn[column];
+		return slot != -1 && functions[slot] != null;
+	}
+
+	/**
+	 * Returns the total of the column at the given 0-based index of the
+	 * layout. The sum and count of a column with no values are 0, the other
+	 * functions return null in that case.
+	 * <p>
+	 * Totals are {@link BigDecimal}s except for the totals of floating point
+	 * columns that are NaN or infinite, which a {@link BigDecimal} cannot
+	 * hold. Those are returned as {@link Double}s.
+	 */
+	Number getValue(int column) {
+		int slot = columns.slotOfColumn[column];
+		if (slot == -1 || functions[slot] == null) {
+			throw new IllegalArgumentException("Column " + column + " is not totaled.");
+		}
+		final long count = counts[slot];
+		switch (functions[slot]) {
+		case COUNT:
+			return BigDecimal.valueOf(count);
+		case SUM:
+			if (count == 0) return BigDecimal.ZERO;
+			if (columns.kinds[slot] == ValueKind.DOUBLE) {
+				return valueOf(doubleSums[slot]);
+			}
+			return sum(slot);
+		case AVERAGE:
+			if (count == 0) return null;
+			if (columns.kinds[slot] == ValueKind.DOUBLE) {
+				return valueOf(doubleSums[slot] / count);
+			}
+			return sum(slot).divide(BigDecimal.valueOf(count), MathContext.DECIMAL64);
+		case MIN:
+			if (count == 0) return null;
+			switch (columns.kinds[slot]) {
+			case LONG:
+				return BigDecimal.valueOf(longMins[slot]);
+			case DOUBLE:
+				return valueOf(doubleMins[slot]);
+			default:
+				return decimalMins[slot];
+			}
+		case MAX:
+			if (count == 0) return null;
+			switch (columns.kinds[slot]) {
+			case LONG:
+				return BigDecimal.valueOf(longMaxes[slot]);
+			case DOUBLE:
+				return valueOf(doubleMaxes[slot]);
+			default:
+				return decimalMaxes[slot];
+			}
+		default:
+			throw new IllegalStateException("Unknown aggregate function " + functions[slot]);
+		}
+	}
+
+	/**
+	 * Returns the sum of a slot that is not totaled in doubles.
+	 */
+	private BigDecimal sum(int slot) {
+		switch (columns.kinds[slot]) {
+		case LONG:
+			BigDecimal sum = BigDecimal.valueOf(longSums[slot]);
+			if (decimalSums[slot] != null) {
+				sum = sum.add(decimalSums[slot]);
+			}
+			return sum;
+		case DOUBLE:
+			throw new IllegalStateException("The sum of a double slot does not fit in a BigDecimal.");
+		default:
+			return decimalSums[slot];
+		}
+	}
+
+	/**
+	 * Returns the double as a {@link BigDecimal} unless it is NaN or
+	 * infinite, in which case it is returned as a {@link Double}.
+	 */
+	private static Number valueOf(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return Double.valueOf(value);
+		}
+		return BigDecimal.valueOf(value);
+	}
+}
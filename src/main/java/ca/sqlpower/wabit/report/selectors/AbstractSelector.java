@@ -205,4 +205,10 @@ abstract class AbstractSelector extends AbstractWabitObject implements Selector
 			listener.selectionChanged(this);
 		}
 	}
+	
+	protected void firePossibleValuesChanged() {
+		for (SelectorListener listener : this.selectorListeners) {
+			listener.possibleValuesChanged(this);
+		}
+	}
 }
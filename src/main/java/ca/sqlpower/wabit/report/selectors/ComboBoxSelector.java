@@ -28,7 +28,14 @@ import java.util.StringTokenizer;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
+import ca.sqlpower.object.SPObject;
 import ca.sqlpower.object.SPVariableHelper;
+import ca.sqlpower.object.SPVariableResolver;
+import ca.sqlpower.object.SPVariableResolverProvider;
+import ca.sqlpower.util.SQLPowerUtils;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.rs.ResultSetVariableResolver;
+import ca.sqlpower.wabit.rs.VariableValuesListener;
 
 /**
  * Class representing a combo box parameter selector for a dashboard.
@@ -59,6 +66,32 @@ public class ComboBoxSelector extends AbstractSelector {
 	 */
 	private boolean alwaysIncludeDefaultValue = false;
 	
+	/**
+	 * The resolver of the query the source key refers to, if its values are
+	 * loaded by a query. It is listened to so the selector's possible values
+	 * can be updated once the query's values have been loaded.
+	 */
+	private ResultSetVariableResolver sourceResolver = null;
+	
+	/**
+	 * The source key {@link #sourceResolver} was looked up for.
+	 */
+	private String sourceResolverKey = null;
+	
+	/**
+	 * The last source key found to refer to an object that does not load its
+	 * values from a query. Such an object does not turn into one, so it is
+	 * not looked up again until the source key changes. Source keys whose
+	 * object is not in the workspace yet are looked up again each time.
+	 */
+	private String sourceWithoutQueryKey = null;
+	
+	private final VariableValuesListener sourceValuesListener = new VariableValuesListener() {
+		public void variableValuesChanged(ResultSetVariableResolver source) {
+			firePossibleValuesChanged();
+		}
+	};
+	
 	
 	
 	@Override
@@ -100,6 +133,7 @@ public class ComboBoxSelector extends AbstractSelector {
 				values.add(getDefaultValue());
 			}
 			
+			listenToSource();
 			SPVariableHelper helper = new SPVariableHelper(this);
 			values.addAll(helper.resolveCollection(sourceKey));
 			
@@ -121,6 +155,68 @@ public class ComboBoxSelector extends AbstractSelector {
 		return values;
 	}
 	
+	/**
+	 * Finds the resolver the source key refers to and starts listening to it
+	 * if it loads its values from a query. The resolver is looked up again
+	 * only when the source key changes, or while the object it refers to is
+	 * not in the workspace.
+	 */
+	private void listenToSource() {
+		if (sourceResolver != null && sourceKey.equals(sourceResolverKey)) {
+			return;
+		}
+		if (sourceKey.equals(sourceWithoutQueryKey)) {
+			return;
+		}
+		stopListeningToSource();
+		String namespace = SPVariableHelper.getNamespace(sourceKey);
+		if (namespace == null) {
+			sourceWithoutQueryKey = sourceKey;
+			return;
+		}
+		SPObject root = this;
+		while (root.getParent() != null) {
+			root = root.getParent();
+		}
+		SPObject provider;
+		if (root instanceof WabitWorkspace) {
+			provider = ((WabitWorkspace) root).findByUuid(namespace, SPObject.class);
+		} else {
+			provider = SQLPowerUtils.findByUuid(root, namespace, SPObject.class);
+		}
+		if (provider == null) {
+			return;
+		}
+		SPVariableResolver resolver = null;
+		if (provider instanceof SPVariableResolverProvider) {
+			resolver = ((SPVariableResolverProvider) provider).getVariableResolver();
+		}
+		if (resolver instanceof ResultSetVariableResolver) {
+			sourceResolver = (ResultSetVariableResolver) resolver;
+			sourceResolverKey = sourceKey;
+			sourceResolver.addVariableValuesListener(sourceValuesListener);
+		} else {
+			sourceWithoutQueryKey = sourceKey;
+		}
+	}
+	
+	private void stopListeningToSource() {
+		if (sourceResolver != null) {
+			sourceResolver.removeVariableValuesListener(sourceValuesListener);
+			sourceResolver = null;
+			sourceResolverKey = null;
+		}
+	}
+	
+	@Override
+	public void setParent(SPObject parent) {
+		if (parent == null) {
+			stopListeningToSource();
+			sourceWithoutQueryKey = null;
+		}
+		super.setParent(parent);
+	}
+	
 	public void setSourceKey(String sourceKey) {
 		
 		String oldSourceKey = this.sourceKey;
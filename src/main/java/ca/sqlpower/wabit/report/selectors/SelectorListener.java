@@ -22,5 +22,11 @@ package ca.sqlpower.wabit.report.selectors;
 public interface SelectorListener {
 
 	void selectionChanged(Selector source);
+
+	/**
+	 * Called when the values a selector offers may have changed, for example
+	 * when the values of the variable it takes them from have been loaded.
+	 */
+	void possibleValuesChanged(Selector source);
 	
 }
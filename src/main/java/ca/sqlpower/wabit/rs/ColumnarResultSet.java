@@ -0,0 +1,2174 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A read-only, scrollable {@link ResultSet} that keeps the rows of a query in
+ * memory column by column instead of as one object array per row like
+ * {@link ca.sqlpower.sql.CachedRowSet}. Integer, long, floating point,
+ * decimal, date and timestamp columns are stored in primitive arrays with a
+ * bitmap of the null values, and text columns are stored as indexes into a
+ * dictionary of their distinct values. For wide numeric result sets this takes a fraction of the
+ * memory of boxing every cell.
+ * <p>
+ * Values that do not fit the primitive storage of their column, for example
+ * decimals of different scales or objects of a class the column type does
+ * not normally map to, make the whole column fall back to storing objects.
+ * {@link #getObject(int)} always returns the same class of object the
+ * original result set returned.
+ * <p>
+ * The result set is filled once by {@link #populate(ResultSet)}. After that
+ * its data never changes, and {@link #createShared()} gives other readers
+ * their own cursor over the same columns.
+ * <p>
+ * Results too large to keep in memory can be populated with
+ * {@link #populate(ResultSet, int, File)}, which keeps a number of rows in
+ * memory and writes the rest to segment files of the same compact column
+ * format. The segments are memory mapped and decoded again when the cursor
+ * reaches their rows, and only the few most recently read are kept. The
+ * files must be deleted with {@link #releaseSpillFiles()} once the rows are
+ * no longer needed.
+ */
+public class ColumnarResultSet implements ResultSet {
+
+    private static final Logger logger = Logger.getLogger(ColumnarResultSet.class);
+    
+    /**
+     * The largest number of rows written to one segment file.
+     */
+    private static final int SEGMENT_ROWS = 8192;
+    
+    /**
+     * The number of segments read back from disk that are kept decoded in
+     * memory for all the readers of a result set.
+     */
+    private static final int CACHED_SEGMENTS = 4;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The spills whose segment files have not been released yet. Their
+     * files are deleted by a shutdown hook if the JVM exits before they are
+     * released, instead of registering every segment file with
+     * {@link File#deleteOnExit()} which keeps each file name until the JVM
+     * exits.
+     */
+    @GuardedBy("liveSpills")
+    private static final Set<Spill> liveSpills = new HashSet<Spill>();
+    
+    @GuardedBy("liveSpills")
+    private static boolean shutdownHookAdded;
+    
+    private static void addLiveSpill(Spill spill) {
+        synchronized (liveSpills) {
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread("result-set-spill-cleanup") {
+                    @Override
+                    public void run() {
+                        List<Spill> spills;
+                        synchronized (liveSpills) {
+                            spills = new ArrayList<Spill>(liveSpills);
+                        }
+                        for (Spill spill : spills) {
+                            spill.release();
+                        }
+                    }
+                });
+                shutdownHookAdded = true;
+            }
+            liveSpills.add(spill);
+        }
+    }
+    
+    private static void removeLiveSpill(Spill spill) {
+        synchronized (liveSpills) {
+            liveSpills.remove(spill);
+        }
+    }
+
+    /**
+     * The columns of a populated result set along with everything needed to
+     * read them. It is shared, and never modified, by the result sets
+     * returned from {@link ColumnarResultSet#createShared()}.
+     */
+    private static class Data {
+        final ColumnarResultSetMetaData metaData;
+        final Column[] columns;
+        final int rowCount;
+        
+        /**
+         * The number of rows stored in {@link #columns}. The rows after them
+         * are in the segments of {@link #spill}.
+         */
+        final int inMemoryRows;
+        
+        /**
+         * The segment files of the rows that did not fit in memory, null if
+         * every row is in {@link #columns}.
+         */
+        final Spill spill;
+        
+        /**
+         * Maps upper case column labels, and then names, to their 1-based
+         * column index.
+         */
+        final Map<String, Integer> columnIndexes;
+        
+        Data(ColumnarResultSetMetaData metaData, Column[] columns, int rowCount,
+                int inMemoryRows, Spill spill) throws SQLException {
+            this.metaData = metaData;
+            this.columns = columns;
+            this.rowCount = rowCount;
+            this.inMemoryRows = inMemoryRows;
+            this.spill = spill;
+            columnIndexes = new HashMap<String, Integer>();
+            for (int i = columns.length; i >= 1; i--) {
+                if (metaData.getColumnName(i) != null) {
+                    columnIndexes.put(metaData.getColumnName(i).toUpperCase(), i);
+                }
+            }
+            for (int i = columns.length; i >= 1; i--) {
+                if (metaData.getColumnLabel(i) != null) {
+                    columnIndexes.put(metaData.getColumnLabel(i).toUpperCase(), i);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The segment files holding the rows that did not fit in memory, along
+     * with the segments most recently read back from them. Segments are
+     * written in order while the result set is populated and are never
+     * modified afterwards.
+     */
+    private static class Spill {
+        final File directory;
+        final int segmentRows;
+        
+        @GuardedBy("this")
+        private final List<File> files = new ArrayList<File>();
+        
+        @GuardedBy("this")
+        private boolean released;
+        
+        @GuardedBy("this")
+        private final Map<Integer, Column[]> readSegments = 
+            new LinkedHashMap<Integer, Column[]>(CACHED_SEGMENTS * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Column[]> eldest) {
+                    return size() > CACHED_SEGMENTS;
+                }
+            };
+        
+        Spill(File directory, int segmentRows) {
+            this.directory = directory;
+            this.segmentRows = segmentRows;
+            addLiveSpill(this);
+        }
+
+        /**
+         * Writes the given columns to a new segment file, which becomes the
+         * segment after the ones written so far.
+         */
+        synchronized void write(Column[] segment) throws SQLException {
+            if (released) {
+                throw new SQLException("The result set was released while it was being populated.");
+            }
+            File file = null;
+            try {
+                file = File.createTempFile("wabit-rs", ".seg", directory);
+                files.add(file);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file)));
+                try {
+                    out.writeInt(segment.length);
+                    for (Column column : segment) {
+                        column.write(out);
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                SQLException ex = new SQLException("Could not write the rows of a result set to " + file);
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+
+        /**
+         * Returns the columns of the given 0-based segment, reading the
+         * segment file again if it was not read recently.
+         */
+        synchronized Column[] read(int segment) throws SQLException {
+            if (released) {
+                throw new SQLException("The rows of this result set that were spilled to disk have been released.");
+            }
+            Column[] columns = readSegments.get(segment);
+            if (columns != null) return columns;
+            File file = files.get(segment);
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    ByteBuffer in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                    columns = new Column[in.getInt()];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = Column.read(in);
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                SQLException ex = new SQLException("Could not read the rows of a result set from " + file);
+                ex.initCause(e);
+                throw ex;
+            }
+            readSegments.put(segment, columns);
+            return columns;
+        }
+
+        /**
+         * Deletes the segment files. Reading the segments afterwards fails, and
+         * so does writing more of them.
+         */
+        synchronized void release() {
+            if (released) return;
+            released = true;
+            readSegments.clear();
+            for (File file : files) {
+                if (!file.delete() && file.exists()) {
+                    logger.warn("Could not delete the result set segment " + file);
+                }
+            }
+            files.clear();
+            removeLiveSpill(this);
+        }
+    }
+    
+    /**
+     * The rows of this result set. Null until it has been populated.
+     */
+    private volatile Data data;
+    
+    /**
+     * The segment files of this result set. It is set as soon as populating
+     * the result set starts to spill rows so they can be released before the
+     * population completes.
+     */
+    private volatile Spill spill;
+    
+    /**
+     * The current row, from 1 to the row count. 0 is before the first row
+     * and row count + 1 is after the last.
+     */
+    private int cursor = 0;
+    
+    private boolean wasNull;
+    
+    private boolean closed;
+    
+    /**
+     * The row of the current cursor position in the column returned by the
+     * last call to {@link #column(int)}.
+     */
+    private int columnRow;
+    
+    /**
+     * The 0-based index of the spilled segment the cursor was last on and
+     * its columns. This saves going through the shared segment cache for
+     * every value read.
+     */
+    private int currentSegment = -1;
+    private Column[] currentSegmentColumns;
+    
+    /**
+     * The 0-based row of the data at each cursor position, for result sets
+     * made by {@link #createSorted(int...)}. Null when the rows are read in
+     * the order they were populated in.
+     */
+    private int[] rowOrder;
+
+    /**
+     * Creates an empty result set to be filled by {@link #populate(ResultSet)}.
+     */
+    public ColumnarResultSet() {
+        // populated later
+    }
+    
+    private ColumnarResultSet(Data data, int[] rowOrder) {
+        this.data = data;
+        this.spill = data.spill;
+        this.rowOrder = rowOrder;
+    }
+
+    /**
+     * Reads every row of the given result set into this one. The given
+     * result set is left after its last row and is not closed.
+     * 
+     * @throws IllegalStateException
+     *             If this result set was already populated.
+     */
+    public void populate(ResultSet rs) throws SQLException {
+        populate(rs, 0, null);
+    }
+
+    /**
+     * Reads every row of the given result set into this one, keeping at most
+     * the given number of rows in memory. The rows after those are written
+     * to segment files in the given directory, which are deleted by
+     * {@link #releaseSpillFiles()}. The given result set is left after its
+     * last row and is not closed.
+     * 
+     * @param maxRowsInMemory
+     *            The number of rows to keep in memory, 0 or less to keep
+     *            every row in memory.
+     * @param spillDirectory
+     *            The directory to write the segment files to, null for the
+     *            default temporary file directory.
+     * @throws IllegalStateException
+     *             If this result set was already populated.
+     */
+    public void populate(ResultSet rs, int maxRowsInMemory, File spillDirectory) throws SQLException {
+        if (data != null || spill != null) {
+            throw new IllegalStateException("A columnar result set can only be populated once.");
+        }
+        ColumnarResultSetMetaData metaData = new ColumnarResultSetMetaData(rs.getMetaData());
+        Column[] columns = createColumns(metaData);
+        Column[] segment = null;
+        int segmentRowCount = 0;
+        int rowCount = 0;
+        try {
+            while (rs.next()) {
+                if (maxRowsInMemory > 0 && rowCount == maxRowsInMemory) {
+                    spill = new Spill(spillDirectory, Math.min(maxRowsInMemory, SEGMENT_ROWS));
+                    segment = createColumns(metaData);
+                }
+                addRow(rs, segment == null ? columns : segment);
+                rowCount++;
+                if (segment != null && ++segmentRowCount == spill.segmentRows) {
+                    spill.write(segment);
+                    segment = createColumns(metaData);
+                    segmentRowCount = 0;
+                }
+            }
+            if (segmentRowCount > 0) {
+                spill.write(segment);
+            }
+        } catch (SQLException e) {
+            releaseSpillFiles();
+            throw e;
+        } catch (RuntimeException e) {
+            releaseSpillFiles();
+            throw e;
+        }
+        for (Column column : columns) {
+            column.trim();
+        }
+        int inMemoryRows = spill == null ? rowCount : maxRowsInMemory;
+        data = new Data(metaData, columns, rowCount, inMemoryRows, spill);
+    }
+    
+    /**
+     * Fills this result set with rows that were already read, each an array
+     * of the values of every column in order. This is used for the snapshots
+     * of streaming queries.
+     * 
+     * @throws IllegalStateException
+     *             If this result set was already populated.
+     */
+    void populate(ColumnarResultSetMetaData metaData, List<Object[]> rows) throws SQLException {
+        if (data != null || spill != null) {
+            throw new IllegalStateException("A columnar result set can only be populated once.");
+        }
+        Column[] columns = createColumns(metaData);
+        for (Object[] row : rows) {
+            for (int i = 0; i < columns.length; i++) {
+                addValue(columns, i, row[i]);
+            }
+        }
+        for (Column column : columns) {
+            column.trim();
+        }
+        data = new Data(metaData, columns, rows.size(), rows.size(), null);
+    }
+    
+    private static Column[] createColumns(ResultSetMetaData metaData) throws SQLException {
+        Column[] columns = new Column[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = createColumn(metaData.getColumnType(i + 1));
+        }
+        return columns;
+    }
+    
+    /**
+     * Appends the current row of the given result set to the columns,
+     * replacing the columns that cannot store their value by object columns.
+     */
+    private static void addRow(ResultSet rs, Column[] columns) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            addValue(columns, i, rs.getObject(i + 1));
+        }
+    }
+    
+    private static void addValue(Column[] columns, int index, Object value) {
+        if (!columns[index].add(value)) {
+            columns[index] = new ObjectColumn(columns[index]);
+            columns[index].add(value);
+        }
+    }
+
+    /**
+     * Deletes the segment files holding the rows of this result set that did
+     * not fit in memory. This releases them for every result set sharing the
+     * rows, reading those rows afterwards fails. If the result set is still
+     * being populated the population stops with an exception when it next
+     * writes a segment. Does nothing if no rows were spilled.
+     */
+    public void releaseSpillFiles() {
+        Spill s = spill;
+        if (s != null) {
+            s.release();
+        }
+    }
+
+    /**
+     * Returns a new result set over the same rows as this one with its own
+     * cursor, positioned before the first row. The rows are not copied. This
+     * result set must be populated first.
+     */
+    public ColumnarResultSet createShared() {
+        if (data == null) {
+            throw new IllegalStateException("The result set must be populated before it is shared.");
+        }
+        return new ColumnarResultSet(data, null);
+    }
+
+    /**
+     * Returns a new result set over the same rows as this one with its own
+     * cursor, like {@link #createShared()}, that goes through the rows in
+     * ascending order of the values of the given columns. Nulls come first
+     * and rows with the same values keep their order. Only the values of the
+     * sort columns are read to sort the rows, the rows themselves are not
+     * copied and the order is kept as one int per row. Spilled rows visited
+     * out of order are read again from their segments.
+     * 
+     * @param sortColumns
+     *            The 1-based indexes of the columns to sort by, the first
+     *            one being the most significant. If there are none the rows
+     *            keep their order.
+     */
+    public ColumnarResultSet createSorted(int... sortColumns) throws SQLException {
+        ColumnarResultSet reader = createShared();
+        if (sortColumns.length == 0) return reader;
+        int rowCount = reader.getRowCount();
+        final Object[][] keys = new Object[sortColumns.length][rowCount];
+        for (int row = 0; reader.next(); row++) {
+            for (int k = 0; k < sortColumns.length; k++) {
+                keys[k][row] = reader.getObject(sortColumns[k]);
+            }
+        }
+        int[] order = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            order[i] = i;
+        }
+        sortRows(order, new int[rowCount], 0, rowCount, keys);
+        return new ColumnarResultSet(data, order);
+    }
+
+    /**
+     * Stable merge sort of the rows between from, inclusive, and to,
+     * exclusive, by their sort keys.
+     */
+    private static void sortRows(int[] order, int[] buffer, int from, int to, Object[][] keys) {
+        if (to - from < 2) return;
+        int middle = (from + to) >>> 1;
+        sortRows(order, buffer, from, middle, keys);
+        sortRows(order, buffer, middle, to, keys);
+        if (compareRows(order[middle - 1], order[middle], keys) <= 0) return;
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareRows(buffer[left], buffer[right], keys) <= 0)) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+    
+    private static int compareRows(int row1, int row2, Object[][] keys) {
+        for (Object[] key : keys) {
+            int result = compareValues(key[row1], key[row2]);
+            if (result != 0) return result;
+        }
+        return 0;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object value1, Object value2) {
+        if (value1 == value2) return 0;
+        if (value1 == null) return -1;
+        if (value2 == null) return 1;
+        if (value1 instanceof Comparable<?> && value1.getClass().isInstance(value2)) {
+            return ((Comparable<Object>) value1).compareTo(value2);
+        }
+        if (value1 instanceof Number && value2 instanceof Number) {
+            return Double.compare(((Number) value1).doubleValue(), ((Number) value2).doubleValue());
+        }
+        return value1.toString().compareTo(value2.toString());
+    }
+    
+    /**
+     * Returns the number of rows in this result set, or 0 if it has not been
+     * populated yet.
+     */
+    public int getRowCount() {
+        Data d = data;
+        return d == null ? 0 : d.rowCount;
+    }
+    
+    /**
+     * Returns the number of rows of this result set that are stored in
+     * segment files instead of memory.
+     */
+    public int getSpilledRowCount() {
+        Data d = data;
+        return d == null ? 0 : d.rowCount - d.inMemoryRows;
+    }
+    
+    private static Column createColumn(int type) {
+        switch (type) {
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT:
+            return new IntColumn();
+        case Types.BIGINT:
+            return new LongColumn();
+        case Types.DOUBLE:
+        case Types.FLOAT:
+        case Types.REAL:
+            return new DoubleColumn();
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            return new DecimalColumn();
+        case Types.DATE:
+        case Types.TIMESTAMP:
+            return new DateColumn();
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+            return new DictionaryColumn();
+        default:
+            return new ObjectColumn();
+        }
+    }
+    
+    // --------------- Column storage ------------------
+
+    /**
+     * The values of one column of the result set, indexed by 0-based row.
+     * Columns are written to segment files as their kind, their size, the
+     * rows that are null and then the values in the format of the kind.
+     */
+    private static abstract class Column {
+        
+        static final byte OBJECT = 0;
+        static final byte INT = 1;
+        static final byte LONG = 2;
+        static final byte DOUBLE = 3;
+        static final byte DECIMAL = 4;
+        static final byte DATE = 5;
+        static final byte DICTIONARY = 6;
+        
+        /**
+         * The rows whose value is null.
+         */
+        final BitSet nulls = new BitSet();
+        
+        int size;
+        
+        /**
+         * Returns the constant identifying this kind of column in segment
+         * files.
+         */
+        abstract byte kind();
+
+        /**
+         * Writes the values of the first {@link #size} rows, not including
+         * the nulls.
+         */
+        abstract void writeValues(DataOutputStream out) throws IOException;
+
+        /**
+         * Reads the values written by {@link #writeValues(DataOutputStream)}
+         * into this column, whose size is already set.
+         */
+        abstract void readValues(ByteBuffer in) throws IOException;
+        
+        final void write(DataOutputStream out) throws IOException {
+            out.writeByte(kind());
+            out.writeInt(size);
+            out.writeInt(nulls.cardinality());
+            for (int row = nulls.nextSetBit(0); row >= 0; row = nulls.nextSetBit(row + 1)) {
+                out.writeInt(row);
+            }
+            writeValues(out);
+        }
+        
+        static Column read(ByteBuffer in) throws IOException {
+            Column column;
+            byte kind = in.get();
+            switch (kind) {
+            case OBJECT:
+                column = new ObjectColumn();
+                break;
+            case INT:
+                column = new IntColumn();
+                break;
+            case LONG:
+                column = new LongColumn();
+                break;
+            case DOUBLE:
+                column = new DoubleColumn();
+                break;
+            case DECIMAL:
+                column = new DecimalColumn();
+                break;
+            case DATE:
+                column = new DateColumn();
+                break;
+            case DICTIONARY:
+                column = new DictionaryColumn();
+                break;
+            default:
+                throw new IOException("Unknown column kind " + kind);
+            }
+            column.size = in.getInt();
+            for (int i = in.getInt(); i > 0; i--) {
+                column.nulls.set(in.getInt());
+            }
+            column.readValues(in);
+            return column;
+        }
+        
+        /**
+         * Appends a value to the column. Returns false, without adding it, if
+         * the value cannot be stored by this kind of column.
+         */
+        abstract boolean add(Object value);
+        
+        /**
+         * Returns the value of the given row as the object the original
+         * result set returned. Only called for rows that are not null.
+         */
+        abstract Object get(int row);
+        
+        /**
+         * Releases the unused capacity once the column is complete.
+         */
+        abstract void trim();
+        
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+        
+        double getDouble(int row) throws SQLException {
+            return toNumber(get(row)).doubleValue();
+        }
+        
+        long getLong(int row) throws SQLException {
+            return toNumber(get(row)).longValue();
+        }
+        
+        /**
+         * Returns the capacity to grow an array of the given length to.
+         */
+        static int grow(int length) {
+            return Math.max(16, length * 2);
+        }
+    }
+    
+    private static class ObjectColumn extends Column {
+        Object[] values = new Object[16];
+        
+        ObjectColumn() {
+            // empty column
+        }
+
+        /**
+         * Copies the values of a column that could not store every value.
+         */
+        ObjectColumn(Column column) {
+            values = new Object[Column.grow(column.size)];
+            for (int i = 0; i < column.size; i++) {
+                add(column.isNull(i) ? null : column.get(i));
+            }
+        }
+        
+        boolean add(Object value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (value == null) {
+                nulls.set(size);
+            }
+            values[size++] = value;
+            return true;
+        }
+        
+        Object get(int row) {
+            return values[row];
+        }
+        
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+        
+        byte kind() {
+            return OBJECT;
+        }
+
+        /**
+         * The values are serialized, which only works for the serializable
+         * objects JDBC drivers return for most column types.
+         */
+        void writeValues(DataOutputStream out) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objects = new ObjectOutputStream(bytes);
+            objects.writeObject(Arrays.copyOf(values, size));
+            objects.close();
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+        
+        void readValues(ByteBuffer in) throws IOException {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                values = (Object[]) objects.readObject();
+            } catch (ClassNotFoundException e) {
+                IOException ex = new IOException("Could not read the values of a column");
+                ex.initCause(e);
+                throw ex;
+            } finally {
+                objects.close();
+            }
+        }
+    }
+    
+    private static class IntColumn extends Column {
+        int[] values = new int[16];
+        
+        boolean add(Object value) {
+            if (value != null && value.getClass() != Integer.class) {
+                return false;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (value == null) {
+                nulls.set(size);
+            } else {
+                values[size] = ((Integer) value).intValue();
+            }
+            size++;
+            return true;
+        }
+        
+        Object get(int row) {
+            return Integer.valueOf(values[row]);
+        }
+        
+        double getDouble(int row) {
+            return values[row];
+        }
+        
+        long getLong(int row) {
+            return values[row];
+        }
+        
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+        
+        byte kind() {
+            return INT;
+        }
+        
+        void writeValues(DataOutputStream out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(values[i]);
+            }
+        }
+        
+        void readValues(ByteBuffer in) {
+            values = new int[size];
+            in.asIntBuffer().get(values);
+            in.position(in.position() + size * 4);
+        }
+    }
+    
+    private static class LongColumn extends Column {
+        long[] values = new long[16];
+        
+        boolean add(Object value) {
+            if (value != null && value.getClass() != Long.class) {
+                return false;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (value == null) {
+                nulls.set(size);
+            } else {
+                values[size] = ((Long) value).longValue();
+            }
+            size++;
+            return true;
+        }
+        
+        Object get(int row) {
+            return Long.valueOf(values[row]);
+        }
+        
+        double getDouble(int row) {
+            return values[row];
+        }
+        
+        long getLong(int row) {
+            return values[row];
+        }
+        
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+        
+        byte kind() {
+            return LONG;
+        }
+        
+        void writeValues(DataOutputStream out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeLong(values[i]);
+            }
+        }
+        
+        void readValues(ByteBuffer in) {
+            values = new long[size];
+            in.asLongBuffer().get(values);
+            in.position(in.position() + size * 8);
+        }
+    }
+    
+    private static class DoubleColumn extends Column {
+        double[] values = new double[16];
+        
+        boolean add(Object value) {
+            if (value != null && value.getClass() != Double.class) {
+                return false;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (value == null) {
+                nulls.set(size);
+            } else {
+                values[size] = ((Double) value).doubleValue();
+            }
+            size++;
+            return true;
+        }
+        
+        Object get(int row) {
+            return Double.valueOf(values[row]);
+        }
+        
+        double getDouble(int row) {
+            return values[row];
+        }
+        
+        long getLong(int row) {
+            return (long) values[row];
+        }
+        
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+        
+        byte kind() {
+            return DOUBLE;
+        }
+        
+        void writeValues(DataOutputStream out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(values[i]);
+            }
+        }
+        
+        void readValues(ByteBuffer in) {
+            values = new double[size];
+            in.asDoubleBuffer().get(values);
+            in.position(in.position() + size * 8);
+        }
+    }
+
+    /**
+     * Stores decimals as their unscaled value. This only works while every
+     * value of the column has the same scale and fits in a long, which is
+     * the case for the usual DECIMAL(p, s) columns.
+     */
+    private static class DecimalColumn extends Column {
+        private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+        private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+        
+        long[] unscaledValues = new long[16];
+        int scale = -1;
+        
+        boolean add(Object value) {
+            if (value != null) {
+                if (value.getClass() != BigDecimal.class) {
+                    return false;
+                }
+                BigDecimal decimal = (BigDecimal) value;
+                if (scale == -1) {
+                    scale = decimal.scale();
+                }
+                BigInteger unscaled = decimal.unscaledValue();
+                if (decimal.scale() != scale 
+                        || unscaled.compareTo(MIN_LONG) < 0 || unscaled.compareTo(MAX_LONG) > 0) {
+                    return false;
+                }
+            }
+            if (size == unscaledValues.length) {
+                unscaledValues = Arrays.copyOf(unscaledValues, grow(size));
+            }
+            if (value == null) {
+                nulls.set(size);
+            } else {
+                unscaledValues[size] = ((BigDecimal) value).unscaledValue().longValue();
+            }
+            size++;
+            return true;
+        }
+        
+        Object get(int row) {
+            return BigDecimal.valueOf(unscaledValues[row], scale);
+        }
+        
+        void trim() {
+            unscaledValues = Arrays.copyOf(unscaledValues, size);
+        }
+        
+        byte kind() {
+            return DECIMAL;
+        }
+        
+        void writeValues(DataOutputStream out) throws IOException {
+            out.writeInt(scale);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(unscaledValues[i]);
+            }
+        }
+        
+        void readValues(ByteBuffer in) {
+            scale = in.getInt();
+            unscaledValues = new long[size];
+            in.asLongBuffer().get(unscaledValues);
+            in.position(in.position() + size * 8);
+        }
+    }
+
+    /**
+     * Stores {@link Date} or {@link Timestamp} values as milliseconds, along
+     * with the nanoseconds of timestamps. A column can only hold one of the
+     * two classes.
+     */
+    private static class DateColumn extends Column {
+        long[] millis = new long[16];
+        int[] nanos;
+        Class<?> valueClass;
+        
+        boolean add(Object value) {
+            if (value != null) {
+                if (valueClass == null) {
+                    if (value.getClass() != Date.class && value.getClass() != Timestamp.class) {
+                        return false;
+                    }
+                    valueClass = value.getClass();
+                    if (valueClass == Timestamp.class) {
+                        nanos = new int[millis.length];
+                    }
+                } else if (value.getClass() != valueClass) {
+                    return false;
+                }
+            }
+            if (size == millis.length) {
+                millis = Arrays.copyOf(millis, grow(size));
+                if (nanos != null) {
+                    nanos = Arrays.copyOf(nanos, millis.length);
+                }
+            }
+            if (value == null) {
+                nulls.set(size);
+            } else {
+                millis[size] = ((java.util.Date) value).getTime();
+                if (nanos != null) {
+                    nanos[size] = ((Timestamp) value).getNanos();
+                }
+            }
+            size++;
+            return true;
+        }
+        
+        Object get(int row) {
+            if (valueClass == Timestamp.class) {
+                Timestamp timestamp = new Timestamp(millis[row]);
+                timestamp.setNanos(nanos[row]);
+                return timestamp;
+            }
+            return new Date(millis[row]);
+        }
+        
+        void trim() {
+            millis = Arrays.copyOf(millis, size);
+            if (nanos != null) {
+                nanos = Arrays.copyOf(nanos, size);
+            }
+        }
+        
+        byte kind() {
+            return DATE;
+        }
+        
+        void writeValues(DataOutputStream out) throws IOException {
+            out.writeBoolean(valueClass == Timestamp.class);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(millis[i]);
+            }
+            if (nanos != null) {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(nanos[i]);
+                }
+            }
+        }
+        
+        void readValues(ByteBuffer in) {
+            boolean timestamps = in.get() != 0;
+            valueClass = timestamps ? Timestamp.class : Date.class;
+            millis = new long[size];
+            in.asLongBuffer().get(millis);
+            in.position(in.position() + size * 8);
+            if (timestamps) {
+                nanos = new int[size];
+                in.asIntBuffer().get(nanos);
+                in.position(in.position() + size * 4);
+            }
+        }
+    }
+
+    /**
+     * Stores text as indexes into the list of distinct values of the column.
+     * The lookup map used to build the dictionary is dropped once the column
+     * is complete.
+     */
+    private static class DictionaryColumn extends Column {
+        int[] codes = new int[16];
+        List<String> dictionary = new ArrayList<String>();
+        Map<String, Integer> codesByValue = new HashMap<String, Integer>();
+        
+        boolean add(Object value) {
+            if (value != null && value.getClass() != String.class) {
+                return false;
+            }
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, grow(size));
+            }
+            if (value == null) {
+                nulls.set(size);
+            } else {
+                Integer code = codesByValue.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.add((String) value);
+                    codesByValue.put((String) value, code);
+                }
+                codes[size] = code;
+            }
+            size++;
+            return true;
+        }
+        
+        Object get(int row) {
+            return dictionary.get(codes[row]);
+        }
+        
+        void trim() {
+            codes = Arrays.copyOf(codes, size);
+            dictionary = new ArrayList<String>(dictionary);
+            codesByValue = null;
+        }
+        
+        byte kind() {
+            return DICTIONARY;
+        }
+        
+        void writeValues(DataOutputStream out) throws IOException {
+            out.writeInt(dictionary.size());
+            for (String value : dictionary) {
+                byte[] bytes = value.getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(codes[i]);
+            }
+        }
+        
+        void readValues(ByteBuffer in) {
+            dictionary = new ArrayList<String>();
+            for (int i = in.getInt(); i > 0; i--) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                dictionary.add(new String(bytes, UTF8));
+            }
+            codesByValue = null;
+            codes = new int[size];
+            in.asIntBuffer().get(codes);
+            in.position(in.position() + size * 4);
+        }
+    }
+    
+    private static Number toNumber(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return (Number) value;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue() ? 1 : 0;
+        }
+        try {
+            return new BigDecimal(value.toString().trim());
+        } catch (NumberFormatException e) {
+            SQLException ex = new SQLException("The value " + value + " is not a number");
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+    
+    // --------------- Reading values ------------------
+
+    private Data populatedData() throws SQLException {
+        Data d = data;
+        if (d == null) {
+            throw new SQLException("The result set has not been populated yet.");
+        }
+        return d;
+    }
+
+    /**
+     * Returns the column at the given 1-based index, checking the cursor is
+     * on a row and remembering if the value of that row is null for
+     * {@link #wasNull()}.
+     */
+    private Column column(int columnIndex) throws SQLException {
+        Data d = populatedData();
+        if (columnIndex < 1 || columnIndex > d.columns.length) {
+            throw new SQLException("Column index " + columnIndex + " is out of range.");
+        }
+        if (cursor < 1 || cursor > d.rowCount) {
+            throw new SQLException("The cursor is not on a row.");
+        }
+        Column[] columns = d.columns;
+        int row = rowOrder == null ? cursor - 1 : rowOrder[cursor - 1];
+        if (row >= d.inMemoryRows) {
+            row -= d.inMemoryRows;
+            int segment = row / d.spill.segmentRows;
+            if (segment != currentSegment) {
+                currentSegmentColumns = d.spill.read(segment);
+                currentSegment = segment;
+            }
+            columns = currentSegmentColumns;
+            row %= d.spill.segmentRows;
+        }
+        Column column = columns[columnIndex - 1];
+        columnRow = row;
+        wasNull = column.isNull(row);
+        return column;
+    }
+    
+    public Object getObject(int columnIndex) throws SQLException {
+        Column column = column(columnIndex);
+        return wasNull ? null : column.get(columnRow);
+    }
+    
+    public Object getObject(String columnLabel) throws SQLException {
+        return getObject(findColumn(columnLabel));
+    }
+    
+    public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException {
+        return getObject(columnIndex);
+    }
+    
+    public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
+        return getObject(findColumn(columnLabel));
+    }
+    
+    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || type.isInstance(value)) {
+            return type.cast(value);
+        } else if (type == String.class) {
+            return type.cast(getString(columnIndex));
+        } else if (type == Integer.class) {
+            return type.cast(getInt(columnIndex));
+        } else if (type == Long.class) {
+            return type.cast(getLong(columnIndex));
+        } else if (type == Double.class) {
+            return type.cast(getDouble(columnIndex));
+        } else if (type == BigDecimal.class) {
+            return type.cast(getBigDecimal(columnIndex));
+        } else if (type == Date.class) {
+            return type.cast(getDate(columnIndex));
+        } else if (type == Timestamp.class) {
+            return type.cast(getTimestamp(columnIndex));
+        }
+        throw new SQLException("Cannot convert " + value.getClass().getName() + " to " + type.getName());
+    }
+    
+    public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+        return getObject(findColumn(columnLabel), type);
+    }
+    
+    public String getString(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        return value == null ? null : value.toString();
+    }
+    
+    public String getString(String columnLabel) throws SQLException {
+        return getString(findColumn(columnLabel));
+    }
+    
+    public String getNString(int columnIndex) throws SQLException {
+        return getString(columnIndex);
+    }
+    
+    public String getNString(String columnLabel) throws SQLException {
+        return getString(findColumn(columnLabel));
+    }
+    
+    public boolean getBoolean(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null) {
+            return false;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        } else if (value instanceof String) {
+            String s = ((String) value).trim();
+            return s.equalsIgnoreCase("true") || s.equals("1");
+        }
+        return toNumber(value).doubleValue() != 0;
+    }
+    
+    public boolean getBoolean(String columnLabel) throws SQLException {
+        return getBoolean(findColumn(columnLabel));
+    }
+    
+    public byte getByte(int columnIndex) throws SQLException {
+        return (byte) getLong(columnIndex);
+    }
+    
+    public byte getByte(String columnLabel) throws SQLException {
+        return getByte(findColumn(columnLabel));
+    }
+    
+    public short getShort(int columnIndex) throws SQLException {
+        return (short) getLong(columnIndex);
+    }
+    
+    public short getShort(String columnLabel) throws SQLException {
+        return getShort(findColumn(columnLabel));
+    }
+    
+    public int getInt(int columnIndex) throws SQLException {
+        return (int) getLong(columnIndex);
+    }
+    
+    public int getInt(String columnLabel) throws SQLException {
+        return getInt(findColumn(columnLabel));
+    }
+    
+    public long getLong(int columnIndex) throws SQLException {
+        Column column = column(columnIndex);
+        return wasNull ? 0 : column.getLong(columnRow);
+    }
+    
+    public long getLong(String columnLabel) throws SQLException {
+        return getLong(findColumn(columnLabel));
+    }
+    
+    public float getFloat(int columnIndex) throws SQLException {
+        return (float) getDouble(columnIndex);
+    }
+    
+    public float getFloat(String columnLabel) throws SQLException {
+        return getFloat(findColumn(columnLabel));
+    }
+    
+    public double getDouble(int columnIndex) throws SQLException {
+        Column column = column(columnIndex);
+        return wasNull ? 0 : column.getDouble(columnRow);
+    }
+    
+    public double getDouble(String columnLabel) throws SQLException {
+        return getDouble(findColumn(columnLabel));
+    }
+    
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        } else if (value instanceof Integer || value instanceof Long 
+                || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        return new BigDecimal(toNumber(value).toString());
+    }
+    
+    public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+        return getBigDecimal(findColumn(columnLabel));
+    }
+    
+    @Deprecated
+    public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+        BigDecimal value = getBigDecimal(columnIndex);
+        return value == null ? null : value.setScale(scale, BigDecimal.ROUND_HALF_UP);
+    }
+    
+    @Deprecated
+    public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+        return getBigDecimal(findColumn(columnLabel), scale);
+    }
+    
+    public byte[] getBytes(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes();
+    }
+    
+    public byte[] getBytes(String columnLabel) throws SQLException {
+        return getBytes(findColumn(columnLabel));
+    }
+    
+    public Date getDate(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || value instanceof Date) {
+            return (Date) value;
+        } else if (value instanceof java.util.Date) {
+            return new Date(((java.util.Date) value).getTime());
+        }
+        try {
+            return Date.valueOf(value.toString().trim());
+        } catch (IllegalArgumentException e) {
+            SQLException ex = new SQLException("The value " + value + " is not a date");
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+    
+    public Date getDate(String columnLabel) throws SQLException {
+        return getDate(findColumn(columnLabel));
+    }
+    
+    public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+        return getDate(columnIndex);
+    }
+    
+    public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+        return getDate(findColumn(columnLabel));
+    }
+    
+    public Time getTime(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || value instanceof Time) {
+            return (Time) value;
+        } else if (value instanceof java.util.Date) {
+            return new Time(((java.util.Date) value).getTime());
+        }
+        try {
+            return Time.valueOf(value.toString().trim());
+        } catch (IllegalArgumentException e) {
+            SQLException ex = new SQLException("The value " + value + " is not a time");
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+    
+    public Time getTime(String columnLabel) throws SQLException {
+        return getTime(findColumn(columnLabel));
+    }
+    
+    public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+        return getTime(columnIndex);
+    }
+    
+    public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+        return getTime(findColumn(columnLabel));
+    }
+    
+    public Timestamp getTimestamp(int columnIndex) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || value instanceof Timestamp) {
+            return (Timestamp) value;
+        } else if (value instanceof java.util.Date) {
+            return new Timestamp(((java.util.Date) value).getTime());
+        }
+        try {
+            return Timestamp.valueOf(value.toString().trim());
+        } catch (IllegalArgumentException e) {
+            SQLException ex = new SQLException("The value " + value + " is not a timestamp");
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+    
+    public Timestamp getTimestamp(String columnLabel) throws SQLException {
+        return getTimestamp(findColumn(columnLabel));
+    }
+    
+    public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+        return getTimestamp(columnIndex);
+    }
+    
+    public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+        return getTimestamp(findColumn(columnLabel));
+    }
+    
+    public InputStream getAsciiStream(int columnIndex) throws SQLException {
+        byte[] bytes = getBytes(columnIndex);
+        return bytes == null ? null : new ByteArrayInputStream(bytes);
+    }
+    
+    public InputStream getAsciiStream(String columnLabel) throws SQLException {
+        return getAsciiStream(findColumn(columnLabel));
+    }
+    
+    @Deprecated
+    public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Unicode streams are not supported.");
+    }
+    
+    @Deprecated
+    public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Unicode streams are not supported.");
+    }
+    
+    public InputStream getBinaryStream(int columnIndex) throws SQLException {
+        byte[] bytes = getBytes(columnIndex);
+        return bytes == null ? null : new ByteArrayInputStream(bytes);
+    }
+    
+    public InputStream getBinaryStream(String columnLabel) throws SQLException {
+        return getBinaryStream(findColumn(columnLabel));
+    }
+    
+    public Reader getCharacterStream(int columnIndex) throws SQLException {
+        String value = getString(columnIndex);
+        return value == null ? null : new StringReader(value);
+    }
+    
+    public Reader getCharacterStream(String columnLabel) throws SQLException {
+        return getCharacterStream(findColumn(columnLabel));
+    }
+    
+    public Reader getNCharacterStream(int columnIndex) throws SQLException {
+        return getCharacterStream(columnIndex);
+    }
+    
+    public Reader getNCharacterStream(String columnLabel) throws SQLException {
+        return getCharacterStream(findColumn(columnLabel));
+    }
+
+    /**
+     * Returns the value of the given column if it is of the given type. This
+     * is used for the types of values that are stored as they are.
+     */
+    private <T> T getAs(int columnIndex, Class<T> type) throws SQLException {
+        Object value = getObject(columnIndex);
+        if (value == null || type.isInstance(value)) {
+            return type.cast(value);
+        }
+        throw new SQLException("The value of column " + columnIndex + " is a " + 
+                value.getClass().getName() + ", not a " + type.getName());
+    }
+    
+    public Ref getRef(int columnIndex) throws SQLException {
+        return getAs(columnIndex, Ref.class);
+    }
+    
+    public Ref getRef(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), Ref.class);
+    }
+    
+    public Blob getBlob(int columnIndex) throws SQLException {
+        return getAs(columnIndex, Blob.class);
+    }
+    
+    public Blob getBlob(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), Blob.class);
+    }
+    
+    public Clob getClob(int columnIndex) throws SQLException {
+        return getAs(columnIndex, Clob.class);
+    }
+    
+    public Clob getClob(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), Clob.class);
+    }
+    
+    public NClob getNClob(int columnIndex) throws SQLException {
+        return getAs(columnIndex, NClob.class);
+    }
+    
+    public NClob getNClob(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), NClob.class);
+    }
+    
+    public Array getArray(int columnIndex) throws SQLException {
+        return getAs(columnIndex, Array.class);
+    }
+    
+    public Array getArray(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), Array.class);
+    }
+    
+    public URL getURL(int columnIndex) throws SQLException {
+        return getAs(columnIndex, URL.class);
+    }
+    
+    public URL getURL(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), URL.class);
+    }
+    
+    public RowId getRowId(int columnIndex) throws SQLException {
+        return getAs(columnIndex, RowId.class);
+    }
+    
+    public RowId getRowId(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), RowId.class);
+    }
+    
+    public SQLXML getSQLXML(int columnIndex) throws SQLException {
+        return getAs(columnIndex, SQLXML.class);
+    }
+    
+    public SQLXML getSQLXML(String columnLabel) throws SQLException {
+        return getAs(findColumn(columnLabel), SQLXML.class);
+    }
+    
+    public boolean wasNull() throws SQLException {
+        return wasNull;
+    }
+    
+    public int findColumn(String columnLabel) throws SQLException {
+        Integer index = columnLabel == null ? null : 
+            populatedData().columnIndexes.get(columnLabel.toUpperCase());
+        if (index == null) {
+            throw new SQLException("Column " + columnLabel + " not found.");
+        }
+        return index;
+    }
+
+    /**
+     * Returns the meta data of the result set this one was populated from,
+     * or null if it has not been populated yet.
+     */
+    public ResultSetMetaData getMetaData() throws SQLException {
+        Data d = data;
+        return d == null ? null : d.metaData;
+    }
+    
+    // --------------- Cursor movement ------------------
+
+    /**
+     * Moves the cursor to the given row, limited to the positions before the
+     * first and after the last row, and tells if it is on a row.
+     */
+    private boolean moveTo(int row) throws SQLException {
+        int rowCount = populatedData().rowCount;
+        cursor = Math.max(0, Math.min(row, rowCount + 1));
+        return cursor >= 1 && cursor <= rowCount;
+    }
+    
+    public boolean next() throws SQLException {
+        return moveTo(cursor + 1);
+    }
+    
+    public boolean previous() throws SQLException {
+        return moveTo(cursor - 1);
+    }
+    
+    public boolean first() throws SQLException {
+        return moveTo(1);
+    }
+    
+    public boolean last() throws SQLException {
+        return moveTo(populatedData().rowCount);
+    }
+    
+    public void beforeFirst() throws SQLException {
+        moveTo(0);
+    }
+    
+    public void afterLast() throws SQLException {
+        moveTo(populatedData().rowCount + 1);
+    }
+    
+    public boolean absolute(int row) throws SQLException {
+        if (row >= 0) {
+            return moveTo(row);
+        }
+        return moveTo(populatedData().rowCount + 1 + row);
+    }
+    
+    public boolean relative(int rows) throws SQLException {
+        return moveTo(cursor + rows);
+    }
+    
+    public int getRow() throws SQLException {
+        return cursor <= getRowCount() ? cursor : 0;
+    }
+    
+    public boolean isBeforeFirst() throws SQLException {
+        return cursor == 0 && getRowCount() > 0;
+    }
+    
+    public boolean isAfterLast() throws SQLException {
+        return cursor > getRowCount() && getRowCount() > 0;
+    }
+    
+    public boolean isFirst() throws SQLException {
+        return cursor == 1 && getRowCount() > 0;
+    }
+    
+    public boolean isLast() throws SQLException {
+        return cursor == getRowCount() && cursor > 0;
+    }
+    
+    // --------------- Result set properties ------------------
+    
+    public int getType() throws SQLException {
+        return TYPE_SCROLL_INSENSITIVE;
+    }
+    
+    public int getConcurrency() throws SQLException {
+        return CONCUR_READ_ONLY;
+    }
+    
+    public int getHoldability() throws SQLException {
+        return HOLD_CURSORS_OVER_COMMIT;
+    }
+    
+    public void setFetchDirection(int direction) throws SQLException {
+        // the rows are all in memory
+    }
+    
+    public int getFetchDirection() throws SQLException {
+        return FETCH_FORWARD;
+    }
+    
+    public void setFetchSize(int rows) throws SQLException {
+        // the rows are all in memory
+    }
+    
+    public int getFetchSize() throws SQLException {
+        return 0;
+    }
+    
+    public Statement getStatement() throws SQLException {
+        return null;
+    }
+    
+    public String getCursorName() throws SQLException {
+        throw new SQLFeatureNotSupportedException("Columnar result sets have no cursor name.");
+    }
+    
+    public SQLWarning getWarnings() throws SQLException {
+        return null;
+    }
+    
+    public void clearWarnings() throws SQLException {
+        // there are never any warnings
+    }
+
+    /**
+     * Marks this result set closed. The rows stay available to the other
+     * result sets sharing them.
+     */
+    public void close() throws SQLException {
+        closed = true;
+    }
+    
+    public boolean isClosed() throws SQLException {
+        return closed;
+    }
+    
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+    
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+    
+    // --------------- Updates ------------------
+    
+    private static SQLException readOnly() {
+        return new SQLFeatureNotSupportedException("Columnar result sets are read-only.");
+    }
+    
+    public boolean rowUpdated() throws SQLException {
+        return false;
+    }
+    
+    public boolean rowInserted() throws SQLException {
+        return false;
+    }
+    
+    public boolean rowDeleted() throws SQLException {
+        return false;
+    }
+    
+    public void insertRow() throws SQLException {
+        throw readOnly();
+    }
+    
+    public void deleteRow() throws SQLException {
+        throw readOnly();
+    }
+    
+    public void refreshRow() throws SQLException {
+        // the rows never change
+    }
+    
+    public void cancelRowUpdates() throws SQLException {
+        throw readOnly();
+    }
+    
+    public void moveToInsertRow() throws SQLException {
+        throw readOnly();
+    }
+    
+    public void moveToCurrentRow() throws SQLException {
+        // the cursor never leaves the current row
+    }
+    
+    public void updateNull(int columnIndex) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateByte(int columnIndex, byte x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateShort(int columnIndex, short x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateInt(int columnIndex, int x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateLong(int columnIndex, long x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateFloat(int columnIndex, float x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateDouble(int columnIndex, double x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateString(int columnIndex, String x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateDate(int columnIndex, Date x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateTime(int columnIndex, Time x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateTimestamp(int columnIndex, Timestamp x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateCharacterStream(int columnIndex, Reader x, int length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateObject(int columnIndex, Object x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNull(String columnLabel) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateByte(String columnLabel, byte x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateShort(String columnLabel, short x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateInt(String columnLabel, int x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateLong(String columnLabel, long x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateFloat(String columnLabel, float x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateDouble(String columnLabel, double x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateString(String columnLabel, String x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateDate(String columnLabel, Date x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateTime(String columnLabel, Time x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateTimestamp(String columnLabel, Timestamp x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBinaryStream(String columnLabel, InputStream x, int length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateCharacterStream(String columnLabel, Reader x, int length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateObject(String columnLabel, Object x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateRow() throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateRef(int columnIndex, Ref x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateRef(String columnLabel, Ref x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBlob(int columnIndex, Blob x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBlob(String columnLabel, Blob x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateClob(int columnIndex, Clob x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateClob(String columnLabel, Clob x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateArray(int columnIndex, Array x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateArray(String columnLabel, Array x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateRowId(int columnIndex, RowId x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateRowId(String columnLabel, RowId x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNString(int columnIndex, String x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNString(String columnLabel, String x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNClob(int columnIndex, NClob x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNClob(String columnLabel, NClob x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateSQLXML(int columnIndex, SQLXML x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateSQLXML(String columnLabel, SQLXML x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNCharacterStream(String columnLabel, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateAsciiStream(String columnLabel, InputStream x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBinaryStream(String columnLabel, InputStream x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateCharacterStream(String columnLabel, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBlob(int columnIndex, InputStream x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBlob(String columnLabel, InputStream x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateClob(int columnIndex, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateClob(String columnLabel, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNClob(int columnIndex, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNClob(String columnLabel, Reader x, long length) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNCharacterStream(int columnIndex, Reader x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNCharacterStream(String columnLabel, Reader x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateCharacterStream(int columnIndex, Reader x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateCharacterStream(String columnLabel, Reader x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBlob(int columnIndex, InputStream x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateBlob(String columnLabel, InputStream x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateClob(int columnIndex, Reader x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateClob(String columnLabel, Reader x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNClob(int columnIndex, Reader x) throws SQLException {
+        throw readOnly();
+    }
+
+    public void updateNClob(String columnLabel, Reader x) throws SQLException {
+        throw readOnly();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * A copy of the meta data of a result set that stays available after the
+ * result set and its connection are closed. This is the meta data of a
+ * {@link ColumnarResultSet}. It describes the columns the way the original
+ * result set did, except that they are all read-only.
+ */
+class ColumnarResultSetMetaData implements ResultSetMetaData {
+
+    /**
+     * The description of one column of the original result set.
+     */
+    private static class ColumnDescription {
+        String catalogName;
+        String schemaName;
+        String tableName;
+        String name;
+        String label;
+        int type;
+        String typeName;
+        String className;
+        int precision;
+        int scale;
+        int displaySize;
+        int nullable;
+        boolean autoIncrement;
+        boolean caseSensitive;
+        boolean searchable;
+        boolean currency;
+        boolean signed;
+    }
+    
+    private final ColumnDescription[] columns;
+    
+    ColumnarResultSetMetaData(ResultSetMetaData source) throws SQLException {
+        columns = new ColumnDescription[source.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            ColumnDescription column = new ColumnDescription();
+            int index = i + 1;
+            column.catalogName = source.getCatalogName(index);
+            column.schemaName = source.getSchemaName(index);
+            column.tableName = source.getTableName(index);
+            column.name = source.getColumnName(index);
+            column.label = source.getColumnLabel(index);
+            column.type = source.getColumnType(index);
+            column.typeName = source.getColumnTypeName(index);
+            column.className = source.getColumnClassName(index);
+            column.precision = source.getPrecision(index);
+            column.scale = source.getScale(index);
+            column.displaySize = source.getColumnDisplaySize(index);
+            column.nullable = source.isNullable(index);
+            column.autoIncrement = source.isAutoIncrement(index);
+            column.caseSensitive = source.isCaseSensitive(index);
+            column.searchable = source.isSearchable(index);
+            column.currency = source.isCurrency(index);
+            column.signed = source.isSigned(index);
+            columns[i] = column;
+        }
+    }
+    
+    private ColumnDescription column(int column) throws SQLException {
+        if (column < 1 || column > columns.length) {
+            throw new SQLException("Column index " + column + " is out of range.");
+        }
+        return columns[column - 1];
+    }
+
+    public int getColumnCount() throws SQLException {
+        return columns.length;
+    }
+
+    public String getCatalogName(int column) throws SQLException {
+        return column(column).catalogName;
+    }
+
+    public String getSchemaName(int column) throws SQLException {
+        return column(column).schemaName;
+    }
+
+    public String getTableName(int column) throws SQLException {
+        return column(column).tableName;
+    }
+
+    public String getColumnName(int column) throws SQLException {
+        return column(column).name;
+    }
+
+    public String getColumnLabel(int column) throws SQLException {
+        return column(column).label;
+    }
+
+    public int getColumnType(int column) throws SQLException {
+        return column(column).type;
+    }
+
+    public String getColumnTypeName(int column) throws SQLException {
+        return column(column).typeName;
+    }
+
+    public String getColumnClassName(int column) throws SQLException {
+        return column(column).className;
+    }
+
+    public int getPrecision(int column) throws SQLException {
+        return column(column).precision;
+    }
+
+    public int getScale(int column) throws SQLException {
+        return column(column).scale;
+    }
+
+    public int getColumnDisplaySize(int column) throws SQLException {
+        return column(column).displaySize;
+    }
+
+    public int isNullable(int column) throws SQLException {
+        return column(column).nullable;
+    }
+
+    public boolean isAutoIncrement(int column) throws SQLException {
+        return column(column).autoIncrement;
+    }
+
+    public boolean isCaseSensitive(int column) throws SQLException {
+        return column(column).caseSensitive;
+    }
+
+    public boolean isSearchable(int column) throws SQLException {
+        return column(column).searchable;
+    }
+
+    public boolean isCurrency(int column) throws SQLException {
+        return column(column).currency;
+    }
+
+    public boolean isSigned(int column) throws SQLException {
+        return column(column).signed;
+    }
+
+    public boolean isReadOnly(int column) throws SQLException {
+        column(column);
+        return true;
+    }
+
+    public boolean isWritable(int column) throws SQLException {
+        column(column);
+        return false;
+    }
+
+    public boolean isDefinitelyWritable(int column) throws SQLException {
+        column(column);
+        return false;
+    }
+
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+}
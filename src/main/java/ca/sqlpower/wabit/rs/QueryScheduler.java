@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.wabit.rs.ResultSetHandle.ExecutionPriority;
+
+/**
+ * Runs the background work of {@link ResultSetHandle}s. Queries are placed in
+ * a queue per data source and at most a fixed number of queries run against
+ * one data source at the same time, the rest wait in the queue ordered by
+ * their {@link ExecutionPriority} and then by the order they were submitted.
+ * The total number of waiting queries is bounded, submitting a query when the
+ * queue is full throws a {@link RejectedExecutionException}.
+ * <p>
+ * Queries that stay connected to their data source indefinitely, such as
+ * streaming queries, are submitted as long running and do not count against
+ * the data source's limit.
+ * <p>
+ * The limits can be changed with the following system properties:
+ * <ul>
+ * <li><code>ca.sqlpower.wabit.rs.QueryScheduler.maxThreads</code>: the
+ * number of threads running queries, across all data sources (default 8).</li>
+ * <li><code>ca.sqlpower.wabit.rs.QueryScheduler.maxConcurrentPerDataSource</code>:
+ * the number of queries running against one data source (default 4).</li>
+ * <li><code>ca.sqlpower.wabit.rs.QueryScheduler.maxQueued</code>: the number
+ * of queries that can wait to be run, across all data sources (default 256).</li>
+ * </ul>
+ */
+public class QueryScheduler {
+
+	private static final Logger logger = Logger.getLogger(QueryScheduler.class);
+
+	private static final QueryScheduler instance = new QueryScheduler(
+			Integer.getInteger("ca.sqlpower.wabit.rs.QueryScheduler.maxThreads", 8).intValue(),
+			Integer.getInteger("ca.sqlpower.wabit.rs.QueryScheduler.maxConcurrentPerDataSource", 4).intValue(),
+			Integer.getInteger("ca.sqlpower.wabit.rs.QueryScheduler.maxQueued", 256).intValue());
+
+	/**
+	 * Returns the scheduler shared by all {@link ResultSetHandle}s.
+	 */
+	public static QueryScheduler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * A query given to the scheduler. It can be cancelled as long as it has
+	 * not started running.
+	 */
+	public class Ticket implements Comparable<Ticket>, Runnable {
+
+		private final Runnable task;
+		private final Lane lane;
+		private final boolean longRunning;
+		private final long sequence;
+		private final long submitted = System.currentTimeMillis();
+
+		/**
+		 * Only changed while the ticket is waiting in its lane, never once it
+		 * has been handed to the executor whose queue depends on it.
+		 */
+		private volatile ExecutionPriority priority;
+
+		@GuardedBy("QueryScheduler.this")
+		private boolean started = false;
+
+		@GuardedBy("QueryScheduler.this")
+		private boolean cancelled = false;
+
+		private Ticket(Runnable task, Lane lane, ExecutionPriority priority, boolean longRunning) {
+			this.task = task;
+			this.lane = lane;
+			this.priority = priority;
+			this.longRunning = longRunning;
+			this.sequence = sequenceGenerator.incrementAndGet();
+		}
+
+		public int compareTo(Ticket o) {
+			int order = priority.compareTo(o.priority);
+			if (order != 0) return order;
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			lane.metrics.waitTime.addAndGet(start - submitted);
+			try {
+				task.run();
+			} finally {
+				long runTime = System.currentTimeMillis() - start;
+				lane.metrics.runTime.addAndGet(runTime);
+				lane.metrics.completed.incrementAndGet();
+				if (logger.isDebugEnabled()) {
+					logger.debug("Query on " + lane.dataSourceName + " waited " +
+							(start - submitted) + "ms and ran for " + runTime + "ms");
+				}
+				finished(this);
+			}
+		}
+
+		/**
+		 * Removes this query from the queue if it has not started running yet.
+		 *
+		 * @return True if the query was removed and will never run, false if
+		 *         it has already started.
+		 */
+		public boolean cancel() {
+			synchronized (QueryScheduler.this) {
+				if (started) return false;
+				if (!cancelled) {
+					cancelled = true;
+					lane.waiting.remove(this);
+					queued--;
+					lane.metrics.cancelled.incrementAndGet();
+					lane.metrics.queueDepth.set(lane.waiting.size());
+				}
+				return true;
+			}
+		}
+
+		/**
+		 * Raises the priority of this query if it is still waiting to run.
+		 * Lowering the priority is not supported, a query that gets shared
+		 * by an interactive and a background caller keeps the higher one.
+		 */
+		public void raisePriority(@Nonnull ExecutionPriority newPriority) {
+			synchronized (QueryScheduler.this) {
+				if (started || cancelled || newPriority.compareTo(priority) >= 0) return;
+				lane.waiting.remove(this);
+				priority = newPriority;
+				lane.waiting.add(this);
+			}
+		}
+	}
+
+	/**
+	 * Counters describing the queries run against one data source. The times
+	 * are in milliseconds and are totals over all completed queries.
+	 */
+	public static class Metrics {
+		private final AtomicLong submitted = new AtomicLong();
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong cancelled = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong waitTime = new AtomicLong();
+		private final AtomicLong runTime = new AtomicLong();
+		private final AtomicInteger queueDepth = new AtomicInteger();
+		private final AtomicInteger maxQueueDepth = new AtomicInteger();
+		private final AtomicInteger running = new AtomicInteger();
+
+		public long getSubmittedCount() {
+			return submitted.get();
+		}
+
+		public long getCompletedCount() {
+			return completed.get();
+		}
+
+		public long getCancelledCount() {
+			return cancelled.get();
+		}
+
+		public long getRejectedCount() {
+			return rejected.get();
+		}
+
+		public long getTotalWaitTime() {
+			return waitTime.get();
+		}
+
+		public long getTotalRunTime() {
+			return runTime.get();
+		}
+
+		public long getAverageWaitTime() {
+			long count = completed.get();
+			return count == 0 ? 0 : waitTime.get() / count;
+		}
+
+		public long getAverageRunTime() {
+			long count = completed.get();
+			return count == 0 ? 0 : runTime.get() / count;
+		}
+
+		/**
+		 * Returns the number of queries currently waiting to run.
+		 */
+		public int getQueueDepth() {
+			return queueDepth.get();
+		}
+
+		/**
+		 * Returns the largest number of queries that waited to run at the same
+		 * time.
+		 */
+		public int getMaxQueueDepth() {
+			return maxQueueDepth.get();
+		}
+
+		/**
+		 * Returns the number of queries currently running.
+		 */
+		public int getRunningCount() {
+			return running.get();
+		}
+
+		@Override
+		public String toString() {
+			return "submitted=" + getSubmittedCount() + ", completed=" + getCompletedCount() +
+				", cancelled=" + getCancelledCount() + ", rejected=" + getRejectedCount() +
+				", queued=" + getQueueDepth() + ", running=" + getRunningCount() +
+				", avgWait=" + getAverageWaitTime() + "ms, avgRun=" + getAverageRunTime() + "ms";
+		}
+	}
+
+	/**
+	 * The queue of one data source.
+	 */
+	private class Lane {
+		private final String dataSourceName;
+		private final PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>();
+		private final Metrics metrics = new Metrics();
+		private int running = 0;
+		private int maxConcurrent = defaultMaxConcurrent;
+
+		Lane(String dataSourceName) {
+			this.dataSourceName = dataSourceName;
+		}
+	}
+
+	private final AtomicLong sequenceGenerator = new AtomicLong();
+
+	/**
+	 * Runs the queries taken from the lanes. Its queue never holds more
+	 * queries than the sum of the lanes' limits.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Runs the long running queries, which are not limited.
+	 */
+	private final ExecutorService longRunningExecutor;
+
+	@GuardedBy("this")
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+	private final int defaultMaxConcurrent;
+
+	private final int maxQueued;
+
+	/**
+	 * The number of queries waiting in all lanes.
+	 */
+	@GuardedBy("this")
+	private int queued = 0;
+
+	/**
+	 * @param maxThreads
+	 *            The number of threads running queries across all data
+	 *            sources.
+	 * @param maxConcurrentPerDataSource
+	 *            The number of queries allowed to run against one data source
+	 *            at the same time, unless changed for a specific data source.
+	 * @param maxQueued
+	 *            The number of queries allowed to wait to run across all data
+	 *            sources.
+	 */
+	public QueryScheduler(int maxThreads, int maxConcurrentPerDataSource, int maxQueued) {
+		if (maxThreads < 1 || maxConcurrentPerDataSource < 1 || maxQueued < 0) {
+			throw new IllegalArgumentException("Invalid query scheduler limits: threads=" +
+					maxThreads + ", per data source=" + maxConcurrentPerDataSource +
+					", queued=" + maxQueued);
+		}
+		this.defaultMaxConcurrent = maxConcurrentPerDataSource;
+		this.maxQueued = maxQueued;
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Wabit query " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		longRunningExecutor = Executors.newCachedThreadPool(threadFactory);
+	}
+
+	/**
+	 * Queues the given task to run against the named data source.
+	 *
+	 * @param dataSourceName
+	 *            The name of the data source the task queries, used to limit
+	 *            the number of tasks running against it and to group the
+	 *            metrics.
+	 * @param priority
+	 *            Tasks with a higher priority waiting for the same data source
+	 *            run first.
+	 * @param task
+	 *            The work to do.
+	 * @param longRunning
+	 *            If true the task is started right away and is not counted
+	 *            against the data source's limit. Use this for tasks that stay
+	 *            connected to the data source indefinitely.
+	 * @return A ticket that can be used to cancel the task before it starts.
+	 * @throws RejectedExecutionException
+	 *             If the queue is full.
+	 */
+	public Ticket submit(@Nonnull String dataSourceName, @Nonnull ExecutionPriority priority,
+			@Nonnull Runnable task, boolean longRunning) {
+		final Ticket ticket;
+		synchronized (this) {
+			Lane lane = getLane(dataSourceName);
+			lane.metrics.submitted.incrementAndGet();
+			ticket = new Ticket(task, lane, priority, longRunning);
+			if (longRunning) {
+				ticket.started = true;
+				lane.metrics.running.incrementAndGet();
+			} else {
+				if (queued >= maxQueued) {
+					lane.metrics.rejected.incrementAndGet();
+					throw new RejectedExecutionException("Too many queries are waiting to run (" +
+							queued + "), the query on " + dataSourceName + " was not run.");
+				}
+				queued++;
+				lane.waiting.add(ticket);
+				lane.metrics.queueDepth.set(lane.waiting.size());
+				if (lane.waiting.size() > lane.metrics.maxQueueDepth.get()) {
+					lane.metrics.maxQueueDepth.set(lane.waiting.size());
+				}
+				dispatch(lane);
+				return ticket;
+			}
+		}
+		longRunningExecutor.execute(ticket);
+		return ticket;
+	}
+
+	/**
+	 * Starts as many waiting queries of the lane as its limit allows.
+	 */
+	@GuardedBy("this")
+	private void dispatch(Lane lane) {
+		while (lane.running < lane.maxConcurrent && !lane.waiting.isEmpty()) {
+			Ticket next = lane.waiting.poll();
+			queued--;
+			next.started = true;
+			lane.running++;
+			lane.metrics.running.incrementAndGet();
+			executor.execute(next);
+		}
+		lane.metrics.queueDepth.set(lane.waiting.size());
+	}
+
+	/**
+	 * Frees the ticket's place in its lane and starts the next waiting query.
+	 */
+	private synchronized void finished(Ticket ticket) {
+		Lane lane = ticket.lane;
+		lane.metrics.running.decrementAndGet();
+		if (ticket.longRunning) return;
+		lane.running--;
+		dispatch(lane);
+	}
+
+	@GuardedBy("this")
+	private Lane getLane(String dataSourceName) {
+		Lane lane = lanes.get(dataSourceName);
+		if (lane == null) {
+			lane = new Lane(dataSourceName);
+			lanes.put(dataSourceName, lane);
+		}
+		return lane;
+	}
+
+	/**
+	 * Sets the number of queries that can run against the named data source
+	 * at the same time.
+	 */
+	public synchronized void setMaxConcurrency(@Nonnull String dataSourceName, int maxConcurrent) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("At least one query must be able to run.");
+		}
+		Lane lane = getLane(dataSourceName);
+		lane.maxConcurrent = maxConcurrent;
+		dispatch(lane);
+	}
+
+	public synchronized int getMaxConcurrency(@Nonnull String dataSourceName) {
+		Lane lane = lanes.get(dataSourceName);
+		return lane == null ? defaultMaxConcurrent : lane.maxConcurrent;
+	}
+
+	/**
+	 * Returns the metrics of the queries run against the named data source.
+	 */
+	public synchronized Metrics getMetrics(@Nonnull String dataSourceName) {
+		return getLane(dataSourceName).metrics;
+	}
+
+	/**
+	 * Returns the metrics of every data source queried so far, by data source
+	 * name.
+	 */
+	public synchronized Map<String, Metrics> getAllMetrics() {
+		Map<String, Metrics> metrics = new HashMap<String, Metrics>();
+		for (Map.Entry<String, Lane> entry : lanes.entrySet()) {
+			metrics.put(entry.getKey(), entry.getValue().metrics);
+		}
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * Returns the names of the data sources that have queries waiting to run.
+	 */
+	public synchronized List<String> getBusyDataSources() {
+		List<String> names = new ArrayList<String>();
+		for (Lane lane : lanes.values()) {
+			if (!lane.waiting.isEmpty()) {
+				names.add(lane.dataSourceName);
+			}
+		}
+		return names;
+	}
+
+	public synchronized int getQueuedCount() {
+		return queued;
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetStatus;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
+
+/**
+ * Keeps track of the {@link ResultSetHandle}s a {@link ResultSetProducerSupport}
+ * has started so that callers asking for the exact same results can share one
+ * execution instead of each going to the database.
+ * <p>
+ * Entries are keyed by the data source, the query text with all variables
+ * substituted in, the result set type and the row limit. A handle that is
+ * still running is always handed out (in-flight de-duplication), a handle
+ * that completed successfully is handed out until its time to live expires
+ * and a handle that failed is dropped the next time it is looked up.
+ * <p>
+ * The time to live and the maximum number of entries can be changed with the
+ * <code>ca.sqlpower.wabit.rs.ResultSetCache.ttl</code> (in milliseconds) and
+ * <code>ca.sqlpower.wabit.rs.ResultSetCache.maxEntries</code> system
+ * properties. A time to live of 0 only shares handles that are still running.
+ * <p>
+ * Each entry holds a {@link ResultSetHandle#retain() reference} to its
+ * handle. It is released when the entry is evicted, expires or is cleared,
+ * so the handle is cancelled and its spilled rows deleted once no
+ * {@link SharedResultSetHandle} uses it either. Evicted and expired handles
+ * are released by {@link #releaseDropped()} outside of the cache's lock.
+ */
+class ResultSetCache {
+
+	private static final Logger logger = Logger.getLogger(ResultSetCache.class);
+
+	/**
+	 * Default number of milliseconds a completed result set stays in the cache.
+	 */
+	static final long DEFAULT_TTL =
+		Long.getLong("ca.sqlpower.wabit.rs.ResultSetCache.ttl", 30000L).longValue();
+
+	/**
+	 * Default number of entries kept before the least recently used ones
+	 * get evicted.
+	 */
+	static final int DEFAULT_MAX_ENTRIES =
+		Integer.getInteger("ca.sqlpower.wabit.rs.ResultSetCache.maxEntries", 16).intValue();
+
+	/**
+	 * Identifies a set of results. Two keys are equal if executing them would
+	 * send the same query to the same data source.
+	 */
+	@Immutable
+	static final class Key {
+
+		private final String dataSourceName;
+		private final String resolvedQuery;
+		private final ResultSetType type;
+		private final int rowLimit;
+
+		Key(@Nonnull String dataSourceName, @Nonnull String resolvedQuery,
+				@Nonnull ResultSetType type, int rowLimit) {
+			this.dataSourceName = dataSourceName;
+			this.resolvedQuery = resolvedQuery;
+			this.type = type;
+			this.rowLimit = rowLimit;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return rowLimit == other.rowLimit
+				&& type == other.type
+				&& dataSourceName.equals(other.dataSourceName)
+				&& resolvedQuery.equals(other.resolvedQuery);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 17;
+			result = 31 * result + dataSourceName.hashCode();
+			result = 31 * result + resolvedQuery.hashCode();
+			result = 31 * result + type.hashCode();
+			result = 31 * result + rowLimit;
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + dataSourceName + ", " + type + ", " + rowLimit + "] " + resolvedQuery;
+		}
+	}
+
+	/**
+	 * A handle placed in the cache and the time it was placed there.
+	 */
+	private static class Entry {
+		private final ResultSetHandle handle;
+		private final long created;
+
+		Entry(ResultSetHandle handle, long created) {
+			this.handle = handle;
+			this.created = created;
+		}
+	}
+
+	private final long ttl;
+
+	private final int maxEntries;
+
+	/**
+	 * The cached handles, in least recently used order.
+	 */
+	@GuardedBy("this")
+	private final LinkedHashMap<Key, Entry> entries;
+
+	/**
+	 * The handles removed from {@link #entries} that have not been released
+	 * yet.
+	 */
+	@GuardedBy("this")
+	private final List<ResultSetHandle> dropped = new ArrayList<ResultSetHandle>();
+
+	public ResultSetCache() {
+		this(DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param ttl
+	 *            Number of milliseconds a successfully completed handle can be
+	 *            shared after it was placed in the cache.
+	 * @param maxEntries
+	 *            The maximum number of handles to keep. Must be at least 1.
+	 */
+	public ResultSetCache(long ttl, final int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("The cache must be able to hold at least one entry.");
+		}
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Key, Entry>(maxEntries, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				// Anyone sharing an evicted handle still gets its results,
+				// the handle is cancelled when they are done with it.
+				if (size() > maxEntries) {
+					dropped.add(eldest.getValue().handle);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the handle stored for the given key if it is still running or
+	 * completed successfully less than the time to live ago. Stale and failed
+	 * entries are removed and null is returned.
+	 */
+	@Nullable
+	public synchronized ResultSetHandle get(@Nonnull Key key) {
+		Entry entry = entries.get(key);
+		if (entry == null) return null;
+		if (isCurrent(entry)) return entry.handle;
+
+		logger.debug("Dropping " + entry.handle.getStatus() + " result set cache entry " + key);
+		entries.remove(key);
+		dropped.add(entry.handle);
+		return null;
+	}
+	
+	/**
+	 * Returns true if the handle of the given entry can still be shared.
+	 */
+	private boolean isCurrent(Entry entry) {
+		ResultSetStatus status = entry.handle.getStatus();
+		if (status == ResultSetStatus.NEW || status == ResultSetStatus.RUNNING) {
+			return true;
+		}
+		return status == ResultSetStatus.SUCCESS &&
+			System.currentTimeMillis() - entry.created < ttl;
+	}
+
+	/**
+	 * Stores the given handle, which must not be stored yet, and retains it
+	 * for the cache. Entries that can no longer be shared are dropped.
+	 */
+	public synchronized void put(@Nonnull Key key, @Nonnull ResultSetHandle handle) {
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if (!isCurrent(entry)) {
+				it.remove();
+				dropped.add(entry.handle);
+			}
+		}
+		handle.retain();
+		Entry previous = entries.put(key, new Entry(handle, System.currentTimeMillis()));
+		if (previous != null) {
+			dropped.add(previous.handle);
+		}
+	}
+
+	/**
+	 * Releases the handles that were evicted or expired since the last call.
+	 * This must not be called while holding the cache's lock, releasing the
+	 * last reference to a handle cancels it.
+	 */
+	public void releaseDropped() {
+		List<ResultSetHandle> handles;
+		synchronized (this) {
+			if (dropped.isEmpty()) return;
+			handles = new ArrayList<ResultSetHandle>(dropped);
+			dropped.clear();
+		}
+		for (ResultSetHandle rsh : handles) {
+			try {
+				rsh.release();
+			} catch (RuntimeException e) {
+				logger.error("Could not release a cached result set handle", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries from this cache and releases their handles.
+	 *
+	 * @param cancelRunning
+	 *            If true the handles will be cancelled as well. Otherwise
+	 *            they are allowed to complete for the callers already sharing
+	 *            them.
+	 */
+	public void clear(boolean cancelRunning) {
+		List<ResultSetHandle> removed = new ArrayList<ResultSetHandle>();
+		synchronized (this) {
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+				removed.add(it.next().handle);
+				it.remove();
+			}
+		}
+		for (ResultSetHandle rsh : removed) {
+			try {
+				if (cancelRunning) {
+					rsh.cancel();
+				}
+				rsh.release();
+			} catch (RuntimeException e) {
+				logger.error("Could not release a cached result set handle", e);
+			}
+		}
+		releaseDropped();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getTtl() {
+		return ttl;
+	}
+}
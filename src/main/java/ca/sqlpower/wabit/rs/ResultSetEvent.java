@@ -20,6 +20,8 @@
 package ca.sqlpower.wabit.rs;
 
 import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -40,12 +42,44 @@ public class ResultSetEvent {
 
     private final ResultSetHandle source;
 	private final EventType eventType;
+	
+	/**
+	 * The rows a streaming handle received, numbered from
+	 * {@link #startRow}. Null for every other event.
+	 */
+	@Nullable
+	private final List<Object[]> newRows;
+	
+	private final long startRow;
+	
+	private final long firstRetainedRow;
 
     public static ResultSetEvent getNewDataEvent(
     		ResultSetHandle source) 
     {
     	return new ResultSetEvent(EventType.NEW_DATA, source);
     }
+
+	/**
+	 * Creates the event announcing a batch of rows received by a streaming
+	 * handle. The rows are numbered the way {@link RowRingBuffer} numbers
+	 * them.
+	 * 
+	 * @param startRow
+	 *            The number of the first of the new rows.
+	 * @param newRows
+	 *            The rows, in order. They are shared with the handle and must
+	 *            not be modified.
+	 * @param firstRetainedRow
+	 *            The number of the oldest row the handle still keeps. Rows
+	 *            before it have been evicted by the streaming row limit.
+	 */
+    public static ResultSetEvent getNewRowsEvent(
+    		ResultSetHandle source, long startRow, List<Object[]> newRows, long firstRetainedRow) 
+    {
+    	return new ResultSetEvent(EventType.NEW_DATA, source, 
+    			Collections.unmodifiableList(newRows), startRow, firstRetainedRow);
+    }
     
     public static ResultSetEvent getExecutionCompleteEvent(ResultSetHandle source) 
     {
@@ -61,8 +95,29 @@ public class ResultSetEvent {
     		EventType eventType,
             ResultSetHandle source) 
     {
-		this.eventType = eventType;
-        this.source = source;
+    	this(eventType, source, null, -1, -1);
+    }
+    
+    private ResultSetEvent(
+    		EventType eventType,
+    		ResultSetHandle source,
+    		List<Object[]> newRows,
+    		long startRow,
+    		long firstRetainedRow)
+    {
+    	this.eventType = eventType;
+    	this.source = source;
+    	this.newRows = newRows;
+    	this.startRow = startRow;
+    	this.firstRetainedRow = firstRetainedRow;
+    }
+
+    /**
+     * Returns the same event coming from another handle. This is used by
+     * handles that forward the events of the handle they follow.
+     */
+    ResultSetEvent forSource(ResultSetHandle newSource) {
+    	return new ResultSetEvent(eventType, newSource, newRows, startRow, firstRetainedRow);
     }
 
     /**
@@ -88,6 +143,51 @@ public class ResultSetEvent {
     	return this.source;
     }
     
+    /**
+     * Returns true if this is a new data event of a streaming handle that
+     * carries the rows received since its previous new data event.
+     */
+    public boolean hasNewRows() {
+    	return newRows != null;
+    }
+    
+    /**
+     * Returns the rows received by a streaming handle since its previous new
+     * data event, or null if this event does not carry rows.
+     * 
+     * @see #hasNewRows()
+     */
+    @Nullable
+    public List<Object[]> getNewRows() {
+    	return newRows;
+    }
+    
+    /**
+     * Returns the number of the first row of {@link #getNewRows()}, or -1 if
+     * this event does not carry rows.
+     */
+    public long getStartRow() {
+    	return startRow;
+    }
+    
+    /**
+     * Returns the number after the last row of {@link #getNewRows()}, or -1
+     * if this event does not carry rows.
+     */
+    public long getEndRow() {
+    	return newRows == null ? -1 : startRow + newRows.size();
+    }
+    
+    /**
+     * Returns the number of the oldest row the streaming handle still kept
+     * when the rows of this event were delivered. Readers following the rows
+     * should drop the ones before it. Returns -1 if this event does not carry
+     * rows.
+     */
+    public long getFirstRetainedRow() {
+    	return firstRetainedRow;
+    }
+    
     /**
      * Returns the type of this event.
      * @return One value of the {@link EventType} enumeration.
@@ -19,28 +19,29 @@
 
 package ca.sqlpower.wabit.rs;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.io.File;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 
 import net.jcip.annotations.GuardedBy;
 
 import org.apache.log4j.Logger;
 import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
 import org.olap4j.PreparedOlapStatement;
 
 import ca.sqlpower.object.SPVariableHelper;
@@ -58,14 +59,24 @@ import ca.sqlpower.wabit.swingui.ExceptionHandler;
  * This object is a wrapper for a background executing query that will return
  * a {@link ResultSet} once it completes.
  * 
- * All events fired from this object will be fired on the Swing event thread.
+ * All events fired from this object will be fired on the Swing event thread,
+ * unless the handle was created headless. Headless handles fire their events
+ * on the thread that causes them and never touch the Swing event thread, see
+ * {@link #setHeadlessThread(boolean)}.
  */
 public class ResultSetHandle {
 	
 	public enum ResultSetType {
 		OLAP,
 		RELATIONAL,
-		STREAMING
+		STREAMING,
+		
+		/**
+		 * A relational query whose rows are stored column by column in a
+		 * {@link ColumnarResultSet} instead of a {@link CachedRowSet}. The
+		 * rows only become available once they have all been read.
+		 */
+		COLUMNAR
 	}
 	
 	public enum ResultSetStatus {
@@ -75,9 +86,47 @@ public class ResultSetHandle {
 		ERROR
 	}
 	
+	/**
+	 * The order in which waiting queries get run by the {@link QueryScheduler}.
+	 * Queries the user is waiting on in an editor should be
+	 * {@link #INTERACTIVE}, queries refreshing report content are
+	 * {@link #BACKGROUND}.
+	 */
+	public enum ExecutionPriority {
+		INTERACTIVE,
+		BACKGROUND
+	}
+	
 	private final ResultSetType rsType;
 	
-	private ResultSetStatus status = ResultSetStatus.NEW;
+	private volatile ResultSetStatus status = ResultSetStatus.NEW;
+	
+	private ExecutionPriority priority = ExecutionPriority.BACKGROUND;
+	
+	/**
+	 * The name of the data source queried, used by the {@link QueryScheduler}
+	 * to limit the number of queries running against it.
+	 */
+	private final String dataSourceName;
+	
+	/**
+	 * The place of this handle's task in the {@link QueryScheduler}. Null
+	 * until the task is submitted and for tasks run synchronously.
+	 */
+	@GuardedBy("this")
+	private QueryScheduler.Ticket ticket;
+	
+	/**
+	 * The number of holders of this handle's results, for handles shared
+	 * through a {@link ResultSetCache}: the cache entry and every
+	 * {@link SharedResultSetHandle} over it. When the last one lets go the
+	 * handle is cancelled, which deletes any rows it spilled to disk.
+	 */
+	@GuardedBy("this")
+	private int references;
+	
+	@GuardedBy("this")
+	private boolean released;
 	
 	private Exception exception = null;
 
@@ -89,6 +138,39 @@ public class ResultSetHandle {
     
     private static final Logger logger = Logger.getLogger(ResultSetHandle.class);
     
+    /**
+     * Set to true to create every handle headless. This is meant for server
+     * JVMs that never show a user interface.
+     */
+    private static final boolean HEADLESS = 
+    	Boolean.getBoolean("ca.sqlpower.wabit.rs.ResultSetHandle.headless");
+    
+    /**
+     * Marks the threads that create headless handles.
+     * See {@link #setHeadlessThread(boolean)}.
+     */
+    private static final ThreadLocal<Boolean> headlessThread = new ThreadLocal<Boolean>();
+    
+    /**
+     * The number of rows of a relational query kept in memory. The rows after
+     * those are written to segment files in {@link #SPILL_DIRECTORY} and read
+     * back when they are accessed, see
+     * {@link ColumnarResultSet#populate(ResultSet, int, File)}. When this is
+     * set, {@link ResultSetType#RELATIONAL} handles store their rows in a
+     * {@link ColumnarResultSet} as the {@link CachedRowSet} keeps every row
+     * in memory. 0, the default, keeps every row in memory.
+     */
+    private static final int SPILL_THRESHOLD = 
+    	Integer.getInteger("ca.sqlpower.wabit.rs.ResultSetHandle.spillThreshold", 0);
+    
+    /**
+     * The directory the rows after the {@link #SPILL_THRESHOLD} are written
+     * to. Defaults to the temporary file directory.
+     */
+    private static final File SPILL_DIRECTORY = 
+    	new File(System.getProperty("ca.sqlpower.wabit.rs.ResultSetHandle.spillDirectory", 
+    			System.getProperty("java.io.tmpdir")));
+    
     /**
      * This is the internal {@link CachedRowSet} data object.
      * We will populate it on a background thread.
@@ -96,15 +178,50 @@ public class ResultSetHandle {
     private final CachedRowSet cachedRowSet;
     
     /**
-     * This is the internal CellSet object 
+     * The internal data object of {@link ResultSetType#COLUMNAR} handles,
+     * and of relational handles when rows are spilled to disk, which have no
+     * {@link #cachedRowSet}. It is populated on a background thread like the
+     * row set.
      */
-    private CellSet olapCellSet = null;
+    private final ColumnarResultSet columnarResultSet;
     
-    private static ExecutorService executorService;
+    /**
+     * The most recent rows of a {@link ResultSetType#STREAMING} handle, at
+     * most its row limit of them. Null for the other types.
+     */
+    private final RowRingBuffer streamingRows;
     
-    static {
-    	executorService = Executors.newCachedThreadPool();
-    }
+    /**
+     * The columns of the streaming query, null until the query returned its
+     * result set.
+     */
+    @GuardedBy("streamingRows")
+    private ColumnarResultSetMetaData streamingMetaData;
+    
+    /**
+     * The rows of {@link #streamingRows} as a result set, made the first time
+     * they are asked for after new rows came in.
+     */
+    @GuardedBy("streamingRows")
+    private ColumnarResultSet streamingSnapshot;
+    
+    /**
+     * The end row of {@link #streamingRows} when {@link #streamingSnapshot}
+     * was made.
+     */
+    @GuardedBy("streamingRows")
+    private long streamingSnapshotEnd;
+    
+    /**
+     * The number after the last streaming row sent to the listeners.
+     */
+    @GuardedBy("streamingRows")
+    private long deliveredRows;
+    
+    /**
+     * This is the internal CellSet object 
+     */
+    private CellSet olapCellSet = null;
     
     /**
      * All of the listeners will be notified when events happen
@@ -114,47 +231,67 @@ public class ResultSetHandle {
     private final List<ResultSetListener> resultSetListeners = 
     		new CopyOnWriteArrayList<ResultSetListener>();
     
+    /**
+     * Set once the execution complete event has been sent to the listeners.
+     * Listeners added through
+     * {@link #addResultSetListenerAndCheckComplete(ResultSetListener)} after
+     * this point do not get the event and are told so by its return value.
+     */
+    @GuardedBy("resultSetListeners")
+    private boolean completionFired = false;
+    
+    /**
+     * Released once the background task has finished, successfully or not.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+    
+    /**
+     * True if this handle fires its events on the thread causing them instead
+     * of the Swing event thread.
+     */
+    private final boolean headless = isHeadlessThread();
+    
     private InternalRowSetListener internalListener = new InternalRowSetListener();
     
     /**
-     * Internal listener to forward row updates to
-     * our own listeners
+     * Internal listener to forward row updates to our own listeners. When
+     * rows come in and no delivery is pending, one delivery is posted to the
+     * Swing event thread which announces every row that came in until it
+     * runs. A busy event thread gets fewer and larger batches of rows instead
+     * of falling behind. Headless handles announce the rows that came in once
+     * when the execution is complete.
      */
     private class InternalRowSetListener implements RowSetChangeListener {
     	
-    	private AtomicBoolean hasUpdates = new AtomicBoolean(false);
+    	private final AtomicBoolean hasUpdates = new AtomicBoolean(false);
     	
-    	private final Timer timer = new Timer(500, new ActionListener() {
-			
-    		public void actionPerformed(ActionEvent e) {
-				
-				if (hasUpdates.get()) {
-					
-					final ResultSetEvent rse = ResultSetEvent.getNewDataEvent(
-							ResultSetHandle.this);
-					
-					for (ResultSetListener listener : resultSetListeners) {
-						listener.newData(rse);
-					}
-				
-					hasUpdates.set(false);
-				}
-			}
-		});
+    	/**
+    	 * Called on the thread adding rows whenever a row was added.
+    	 */
+    	void rowsAdded() {
+    		if (!hasUpdates.getAndSet(true) && !headless) {
+    			SwingUtilities.invokeLater(new Runnable() {
+    				public void run() {
+    					fireNewDataIfUpdated();
+    				}
+    			});
+    		}
+    	}
     	
-    	public InternalRowSetListener() {
-    		this.timer.setInitialDelay(0);
-    		this.timer.setCoalesce(true);
-    		this.timer.setRepeats(true);
-    		this.timer.start();
+    	private void fireNewDataIfUpdated() {
+    		if (hasUpdates.getAndSet(false)) {
+    			fireNewRows();
+    		}
     	}
     	
     	public void cleanup() {
-    		this.timer.stop();
+    		if (headless) {
+    			fireNewDataIfUpdated();
+    		}
     	}
     	
 		public void rowAdded(RowSetChangeEvent e) {
-			hasUpdates.set(true);
+			rowsAdded();
 		}
 	};
 	
@@ -196,16 +333,32 @@ public class ResultSetHandle {
     		throw new NullPointerException("Variables Context cannot be null");
     	}
     	
+    	this.dataSourceName = dataSource == null ? "" : dataSource.getName();
     	this.rowLimit = rowLimit;
     	this.rsType = type;
     	
     	if (this.rsType.equals(ResultSetType.OLAP)) {
     		this.cachedRowSet = new OlapResultSet();
+    		this.columnarResultSet = null;
+    		this.streamingRows = null;
+    	} else if (this.rsType.equals(ResultSetType.STREAMING)) {
+    		this.cachedRowSet = null;
+    		this.columnarResultSet = null;
+    		this.streamingRows = new RowRingBuffer(rowLimit);
+    	} else if (this.rsType.equals(ResultSetType.COLUMNAR) 
+    			|| (this.rsType.equals(ResultSetType.RELATIONAL) && SPILL_THRESHOLD > 0)) {
+    		this.cachedRowSet = null;
+    		this.columnarResultSet = new ColumnarResultSet();
+    		this.streamingRows = null;
     	} else {
     		this.cachedRowSet = new CachedRowSet();
+    		this.columnarResultSet = null;
+    		this.streamingRows = null;
     	}
     	
-    	this.cachedRowSet.addRowSetListener(this.internalListener);
+    	if (this.cachedRowSet != null) {
+    		this.cachedRowSet.addRowSetListener(this.internalListener);
+    	}
     	
     	// Create a threaded object that will execute this query
     	// in the background
@@ -234,6 +387,7 @@ public class ResultSetHandle {
     		throw new NullPointerException("Variables Context cannot be null");
     	}
     	
+    	this.dataSourceName = dataSource == null ? "" : dataSource.getName();
     	this.rowLimit = rowLimit;
     	this.rsType = type;
     	
@@ -242,6 +396,8 @@ public class ResultSetHandle {
     	} else {
     		this.cachedRowSet = new CachedRowSet();
     	}
+    	this.columnarResultSet = null;
+    	this.streamingRows = null;
     	
     	this.cachedRowSet.addRowSetListener(this.internalListener);
     	
@@ -256,6 +412,22 @@ public class ResultSetHandle {
 						injectedHandler);
 	}
 
+    /**
+     * Creates a handle that does not execute a query of its own. This is used
+     * by {@link SharedResultSetHandle} which obtains its results from another
+     * handle.
+     */
+    ResultSetHandle(ResultSetType type, int rowLimit) {
+    	this.dataSourceName = "";
+    	this.rowLimit = rowLimit;
+    	this.rsType = type;
+    	this.cachedRowSet = null;
+    	this.columnarResultSet = null;
+    	this.streamingRows = null;
+    	this.task = null;
+    	this.internalListener.cleanup();
+    }
+
 	private class Task implements Runnable {
     	
 		private PreparedStatement statement = null;
@@ -318,18 +490,11 @@ public class ResultSetHandle {
        
             	final ResultSetEvent evt = 
         			ResultSetEvent.getExecutionStartedEvent(ResultSetHandle.this);
-            	Runnable runnable = new Runnable() {
+            	deliverEvent(new Runnable() {
         			public void run() {
-    					for (ResultSetListener listener : resultSetListeners) {
-    						listener.executionStarted(evt);
-    					}
+        				fireExecutionStarted(evt);
         			}
-        		};
-        		if (SwingUtilities.isEventDispatchThread()) {
-        			runnable.run();
-        		} else {
-        			SwingUtilities.invokeLater(runnable);
-        		}
+        		});
         		
         		switch (rsType) {
         		
@@ -339,6 +504,7 @@ public class ResultSetHandle {
                 		
             		case RELATIONAL:
             		case STREAMING:
+            		case COLUMNAR:
             			statement = sqlConnectionProvider.createPreparedStatement(jdbcDataSource, query, variablesContext);
             			break;
             			
@@ -358,7 +524,9 @@ public class ResultSetHandle {
                 	case STREAMING:
                 		statement.execute();
                 		final ResultSet streamingRS = statement.getResultSet();
-            			cachedRowSet.follow(streamingRS, rowLimit);
+                		if (streamingRS != null) {
+                			follow(streamingRS);
+                		}
             			status = ResultSetStatus.SUCCESS;
             			break;
                 	
@@ -366,11 +534,24 @@ public class ResultSetHandle {
                 		statement.setMaxRows(rowLimit);
                 		statement.execute();
                 		final ResultSet rs = statement.getResultSet();
-                		if (rs != null) {
+                		if (rs != null && columnarResultSet != null) {
+                			columnarResultSet.populate(rs, SPILL_THRESHOLD, SPILL_DIRECTORY);
+                		} else if (rs != null) {
                 			cachedRowSet.populate(rs);                			                			
                 		}
                 		status = ResultSetStatus.SUCCESS;
                 		break;
+                		
+                	case COLUMNAR:
+                		statement.setMaxRows(rowLimit);
+                		statement.execute();
+                		final ResultSet columnarRS = statement.getResultSet();
+                		if (columnarRS != null) {
+                			columnarResultSet.populate(columnarRS, SPILL_THRESHOLD, SPILL_DIRECTORY);
+                		}
+                		status = ResultSetStatus.SUCCESS;
+                		break;
+                		
                 	default:
             			throw new RuntimeException("Program error.");
             	}
@@ -384,31 +565,75 @@ public class ResultSetHandle {
             } finally {
             	try {
             		if (statement != null) {
+            			Connection connection = statement.getConnection();
             			statement.close();
+            			// Returns the connection to its data source's pool.
+            			if (rsType == ResultSetType.OLAP) {
+            				olapConnectionProvider.releaseConnection(olapDataSource,
+            						(OlapConnection) connection, status == ResultSetStatus.ERROR);
+            			} else {
+            				connection.close();
+            			}
                 	}
             		ResultSetHandle.this.internalListener.cleanup();
             	} catch (Exception eX) {
             		logger.debug("Exception ecountered while closing the statement's connection", eX);
             	} finally {
+            		done.countDown();
             		final ResultSetEvent evt = 
             			ResultSetEvent.getExecutionCompleteEvent(ResultSetHandle.this);
-            		Runnable task = new Runnable() {
+            		deliverEvent(new Runnable() {
             			public void run() {
-        					for (ResultSetListener listener : resultSetListeners) {
-        						listener.executionComplete(evt);
-        					}
+            				fireExecutionComplete(evt);
             			}
-            		};
-            		if (SwingUtilities.isEventDispatchThread()) {
-            			task.run();
-            		} else {
-            			SwingUtilities.invokeLater(task);
-            		}
+            		});
             	}
             }
         }
     }
 
+	/**
+	 * Reads the rows of a streaming query into {@link #streamingRows} as they
+	 * arrive, until the query ends or is cancelled.
+	 */
+	private void follow(ResultSet rs) throws SQLException {
+		ColumnarResultSetMetaData metaData = new ColumnarResultSetMetaData(rs.getMetaData());
+		synchronized (streamingRows) {
+			streamingMetaData = metaData;
+			streamingSnapshot = null;
+		}
+		int columnCount = metaData.getColumnCount();
+		while (rs.next()) {
+			Object[] row = new Object[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				row[i] = rs.getObject(i + 1);
+			}
+			streamingRows.add(row);
+			internalListener.rowsAdded();
+		}
+	}
+
+	/**
+	 * Tells the listeners about the rows that came in since they were last
+	 * told. The events of streaming handles carry the new rows, nothing is
+	 * fired if every row was already announced.
+	 */
+	private void fireNewRows() {
+		if (streamingRows == null) {
+			fireNewData(ResultSetEvent.getNewDataEvent(this));
+			return;
+		}
+		ResultSetEvent evt;
+		synchronized (streamingRows) {
+			long start = Math.max(deliveredRows, streamingRows.getStartRow());
+			List<Object[]> rows = streamingRows.getRows(start, streamingRows.getEndRow());
+			if (rows.isEmpty()) return;
+			deliveredRows = start + rows.size();
+			evt = ResultSetEvent.getNewRowsEvent(this, start, rows, streamingRows.getStartRow());
+		}
+		fireNewData(evt);
+	}
+
 	/**
      * Triggers the population of this handle.
      */
@@ -421,7 +646,7 @@ public class ResultSetHandle {
     	
     	// Streaming queries are always async.
     	if (this.rsType.equals(ResultSetType.STREAMING)) {
-    		executorService.execute(task);
+    		schedule(true);
     		return;
     	}
     	
@@ -430,12 +655,121 @@ public class ResultSetHandle {
 						System.getProperty("ca.sqlpower.wabit.rs.ResultSetHandle.forceSync"));
     	
     	if (async && !forceSync) {
-    		executorService.execute(task);
+    		schedule(false);
     		return;
     	} else {
     		task.run();
     	}
     }
+    
+    /**
+     * Hands the task to the {@link QueryScheduler}. If the scheduler's queue
+     * is full the handle fails right away.
+     */
+    private void schedule(boolean longRunning) {
+    	try {
+    		synchronized (this) {
+    			ticket = QueryScheduler.getInstance().submit(dataSourceName, priority, task, longRunning);
+    		}
+    	} catch (RejectedExecutionException e) {
+    		logger.warn("Query on " + dataSourceName + " was rejected", e);
+    		abort(e);
+    	}
+    }
+    
+    /**
+     * Marks this handle as failed without its task having run and notifies
+     * the listeners the execution is complete.
+     */
+    private void abort(Exception cause) {
+    	SQLException e = new SQLException(cause.getMessage());
+    	e.initCause(cause);
+    	exception = e;
+    	status = ResultSetStatus.ERROR;
+    	internalListener.cleanup();
+    	done.countDown();
+    	final ResultSetEvent evt = ResultSetEvent.getExecutionCompleteEvent(this);
+    	if (headless) {
+    		fireExecutionComplete(evt);
+    	} else {
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				fireExecutionComplete(evt);
+    			}
+    		});
+    	}
+    }
+    
+    /**
+     * Runs the given event delivery on the Swing event thread, right away if
+     * the current thread is the event thread. Headless handles run it right
+     * away on the current thread.
+     */
+    void deliverEvent(Runnable delivery) {
+    	if (headless || SwingUtilities.isEventDispatchThread()) {
+    		delivery.run();
+    	} else {
+    		SwingUtilities.invokeLater(delivery);
+    	}
+    }
+    
+    /**
+     * Marks the current thread as one that must not touch the Swing event
+     * thread. Handles created on a headless thread fire their events on the
+     * thread causing them, which can be a {@link QueryScheduler} thread, and
+     * announce new rows only once they are complete. This is used to render
+     * reports on server threads.
+     */
+    public static void setHeadlessThread(boolean headless) {
+    	if (headless) {
+    		headlessThread.set(Boolean.TRUE);
+    	} else {
+    		headlessThread.remove();
+    	}
+    }
+    
+    /**
+     * Returns true if handles created on the current thread are headless.
+     * This is the case for threads marked with
+     * {@link #setHeadlessThread(boolean)} and for every thread if the system
+     * property <code>ca.sqlpower.wabit.rs.ResultSetHandle.headless</code> is
+     * true.
+     */
+    public static boolean isHeadlessThread() {
+    	return HEADLESS || Boolean.TRUE.equals(headlessThread.get());
+    }
+    
+    /**
+     * Returns true if this handle fires its events on the thread causing them
+     * instead of the Swing event thread.
+     */
+    public boolean isHeadless() {
+    	return headless;
+    }
+    
+    /**
+     * Sets the priority this handle's query gets in the {@link QueryScheduler}.
+     * Once the handle is populated the priority can only be raised, and only
+     * while the query is still waiting to run.
+     */
+    public void setPriority(@Nonnull ExecutionPriority priority) {
+    	synchronized (this) {
+    		if (ticket == null) {
+    			if (!populated) {
+    				this.priority = priority;
+    			}
+    			return;
+    		}
+    		if (priority.compareTo(this.priority) < 0) {
+    			this.priority = priority;
+    			ticket.raisePriority(priority);
+    		}
+    	}
+    }
+    
+    public ExecutionPriority getPriority() {
+    	return priority;
+    }
 
     /**
      * The added listener will be notified when all of the streaming queries have stopped.
@@ -452,6 +786,51 @@ public class ResultSetHandle {
     public void removeResultSetListener(ResultSetListener l) {
         resultSetListeners.remove(l);
     }
+
+    /**
+     * Adds the listener like {@link #addResultSetListener(ResultSetListener)}
+     * and tells if the listeners of this handle have already been notified
+     * that the execution is complete. If this returns true the given listener
+     * will not receive an execution complete event from this handle, if it
+     * returns false it will receive exactly one.
+     */
+    boolean addResultSetListenerAndCheckComplete(@Nonnull ResultSetListener l) {
+    	synchronized (resultSetListeners) {
+    		resultSetListeners.add(l);
+    		return completionFired;
+    	}
+    }
+
+    /**
+     * Blocks until the background task of this handle has finished running.
+     * The listeners may not have been notified yet when this method returns.
+     */
+    void awaitCompletion() throws InterruptedException {
+    	done.await();
+    }
+    
+    void fireExecutionStarted(ResultSetEvent evt) {
+    	for (ResultSetListener listener : resultSetListeners) {
+    		listener.executionStarted(evt);
+    	}
+    }
+    
+    void fireNewData(ResultSetEvent evt) {
+    	for (ResultSetListener listener : resultSetListeners) {
+    		listener.newData(evt);
+    	}
+    }
+    
+    void fireExecutionComplete(ResultSetEvent evt) {
+    	List<ResultSetListener> listeners;
+    	synchronized (resultSetListeners) {
+    		completionFired = true;
+    		listeners = new ArrayList<ResultSetListener>(resultSetListeners);
+    	}
+    	for (ResultSetListener listener : listeners) {
+    		listener.executionComplete(evt);
+    	}
+    }
     
     /**
      * Gets a {@link ResultSet} from this handle.
@@ -467,8 +846,65 @@ public class ResultSetHandle {
      * this object by registering a {@link ResultSetListener}
      */
     public ResultSet getResultSet() {
+    	if (this.columnarResultSet != null) {
+    		return this.columnarResultSet;
+    	} else if (this.streamingRows != null) {
+    		return getStreamingSnapshot();
+    	}
         return this.cachedRowSet;
     }
+
+	/**
+	 * Returns the number of rows in the result set of this handle, whichever
+	 * kind of result set stores them, or 0 if there is none yet.
+	 */
+    public int getRowCount() {
+    	ResultSet rs = getResultSet();
+    	if (rs instanceof ColumnarResultSet) {
+    		return ((ColumnarResultSet) rs).getRowCount();
+    	} else if (rs instanceof CachedRowSet) {
+    		return ((CachedRowSet) rs).getData().size();
+    	}
+    	return 0;
+    }
+
+	/**
+	 * Returns the rows a streaming handle has kept so far as a result set. The
+	 * rows are copied into a new result set only when new rows came in since
+	 * the last call, readers following the stream should use the rows of the
+	 * new data events or {@link #getStreamingRows()} instead. The result set
+	 * is not populated, and has no meta data, until the query has started
+	 * returning rows.
+	 */
+    private ResultSet getStreamingSnapshot() {
+    	synchronized (streamingRows) {
+    		long end = streamingRows.getEndRow();
+    		if (streamingSnapshot == null || streamingSnapshotEnd != end) {
+    			ColumnarResultSet snapshot = new ColumnarResultSet();
+    			if (streamingMetaData != null) {
+    				try {
+    					snapshot.populate(streamingMetaData, 
+    							streamingRows.getRows(streamingRows.getStartRow(), end));
+    				} catch (SQLException e) {
+    					throw new RuntimeException("Could not copy the rows of a streaming query", e);
+    				}
+    			}
+    			streamingSnapshot = snapshot;
+    			streamingSnapshotEnd = end;
+    		}
+    		return streamingSnapshot;
+    	}
+    }
+
+	/**
+	 * Returns the most recent rows of a {@link ResultSetType#STREAMING}
+	 * handle, at most its row limit of them, or null for the other types.
+	 * The rows are arrays of the values of every column in order.
+	 */
+    @Nullable
+    public RowRingBuffer getStreamingRows() {
+    	return this.streamingRows;
+    }
     
     /**
      * This method will block and return the CellSet object as soon as the
@@ -483,15 +919,56 @@ public class ResultSetHandle {
     }
     
     /**
-     * Cancels this 
+     * Cancels this handle's query if it is still waiting or running, and
+     * deletes the files of any rows that were spilled to disk.
      */
     public void cancel() {
+    	QueryScheduler.Ticket waitingTicket;
+    	synchronized (this) {
+    		waitingTicket = ticket;
+    	}
+    	if (waitingTicket != null && status == ResultSetStatus.NEW && waitingTicket.cancel()) {
+    		// The query was still waiting for its turn and will never run.
+    		abort(new Exception("The query was cancelled before it started."));
+    		return;
+    	}
     	if (this.isRunning()) {
     		this.task.cancel();
     	}
+    	if (this.columnarResultSet != null) {
+    		this.columnarResultSet.releaseSpillFiles();
+    	}
     	this.internalListener.cleanup();
     }
     
+    /**
+     * Adds a holder of this handle's results. Every call must be matched by
+     * a call to {@link #release()}.
+     * 
+     * @throws IllegalStateException
+     *             If every holder already released the handle.
+     */
+    synchronized void retain() {
+    	if (released) {
+    		throw new IllegalStateException("The results of this handle were already released.");
+    	}
+    	references++;
+    }
+
+	/**
+	 * Removes a holder of this handle's results added by {@link #retain()}.
+	 * When the last holder is removed the handle is cancelled, which also
+	 * deletes the files of any rows that were spilled to disk.
+	 */
+    void release() {
+    	synchronized (this) {
+    		if (released || --references > 0) return;
+    		released = true;
+    	}
+    	logger.debug("Releasing the results of a shared result set handle");
+    	cancel();
+    }
+    
     /**
      * Returns true if at least one of the distributed handles is still running.
      */
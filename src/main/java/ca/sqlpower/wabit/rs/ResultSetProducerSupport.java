@@ -28,21 +28,31 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.swing.SwingUtilities;
 
+import org.apache.log4j.Logger;
+
 import ca.sqlpower.object.SPVariableHelper;
 import ca.sqlpower.object.SPVariableResolver;
 import ca.sqlpower.sql.JDBCDataSource;
 import ca.sqlpower.sql.Olap4jDataSource;
+import ca.sqlpower.sql.SPDataSource;
 import ca.sqlpower.wabit.OlapConnectionProvider;
 import ca.sqlpower.wabit.SqlConnectionProvider;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ExecutionPriority;
 import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
 
 
 /**
  * Convenient implementation support for the {@link ResultSetProducer} interface.
- * 
- * 
+ * <p>
+ * Handles for non-streaming queries are shared through a {@link ResultSetCache}:
+ * executing the same query against the same data source with the same
+ * variable values while a previous execution is still running, or shortly
+ * after it completed, joins that execution instead of querying the database
+ * again. The cache is cleared every time the producer's structure changes.
  */
 public class ResultSetProducerSupport {
+	
+	private static final Logger logger = Logger.getLogger(ResultSetProducerSupport.class);
 
 	private final List<ResultSetHandle> handles = new CopyOnWriteArrayList<ResultSetHandle>();
 	
@@ -58,7 +68,7 @@ public class ResultSetProducerSupport {
 	     */
 		public void executionComplete(ResultSetEvent evt) {
 			// We get called here when one of our handles has completed it's work.
-			ResultSetProducerSupport.this.fireExecutionComplete();
+			ResultSetProducerSupport.this.fireExecutionComplete(evt.getSourceHandle().isHeadless());
 		}
 		
 		/**
@@ -70,12 +80,19 @@ public class ResultSetProducerSupport {
 		}
 		
 		public void executionStarted(ResultSetEvent evt) {
-			fireExecutionStarted();
+			fireExecutionStarted(evt.getSourceHandle().isHeadless());
 		}
 	};
 
 	private final ResultSetProducer source;
 	
+	/**
+	 * The executions that can be shared by the handles this object gives out.
+	 * The handles in this cache are never given out directly, each caller gets
+	 * its own {@link SharedResultSetHandle} over them.
+	 */
+	private final ResultSetCache cache = new ResultSetCache();
+	
 	
 	/**
 	 * Constructs a helper object that will keep track of all
@@ -131,6 +148,8 @@ public class ResultSetProducerSupport {
      * @param isStreaming Whether or not this is a streaming query.
      * @param rowLimit The row limit for queries 
      * @param listener A listener to bind to the {@link ResultSetHandle}
+     * @param priority The order in which the query gets run compared to other
+     * queries waiting for the same data source.
      * @return An executing {@link ResultSetHandle}
      * @throws SQLException
      */
@@ -142,30 +161,22 @@ public class ResultSetProducerSupport {
     		@Nonnull final ResultSetType type,
             final int rowLimit,
             @Nullable final ResultSetListener listener,
-            boolean async) throws SQLException
+            boolean async,
+            @Nonnull ExecutionPriority priority) throws SQLException
     {
-    		
-		ResultSetHandle rsh = 
-			new ResultSetHandle(
-					connectionProvider,
-					dataSource,
-					query,
-					variablesContext,
-					type,
-					rowLimit,
-					null);
-		
-		rsh.addResultSetListener(internalListener);
-		if (listener != null) {
-			rsh.addResultSetListener(listener);
-		}
-		
-		// Save this new one
-		this.handles.add(rsh);
-		
-		rsh.populate(async);
-		
-		return rsh;
+    	ResultSetCache.Key key = createCacheKey(dataSource, query, variablesContext, type, rowLimit);
+    	return execute(key, new HandleFactory() {
+    		public ResultSetHandle createHandle() {
+    			return new ResultSetHandle(
+    					connectionProvider,
+    					dataSource,
+    					query,
+    					variablesContext,
+    					type,
+    					rowLimit,
+    					null);
+    		}
+    	}, listener, async, priority);
     }
     
     /**
@@ -181,6 +192,8 @@ public class ResultSetProducerSupport {
      * @param isStreaming Whether or not this is a streaming query.
      * @param rowLimit The row limit for queries 
      * @param listener A listener to bind to the {@link ResultSetHandle}
+     * @param priority The order in which the query gets run compared to other
+     * queries waiting for the same data source.
      * @return An executing {@link ResultSetHandle}
      * @throws SQLException
      */
@@ -192,19 +205,87 @@ public class ResultSetProducerSupport {
     		@Nonnull final ResultSetType type,
             final int rowLimit,
             @Nullable final ResultSetListener listener,
-            boolean async) throws SQLException
+            boolean async,
+            @Nonnull ExecutionPriority priority) throws SQLException
     {
-		ResultSetHandle rsh = 
-			new ResultSetHandle(
-					connectionProvider,
-					dataSource,
-					query,
-					variablesContext,
-					type,
-					rowLimit,
-					null);
-		
-		rsh.addResultSetListener(internalListener);
+    	ResultSetCache.Key key = createCacheKey(dataSource, query, variablesContext, type, rowLimit);
+    	return execute(key, new HandleFactory() {
+    		public ResultSetHandle createHandle() {
+    			return new ResultSetHandle(
+    					connectionProvider,
+    					dataSource,
+    					query,
+    					variablesContext,
+    					type,
+    					rowLimit,
+    					null);
+    		}
+    	}, listener, async, priority);
+    }
+    
+    /**
+     * Creates the handles of one of the execute methods, which differ only in
+     * the kind of data source they query.
+     */
+    private interface HandleFactory {
+    	ResultSetHandle createHandle();
+    }
+
+	/**
+	 * Gives the caller a handle over the results of a query. If the results
+	 * can be shared they are taken from the {@link ResultSetCache}, starting
+	 * a new execution only if there is none to share. Otherwise a new handle
+	 * is executed for the caller alone.
+	 * 
+	 * @param key
+	 *            The key of the results in the cache, null if they must not
+	 *            be shared.
+	 * @param factory
+	 *            Creates the handle executing the query when a new execution
+	 *            is needed.
+	 */
+    private ResultSetHandle execute(
+    		@Nullable ResultSetCache.Key key,
+    		@Nonnull HandleFactory factory,
+    		@Nullable ResultSetListener listener,
+    		boolean async,
+    		@Nonnull ExecutionPriority priority)
+    {
+    	if (key != null) {
+    		ResultSetHandle cached;
+    		SharedResultSetHandle shared;
+    		boolean created = false;
+    		synchronized (cache) {
+    			cached = cache.get(key);
+    			if (cached == null) {
+    				cached = factory.createHandle();
+    				cache.put(key, cached);
+    				created = true;
+    			}
+    			// Retained while the cache still holds the handle, so it
+    			// cannot be released in between.
+    			shared = new SharedResultSetHandle(cached);
+    		}
+    		cache.releaseDropped();
+    		cached.setPriority(priority);
+    		return populateShared(shared, cached, created, listener, async);
+    	}
+    	
+    	ResultSetHandle rsh = factory.createHandle();
+    	rsh.setPriority(priority);
+    	return populate(rsh, listener, async);
+    }
+    
+    /**
+     * Registers the listeners on a new handle, keeps track of it and starts
+     * its execution.
+     */
+    private ResultSetHandle populate(
+    		@Nonnull ResultSetHandle rsh,
+    		@Nullable ResultSetListener listener,
+    		boolean async)
+    {
+    	rsh.addResultSetListener(internalListener);
 		if (listener != null) {
 			rsh.addResultSetListener(listener);
 		}
@@ -216,11 +297,69 @@ public class ResultSetProducerSupport {
 		
 		return rsh;
     }
+
+	/**
+	 * Gives the caller its own handle over a cached execution. If the cached
+	 * handle was just created its execution is started once the caller's
+	 * handle is listening to it.
+	 */
+    private ResultSetHandle populateShared(
+    		@Nonnull SharedResultSetHandle rsh,
+    		@Nonnull ResultSetHandle cached,
+    		boolean created,
+    		@Nullable ResultSetListener listener,
+    		boolean async)
+    {
+    	if (created) {
+    		// Join first so the shared handle sees the execution start.
+    		populate(rsh, listener, true);
+    		cached.populate(async);
+    		return rsh;
+    	}
+    	return populate(rsh, listener, async);
+    }
+
+	/**
+	 * Creates the key identifying the results of the given query in the
+	 * {@link ResultSetCache}. The key contains the query with the current
+	 * values of its variables substituted in, so the same query with
+	 * different variable values gives different keys. Returns null if the
+	 * results must not be shared, which is the case for streaming queries.
+	 */
+    @Nullable
+    private ResultSetCache.Key createCacheKey(
+    		@Nullable SPDataSource dataSource,
+    		@Nonnull String query,
+    		@Nonnull SPVariableHelper variablesContext,
+    		@Nonnull ResultSetType type,
+    		int rowLimit)
+    {
+    	if (dataSource == null || type == ResultSetType.STREAMING) {
+    		return null;
+    	}
+    	try {
+    		String resolvedQuery = SPVariableHelper.substitute(query, variablesContext);
+    		return new ResultSetCache.Key(dataSource.getName(), resolvedQuery, type, rowLimit);
+    	} catch (Exception e) {
+    		logger.debug("Could not resolve the variables of a query, it will not be shared.", e);
+    		return null;
+    	}
+    }
+    
+    /**
+     * Forgets about all previous executions so the next call to execute
+     * will query the data source again. Executions that are still running
+     * are allowed to complete for the handles already given out.
+     */
+    public void invalidateCache() {
+    	cache.clear(false);
+    }
     
     /**
      * Cancels the execution of every handle.
      */
     public void cancel() {
+    	cache.clear(true);
     	Throwable rethrown = null;
 		for (ResultSetHandle rsh : this.handles) {
 			try {
@@ -240,7 +379,8 @@ public class ResultSetProducerSupport {
      * changed and the subsequent handles will be different.
      */
 	public synchronized void fireStructureChanged() {
-		SwingUtilities.invokeLater(new Runnable() {
+		invalidateCache();
+		deliver(ResultSetHandle.isHeadlessThread(), new Runnable() {
 			public void run() {
 				for (ResultSetProducerListener rspl : ResultSetProducerSupport.this.listeners) {
 					rspl.structureChanged(new ResultSetProducerEvent(source));
@@ -249,6 +389,18 @@ public class ResultSetProducerSupport {
 		});
 	}
 	
+	/**
+	 * Fires producer events later on the Swing event thread, or right away
+	 * for events caused by headless handles.
+	 */
+	private static void deliver(boolean headless, Runnable delivery) {
+		if (headless) {
+			delivery.run();
+		} else {
+			SwingUtilities.invokeLater(delivery);
+		}
+	}
+	
 	/**
 	 * This method will determine if the execution is in fact started and
 	 * will fire required events if necessary.
@@ -257,7 +409,16 @@ public class ResultSetProducerSupport {
 	 * the {@link ResultSetProducerStatusInformant} passed at construction
 	 * time will be asked to report on the current status of the execution.
 	 */
-	public synchronized void fireExecutionStarted() {
+	public void fireExecutionStarted() {
+		fireExecutionStarted(ResultSetHandle.isHeadlessThread());
+	}
+	
+	/**
+	 * Fires the execution started event if the execution is in fact started.
+	 * Headless events are fired on the current thread instead of the Swing
+	 * event thread.
+	 */
+	private synchronized void fireExecutionStarted(boolean headless) {
 		
 		boolean isRunning = false;
 
@@ -270,7 +431,7 @@ public class ResultSetProducerSupport {
 		isRunning |= isRunning();
 		
 		if (isRunning) {
-			SwingUtilities.invokeLater(new Runnable() {
+			deliver(headless, new Runnable() {
 				public void run() {
 					for (ResultSetProducerListener rspl : ResultSetProducerSupport.this.listeners) {
 						rspl.executionStarted(new ResultSetProducerEvent(source));
@@ -284,7 +445,16 @@ public class ResultSetProducerSupport {
 	 * This method will determine if the execution is in fact completed and
 	 * will fire required events if necessary.
 	 */
-	public synchronized void fireExecutionComplete() {
+	public void fireExecutionComplete() {
+		fireExecutionComplete(ResultSetHandle.isHeadlessThread());
+	}
+	
+	/**
+	 * Fires the execution stopped event if the execution is in fact
+	 * completed. Headless events are fired on the current thread instead of
+	 * the Swing event thread.
+	 */
+	private synchronized void fireExecutionComplete(boolean headless) {
 		
 		boolean isRunning = false;
 			
@@ -298,7 +468,7 @@ public class ResultSetProducerSupport {
 		isRunning |= isRunning();
 		
 		if (!isRunning) {
-			SwingUtilities.invokeLater(new Runnable() {
+			deliver(headless, new Runnable() {
 				public void run() {
 					for (ResultSetProducerListener rspl : ResultSetProducerSupport.this.listeners) {
 						rspl.executionStopped(new ResultSetProducerEvent(source));
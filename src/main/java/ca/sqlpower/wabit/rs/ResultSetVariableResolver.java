@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.swing.SwingUtilities;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.object.SPObject;
+import ca.sqlpower.object.SPSimpleVariableResolver;
+import ca.sqlpower.object.SPVariableHelper;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetStatus;
+
+/**
+ * Exposes the values of the columns of a result set producer as variables.
+ * The values are loaded by running the producer's query the first time a
+ * variable is looked up after the producer changed, and are kept until the
+ * next change.
+ * <p>
+ * Lookups made on the Swing event thread never wait for the query. They
+ * start it in the background and get the values loaded last, which may be
+ * none, and the {@link VariableValuesListener}s are notified once the new
+ * values are stored. Lookups made on any other thread, such as the ones of
+ * reports rendered on a server, run the query and wait for its values.
+ * <p>
+ * Each change of the producer increments a version number, values loaded for
+ * an older version are discarded when they arrive. Looking up a single
+ * variable lets the producer load only the distinct values of that column,
+ * see {@link #load(String, ResultSetListener, boolean)}.
+ */
+public abstract class ResultSetVariableResolver extends SPSimpleVariableResolver {
+
+	private static final Logger logger = Logger.getLogger(ResultSetVariableResolver.class);
+
+	/**
+	 * Incremented every time the producer changes in a way that can change
+	 * its values.
+	 */
+	private final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * The version of the values loaded for each column, the version of the
+	 * values of every column is mapped to null.
+	 */
+	@GuardedBy("this")
+	private final Map<String, Integer> loadedVersions = new HashMap<String, Integer>();
+
+	/**
+	 * The version each background load currently running is loading, by
+	 * column, with null for the load of every column. This keeps repeated
+	 * lookups from starting the same query again.
+	 */
+	@GuardedBy("this")
+	private final Map<String, Integer> loadingVersions = new HashMap<String, Integer>();
+
+	/**
+	 * Set on the thread starting a load, so the producer invalidating its
+	 * variables when it is executed does not discard the values being loaded.
+	 */
+	private final ThreadLocal<Boolean> loadingThread = new ThreadLocal<Boolean>();
+
+	private final List<VariableValuesListener> valuesListeners = 
+		new CopyOnWriteArrayList<VariableValuesListener>();
+
+	public ResultSetVariableResolver(SPObject owner, String namespace, String userFriendlyName) {
+		super(owner, namespace, userFriendlyName);
+	}
+
+	/**
+	 * Executes the producer's query to load the values of its variables.
+	 * 
+	 * @param column
+	 *            The only column whose values are needed, or null if the
+	 *            values of every column are needed. If a column is given the
+	 *            producer may execute a query returning only the distinct
+	 *            values of that column.
+	 * @param listener
+	 *            The listener to add to the handle, null if the query is not
+	 *            executed asynchronously.
+	 * @param async
+	 *            True if the query must run in the background.
+	 * @return The handle of the query. If a column is given null can be
+	 *         returned to load every column instead. If no column is given
+	 *         null means the producer has no values to offer.
+	 */
+	@Nullable
+	protected abstract ResultSetHandle load(@Nullable String column, 
+			@Nullable ResultSetListener listener, boolean async) 
+			throws ResultSetProducerException;
+
+	/**
+	 * Marks the values loaded so far as outdated. They are still returned by
+	 * lookups made on the Swing event thread until the new values are loaded.
+	 */
+	public void setUpdateNeeded(boolean updateNeeded) {
+		if (updateNeeded && !Boolean.TRUE.equals(loadingThread.get())) {
+			version.incrementAndGet();
+		}
+	}
+
+	protected void beforeLookups(String key) {
+		if (this.resolvesNamespace(SPVariableHelper.getNamespace(key))) {
+			refresh(SPVariableHelper.getKey(key));
+		}
+	}
+
+	protected void beforeKeyLookup(String namespace) {
+		refresh(null);
+	}
+
+	/**
+	 * Loads the values of the given column, or every column if it is null,
+	 * unless the values of the current version are already loaded.
+	 */
+	private void refresh(@Nullable String column) {
+		boolean async = SwingUtilities.isEventDispatchThread();
+		int current = version.get();
+		if (isLoaded(null, current) || (column != null && isLoaded(column, current))) {
+			return;
+		}
+		if (async && !startLoading(column, current)) {
+			return;
+		}
+		
+		ResultSetHandle handle = null;
+		loadingThread.set(Boolean.TRUE);
+		try {
+			if (column != null) {
+				handle = load(column, async ? new Load(column, current) : null, async);
+			}
+			if (handle == null && column != null) {
+				synchronized (this) {
+					loadingVersions.remove(column);
+				}
+				column = null;
+				if (async && !startLoading(column, current)) {
+					return;
+				}
+				handle = load(null, async ? new Load(null, current) : null, async);
+			}
+		} catch (ResultSetProducerException e) {
+			logger.error("Failed to resolve available variables from a query.", e);
+			synchronized (this) {
+				loadingVersions.remove(column);
+			}
+			return;
+		} finally {
+			loadingThread.remove();
+		}
+		
+		if (handle == null) {
+			synchronized (variables) {
+				variables.clear();
+			}
+			synchronized (this) {
+				loadingVersions.remove(null);
+				loadedVersions.put(null, current);
+			}
+		} else if (!async) {
+			loaded(column, current, handle);
+		}
+	}
+
+	/**
+	 * Records that a background load of the given column and version is
+	 * starting. Returns false if one is already running.
+	 */
+	private synchronized boolean startLoading(@Nullable String column, int current) {
+		Integer loading = loadingVersions.get(column);
+		if (loading != null && loading.intValue() == current) {
+			return false;
+		}
+		loadingVersions.put(column, current);
+		return true;
+	}
+
+	private synchronized boolean isLoaded(@Nullable String column, int current) {
+		Integer loaded = loadedVersions.get(column);
+		return loaded != null && loaded.intValue() == current;
+	}
+
+	/**
+	 * Stores the values of a query that finished, if the producer did not
+	 * change since the query started.
+	 */
+	private void loaded(@Nullable String column, int loadedVersion, ResultSetHandle handle) {
+		synchronized (this) {
+			Integer loading = loadingVersions.get(column);
+			if (loading != null && loading.intValue() == loadedVersion) {
+				loadingVersions.remove(column);
+			}
+		}
+		if (handle.getStatus() == ResultSetStatus.ERROR) {
+			logger.error("Failed to resolve available variables from a query.", 
+					handle.getException());
+			// A failing query is only tried again once the producer changes.
+			synchronized (this) {
+				loadedVersions.put(column, loadedVersion);
+			}
+			return;
+		}
+		if (version.get() != loadedVersion) {
+			logger.debug("Discarding the variables of an outdated query.");
+			return;
+		}
+		
+		try {
+			synchronized (variables) {
+				ResultSet rs = handle.getResultSet();
+				if (column == null) {
+					variables.clear();
+				} else if (rs != null) {
+					variables.remove(rs.getMetaData().getColumnName(1));
+				}
+				if (rs != null && rs.first()) {
+					ResultSetMetaData metaData = rs.getMetaData();
+					do {
+						for (int i = 0; i < metaData.getColumnCount(); i++) {
+							store(metaData.getColumnName(i + 1), rs.getObject(i + 1));
+						}
+					} while (rs.next());
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("Failed to resolve available variables from a query.", e);
+			return;
+		}
+		
+		synchronized (this) {
+			loadedVersions.put(column, loadedVersion);
+		}
+		for (VariableValuesListener listener : valuesListeners) {
+			listener.variableValuesChanged(this);
+		}
+	}
+
+	public void addVariableValuesListener(VariableValuesListener listener) {
+		valuesListeners.add(listener);
+	}
+
+	public void removeVariableValuesListener(VariableValuesListener listener) {
+		valuesListeners.remove(listener);
+	}
+
+	/**
+	 * Stores the values of a background load when its query completes.
+	 */
+	private class Load implements ResultSetListener {
+
+		private final String column;
+
+		private final int loadVersion;
+
+		Load(@Nullable String column, int loadVersion) {
+			this.column = column;
+			this.loadVersion = loadVersion;
+		}
+
+		public void executionStarted(ResultSetEvent evt) {
+			// Nothing to do until the values are all there.
+		}
+
+		public void newData(ResultSetEvent evt) {
+			// Nothing to do until the values are all there.
+		}
+
+		public void executionComplete(ResultSetEvent evt) {
+			evt.getSourceHandle().removeResultSetListener(this);
+			loaded(column, loadVersion, evt.getSourceHandle());
+		}
+	}
+}
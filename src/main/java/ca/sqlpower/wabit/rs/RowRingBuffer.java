@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * The most recent rows of a streaming query. Rows are numbered from 0 in the
+ * order they arrived and keep their number when older rows are evicted, so
+ * readers can ask for the rows that arrived since they last looked.
+ * <p>
+ * A bounded buffer holds at most its capacity of rows, adding a row to a full
+ * buffer replaces the oldest row without moving the others. An unbounded
+ * buffer never evicts rows.
+ */
+@ThreadSafe
+public class RowRingBuffer {
+
+	/**
+	 * The most rows this buffer keeps, 0 if it is unbounded.
+	 */
+	private final int capacity;
+
+	/**
+	 * The rows, with the row numbered {@link #startRow} at {@link #head}.
+	 * Slots not holding a row are null.
+	 */
+	@GuardedBy("this")
+	private Object[][] rows;
+
+	@GuardedBy("this")
+	private int head;
+
+	/**
+	 * The number of the oldest row still in the buffer.
+	 */
+	@GuardedBy("this")
+	private long startRow;
+
+	/**
+	 * The number the next row added will get, which is also the number of
+	 * rows ever added.
+	 */
+	@GuardedBy("this")
+	private long endRow;
+
+	/**
+	 * @param capacity
+	 *            The most rows to keep, 0 or less to keep every row.
+	 */
+	public RowRingBuffer(int capacity) {
+		this.capacity = Math.max(0, capacity);
+		rows = new Object[capacity > 0 ? Math.min(capacity, 1024) : 16][];
+	}
+
+	/**
+	 * Adds a row after the last one, evicting the oldest row if the buffer is
+	 * full. The row must not be modified afterwards, it is handed out as is
+	 * to the readers of the buffer.
+	 */
+	public synchronized void add(Object[] row) {
+		int size = (int) (endRow - startRow);
+		if (size == rows.length) {
+			if (capacity > 0 && size == capacity) {
+				rows[head] = row;
+				head = (head + 1) % rows.length;
+				startRow++;
+				endRow++;
+				return;
+			}
+			int newLength = rows.length * 2;
+			if (capacity > 0) {
+				newLength = Math.min(newLength, capacity);
+			}
+			Object[][] newRows = new Object[newLength][];
+			System.arraycopy(rows, head, newRows, 0, rows.length - head);
+			System.arraycopy(rows, 0, newRows, rows.length - head, head);
+			rows = newRows;
+			head = 0;
+		}
+		rows[(head + size) % rows.length] = row;
+		endRow++;
+	}
+
+	/**
+	 * Returns the rows numbered from start to end, excluding end, in order.
+	 * Rows that have been evicted are left out, so the first row returned
+	 * is numbered the larger of start and {@link #getStartRow()}.
+	 */
+	public synchronized List<Object[]> getRows(long start, long end) {
+		start = Math.max(start, startRow);
+		end = Math.min(end, endRow);
+		if (start >= end) {
+			return new ArrayList<Object[]>();
+		}
+		List<Object[]> result = new ArrayList<Object[]>((int) (end - start));
+		for (long row = start; row < end; row++) {
+			result.add(rows[(int) ((head + row - startRow) % rows.length)]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of the oldest row still in the buffer.
+	 */
+	public synchronized long getStartRow() {
+		return startRow;
+	}
+
+	/**
+	 * Returns the number the next row will get, which is also the number of
+	 * rows added so far.
+	 */
+	public synchronized long getEndRow() {
+		return endRow;
+	}
+
+	/**
+	 * Returns the number of rows in the buffer.
+	 */
+	public synchronized int size() {
+		return (int) (endRow - startRow);
+	}
+
+	/**
+	 * Returns the most rows this buffer keeps, 0 if it is unbounded.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs;
+
+import java.sql.ResultSet;
+
+import javax.annotation.Nonnull;
+import javax.swing.SwingUtilities;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.log4j.Logger;
+import org.olap4j.CellSet;
+
+import ca.sqlpower.sql.CachedRowSet;
+
+/**
+ * A {@link ResultSetHandle} that does not execute anything itself but joins
+ * the execution of another handle taken from a {@link ResultSetCache}. The
+ * events of the source handle are re-fired with this handle as their source,
+ * and once the results are in every shared handle gets its own cursor over
+ * the source's rows so the callers sharing an execution do not move each
+ * other's row pointer.
+ * <p>
+ * Cancelling a shared handle stops it from listening to the source and
+ * releases its hold on the source's results. The source keeps running for
+ * the other callers sharing it, and is cancelled once neither they nor the
+ * cache hold it, see {@link ResultSetHandle#release()}.
+ */
+class SharedResultSetHandle extends ResultSetHandle {
+
+	private static final Logger logger = Logger.getLogger(SharedResultSetHandle.class);
+
+	private final ResultSetHandle source;
+
+	/**
+	 * This handle's own cursor over the source's rows. Created the first time
+	 * the results are requested after the source completed successfully.
+	 */
+	@GuardedBy("this")
+	private ResultSet sharedRowSet;
+
+	private boolean populated = false;
+
+	@GuardedBy("this")
+	private boolean detached = false;
+
+	/**
+	 * Re-fires the events of the source handle with this handle as the source.
+	 */
+	private final ResultSetListener sourceListener = new ResultSetListener() {
+		public void executionStarted(ResultSetEvent evt) {
+			fireExecutionStarted(ResultSetEvent.getExecutionStartedEvent(SharedResultSetHandle.this));
+		}
+		public void newData(ResultSetEvent evt) {
+			fireNewData(evt.forSource(SharedResultSetHandle.this));
+		}
+		public void executionComplete(ResultSetEvent evt) {
+			fireExecutionComplete(ResultSetEvent.getExecutionCompleteEvent(SharedResultSetHandle.this));
+		}
+	};
+
+	/**
+	 * Creates a handle sharing the results of the given handle and retains
+	 * them until this handle is cancelled.
+	 */
+	SharedResultSetHandle(@Nonnull ResultSetHandle source) {
+		super(source.getResultSetType(), 0);
+		source.retain();
+		this.source = source;
+	}
+
+	/**
+	 * Joins the execution of the source handle, which must already have been
+	 * populated. If the source has already completed, the listeners of this
+	 * handle are notified of the completion the same way a handle that
+	 * executed its own query would notify them. For synchronous calls this
+	 * method blocks until the source has finished.
+	 */
+	@Override
+	public void populate(boolean async) {
+		if (populated)
+			throw new RuntimeException("Cannot populate a ResultSetHandle twice.");
+		populated = true;
+
+		boolean complete = source.addResultSetListenerAndCheckComplete(sourceListener);
+		if (!async) {
+			try {
+				source.awaitCompletion();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.debug("Interrupted while waiting for a shared result set", e);
+			}
+		}
+
+		if (complete) {
+			final ResultSetEvent evt = ResultSetEvent.getExecutionCompleteEvent(this);
+			Runnable runnable = new Runnable() {
+				public void run() {
+					if (!isDetached()) {
+						fireExecutionComplete(evt);
+					}
+				}
+			};
+			if (isHeadless() || (!async && SwingUtilities.isEventDispatchThread())) {
+				runnable.run();
+			} else {
+				SwingUtilities.invokeLater(runnable);
+			}
+		}
+	}
+
+	@Override
+	public ResultSet getResultSet() {
+		if (source.getStatus() != ResultSetStatus.SUCCESS) {
+			return source.getResultSet();
+		}
+		synchronized (this) {
+			if (sharedRowSet == null) {
+				try {
+					ResultSet sourceResultSet = source.getResultSet();
+					if (sourceResultSet instanceof ColumnarResultSet) {
+						sharedRowSet = ((ColumnarResultSet) sourceResultSet).createShared();
+					} else {
+						sharedRowSet = ((CachedRowSet) sourceResultSet).createShared();
+					}
+				} catch (Exception e) {
+					throw new RuntimeException("Could not share the results of a query", e);
+				}
+			}
+			return sharedRowSet;
+		}
+	}
+
+	@Override
+	public CellSet getCellSet() {
+		return source.getCellSet();
+	}
+
+	@Override
+	public RowRingBuffer getStreamingRows() {
+		return source.getStreamingRows();
+	}
+
+	@Override
+	public void cancel() {
+		synchronized (this) {
+			if (detached) return;
+			detached = true;
+		}
+		source.removeResultSetListener(sourceListener);
+		source.release();
+	}
+	
+	private synchronized boolean isDetached() {
+		return detached;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return !isDetached() && source.isRunning();
+	}
+
+	@Override
+	public ResultSetStatus getStatus() {
+		return source.getStatus();
+	}
+
+	@Override
+	public Exception getException() {
+		return source.getException();
+	}
+}
@@ -22,12 +22,20 @@ package ca.sqlpower.wabit.rs.olap;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
+import net.jcip.annotations.GuardedBy;
+
 import org.apache.log4j.Logger;
 import org.olap4j.OlapConnection;
 import org.olap4j.OlapWrapper;
@@ -38,13 +46,56 @@ import ca.sqlpower.sqlobject.SQLDatabase;
 import ca.sqlpower.sqlobject.SQLDatabaseMapping;
 
 /**
- * This class will create one connection to an {@link Olap4jDataSource}. This
+ * This class will create connections to an {@link Olap4jDataSource}. This
  * class is useful to prevent opening lots of connections causing extra caching.
+ * <p>
+ * Queries borrow a connection with {@link #borrowConnection()} and give it back with
+ * {@link #returnConnection(OlapConnection, boolean)} so queries against the
+ * same cube can run at the same time, each on its own connection. The number
+ * of connections is bounded since every connection to an in-process Mondrian
+ * data source keeps its own caches.
+ * <p>
+ * Idle connections are validated before they are handed out again if they
+ * have not been used for a while, and connections that are closed, fail
+ * validation or are returned as broken are replaced by new ones. Connections
+ * idle for longer than the idle timeout are closed.
+ * <p>
+ * {@link #getConnection()} hands out one connection that is shared by everyone
+ * browsing the data source's metadata and is never closed by its users.
+ * <p>
+ * The pool is configured with the following system properties:
+ * <ul>
+ * <li><code>ca.sqlpower.wabit.rs.olap.OlapConnectionPool.maxConnections</code>:
+ * the number of connections that can be borrowed at the same time (default 4).</li>
+ * <li><code>ca.sqlpower.wabit.rs.olap.OlapConnectionPool.maxWait</code>: the
+ * number of milliseconds to wait for a connection when all of them are
+ * borrowed (default 60000).</li>
+ * <li><code>ca.sqlpower.wabit.rs.olap.OlapConnectionPool.validationInterval</code>:
+ * connections idle for more than this number of milliseconds are validated
+ * before being borrowed (default 30000).</li>
+ * <li><code>ca.sqlpower.wabit.rs.olap.OlapConnectionPool.idleTimeout</code>:
+ * connections idle for more than this number of milliseconds are closed
+ * (default 300000).</li>
+ * </ul>
  */
 public class OlapConnectionPool {
     
     private static final Logger logger = Logger.getLogger(OlapConnectionPool.class);
 
+    private static final String PROPERTY_PREFIX = OlapConnectionPool.class.getName() + ".";
+
+    /**
+     * An idle connection and the time it was returned to the pool.
+     */
+    private static class IdleConnection {
+        private final OlapConnection connection;
+        private final long returned = System.currentTimeMillis();
+        
+        IdleConnection(OlapConnection connection) {
+            this.connection = connection;
+        }
+    }
+
     /**
      * This is the data source this pool is storing connections for.
      */
@@ -58,10 +109,57 @@ public class OlapConnectionPool {
 
     private final SQLDatabaseMapping dbMapping;
     
-    private final OlapConnection con;
+    private final int maxConnections;
+    
+    private final long maxWait;
+    
+    private final long validationInterval;
+    
+    private final long idleTimeout;
+    
+    /**
+     * The connection shared by everyone using {@link #getConnection()}.
+     */
+    @GuardedBy("this")
+    private OlapConnection sharedConnection;
+    
+    /**
+     * Connections waiting to be borrowed, the most recently returned first.
+     */
+    @GuardedBy("this")
+    private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+    
+    /**
+     * Connections currently borrowed from this pool. Compared by identity as
+     * the drivers are free to define equality for their connections.
+     */
+    @GuardedBy("this")
+    private final Map<OlapConnection, Boolean> borrowed = new IdentityHashMap<OlapConnection, Boolean>();
     
     /**
-     * Creates and pools a new connection based on the information in {@link #dataSource}.
+     * The number of connections being opened that do not yet appear in
+     * {@link #borrowed}.
+     */
+    @GuardedBy("this")
+    private int opening = 0;
+    
+    @GuardedBy("this")
+    private boolean closed = false;
+    
+    /**
+     * The JNDI name the in-process data source's database is bound to. Every
+     * connection this pool opens to Mondrian looks the database up by this
+     * name, so it is bound once and stays bound until the pool is
+     * disconnected.
+     */
+    private final String jndiName = UUID.randomUUID().toString();
+    
+    @GuardedBy("this")
+    private boolean jndiBound = false;
+    
+    /**
+     * Creates a pool and opens its shared connection based on the information
+     * in {@link #dataSource}.
      * 
      * @param dbMapping
      *            If the {@link #dataSource} is an in-process data source this
@@ -74,8 +172,30 @@ public class OlapConnectionPool {
      * @throws SQLException 
      */
     public OlapConnectionPool(Olap4jDataSource ds, SQLDatabaseMapping dbMapping) throws SQLException, ClassNotFoundException, NamingException {
+        this(ds, dbMapping, Integer.getInteger(PROPERTY_PREFIX + "maxConnections", 4).intValue());
+    }
+    
+    /**
+     * Creates a pool and opens its shared connection based on the information
+     * in {@link #dataSource}.
+     * 
+     * @param dbMapping
+     *            See {@link #OlapConnectionPool(Olap4jDataSource, SQLDatabaseMapping)}.
+     * @param maxConnections
+     *            The number of connections that can be borrowed at the same
+     *            time. The shared connection does not count against this.
+     */
+    public OlapConnectionPool(Olap4jDataSource ds, SQLDatabaseMapping dbMapping, int maxConnections) 
+    throws SQLException, ClassNotFoundException, NamingException {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("The pool must allow at least one connection.");
+        }
         dataSource = ds;
         this.dbMapping = dbMapping;
+        this.maxConnections = maxConnections;
+        this.maxWait = Long.getLong(PROPERTY_PREFIX + "maxWait", 60000L).longValue();
+        this.validationInterval = Long.getLong(PROPERTY_PREFIX + "validationInterval", 30000L).longValue();
+        this.idleTimeout = Long.getLong(PROPERTY_PREFIX + "idleTimeout", 300000L).longValue();
         // FIXME this should be configured in an external jndi.properties file.
         System.setProperty("java.naming.factory.initial", "org.osjava.sj.memory.MemoryContextFactory");
         System.setProperty("org.osjava.sj.jndi.shared", "true");
@@ -85,17 +205,170 @@ public class OlapConnectionPool {
             throw new RuntimeException(e);
         }
         
-        con = createOlapConnection();
+        sharedConnection = createOlapConnection();
         logger.debug("Created a connection to the OLAP data source");
     }
-    
-    public OlapConnection getConnection() throws SQLException, ClassNotFoundException, NamingException {
-        return con;
+
+    /**
+     * Returns the connection shared by everyone browsing this data source.
+     * This connection must not be closed. If it has been closed or its
+     * server went away a new one is opened in its place.
+     */
+    public synchronized OlapConnection getConnection() throws SQLException, ClassNotFoundException, NamingException {
+        if (closed) {
+            throw new SQLException("The connection pool for " + dataSource.getName() + " has been closed");
+        }
+        if (sharedConnection == null || sharedConnection.isClosed()) {
+            logger.debug("Reopening the shared connection to " + dataSource.getName());
+            sharedConnection = createOlapConnection();
+        }
+        return sharedConnection;
+    }
+
+    /**
+     * Borrows a connection from this pool to run a query on. The connection
+     * must be given back with {@link #returnConnection(OlapConnection, boolean)}
+     * and not closed. If all of the connections are borrowed this waits for
+     * one to be returned.
+     * 
+     * @throws SQLException
+     *             If a connection could not be opened or none became
+     *             available before the borrow timeout.
+     */
+    public OlapConnection borrowConnection() throws SQLException, ClassNotFoundException, NamingException {
+        long deadline = System.currentTimeMillis() + maxWait;
+        while (true) {
+            IdleConnection candidate = null;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("The connection pool for " + dataSource.getName() + " has been closed");
+                }
+                closeExpiredConnections();
+                if (!idle.isEmpty()) {
+                    candidate = idle.removeFirst();
+                    borrowed.put(candidate.connection, Boolean.TRUE);
+                } else if (borrowed.size() + opening < maxConnections) {
+                    opening++;
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SQLException("Timed out waiting for a connection to " + dataSource.getName());
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection to " + dataSource.getName());
+                    }
+                    continue;
+                }
+            }
+            
+            if (candidate != null) {
+                if (isValid(candidate)) {
+                    return candidate.connection;
+                }
+                logger.debug("Replacing a broken connection to " + dataSource.getName());
+                returnConnection(candidate.connection, true);
+                continue;
+            }
+            
+            OlapConnection connection = null;
+            try {
+                connection = createOlapConnection();
+                return connection;
+            } finally {
+                synchronized (this) {
+                    opening--;
+                    if (connection != null) {
+                        borrowed.put(connection, Boolean.TRUE);
+                    } else {
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives a connection borrowed with {@link #borrowConnection()} back to
+     * the pool. Connections that did not come from this pool's
+     * {@link #borrowConnection()}, such as the shared connection, are ignored.
+     * 
+     * @param discard
+     *            True if the connection failed while it was borrowed. The
+     *            connection will be closed and a new one will be opened for
+     *            the next caller that needs one.
+     */
+    public void returnConnection(OlapConnection connection, boolean discard) {
+        boolean close;
+        synchronized (this) {
+            if (borrowed.remove(connection) == null) return;
+            close = discard || closed;
+            if (!close) {
+                try {
+                    close = connection.isClosed();
+                } catch (SQLException e) {
+                    close = true;
+                }
+            }
+            if (!close) {
+                idle.addFirst(new IdleConnection(connection));
+            }
+            notifyAll();
+        }
+        if (close) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Checks an idle connection can still be used. Connections used recently
+     * are only checked for being closed, the others are asked for their
+     * metadata which goes to the server for XML/A connections.
+     */
+    private boolean isValid(IdleConnection candidate) {
+        try {
+            if (candidate.connection.isClosed()) return false;
+            if (System.currentTimeMillis() - candidate.returned > validationInterval) {
+                candidate.connection.getMetaData().getDatabaseProductName();
+            }
+            return true;
+        } catch (Exception e) {
+            logger.debug("Connection to " + dataSource.getName() + " failed validation", e);
+            return false;
+        }
+    }
+
+    /**
+     * Closes the idle connections that have not been used for longer than the
+     * idle timeout.
+     */
+    @GuardedBy("this")
+    private void closeExpiredConnections() {
+        long now = System.currentTimeMillis();
+        for (Iterator<IdleConnection> it = idle.iterator(); it.hasNext(); ) {
+            IdleConnection idleConnection = it.next();
+            if (now - idleConnection.returned > idleTimeout) {
+                it.remove();
+                closeQuietly(idleConnection.connection);
+            }
+        }
+    }
+
+    private void closeQuietly(OlapConnection connection) {
+        try {
+            if (!connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.error("Could not close a connection to " + dataSource.getName(), e);
+        }
     }
 
     /**
      * Creates a new connection based on the information in {@link #dataSource}.
-     * This is a helper method for the constructor
+     * This is used to open the shared connection and the borrowed ones.
      * 
      * @param dbMapping
      *            If the {@link #dataSource} is an in-process data source this
@@ -106,63 +379,109 @@ public class OlapConnectionPool {
      */
     private OlapConnection createOlapConnection()
     throws SQLException, ClassNotFoundException, NamingException {
-        final String uniqueName = UUID.randomUUID().toString();
-        
-        try {
-            
-            if (dataSource.getType().equals(Olap4jDataSource.Type.IN_PROCESS)) {
-                SQLDatabase database = dbMapping.getDatabase(dataSource.getDataSource());
-                ctx.bind(uniqueName, new DataSourceAdapter(database));
-                
-                if (dataSource.getMondrianSchema() == null
-                        || dataSource.getDataSource() == null) {
-                    // FIXME This validation should not be performed here.
-                    return null;
-                }
-                
-                // Init the class loader. This might not be necessary with JDK 1.6, but just for kicks....
-                Class.forName(Olap4jDataSource.IN_PROCESS_DRIVER_CLASS_NAME);
-                
-                // Build a JDBC URL for Mondrian driver connection
-                StringBuilder url = new StringBuilder("jdbc:mondrian:");
-                url.append("DataSource='").append(uniqueName);
-                String schemaURI = dataSource.getMondrianSchema().toString();
-                logger.debug("Mondrian schema location is " + schemaURI);
-                url.append("';Catalog=").append(schemaURI);
-                
-                Connection connection = DriverManager.getConnection(url.toString());
-                return ((OlapWrapper) connection).unwrap(OlapConnection.class);
-                
-            } else if (dataSource.getType().equals(Olap4jDataSource.Type.XMLA)) {
-
-                // Init the class loader
-                Class.forName(Olap4jDataSource.XMLA_DRIVER_CLASS_NAME);
-                
-                // Build the JDBC URL for an XMLA connection.
-                StringBuilder url = new StringBuilder("jdbc:xmla:");
-                url.append("Server=").append(dataSource.getXmlaServer()); // FIXME This requires validation. Should be performed with the other ones identified higher up in this function.
-                
-                // Establish the connection
-                Connection conn = DriverManager.getConnection(url.toString());
-                OlapConnection olapConn = ((OlapWrapper) conn).unwrap(OlapConnection.class);
-                
-                return olapConn;
-                
-            } else {
-                throw new RuntimeException("Someone forgot to add a connection type handler in the code.");
+        if (dataSource.getType().equals(Olap4jDataSource.Type.IN_PROCESS)) {
+            if (dataSource.getMondrianSchema() == null
+                    || dataSource.getDataSource() == null) {
+                // FIXME This validation should not be performed here.
+                return null;
             }
-        } finally {
-            ctx.unbind(uniqueName);
+            bindDataSource();
+            
+            // Init the class loader. This might not be necessary with JDK 1.6, but just for kicks....
+            Class.forName(Olap4jDataSource.IN_PROCESS_DRIVER_CLASS_NAME);
+            
+            // Build a JDBC URL for Mondrian driver connection
+            StringBuilder url = new StringBuilder("jdbc:mondrian:");
+            url.append("DataSource='").append(jndiName);
+            String schemaURI = dataSource.getMondrianSchema().toString();
+            logger.debug("Mondrian schema location is " + schemaURI);
+            url.append("';Catalog=").append(schemaURI);
+            
+            Connection connection = DriverManager.getConnection(url.toString());
+            return ((OlapWrapper) connection).unwrap(OlapConnection.class);
+            
+        } else if (dataSource.getType().equals(Olap4jDataSource.Type.XMLA)) {
+
+            // Init the class loader
+            Class.forName(Olap4jDataSource.XMLA_DRIVER_CLASS_NAME);
+            
+            // Build the JDBC URL for an XMLA connection.
+            StringBuilder url = new StringBuilder("jdbc:xmla:");
+            url.append("Server=").append(dataSource.getXmlaServer()); // FIXME This requires validation. Should be performed with the other ones identified higher up in this function.
+            
+            // Establish the connection
+            Connection conn = DriverManager.getConnection(url.toString());
+            OlapConnection olapConn = ((OlapWrapper) conn).unwrap(OlapConnection.class);
+            
+            return olapConn;
+            
+        } else {
+            throw new RuntimeException("Someone forgot to add a connection type handler in the code.");
         }
     }
+
+    /**
+     * Binds the in-process data source's database to {@link #jndiName} the
+     * first time a connection to Mondrian is opened.
+     */
+    private synchronized void bindDataSource() throws NamingException {
+        if (jndiBound) return;
+        SQLDatabase database = dbMapping.getDatabase(dataSource.getDataSource());
+        ctx.bind(jndiName, new DataSourceAdapter(database));
+        jndiBound = true;
+    }
     
     /**
      * This method will close all of the open connections in the pool.
+     * Connections that are still borrowed get closed when they are returned.
      */
     public void disconnect() throws SQLException  {
-        if (!con.isClosed()) {
-            con.close();
+        List<OlapConnection> toClose = new ArrayList<OlapConnection>();
+        boolean unbind;
+        synchronized (this) {
+            closed = true;
+            unbind = jndiBound;
+            jndiBound = false;
+            for (IdleConnection idleConnection : idle) {
+                toClose.add(idleConnection.connection);
+            }
+            idle.clear();
+            if (sharedConnection != null) {
+                toClose.add(sharedConnection);
+                sharedConnection = null;
+            }
+            notifyAll();
         }
+        for (OlapConnection connection : toClose) {
+            if (!connection.isClosed()) {
+                connection.close();
+            }
+        }
+        if (unbind) {
+            try {
+                ctx.unbind(jndiName);
+            } catch (NamingException e) {
+                logger.error("Could not unbind the data source of " + dataSource.getName(), e);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of connections currently borrowed from this pool.
+     */
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+    
+    /**
+     * Returns the number of open connections waiting in this pool.
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+    
+    public int getMaxConnections() {
+        return maxConnections;
     }
     
     public Olap4jDataSource getDataSource() {
@@ -19,7 +19,6 @@
 
 package ca.sqlpower.wabit.rs.olap;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -27,8 +26,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.jcip.annotations.GuardedBy;
@@ -57,7 +56,6 @@ import org.olap4j.query.QueryDimension.HierarchizeMode;
 import org.olap4j.query.Selection.Operator;
 
 import ca.sqlpower.object.SPObject;
-import ca.sqlpower.object.SPSimpleVariableResolver;
 import ca.sqlpower.object.SPVariableHelper;
 import ca.sqlpower.object.SPVariableResolver;
 import ca.sqlpower.object.SPVariableResolverProvider;
@@ -71,7 +69,9 @@ import ca.sqlpower.wabit.rs.ResultSetListener;
 import ca.sqlpower.wabit.rs.ResultSetProducerException;
 import ca.sqlpower.wabit.rs.ResultSetProducerListener;
 import ca.sqlpower.wabit.rs.ResultSetProducerSupport;
+import ca.sqlpower.wabit.rs.ResultSetVariableResolver;
 import ca.sqlpower.wabit.rs.WabitResultSetProducer;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ExecutionPriority;
 import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
 
 /**
@@ -117,62 +117,23 @@ public class OlapQuery extends AbstractWabitObject implements WabitResultSetProd
      */
     private OlapVariableResolver variableProvider = null;
     
-    private final class OlapVariableResolver extends SPSimpleVariableResolver {
-    	
-    	private AtomicBoolean updateNeeded = new AtomicBoolean(true);
-    	private AtomicBoolean isUpdating = new AtomicBoolean(false);
+    /**
+     * Exposes the columns of this query's cell set, flattened to a result
+     * set, as variables. MDX queries have no equivalent to selecting the
+     * distinct values of a single column, every column is always loaded.
+     */
+    private final class OlapVariableResolver extends ResultSetVariableResolver {
     	
     	public OlapVariableResolver(SPObject owner, String namespace, String userFriendlyName) {
 			super(owner, namespace, userFriendlyName);
 		}
-    	public void setUpdateNeeded(boolean updateNeeded) {
-    		this.updateNeeded.set(updateNeeded);
-    	}
-    	protected void beforeLookups(String key) {
-    		if (this.resolvesNamespace(SPVariableHelper.getNamespace(key))) {
-    			this.updateVars();
-    		}
-    	}
-    	protected void beforeKeyLookup(String namespace) {
-    			this.updateVars();
-    	}
-		public void updateVars() {
-			try {
-				
-				if (!this.updateNeeded.get()
-						|| isUpdating.get()) return;
-				
-				isUpdating.set(true);
-				
-				try {
-					ResultSetHandle handle = execute(
-							new SPVariableHelper(OlapQuery.this),
-							null,
-							false);
-					
-					variables.clear();
-					ResultSet rs = handle.getResultSet();
-					if (rs != null &&
-							rs.first()) {
-				        do {
-							for (int i = 0; i < rs.getMetaData().getColumnCount(); i++) {
-								store(rs.getMetaData().getColumnName(i+1), rs.getObject(i+1));
-							}
-						} while (rs.next());
-					}
-					
-				} catch (SQLException e) {
-					logger.error("Failed to resolve available variables from a query.", e);
-				} finally {
-					isUpdating.set(false);
-				}
-			
-				
-				this.updateNeeded.set(false);
-				
-			} catch (ResultSetProducerException e) {
-				logger.error("Failed to resolve available variables from a query.", e);
+		@Override
+		protected ResultSetHandle load(String column, ResultSetListener listener, boolean async) 
+				throws ResultSetProducerException {
+			if (column != null) {
+				return null;
 			}
+			return execute(new SPVariableHelper(OlapQuery.this), listener, async);
 		}
     }
     
@@ -1328,6 +1289,15 @@ public class OlapQuery extends AbstractWabitObject implements WabitResultSetProd
         rsps.cancel();
         // TODO cancel any internal running queries as well.
     }
+
+    /**
+     * Discards the results of previous executions that would otherwise be
+     * shared with the next callers of execute, forcing the next execution to
+     * query the database again.
+     */
+    public void invalidateCachedResults() {
+    	rsps.invalidateCache();
+    }
     
     public boolean isRunning() {
         return rsps.isRunning();
@@ -1361,26 +1331,25 @@ public class OlapQuery extends AbstractWabitObject implements WabitResultSetProd
     		@Nullable ResultSetListener listener,
     		boolean async) throws ResultSetProducerException
 	{
+    	return this.execute(variablesContext, listener, async, ExecutionPriority.BACKGROUND);
+	}
+
+    /**
+     * Same as {@link #execute(SPVariableHelper, ResultSetListener, boolean)}
+     * but lets the caller decide how urgently the query must be run compared to
+     * the other queries waiting on the same data source.
+     */
+    public ResultSetHandle execute(
+    		@Nullable SPVariableHelper variablesContext,
+    		@Nullable ResultSetListener listener,
+    		boolean async,
+    		@Nonnull ExecutionPriority priority) throws ResultSetProducerException
+	{
         try {
         	
-        	String textualQuery;
-        	if (this.modifiedOlapQuery == null) {
-        		// take the snapshot
-        		SelectNode mdx;
-        		synchronized (this) {
-        			if (getRowHierarchies().isEmpty() || getColumnHierarchies().isEmpty()) {
-        				return null;
-        			} else {
-        				mdx = getMDXQuery().getSelect();
-        			}
-        		}
-        		
-        		textualQuery = mdx.toString();
-        	
-        	} else {
-        	
-        		textualQuery = this.getModifiedOlapQuery();
-        		
+        	String textualQuery = getTextualQuery();
+        	if (textualQuery == null) {
+        		return null;
         	}
         	
         	return 
@@ -1392,7 +1361,8 @@ public class OlapQuery extends AbstractWabitObject implements WabitResultSetProd
         				ResultSetType.OLAP, 
 	        			0, 
 	        			listener,
-	        			async);	
+	        			async,
+	        			priority);	
             
         } catch (Exception e) {
             throw new ResultSetProducerException("Couldn't create database connection for Olap query", e);
@@ -1405,6 +1375,28 @@ public class OlapQuery extends AbstractWabitObject implements WabitResultSetProd
 
     // -------------- end ResultSetProducer interface --------------
 
+    /**
+     * Returns the MDX this query executes, with its variables not substituted
+     * yet, or null if it has no hierarchy on its rows or columns.
+     */
+    @Nullable
+    public String getTextualQuery() throws QueryInitializationException {
+    	if (this.modifiedOlapQuery == null) {
+    		// take the snapshot
+    		SelectNode mdx;
+    		synchronized (this) {
+    			if (getRowHierarchies().isEmpty() || getColumnHierarchies().isEmpty()) {
+    				return null;
+    			} else {
+    				mdx = getMDXQuery().getSelect();
+    			}
+    		}
+    		return mdx.toString();
+    	} else {
+    		return this.getModifiedOlapQuery();
+    	}
+    }
+
     
     public List<Class<? extends SPObject>> getAllowedChildTypes() {
     	List<Class<? extends SPObject>> types = new ArrayList<Class<? extends SPObject>>();
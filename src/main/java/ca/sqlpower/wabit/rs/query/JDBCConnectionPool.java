@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs.query;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.dbcp.AbandonedConfig;
+import org.apache.commons.dbcp.AbandonedObjectPool;
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.apache.commons.dbcp.PoolableConnectionFactory;
+import org.apache.commons.dbcp.PoolingDataSource;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.sql.JDBCDataSource;
+
+/**
+ * A pool of connections to one {@link JDBCDataSource}. Each query executed
+ * by a {@link ca.sqlpower.wabit.rs.ResultSetHandle} borrows its own connection
+ * from the pool so queries against the same data source can run at the same
+ * time. Closing a connection given out by this pool returns it to the pool
+ * instead of closing the physical connection.
+ * <p>
+ * The pool is configured with the following system properties:
+ * <ul>
+ * <li><code>ca.sqlpower.wabit.rs.query.JDBCConnectionPool.minIdle</code>: the
+ * number of idle connections kept open (default 0).</li>
+ * <li><code>ca.sqlpower.wabit.rs.query.JDBCConnectionPool.maxIdle</code>: the
+ * number of idle connections kept before returned connections get closed
+ * (default 4).</li>
+ * <li><code>ca.sqlpower.wabit.rs.query.JDBCConnectionPool.maxActive</code>:
+ * the number of connections that can be borrowed at the same time (default 8).</li>
+ * <li><code>ca.sqlpower.wabit.rs.query.JDBCConnectionPool.maxWait</code>: the
+ * number of milliseconds to wait for a connection when all of them are
+ * borrowed before failing (default 30000).</li>
+ * <li><code>ca.sqlpower.wabit.rs.query.JDBCConnectionPool.validationQuery</code>:
+ * a query run on a connection before it is borrowed to check it is still
+ * usable. If it is not set connections are only checked for being closed.</li>
+ * <li><code>ca.sqlpower.wabit.rs.query.JDBCConnectionPool.minEvictableIdleTime</code>:
+ * the number of milliseconds a connection can stay idle before it is
+ * closed (default 300000).</li>
+ * <li><code>ca.sqlpower.wabit.rs.query.JDBCConnectionPool.abandonedTimeout</code>:
+ * the number of seconds a borrowed connection can go unused before it is
+ * considered leaked. Leaked connections are logged and reclaimed when the
+ * pool is close to running out of connections. A value of 0 turns leak
+ * detection off (default 600).</li>
+ * </ul>
+ */
+public class JDBCConnectionPool {
+
+	private static final Logger logger = Logger.getLogger(JDBCConnectionPool.class);
+
+	private static final String PROPERTY_PREFIX = JDBCConnectionPool.class.getName() + ".";
+
+	/**
+	 * The data source this pool is storing connections for.
+	 */
+	private final JDBCDataSource dataSource;
+
+	private final GenericObjectPool pool;
+
+	private final PoolingDataSource poolingDataSource;
+
+	/**
+	 * Creates a pool for the given data source configured from the system
+	 * properties. No connections are made until the first one is borrowed.
+	 */
+	public JDBCConnectionPool(@Nonnull final JDBCDataSource ds) {
+		this.dataSource = ds;
+
+		AbandonedConfig abandonedConfig = null;
+		int abandonedTimeout = Integer.getInteger(PROPERTY_PREFIX + "abandonedTimeout", 600).intValue();
+		if (abandonedTimeout > 0) {
+			abandonedConfig = new AbandonedConfig();
+			abandonedConfig.setRemoveAbandoned(true);
+			abandonedConfig.setRemoveAbandonedTimeout(abandonedTimeout);
+			abandonedConfig.setLogAbandoned(true);
+			pool = new AbandonedObjectPool(null, abandonedConfig);
+		} else {
+			pool = new GenericObjectPool();
+		}
+		pool.setMinIdle(Integer.getInteger(PROPERTY_PREFIX + "minIdle", 0).intValue());
+		pool.setMaxIdle(Integer.getInteger(PROPERTY_PREFIX + "maxIdle", 4).intValue());
+		pool.setMaxActive(Integer.getInteger(PROPERTY_PREFIX + "maxActive", 8).intValue());
+		pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+		pool.setMaxWait(Long.getLong(PROPERTY_PREFIX + "maxWait", 30000L).longValue());
+		pool.setTestOnBorrow(true);
+		pool.setTimeBetweenEvictionRunsMillis(
+				Long.getLong(PROPERTY_PREFIX + "timeBetweenEvictionRuns", 60000L).longValue());
+		pool.setMinEvictableIdleTimeMillis(
+				Long.getLong(PROPERTY_PREFIX + "minEvictableIdleTime", 300000L).longValue());
+
+		ConnectionFactory connectionFactory = new ConnectionFactory() {
+			public Connection createConnection() throws SQLException {
+				logger.debug("Opening a new connection to " + dataSource.getName());
+				return dataSource.createConnection();
+			}
+		};
+
+		// The factory registers itself with the pool. Connections are handed
+		// out with auto-commit on as they are used for read-only queries.
+		new PoolableConnectionFactory(connectionFactory, pool, null,
+				System.getProperty(PROPERTY_PREFIX + "validationQuery"),
+				false, true, abandonedConfig);
+
+		poolingDataSource = new PoolingDataSource(pool);
+	}
+
+	/**
+	 * Borrows a connection from the pool, opening a new one if none are idle.
+	 * If the maximum number of connections are already borrowed this waits up
+	 * to the borrow timeout for one to be returned. The connection must be
+	 * closed by the caller to return it to the pool.
+	 */
+	public Connection getConnection() throws SQLException {
+		return poolingDataSource.getConnection();
+	}
+
+	/**
+	 * Returns the number of connections currently borrowed from this pool.
+	 */
+	public int getNumActive() {
+		return pool.getNumActive();
+	}
+
+	/**
+	 * Returns the number of open connections waiting in this pool.
+	 */
+	public int getNumIdle() {
+		return pool.getNumIdle();
+	}
+
+	/**
+	 * Closes all of the idle connections in this pool and stops it from
+	 * giving out more. Connections that are still borrowed get closed when
+	 * they are returned.
+	 */
+	public void close() throws SQLException {
+		try {
+			pool.close();
+		} catch (Exception e) {
+			SQLException ex = new SQLException("Could not close the connection pool for " + dataSource.getName());
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	public JDBCDataSource getDataSource() {
+		return dataSource;
+	}
+}
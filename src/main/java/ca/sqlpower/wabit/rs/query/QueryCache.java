@@ -29,8 +29,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.jcip.annotations.GuardedBy;
@@ -39,7 +39,6 @@ import org.apache.log4j.Logger;
 
 import ca.sqlpower.object.CleanupExceptions;
 import ca.sqlpower.object.SPObject;
-import ca.sqlpower.object.SPSimpleVariableResolver;
 import ca.sqlpower.object.SPVariableHelper;
 import ca.sqlpower.object.SPVariableResolver;
 import ca.sqlpower.object.SPVariableResolverProvider;
@@ -49,6 +48,7 @@ import ca.sqlpower.query.Query;
 import ca.sqlpower.query.QueryChangeEvent;
 import ca.sqlpower.query.QueryChangeListener;
 import ca.sqlpower.query.QueryImpl;
+import ca.sqlpower.query.SQLGroupFunction;
 import ca.sqlpower.query.SQLJoin;
 import ca.sqlpower.query.QueryImpl.OrderByArgument;
 import ca.sqlpower.sql.JDBCDataSource;
@@ -63,12 +63,15 @@ import ca.sqlpower.wabit.WabitDataSource;
 import ca.sqlpower.wabit.WabitObject;
 import ca.sqlpower.wabit.WabitUtils;
 import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.rs.ColumnarResultSet;
 import ca.sqlpower.wabit.rs.ResultSetHandle;
 import ca.sqlpower.wabit.rs.ResultSetListener;
 import ca.sqlpower.wabit.rs.ResultSetProducerException;
 import ca.sqlpower.wabit.rs.ResultSetProducerListener;
 import ca.sqlpower.wabit.rs.ResultSetProducerSupport;
+import ca.sqlpower.wabit.rs.ResultSetVariableResolver;
 import ca.sqlpower.wabit.rs.WabitResultSetProducer;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ExecutionPriority;
 import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
 
 /**
@@ -78,6 +81,16 @@ import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
 public class QueryCache extends AbstractWabitObject implements StatementExecutor, Query, WabitResultSetProducer, SPVariableResolverProvider {
     
     private static final Logger logger = Logger.getLogger(QueryCache.class);
+
+    /**
+     * The most distinct values loaded when a single column of a query is
+     * looked up as a variable, for example to fill a combo box selector. If
+     * it is 0, the default, the whole query is executed instead and every
+     * value of every column is loaded. Set with the system property
+     * <code>ca.sqlpower.wabit.rs.query.QueryCache.variableValueLimit</code>.
+     */
+    static final int VARIABLE_VALUE_LIMIT = 
+    	Integer.getInteger(QueryCache.class.getName() + ".variableValueLimit", 0);
     
     private final QueryImpl query;
     
@@ -106,6 +119,13 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
      */
     private boolean automaticallyExecuting = true;
     
+    /**
+     * If true the results of this query are stored column by column in a
+     * {@link ColumnarResultSet}, which takes much less memory for large
+     * numeric results. Streaming queries ignore this setting.
+     */
+    private boolean columnarResults;
+    
     /**
      * These are the listeners that want to listen directly to the query that
      * this object delegates to. The events that get fired to this listener
@@ -224,68 +244,29 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
     private QueryVariableResolver variableProvider = null;
     
     /**
-     * Extends {@link SPSimpleVariableResolver} to make sure that we
-     * initialize the variables before trying to resolve them.
+     * Exposes the columns of this query as variables. When
+     * {@link #VARIABLE_VALUE_LIMIT} is set, looking up a single column only
+     * selects the distinct values of that column.
      */
-    private final class QueryVariableResolver extends SPSimpleVariableResolver {
-    	private AtomicBoolean updateNeeded = new AtomicBoolean(true);
-    	private AtomicBoolean isUpdating = new AtomicBoolean(false);
+    private final class QueryVariableResolver extends ResultSetVariableResolver {
     	public QueryVariableResolver(SPObject owner, String namespace, String userFriendlyName) {
 			super(owner, namespace, userFriendlyName);
 		}
-    	public void setUpdateNeeded(boolean updateNeeded) {
-    		this.updateNeeded.set(updateNeeded);
-    	}
-    	protected void beforeLookups(String key) {
-    		if (this.resolvesNamespace(SPVariableHelper.getNamespace(key))) {
-    			this.updateVars();
-    		}
-    	}
-    	protected void beforeKeyLookup(String namespace) {
-    			this.updateVars();
-    	}
-		private synchronized void updateVars() {
-			try {
-				
-				if (isStreaming()) {
-					// XXX We can't use streaming queries as variables providers
-					variables.clear();
-					return;
-				}
-				
-				if (!updateNeeded.get() ||
-						isUpdating.get()) return;
-				
-				isUpdating.set(true);
-				
-				try {
-					ResultSetHandle variablesHandle = execute(
-							new SPVariableHelper(QueryCache.this),
-							null,
-							false);
-					
-					synchronized (variables) {
-						ResultSet rs = variablesHandle.getResultSet();
-						variables.clear();
-						if (rs != null &&
-								rs.first()) {
-							do {
-								for (int i = 0; i < rs.getMetaData().getColumnCount(); i++) {
-									this.store(rs.getMetaData().getColumnName(i+1), rs.getObject(i+1));
-								}
-							} while (rs.next());
-						}					
-					}
-					
-				} finally {
-					isUpdating.set(false);
+		@Override
+		protected ResultSetHandle load(String column, ResultSetListener listener, boolean async) 
+				throws ResultSetProducerException {
+			if (isStreaming()) {
+				// XXX We can't use streaming queries as variables providers
+				return null;
+			}
+			SPVariableHelper helper = new SPVariableHelper(QueryCache.this);
+			if (column != null) {
+				if (VARIABLE_VALUE_LIMIT <= 0) {
+					return null;
 				}
-				
-				this.updateNeeded.set(false);
-				
-			} catch (Exception e) {
-				logger.error("Failed to resolve available variables from a query.", e);
+				return executeDistinct(column, VARIABLE_VALUE_LIMIT, helper, listener, async);
 			}
+			return execute(helper, listener, async);
 		}
     }
     
@@ -394,6 +375,7 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
      */
     public QueryCache(QueryCache q, boolean connectListeners) {
     	this.query = new QueryImpl(q.query, connectListeners);
+    	this.columnarResults = q.columnarResults;
         query.addQueryChangeListener(queryChangeListener);
         query.setUUID(getUUID());
         createWabitObjectWrappers(false);
@@ -510,6 +492,20 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
     		ResultSetListener listener, 
     		boolean async) throws ResultSetProducerException 
     {
+    	return execute(variableContext, listener, async, ExecutionPriority.BACKGROUND);
+    }
+
+    /**
+     * Same as {@link #execute(SPVariableHelper, ResultSetListener, boolean)}
+     * but lets the caller decide how urgently the query must be run compared to
+     * the other queries waiting on the same data source.
+     */
+    public ResultSetHandle execute(
+    		SPVariableHelper variableContext, 
+    		ResultSetListener listener, 
+    		boolean async,
+    		ExecutionPriority priority) throws ResultSetProducerException 
+    {
         
         if (query.getDatabase() == null || query.getDatabase().getDataSource() == null) {
             throw new NullPointerException("Data source is null.");
@@ -531,16 +527,189 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
     				this.getDataSource(),
     				sql,
     				helper,
-    				isStreaming() ? ResultSetType.STREAMING : ResultSetType.RELATIONAL,
+    				getResultSetType(),
     				isStreaming() ? getStreamingRowLimit() : query.getRowLimit(),
     				listener,
-    				async);
+    				async,
+    				priority);
+    		
+    	} catch (Exception t) {
+    		throw new ResultSetProducerException(t);
+    	}
+    }
+
+    /**
+     * Executes a grouped version of this query that returns one row per
+     * distinct combination of the given group by columns, with each of the
+     * aggregate columns combined by its function in the database. This lets
+     * consumers that only need totals, such as charts, avoid fetching and
+     * combining every row themselves. The query itself is not modified.
+     * <p>
+     * Columns are named by their label in this query's result set, that is
+     * their alias if they have one and their name otherwise, ignoring case.
+     * The aggregate columns keep that label in the grouped result set. Every
+     * other column is left out of the grouped query.
+     * <p>
+     * This query's row limit applies to the grouped rows. It limits the
+     * number of groups returned, not the number of rows that are grouped, so
+     * each group returned holds the aggregate of all of its rows.
+     * 
+     * @param groupByColumns
+     *            The labels of the columns to group the rows by.
+     * @param aggregateColumns
+     *            The labels of the columns to aggregate, mapped to the
+     *            function that combines each of them.
+     * @return The handle of the executing grouped query, or null if this
+     *         query cannot be grouped: its SQL was typed in by the user, it
+     *         is already grouped or streaming, or one of the named columns
+     *         is not selected. Callers should execute this query normally
+     *         and aggregate the rows themselves in that case.
+     */
+    public ResultSetHandle executeGrouped(
+    		Collection<String> groupByColumns,
+    		Map<String, SQLGroupFunction> aggregateColumns,
+    		SPVariableHelper variableContext, 
+    		ResultSetListener listener, 
+    		boolean async) throws ResultSetProducerException 
+    {
+    	return executeGrouped(groupByColumns, aggregateColumns, query.getRowLimit(), 
+    			variableContext, listener, async);
+    }
+
+    /**
+     * Executes a query returning the distinct values of one column of this
+     * query, in the order of this query where possible. This is used to look
+     * up the possible values of a column as a variable without fetching
+     * every row of the query.
+     * 
+     * @param column
+     *            The label of the column, ignoring case.
+     * @param rowLimit
+     *            The most values to return.
+     * @return The handle of the executing query, or null if this query
+     *         cannot be grouped by the column, see
+     *         {@link #executeGrouped(Collection, Map, SPVariableHelper, ResultSetListener, boolean)}.
+     */
+    public ResultSetHandle executeDistinct(
+    		String column,
+    		int rowLimit,
+    		SPVariableHelper variableContext, 
+    		ResultSetListener listener, 
+    		boolean async) throws ResultSetProducerException 
+    {
+    	return executeGrouped(Collections.singleton(column), 
+    			Collections.<String, SQLGroupFunction>emptyMap(), rowLimit, 
+    			variableContext, listener, async);
+    }
+    
+    private ResultSetHandle executeGrouped(
+    		Collection<String> groupByColumns,
+    		Map<String, SQLGroupFunction> aggregateColumns,
+    		int rowLimit,
+    		SPVariableHelper variableContext, 
+    		ResultSetListener listener, 
+    		boolean async) throws ResultSetProducerException 
+    {
+    	String sql = generateGroupedQuery(groupByColumns, aggregateColumns);
+    	if (sql == null) {
+    		return null;
+    	}
+        if (query.getDatabase() == null || query.getDatabase().getDataSource() == null) {
+            throw new NullPointerException("Data source is null.");
+        }
+    	logger.debug("Executing grouped query " + sql);
+    	
+    	try {
+    		SPVariableHelper helper;	
+    		if (variableContext != null) {
+    			helper = variableContext;
+    		} else {
+    			helper = new SPVariableHelper(this);
+    		}
+    		
+    		return rsps.execute(
+    				this.getSession().getContext(),
+    				this.getDataSource(),
+    				sql,
+    				helper,
+    				ResultSetType.RELATIONAL,
+    				rowLimit,
+    				listener,
+    				async,
+    				ExecutionPriority.BACKGROUND);
     		
     	} catch (Exception t) {
     		throw new ResultSetProducerException(t);
     	}
     }
 
+    /**
+     * Returns the SQL that
+     * {@link #executeGrouped(Collection, Map, SPVariableHelper, ResultSetListener, boolean)}
+     * runs for the given columns, or null if this query cannot be grouped by
+     * them.
+     */
+    public String generateGroupedQuery(
+    		Collection<String> groupByColumns,
+    		Map<String, SQLGroupFunction> aggregateColumns) 
+    {
+    	if (query.isScriptModified() || query.isGroupingEnabled() || isStreaming()) {
+    		return null;
+    	}
+    	
+    	QueryImpl groupedQuery = new QueryImpl(query, false);
+    	groupedQuery.setGroupingEnabled(true);
+    	Set<String> foundColumns = new HashSet<String>();
+    	for (Item item : new ArrayList<Item>(groupedQuery.getSelectedColumns())) {
+    		String label = item.getAlias();
+    		if (label == null || label.trim().length() == 0) {
+    			label = item.getName();
+    		}
+    		String groupByColumn = findIgnoreCase(groupByColumns, label);
+    		String aggregateColumn = findIgnoreCase(aggregateColumns.keySet(), label);
+    		if (groupByColumn != null) {
+    			item.setGroupBy(SQLGroupFunction.GROUP_BY);
+    			foundColumns.add(groupByColumn);
+    		} else if (aggregateColumn != null) {
+    			item.setGroupBy(aggregateColumns.get(aggregateColumn));
+    			item.setAlias(aggregateColumn);
+    			foundColumns.add(aggregateColumn);
+    		} else {
+    			groupedQuery.unselectItem(item);
+    		}
+    	}
+    	if (!foundColumns.containsAll(groupByColumns) 
+    			|| !foundColumns.containsAll(aggregateColumns.keySet())) {
+    		logger.debug("Not all of " + groupByColumns + " and " + aggregateColumns.keySet() + 
+    				" are selected in " + getName() + ", it will not be grouped.");
+    		return null;
+    	}
+    	
+    	// Rows can only be sorted by the columns that remain in the grouped query.
+    	List<Item> selected = groupedQuery.getSelectedColumns();
+    	for (Item item : new ArrayList<Item>(groupedQuery.getOrderByList())) {
+    		if (!selected.contains(item)) {
+    			groupedQuery.orderColumn(item, OrderByArgument.NONE);
+    		}
+    	}
+    	
+    	return groupedQuery.generateQuery();
+    }
+
+    /**
+     * Returns the name in the given collection equal to the given column
+     * label, ignoring case as databases differ in the case of the labels
+     * they return, or null if there is none.
+     */
+    private static String findIgnoreCase(Collection<String> names, String label) {
+    	for (String name : names) {
+    		if (name != null && name.equalsIgnoreCase(label)) {
+    			return name;
+    		}
+    	}
+    	return null;
+    }
+
     /**
      * Cancels this query's execution if it is currently running. Cancellation
      * is not guaranteed to work perfectly, because it is partly the underlying
@@ -551,6 +720,15 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
         this.rsps.cancel();
     }
     
+    /**
+     * Discards the results of previous executions that would otherwise be
+     * shared with the next callers of execute, forcing the next execution to
+     * query the database again.
+     */
+    public void invalidateCachedResults() {
+    	this.rsps.invalidateCache();
+    }
+    
     // ------------------ end ResultSetProducer interface ----------------------
     
     @Override
@@ -648,6 +826,33 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
         return automaticallyExecuting;
     }
 
+    /**
+     * Sets if the results of this query are stored column by column instead
+     * of row by row. See {@link ColumnarResultSet}.
+     */
+    public void setColumnarResults(boolean columnarResults) {
+        boolean oldColumnarResults = this.columnarResults;
+        this.columnarResults = columnarResults;
+        firePropertyChange("columnarResults", oldColumnarResults, columnarResults);
+    }
+    
+    public boolean isColumnarResults() {
+        return columnarResults;
+    }
+    
+    /**
+     * Returns the kind of result set executing this query produces.
+     */
+    private ResultSetType getResultSetType() {
+        if (isStreaming()) {
+            return ResultSetType.STREAMING;
+        } else if (columnarResults) {
+            return ResultSetType.COLUMNAR;
+        } else {
+            return ResultSetType.RELATIONAL;
+        }
+    }
+
     @Override
     protected boolean removeChildImpl(SPObject child) {
         if (child instanceof WabitConstantsContainer) {
@@ -1221,13 +1426,17 @@ public class QueryCache extends AbstractWabitObject implements StatementExecutor
 			this.internalHandle.removeResultSetListener(resultSetListener);
 		}
 		
+		// The user asked to run the query, don't hand back old results.
+		invalidateCachedResults();
+		
 		try {
 			
 			this.internalHandle = 
 					this.execute(
 							new SPVariableHelper(this), 
 							this.resultSetListener, 
-							false);
+							false,
+							ExecutionPriority.INTERACTIVE);
 			
 			return true;
 			
@@ -2213,6 +2213,10 @@ public class WabitSwingSessionContextImpl implements WabitSwingSessionContext {
     	return delegateContext.createPreparedStatement(dataSource, mdx, helper);
     }
     
+    public void releaseConnection(Olap4jDataSource dataSource, OlapConnection connection, boolean broken) {
+    	delegateContext.releaseConnection(dataSource, connection, broken);
+    }
+    
     public Connection createConnection(JDBCDataSource dataSource) throws SQLObjectException {
     	return delegateContext.createConnection(dataSource);
     }
@@ -105,6 +105,26 @@ public class ChartSwingUtil {
      *         produce a result set.
      */
     public static JFreeChart createChartFromQuery(Chart c) throws SQLException, QueryInitializationException, InterruptedException {
+        return createChartFromQuery(c, 0);
+    }
+
+    /**
+     * Creates a JFreeChart based on the current query results produced by the
+     * given chart, with the series of XY charts reduced to at most the given
+     * number of points. See {@link Chart#createDataset(boolean, int)}.
+     * 
+     * @param c
+     *            The chart from which to produce a JFreeChart component. Must
+     *            not be null.
+     * @param maxPointsPerSeries
+     *            The most points each series of an XY chart can have, or 0 to
+     *            keep them all.
+     * @return A chart based on the data and settings in the given chart, or
+     *         null if the given chart is not sufficiently configured or it is
+     *         currently unable to produce a result set.
+     */
+    public static JFreeChart createChartFromQuery(Chart c, int maxPointsPerSeries) 
+    		throws SQLException, QueryInitializationException, InterruptedException {
         logger.debug("Creating JFreeChart for Wabit chart " + c);
         ChartType chartType = c.getType();
         
@@ -140,7 +160,7 @@ public class ChartSwingUtil {
             
         } else if (chartType.getDatasetType().equals(DatasetType.XY)) {
             
-        	JFreeChart xyChart = createXYChart(c);
+        	JFreeChart xyChart = createXYChart(c, maxPointsPerSeries);
             logger.debug("Made a new XY chart: " + xyChart);
             chart = xyChart;
         
@@ -469,9 +489,11 @@ public class ChartSwingUtil {
      * 
      * @param c
      *            The chart to extract the dataset and JFreeChart settings from.
+     * @param maxPointsPerSeries
+     *            The most points each series can have, or 0 to keep them all.
      * @return A chart based on the data in the query of the given type.
      */
-    private static JFreeChart createXYChart(Chart c) {
+    private static JFreeChart createXYChart(Chart c, int maxPointsPerSeries) {
         if (c.getType().getDatasetType() != DatasetType.XY) {
             throw new IllegalStateException(
                     "Chart is not currently set up as an XY chart " +
@@ -484,7 +506,7 @@ public class ChartSwingUtil {
         String yaxisName = c.getYaxisName();
         String xaxisName = c.getXaxisName();
         
-        final XYDataset xyCollection = (XYDataset) c.createDataset();
+        final XYDataset xyCollection = (XYDataset) c.createDataset(true, maxPointsPerSeries);
         
         boolean containsSeries = false;
         for (ChartColumn identifier : columnNamesInOrder) {
@@ -21,6 +21,7 @@ package ca.sqlpower.wabit.swingui.chart.effect;
 
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.data.category.CategoryDataset;
 import org.jfree.data.category.DefaultCategoryDataset;
 
 import ca.sqlpower.wabit.swingui.chart.effect.interp.BallDropInterpolator;
@@ -38,7 +39,7 @@ public class BarChartAnimatorFactory extends AbstractChartAnimatorFactory {
         if (cplot.getDatasetCount() != 1) {
             return false;
         }
-        if (!(cplot.getDataset() instanceof DefaultCategoryDataset)) {
+        if (!(cplot.getDataset() instanceof CategoryDataset)) {
             return false;
         }
         return true;
@@ -46,11 +47,21 @@ public class BarChartAnimatorFactory extends AbstractChartAnimatorFactory {
 
     public ChartAnimator createAnimator(JFreeChart chart) throws CantAnimateException {
         DefaultCategoryDataset dataset;
-        if (chart.getCategoryPlot().getDataset() instanceof DefaultCategoryDataset) {
-            dataset = (DefaultCategoryDataset) chart.getCategoryPlot().getDataset();
+        CategoryDataset plotDataset = chart.getCategoryPlot().getDataset();
+        if (plotDataset instanceof DefaultCategoryDataset) {
+            dataset = (DefaultCategoryDataset) plotDataset;
+        } else if (plotDataset != null) {
+            // Read-only datasets are copied into one the animator can change.
+            dataset = new DefaultCategoryDataset();
+            for (int row = 0; row < plotDataset.getRowCount(); row++) {
+                for (int column = 0; column < plotDataset.getColumnCount(); column++) {
+                    dataset.addValue(plotDataset.getValue(row, column), 
+                            plotDataset.getRowKey(row), plotDataset.getColumnKey(column));
+                }
+            }
+            chart.getCategoryPlot().setDataset(dataset);
         } else {
-            throw new CantAnimateException("Unsupported dataset type " +
-                    chart.getCategoryPlot().getDataset());
+            throw new CantAnimateException("Unsupported dataset type " + plotDataset);
         }
 
         chart.getCategoryPlot().getRangeAxis().setAutoRange(false);
@@ -92,6 +92,7 @@ import ca.sqlpower.wabit.rs.ResultSetListener;
 import ca.sqlpower.wabit.rs.ResultSetProducerEvent;
 import ca.sqlpower.wabit.rs.ResultSetProducerException;
 import ca.sqlpower.wabit.rs.ResultSetProducerListener;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ExecutionPriority;
 import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetStatus;
 import ca.sqlpower.wabit.rs.olap.OlapQuery;
 import ca.sqlpower.wabit.swingui.QueryPanel;
@@ -494,7 +495,9 @@ public class OlapQueryPanel implements WabitPanel {
 			this.resultSetHandle = 
 				this.query.execute(
 						new SPVariableHelper(query), 
-						this.resultSetListener);
+						this.resultSetListener,
+						true,
+						ExecutionPriority.INTERACTIVE);
 		} catch (ResultSetProducerException e1) {
 			cellSetViewer.showMessage(query, "Cannot execute your query : " + e1.getMessage());
 		}
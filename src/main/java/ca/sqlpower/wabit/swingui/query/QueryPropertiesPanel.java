@@ -82,6 +82,12 @@ public class QueryPropertiesPanel implements DataEntryPanel {
      * side.
      */
     private final JCheckBox automaticallyExecutingCB;
+    
+    /**
+     * If checked the results of the query are stored column by column, which
+     * uses less memory for large results.
+     */
+    private final JCheckBox columnarResultsCB;
 	
 	public QueryPropertiesPanel(QueryCache queryArg) {
 		this.query = queryArg;
@@ -122,11 +128,16 @@ public class QueryPropertiesPanel implements DataEntryPanel {
 		automaticallyExecutingCB = new JCheckBox("Automatically execute",
 				query.isAutomaticallyExecuting());
 		
+		columnarResultsCB = new JCheckBox("Store results by column", query.isColumnarResults());
+		columnarResultsCB.setToolTipText("Uses less memory for large results. " +
+				"Does not apply to streaming queries.");
+		
 		
 		panel.setLayout(new MigLayout());
 		panel.add(automaticallyExecutingCB, "span");
 		panel.add(promptForCrossJoinsCB, "span");
 		panel.add(executeWithCrossJoinsCB, "gapbefore 20, span");
+		panel.add(columnarResultsCB, "span");
 		
 		
 		panel.add(streamingComboBox, "span, wrap");
@@ -147,6 +158,7 @@ public class QueryPropertiesPanel implements DataEntryPanel {
 	public boolean applyChanges() {
 	    query.setPromptForCrossJoins(promptForCrossJoinsCB.isSelected());
 	    query.setAutomaticallyExecuting(automaticallyExecutingCB.isSelected());
+	    query.setColumnarResults(columnarResultsCB.isSelected());
 	    query.setExecuteQueriesWithCrossJoins(executeWithCrossJoinsCB.isSelected());
 	    query.setStreamingRowLimit((Integer) streamingRowLimitField.getValue());
 		return true;
@@ -351,7 +351,7 @@ public class ContentBoxNode extends PNode implements ReportNode {
 
 	private Runnable refreshRoutine = new Runnable() {
 		public void run() {
-			parentPanel.refreshDataAction.actionPerformed(null);
+			parentPanel.refreshScheduler.requestRefresh();
 		}
 	};
 
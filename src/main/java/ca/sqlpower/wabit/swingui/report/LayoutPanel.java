@@ -83,6 +83,7 @@ import ca.sqlpower.wabit.report.ImageRenderer;
 import ca.sqlpower.wabit.report.Layout;
 import ca.sqlpower.wabit.report.Page;
 import ca.sqlpower.wabit.report.Report;
+import ca.sqlpower.wabit.report.ReportRefreshScheduler;
 import ca.sqlpower.wabit.report.ReportContentRenderer;
 import ca.sqlpower.wabit.report.ResultSetRenderer;
 import ca.sqlpower.wabit.report.Template;
@@ -303,6 +304,12 @@ public class LayoutPanel implements WabitPanel, MouseState {
 	private final PageNode pageNode;
 	private final Layout layout;
 	
+	/**
+	 * Refreshes the content of the layout that uses the selectors whose
+	 * values change. The selector components are given its refresh routine.
+	 */
+	protected final ReportRefreshScheduler refreshScheduler;
+	
 	private final WabitToolBarBuilder toolBarBuilder = new WabitToolBarBuilder();
 
 	/**
@@ -364,6 +371,12 @@ public class LayoutPanel implements WabitPanel, MouseState {
 		
 	protected final Action refreshDataAction = new AbstractAction("", REFRESH_ICON) {
 		public void actionPerformed(ActionEvent e) {
+			for (QueryCache query : session.getWorkspace().getQueries()) {
+				query.invalidateCachedResults();
+			}
+			for (OlapQuery query : session.getWorkspace().getOlapQueries()) {
+				query.invalidateCachedResults();
+			}
 			for (WabitObject child: layout.getChildren()) {
 				if (child instanceof Page) {
 					Page page = (Page)child;
@@ -399,6 +412,11 @@ public class LayoutPanel implements WabitPanel, MouseState {
         parentFrame = ((WabitSwingSessionContext) session.getContext()).getFrame();
 		this.layout = layout;
 		canvas = new PCanvas();
+		refreshScheduler = new ReportRefreshScheduler(layout, new Runnable() {
+			public void run() {
+				canvas.repaint();
+			}
+		});
         canvas.setAnimatingRenderQuality(PPaintContext.HIGH_QUALITY_RENDERING);
         canvas.setInteractingRenderQuality(PPaintContext.HIGH_QUALITY_RENDERING);
         canvas.setPanEventHandler(null);
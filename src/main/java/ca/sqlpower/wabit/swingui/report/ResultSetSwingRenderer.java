@@ -56,6 +56,7 @@ import org.apache.log4j.Logger;
 import ca.sqlpower.object.HorizontalAlignment;
 import ca.sqlpower.swingui.AlignmentIcons;
 import ca.sqlpower.swingui.DataEntryPanel;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.report.ColumnInfo;
 import ca.sqlpower.wabit.report.DataType;
 import ca.sqlpower.wabit.report.ReportUtil;
@@ -405,6 +406,11 @@ public class ResultSetSwingRenderer implements SwingContentRenderer {
         
         
         final JCheckBox subtotalCheckbox = new JCheckBox("Print Subtotals");
+        final JComboBox aggregateComboBox = new JComboBox(AggregateFunction.values());
+        aggregateComboBox.setSelectedItem(ci.getAggregate());
+        Box subtotalBox = Box.createHorizontalBox();
+        subtotalBox.add(subtotalCheckbox);
+        subtotalBox.add(aggregateComboBox);
         
         final JLabel linkingLabel = new JLabel("Link to report");
         final JComboBox linkingBox = new JComboBox();
@@ -469,13 +475,19 @@ public class ResultSetSwingRenderer implements SwingContentRenderer {
         fb.append(columnLabel);
         fb.append(widthLabel);
         fb.append(widthSpinner);
-        fb.append(subtotalCheckbox);
+        fb.append(subtotalBox);
         subtotalCheckbox.setSelected(ci.getWillSubtotal());
         if (ci.getDataType().equals(DataType.NUMERIC)) {
         	subtotalCheckbox.setEnabled(true);
         } else {
         	subtotalCheckbox.setEnabled(false);
         }
+        aggregateComboBox.setEnabled(subtotalCheckbox.isEnabled() && subtotalCheckbox.isSelected());
+        subtotalCheckbox.addActionListener(new AbstractAction() {
+        	public void actionPerformed(ActionEvent e) {
+        		aggregateComboBox.setEnabled(subtotalCheckbox.isSelected());
+        	}
+        });
         fb.nextLine();
         
         
@@ -565,12 +577,15 @@ public class ResultSetSwingRenderer implements SwingContentRenderer {
                 if(((JComboBox)e.getSource()).getSelectedItem() == DataType.TEXT){
                     formatComboBox.setEnabled(false);
                     subtotalCheckbox.setEnabled(false);
+                    aggregateComboBox.setEnabled(false);
                 } else if(((JComboBox)e.getSource()).getSelectedItem() == DataType.DATE){
                     formatComboBox.setEnabled(true);
                     subtotalCheckbox.setEnabled(false);
+                    aggregateComboBox.setEnabled(false);
                 } else if(((JComboBox)e.getSource()).getSelectedItem() == DataType.NUMERIC){
                 	formatComboBox.setEnabled(true);
                     subtotalCheckbox.setEnabled(true);
+                    aggregateComboBox.setEnabled(subtotalCheckbox.isSelected());
                 }
                 setItemforFormatComboBox(formatComboBox, (DataType)dataTypeComboBox.getSelectedItem());
             }
@@ -634,6 +649,7 @@ public class ResultSetSwingRenderer implements SwingContentRenderer {
                     ci.setWillGroupOrBreak(GroupAndBreak.NONE);
                 }
                 ci.setWillSubtotal(subtotalCheckbox.isSelected());
+                ci.setAggregate((AggregateFunction) aggregateComboBox.getSelectedItem());
                 
                 renderer.refresh();
                 
@@ -61,6 +61,18 @@ public class FancyComboBoxSelector extends JComboBox implements
 			
 			SwingUtilities.invokeLater(refreshRoutine);
 		}
+		
+		public void possibleValuesChanged(Selector source) {
+			if (SwingUtilities.isEventDispatchThread()) {
+				refresh();
+			} else {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						refresh();
+					}
+				});
+			}
+		}
 	};
 	
 	public FancyComboBoxSelector(ComboBoxSelector selector, Runnable refreshRoutine) {
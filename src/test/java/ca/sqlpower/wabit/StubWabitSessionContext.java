@@ -191,25 +191,24 @@ public class StubWabitSessionContext implements WabitSessionContext {
 			throw new RuntimeException(e);
 		}
     }
+    
+    public void releaseConnection(Olap4jDataSource dataSource,
+    		OlapConnection connection, boolean broken) {
+    	// all statements share the pool's connection
+    }
 	
 	public Connection createConnection(JDBCDataSource dataSource) throws SQLObjectException {
 		if (dataSource == null) return null;
 		return getDatabase(dataSource).getConnection();
 	}
 	
-	private final Map<JDBCDataSource, Connection> sqlConnections = 
-    	new HashMap<JDBCDataSource, Connection>();
-	
 	public PreparedStatement createPreparedStatement(
 			JDBCDataSource dataSource,
 			String sql,
 			SPVariableHelper helper) throws SQLObjectException 
 	{
-    	Connection conn = this.sqlConnections.get(dataSource);
-    	if (conn == null) {
-    		conn = getDatabase(dataSource).getConnection();
-    		this.sqlConnections.put(dataSource, conn);
-    	}
+		// The caller closes the statement's connection when it is done.
+    	Connection conn = getDatabase(dataSource).getConnection();
     	
     	try {
 			return helper.substituteForDb(conn, sql);
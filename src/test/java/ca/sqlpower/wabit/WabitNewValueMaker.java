@@ -52,6 +52,7 @@ import ca.sqlpower.testutil.GenericNewValueMaker;
 import ca.sqlpower.testutil.SPObjectRoot;
 import ca.sqlpower.wabit.enterprise.client.ReportTask;
 import ca.sqlpower.wabit.image.WabitImage;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.report.ContentBox;
 import ca.sqlpower.wabit.report.DataType;
 import ca.sqlpower.wabit.report.Guide;
@@ -331,6 +332,13 @@ public class WabitNewValueMaker extends GenericNewValueMaker {
                 newValue = GroupAndBreak.GROUP;
             }
             
+        } else if (valueType.equals(AggregateFunction.class)) {
+            if (oldVal == AggregateFunction.SUM) {
+                newValue = AggregateFunction.AVERAGE;
+            } else {
+                newValue = AggregateFunction.SUM;
+            }
+            
         } else if (valueType.equals(WabitSession.class)) {
             newValue = new StubWabitSession(new StubWabitSessionContext());
             
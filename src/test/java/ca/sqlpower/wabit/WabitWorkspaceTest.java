@@ -371,4 +371,33 @@ public class WabitWorkspaceTest extends AbstractWabitObjectTest {
         assertFalse(workspace.getChildren().contains(q));
     }
 
+    /**
+     * The UUID index must follow objects anywhere in the tree as they are
+     * added, removed and given new UUIDs.
+     */
+    public void testFindByUuidFollowsTree() throws Exception {
+        QueryCache query = new QueryCache(getContext());
+        workspace.addQuery(query, getSession());
+        Report report = new Report("report");
+        workspace.addReport(report);
+        ContentBox box = new ContentBox();
+        report.getPage().addContentBox(box);
+        
+        assertSame(workspace, workspace.findByUuid(workspace.getUUID(), WabitWorkspace.class));
+        assertSame(query, workspace.findByUuid(query.getUUID(), QueryCache.class));
+        assertSame(box, workspace.findByUuid(box.getUUID(), ContentBox.class));
+        assertTrue(workspace.checkUuidIndex().toString(), workspace.checkUuidIndex().isEmpty());
+        
+        String oldUuid = box.getUUID();
+        box.generateNewUUID();
+        assertNull(workspace.findByUuid(oldUuid, SPObject.class));
+        assertSame(box, workspace.findByUuid(box.getUUID(), ContentBox.class));
+        
+        workspace.removeChild(report);
+        assertNull(workspace.findByUuid(report.getUUID(), SPObject.class));
+        assertNull(workspace.findByUuid(box.getUUID(), SPObject.class));
+        assertNull(workspace.findByUuid(null, SPObject.class));
+        assertTrue(workspace.checkUuidIndex().toString(), workspace.checkUuidIndex().isEmpty());
+    }
+
 }
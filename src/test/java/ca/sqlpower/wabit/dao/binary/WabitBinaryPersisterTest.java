@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.dao.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ca.sqlpower.dao.MessageSender;
+import ca.sqlpower.dao.PersistedSPOProperty;
+import ca.sqlpower.dao.PersistedSPObject;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister.DataType;
+import ca.sqlpower.wabit.dao.CountingWabitPersister;
+
+public class WabitBinaryPersisterTest extends TestCase {
+
+	/**
+	 * Keeps every flushed message so it can be decoded again.
+	 */
+	private static class RecordingMessageSender implements MessageSender<byte[]> {
+		
+		private final List<byte[]> pending = new ArrayList<byte[]>();
+		
+		private final List<byte[]> flushed = new ArrayList<byte[]>();
+		
+		public void send(byte[] content) throws SPPersistenceException {
+			pending.add(content);
+		}
+		
+		public void flush() throws SPPersistenceException {
+			flushed.addAll(pending);
+			pending.clear();
+		}
+		
+		public void clear() {
+			pending.clear();
+		}
+	}
+	
+	private RecordingMessageSender sender;
+	
+	private WabitBinaryPersister persister;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sender = new RecordingMessageSender();
+		persister = new WabitBinaryPersister(sender);
+	}
+
+	/**
+	 * Every kind of call and value must come out of the decoder the way it
+	 * went into the persister.
+	 */
+	public void testRoundTrip() throws Exception {
+		byte[] png = new byte[] {(byte) 0x89, 'P', 'N', 'G', 0, -1, 42};
+		Date date = new Date(1234567890L);
+		
+		persister.begin();
+		persister.persistObject("parent", "QueryCache", "child", 3);
+		persister.persistProperty("child", "name", DataType.STRING, "old", "new \u00e9\u20ac");
+		persister.persistProperty("child", "rowLimit", DataType.INTEGER, -1, 1000);
+		persister.persistProperty("child", "size", DataType.NUMERIC, Long.MAX_VALUE, new BigDecimal("1.25"));
+		persister.persistProperty("child", "width", DataType.DOUBLE, null, 12.5d);
+		persister.persistProperty("child", "streaming", DataType.BOOLEAN, true, false);
+		persister.persistProperty("child", "date", DataType.DATE, null, date);
+		persister.persistProperty("child", "dataSource", DataType.REFERENCE, "parent", "child");
+		persister.persistProperty("child", "image", DataType.PNG_IMG, new ByteArrayInputStream(png));
+		persister.removeObject("parent", "other");
+		persister.commit();
+		
+		assertEquals(1, sender.flushed.size());
+		
+		CountingWabitPersister target = new CountingWabitPersister();
+		new WabitBinaryMessageDecoder(target).decode(sender.flushed.get(0));
+		
+		assertEquals(1, target.getPersistObjectCount());
+		PersistedSPObject object = target.getLastPersistObject();
+		assertEquals("parent", object.getParentUUID());
+		assertEquals("QueryCache", object.getType());
+		assertEquals("child", object.getUUID());
+		assertEquals(3, object.getIndex());
+		
+		assertEquals(7, target.getPersistPropertyCount());
+		assertEquals(1, target.getPersistPropertyUnconditionallyCount());
+		assertEquals(1, target.getRemoveObjectCount());
+		
+		List<PersistedSPOProperty> properties = target.getAllPropertyChanges();
+		assertProperty(properties.get(0), "name", DataType.STRING, "old", "new \u00e9\u20ac");
+		assertProperty(properties.get(1), "rowLimit", DataType.INTEGER, -1, 1000);
+		assertProperty(properties.get(2), "size", DataType.NUMERIC, Long.MAX_VALUE, new BigDecimal("1.25"));
+		assertProperty(properties.get(3), "width", DataType.DOUBLE, null, 12.5d);
+		assertProperty(properties.get(4), "streaming", DataType.BOOLEAN, true, false);
+		assertProperty(properties.get(5), "date", DataType.DATE, null, date);
+		assertProperty(properties.get(6), "dataSource", DataType.REFERENCE, "parent", "child");
+		
+		PersistedSPOProperty image = properties.get(7);
+		assertEquals("image", image.getPropertyName());
+		assertEquals(DataType.PNG_IMG, image.getDataType());
+		InputStream imageData = (InputStream) image.getNewValue();
+		byte[] decoded = new byte[png.length];
+		assertEquals(png.length, imageData.read(decoded));
+		assertEquals(-1, imageData.read());
+		assertTrue(Arrays.equals(png, decoded));
+	}
+	
+	private void assertProperty(PersistedSPOProperty property, String name, 
+			DataType type, Object oldValue, Object newValue) {
+		assertEquals("child", property.getUUID());
+		assertEquals(name, property.getPropertyName());
+		assertEquals(type, property.getDataType());
+		assertEquals(oldValue, property.getOldValue());
+		assertEquals(newValue, property.getNewValue());
+	}
+
+	/**
+	 * Nothing is sent until the outermost transaction commits, and then the
+	 * whole transaction is sent together.
+	 */
+	public void testSentOnOutermostCommit() throws Exception {
+		persister.begin();
+		persister.begin();
+		persister.persistProperty("uuid", "name", DataType.STRING, "a", "b");
+		persister.commit();
+		assertTrue(sender.flushed.isEmpty());
+		persister.persistProperty("uuid", "name", DataType.STRING, "b", "c");
+		persister.commit();
+		assertEquals(1, sender.flushed.size());
+		
+		CountingWabitPersister target = new CountingWabitPersister();
+		new WabitBinaryMessageDecoder(target).decode(sender.flushed.get(0));
+		assertEquals(2, target.getPersistPropertyCount());
+	}
+	
+	public void testRollbackDiscardsTransaction() throws Exception {
+		persister.begin();
+		persister.persistProperty("uuid", "name", DataType.STRING, "a", "b");
+		persister.rollback();
+		assertTrue(sender.flushed.isEmpty());
+		
+		persister.begin();
+		persister.persistProperty("uuid", "name", DataType.STRING, "b", "c");
+		persister.commit();
+		assertEquals(1, sender.flushed.size());
+		
+		CountingWabitPersister target = new CountingWabitPersister();
+		new WabitBinaryMessageDecoder(target).decode(sender.flushed.get(0));
+		assertEquals(1, target.getPersistPropertyCount());
+		assertEquals("c", target.getLastNewValue());
+	}
+
+	/**
+	 * Repeated UUIDs and property names are only written in full once per
+	 * frame, so a transaction touching one object many times stays small.
+	 */
+	public void testRepeatedStringsAreInterned() throws Exception {
+		String uuid = "w1234567-89ab-cdef-0123-456789abcdef";
+		persister.begin();
+		for (int i = 0; i < 100; i++) {
+			persister.persistProperty(uuid, "rowLimit", DataType.INTEGER, i, i + 1);
+		}
+		persister.commit();
+		
+		assertTrue(sender.flushed.get(0).length < 100 * uuid.length());
+	}
+	
+	public void testDecodeRejectsOtherContent() throws Exception {
+		try {
+			new WabitBinaryMessageDecoder(new CountingWabitPersister()).decode(
+					"[{\"method\":\"begin\"}]".getBytes("UTF-8"));
+			fail("JSON content was decoded as binary");
+		} catch (SPPersistenceException e) {
+			// expected
+		}
+	}
+}
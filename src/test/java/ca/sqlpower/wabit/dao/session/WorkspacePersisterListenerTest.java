@@ -20,6 +20,8 @@
 package ca.sqlpower.wabit.dao.session;
 
 import junit.framework.TestCase;
+import ca.sqlpower.dao.PersistedSPOProperty;
+import ca.sqlpower.dao.SPPersistenceException;
 import ca.sqlpower.wabit.WabitWorkspace;
 import ca.sqlpower.wabit.dao.CountingWabitPersister;
 import ca.sqlpower.wabit.image.WabitImage;
@@ -50,4 +52,98 @@ public class WorkspacePersisterListenerTest extends TestCase {
 		assertEquals(image.getUUID(), counter.getLastPersistObject().getUUID());
 	}
 
+	/**
+	 * Tests that repeated changes to a property held by the coalescing mode
+	 * are sent as one change from the first old value to the last new value.
+	 */
+	public void testCoalescedPropertyChanges() throws Exception {
+		CountingWabitPersister counter = new CountingWabitPersister();
+		WorkspacePersisterListener listener = new WorkspacePersisterListener(
+				new StubWabitSwingSession(), counter, true);
+		listener.setCoalesceDelay(60000);
+		
+		WabitImage image = new WabitImage();
+		image.setName("first");
+		image.addSPListener(listener);
+		
+		image.setName("second");
+		image.setName("third");
+		image.setName("last");
+		assertEquals(0, counter.getPersistPropertyCount());
+		
+		listener.flush();
+		
+		assertEquals(1, counter.getPersistPropertyCount());
+		assertEquals(image.getUUID(), counter.getLastUUID());
+		assertEquals("name", counter.getLastPropertyName());
+		assertEquals("first", counter.getLastOldValue());
+		assertEquals("last", counter.getLastNewValue());
+		
+		listener.flush();
+		assertEquals(1, counter.getPersistPropertyCount());
+	}
+	
+	/**
+	 * Tests that held property changes are sent when their delay is over, and
+	 * that a failure to send them does not stop later changes from being sent.
+	 */
+	public void testCoalescedChangesSentAfterDelay() throws Exception {
+		CountingWabitPersister counter = new CountingWabitPersister() {
+			private boolean failed;
+			@Override
+			public void begin() throws SPPersistenceException {
+				if (!failed) {
+					failed = true;
+					throw new SPPersistenceException(null, "Failing the first transaction");
+				}
+			}
+		};
+		WorkspacePersisterListener listener = new WorkspacePersisterListener(
+				new StubWabitSwingSession(), counter, true);
+		listener.setCoalesceDelay(10);
+		
+		WabitImage image = new WabitImage();
+		image.addSPListener(listener);
+		
+		image.setName("lost");
+		Thread.sleep(200);
+		assertEquals(0, counter.getPersistPropertyCount());
+		
+		image.setName("sent");
+		for (int i = 0; i < 100 && counter.getPersistPropertyCount() == 0; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(1, counter.getPersistPropertyCount());
+		assertEquals("sent", counter.getLastNewValue());
+	}
+	
+	/**
+	 * Tests that held property changes are sent before a following
+	 * transaction that adds an object.
+	 */
+	public void testCoalescedChangesSentBeforeAdd() throws Exception {
+		WabitWorkspace workspace = new WabitWorkspace();
+		CountingWabitPersister counter = new CountingWabitPersister();
+		WorkspacePersisterListener listener = new WorkspacePersisterListener(
+				new StubWabitSwingSession(), counter, true);
+		listener.setCoalesceDelay(60000);
+		
+		WabitImage image = new WabitImage();
+		image.setName("old name");
+		workspace.addImage(image);
+		workspace.addSPListener(listener);
+		image.addSPListener(listener);
+		
+		image.setName("new name");
+		assertEquals(0, counter.getPersistPropertyCount());
+		
+		workspace.addImage(new WabitImage());
+		
+		assertEquals(1, counter.getPersistObjectCount());
+		assertEquals(1, counter.getPersistPropertyCount());
+		PersistedSPOProperty first = counter.getAllPropertyChanges().get(0);
+		assertEquals(image.getUUID(), first.getUUID());
+		assertEquals("new name", first.getNewValue());
+	}
+
 }
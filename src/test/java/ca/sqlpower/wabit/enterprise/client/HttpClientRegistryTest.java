@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.params.ConnManagerParams;
+
+import ca.sqlpower.enterprise.client.SPServerInfo;
+
+public class HttpClientRegistryTest extends TestCase {
+	
+	@Override
+	protected void tearDown() throws Exception {
+		HttpClientRegistry.shutdownAll();
+		super.tearDown();
+	}
+
+	/**
+	 * Every caller talking to the same server as the same user must share one
+	 * client, so they share its connections.
+	 */
+	public void testOneClientPerServerAndUser() throws Exception {
+		SPServerInfo server = new SPServerInfo("server", "localhost", 8080, "/wabit-enterprise/", "user", "pass");
+		SPServerInfo sameServer = new SPServerInfo("other name", "localhost", 8080, "/wabit-enterprise/", "user", "pass");
+		SPServerInfo otherUser = new SPServerInfo("server", "localhost", 8080, "/wabit-enterprise/", "admin", "pass");
+		
+		assertSame(HttpClientRegistry.getClient(server), HttpClientRegistry.getClient(sameServer));
+		assertSame(HttpClientRegistry.getMetrics(server), HttpClientRegistry.getMetrics(sameServer));
+		assertNotSame(HttpClientRegistry.getClient(server), HttpClientRegistry.getClient(otherUser));
+	}
+	
+	/**
+	 * The shared clients must talk to https servers like the clients they
+	 * replaced, and must not wait forever for a pooled connection.
+	 */
+	public void testHttpsAndConnectionRequestTimeout() throws Exception {
+		SPServerInfo server = new SPServerInfo("server", "localhost", 8443, "/wabit-enterprise/", "user", "pass");
+		HttpClient client = HttpClientRegistry.getClient(server);
+		assertEquals(443, client.getConnectionManager().getSchemeRegistry().getScheme("https").getDefaultPort());
+		assertEquals(80, client.getConnectionManager().getSchemeRegistry().getScheme("http").getDefaultPort());
+		assertEquals(HttpClientRegistry.CONNECTION_REQUEST_TIMEOUT, ConnManagerParams.getTimeout(client.getParams()));
+	}
+	
+	public void testShutdownReplacesClients() throws Exception {
+		SPServerInfo server = new SPServerInfo("server", "localhost", 8080, "/wabit-enterprise/", "user", "pass");
+		Object client = HttpClientRegistry.getClient(server);
+		HttpClientRegistry.shutdownAll();
+		assertNotSame(client, HttpClientRegistry.getClient(server));
+	}
+	
+	public void testMetrics() throws Exception {
+		HttpRequestMetrics metrics = new HttpRequestMetrics();
+		assertEquals(0, metrics.getAverageTime());
+		metrics.record(10, 200);
+		metrics.record(30, 500);
+		assertEquals(2, metrics.getRequestCount());
+		assertEquals(1, metrics.getErrorCount());
+		assertEquals(40, metrics.getTotalTime());
+		assertEquals(20, metrics.getAverageTime());
+		assertEquals(30, metrics.getMaxTime());
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.enterprise.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ServerUpdateChannelTest extends TestCase {
+	
+	private ByteArrayOutputStream bytes;
+	
+	private DataOutputStream out;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		bytes = new ByteArrayOutputStream();
+		out = new DataOutputStream(bytes);
+	}
+	
+	private void writeBatch(String workspaceUUID, String contentType, byte[] batch) throws IOException {
+		out.writeUTF(workspaceUUID);
+		out.writeUTF(contentType);
+		out.writeInt(batch.length);
+		out.write(batch);
+	}
+	
+	private Map<String, List<ServerUpdate>> read() throws IOException {
+		out.flush();
+		return ServerUpdateChannel.readUpdates(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+	
+	public void testEmptyResponse() throws Exception {
+		assertTrue(read().isEmpty());
+	}
+
+	/**
+	 * Batches are handed out per workspace, in the order the server sent them,
+	 * each in its own format.
+	 */
+	public void testBatchesGroupedByWorkspace() throws Exception {
+		byte[] binary = new byte[] {1, 2, 3};
+		writeBatch("w1", "application/json; charset=ISO-8859-1", "[1]".getBytes("ISO-8859-1"));
+		writeBatch("w2", WireFormat.BINARY.getContentType(), binary);
+		writeBatch("w1", "application/json", "[2]".getBytes("UTF-8"));
+		
+		Map<String, List<ServerUpdate>> updates = read();
+		assertEquals(Arrays.asList("w1", "w2"), Arrays.asList(updates.keySet().toArray()));
+		
+		List<ServerUpdate> w1 = updates.get("w1");
+		assertEquals(2, w1.size());
+		assertEquals(WireFormat.JSON, w1.get(0).getFormat());
+		assertEquals("ISO-8859-1", w1.get(0).getCharset());
+		assertEquals("[1]", new String(w1.get(0).getContent(), w1.get(0).getCharset()));
+		assertEquals("UTF-8", w1.get(1).getCharset());
+		assertEquals("[2]", new String(w1.get(1).getContent(), w1.get(1).getCharset()));
+		
+		List<ServerUpdate> w2 = updates.get("w2");
+		assertEquals(1, w2.size());
+		assertEquals(WireFormat.BINARY, w2.get(0).getFormat());
+		assertTrue(Arrays.equals(binary, w2.get(0).getContent()));
+	}
+	
+	public void testTruncatedResponse() throws Exception {
+		out.writeUTF("w1");
+		out.writeUTF("application/json");
+		out.writeInt(10);
+		out.write(new byte[3]);
+		try {
+			read();
+			fail("A truncated batch was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -20,6 +20,9 @@
 package ca.sqlpower.wabit.query;
 
 import java.beans.PropertyChangeEvent;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import ca.sqlpower.object.SPChildEvent;
@@ -27,6 +30,7 @@ import ca.sqlpower.query.Container;
 import ca.sqlpower.query.Item;
 import ca.sqlpower.query.ItemContainer;
 import ca.sqlpower.query.QueryChangeAdapter;
+import ca.sqlpower.query.SQLGroupFunction;
 import ca.sqlpower.query.SQLJoin;
 import ca.sqlpower.query.SQLObjectItem;
 import ca.sqlpower.query.StringItem;
@@ -254,4 +258,41 @@ public class QueryCacheTest extends AbstractWabitObjectTest {
         
     }
     
+    /**
+     * The grouped query groups by the given columns, aggregates the others
+     * by their function and leaves every other column out, without changing
+     * the query itself.
+     */
+    public void testGenerateGroupedQuery() throws Exception {
+        Container container = new ItemContainer("sales");
+        Item category = new SQLObjectItem("category", "category-uuid");
+        Item amount = new SQLObjectItem("amount", "amount-uuid");
+        Item other = new SQLObjectItem("other", "other-uuid");
+        container.addItem(category);
+        container.addItem(amount);
+        container.addItem(other);
+        queryCache.addTable(container);
+        queryCache.selectItem(category);
+        queryCache.selectItem(amount);
+        queryCache.selectItem(other);
+        String originalQuery = queryCache.generateQuery();
+        
+        Map<String, SQLGroupFunction> aggregates = new HashMap<String, SQLGroupFunction>();
+        aggregates.put("AMOUNT", SQLGroupFunction.MAX);
+        String sql = queryCache.generateGroupedQuery(Collections.singleton("category"), aggregates);
+        
+        assertNotNull(sql);
+        String lowerSql = sql.toLowerCase();
+        assertTrue(sql, lowerSql.contains("group by"));
+        assertTrue(sql, lowerSql.contains("max("));
+        assertTrue(sql, lowerSql.contains("category"));
+        assertFalse(sql, lowerSql.contains("other"));
+        assertEquals(originalQuery, queryCache.generateQuery());
+        
+        assertNull(queryCache.generateGroupedQuery(Collections.singleton("missing"), aggregates));
+        
+        queryCache.setUserModifiedQuery("select category, amount from sales");
+        assertNull(queryCache.generateGroupedQuery(Collections.singleton("category"), aggregates));
+    }
+    
 }
@@ -19,11 +19,23 @@
 
 package ca.sqlpower.wabit.report;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.sql.Connection;
+import java.sql.Statement;
 import java.util.Set;
 
+import org.jfree.chart.JFreeChart;
+
+import ca.sqlpower.sql.JDBCDataSource;
 import ca.sqlpower.wabit.AbstractWabitObjectTest;
 import ca.sqlpower.wabit.WabitObject;
 import ca.sqlpower.wabit.report.chart.Chart;
+import ca.sqlpower.wabit.report.chart.ChartColumn;
+import ca.sqlpower.wabit.report.chart.ChartType;
+import ca.sqlpower.wabit.report.chart.ColumnRole;
+import ca.sqlpower.wabit.report.chart.ChartColumn.DataType;
+import ca.sqlpower.wabit.rs.query.QueryCache;
 
 public class ChartRendererTest extends AbstractWabitObjectTest {
 
@@ -65,4 +77,74 @@ public class ChartRendererTest extends AbstractWabitObjectTest {
         return renderer;
     }
 
+    /**
+     * Renders the chart on screen, as the report editor does, into an image
+     * of the given size.
+     */
+    private void renderOnScreen(int width, int height) {
+    	BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    	Graphics2D g = image.createGraphics();
+    	try {
+    		renderer.renderReportContent(g, width, height, 1, 0, false, null);
+    	} finally {
+    		g.dispose();
+    	}
+    }
+
+    /**
+     * The JFreeChart made to paint the chart is reused while the data, the
+     * settings and the size of the chart stay the same, and made again when
+     * any of them change.
+     */
+    public void testCachedChartReusedUntilChanged() throws Exception {
+    	JDBCDataSource ds = (JDBCDataSource) getSession().getDataSources().getDataSource("regression_test");
+    	Connection con = ds.createConnection();
+    	Statement stmt = con.createStatement();
+    	stmt.execute("create table chart_renderer_test (category varchar(50), amount integer)");
+    	try {
+    		stmt.execute("insert into chart_renderer_test (category, amount) values ('a', 10)");
+    		stmt.execute("insert into chart_renderer_test (category, amount) values ('b', 20)");
+    		QueryCache query = new QueryCache(getContext());
+    		getWorkspace().addQuery(query, getSession());
+    		query.setDataSource(ds);
+    		query.setUserModifiedQuery("select category, amount from chart_renderer_test");
+    		
+    		ChartColumn categoryColumn = new ChartColumn("CATEGORY", DataType.TEXT);
+    		categoryColumn.setRoleInChart(ColumnRole.CATEGORY);
+    		chart.addChartColumn(categoryColumn);
+    		ChartColumn amountColumn = new ChartColumn("AMOUNT", DataType.NUMERIC);
+    		amountColumn.setRoleInChart(ColumnRole.SERIES);
+    		chart.addChartColumn(amountColumn);
+    		chart.setType(ChartType.BAR);
+    		chart.setQuery(query);
+    		
+    		renderer.refresh(false);
+    		assertNull(renderer.getCachedChart());
+    		renderOnScreen(200, 100);
+    		JFreeChart cached = renderer.getCachedChart();
+    		assertNotNull(cached);
+    		
+    		// Same data, settings and size: the chart is reused.
+    		renderOnScreen(200, 100);
+    		assertSame(cached, renderer.getCachedChart());
+    		
+    		// A different size lays the chart out again.
+    		renderOnScreen(300, 100);
+    		JFreeChart resized = renderer.getCachedChart();
+    		assertNotNull(resized);
+    		assertNotSame(cached, resized);
+    		
+    		// Changing the chart's settings makes a new chart.
+    		chart.setXaxisName("Categories");
+    		renderer.refresh(false);
+    		renderOnScreen(300, 100);
+    		assertNotNull(renderer.getCachedChart());
+    		assertNotSame(resized, renderer.getCachedChart());
+    	} finally {
+    		stmt.execute("drop table chart_renderer_test");
+    		stmt.close();
+    		con.close();
+    	}
+    }
+
 }
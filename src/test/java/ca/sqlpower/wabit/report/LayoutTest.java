@@ -19,10 +19,16 @@
 
 package ca.sqlpower.wabit.report;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.print.Printable;
+import java.io.ByteArrayOutputStream;
 import java.util.Set;
 
+import ca.sqlpower.object.SPVariableResolver;
 import ca.sqlpower.wabit.AbstractWabitObjectTest;
 import ca.sqlpower.wabit.WabitObject;
+import ca.sqlpower.wabit.image.WabitImage;
 import ca.sqlpower.wabit.report.selectors.ComboBoxSelector;
 import ca.sqlpower.wabit.report.selectors.TextBoxSelector;
 
@@ -46,6 +52,8 @@ public class LayoutTest extends AbstractWabitObjectTest {
     	Set<String> ignored = super.getPropertiesToNotPersistOnObjectPersist();
     	ignored.add("currentlyPrinting");
     	ignored.add("numberOfPages");
+    	ignored.add("paginationKnown");
+    	ignored.add("showingPageCount");
     	ignored.add("page");
     	ignored.add("pageFormat");
     	ignored.add("printable");
@@ -78,4 +86,110 @@ public class LayoutTest extends AbstractWabitObjectTest {
     public WabitObject getObjectUnderTest() {
         return layout;
     }
+    
+    /**
+     * The pages should only be counted again after the content of the layout
+     * changes.
+     */
+    public void testPageCountCachedUntilContentChanges() throws Exception {
+    	assertFalse(layout.isPaginationKnown());
+    	assertEquals(1, layout.getNumberOfPages());
+    	assertTrue(layout.isPaginationKnown());
+    	
+    	ContentBox contentBox = new ContentBox();
+    	contentBox.setContentRenderer(new WabitLabel("Page ${page_number} of ${page_count}"));
+    	layout.getPage().addContentBox(contentBox);
+    	assertFalse(layout.isPaginationKnown());
+    	assertEquals(1, layout.getNumberOfPages());
+    	assertTrue(layout.isPaginationKnown());
+    	
+    	contentBox.setWidth(contentBox.getWidth() + 10);
+    	assertFalse(layout.isPaginationKnown());
+    }
+    
+    /**
+     * A layout showing the page count can be written to a PDF without
+     * counting the pages first.
+     */
+    public void testPDFWithPageCountWrittenInOnePass() throws Exception {
+    	ContentBox contentBox = new ContentBox();
+    	contentBox.setContentRenderer(new WabitLabel("Page ${page_number} of ${page_count}"));
+    	layout.getPage().addContentBox(contentBox);
+    	assertTrue(layout.isShowingPageCount());
+    	assertFalse(layout.isPaginationKnown());
+    	
+    	ByteArrayOutputStream out = new ByteArrayOutputStream();
+    	LayoutToPDF pdfMaker = new LayoutToPDF(out, layout, null);
+    	pdfMaker.writePDF();
+    	
+    	assertTrue(out.size() > 0);
+    	assertTrue(layout.isPaginationKnown());
+    	assertEquals(Integer.valueOf(1), pdfMaker.getJobSize());
+    }
+    
+    /**
+     * Writing a PDF with content rendered on other threads should find the
+     * same pages as writing it on one thread.
+     */
+    public void testPDFWrittenInParallel() throws Exception {
+    	WabitImage image = new WabitImage();
+    	getWorkspace().addImage(image);
+    	ImageRenderer renderer = new ImageRenderer();
+    	renderer.setImage(image);
+    	ContentBox imageBox = new ContentBox();
+    	imageBox.setContentRenderer(renderer);
+    	layout.getPage().addContentBox(imageBox);
+    	ContentBox labelBox = new ContentBox();
+    	labelBox.setContentRenderer(new WabitLabel("Page ${page_number} of ${page_count}"));
+    	layout.getPage().addContentBox(labelBox);
+    	
+    	ByteArrayOutputStream out = new ByteArrayOutputStream();
+    	LayoutToPDF pdfMaker = new LayoutToPDF(out, layout, null);
+    	pdfMaker.setParallelism(2);
+    	pdfMaker.writePDF();
+    	
+    	assertTrue(out.size() > 0);
+    	assertTrue(layout.isPaginationKnown());
+    	assertEquals(1, layout.getNumberOfPages());
+    	assertEquals(Integer.valueOf(1), pdfMaker.getJobSize());
+    }
+    
+    /**
+     * Content that changes while the layout is printed, like a renderer
+     * running its query as its first page is printed, must not stop the
+     * print from ending on the last page it found or from filling in the
+     * page count.
+     */
+    public void testPrintEndsOnItsOwnPageCountWhenContentChanges() throws Exception {
+    	ContentBox changingBox = new ContentBox();
+    	changingBox.setContentRenderer(new WabitLabel("changing") {
+    		@Override
+    		public boolean renderReportContent(Graphics2D g, double width, double height,
+    				double scaleFactor, int pageIndex, boolean printing,
+    				SPVariableResolver variablesContext) {
+    			layout.invalidatePagination();
+    			return super.renderReportContent(g, width, height, scaleFactor, pageIndex,
+    					printing, variablesContext);
+    		}
+    	});
+    	layout.getPage().addContentBox(changingBox);
+    	ContentBox labelBox = new ContentBox();
+    	labelBox.setContentRenderer(new WabitLabel("Page ${page_number} of ${page_count}"));
+    	layout.getPage().addContentBox(labelBox);
+    	
+    	ByteArrayOutputStream out = new ByteArrayOutputStream();
+    	LayoutToPDF pdfMaker = new LayoutToPDF(out, layout, null);
+    	pdfMaker.writePDF();
+    	assertTrue(out.size() > 0);
+    	assertEquals(Integer.valueOf(1), pdfMaker.getJobSize());
+    	
+    	Graphics2D g = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB).createGraphics();
+    	try {
+    		assertEquals(Printable.PAGE_EXISTS, layout.print(g, layout.getPageFormat(0), 0));
+    		assertEquals(Printable.NO_SUCH_PAGE, layout.print(g, layout.getPageFormat(1), 1));
+    	} finally {
+    		g.dispose();
+    	}
+    	assertEquals(1, layout.getNumberOfPages());
+    }
 }
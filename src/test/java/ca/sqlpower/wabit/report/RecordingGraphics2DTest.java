@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.wabit.report;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+public class RecordingGraphics2DTest extends TestCase {
+
+	/**
+	 * Draws some content to the graphics the same way a content box is
+	 * rendered to a page.
+	 */
+	private void draw(Graphics2D g) {
+		g.setColor(Color.BLACK);
+		Graphics2D contentGraphics = (Graphics2D) g.create(10, 20, 100, 50);
+		contentGraphics.setColor(Color.RED);
+		contentGraphics.fillRect(-5, -5, 200, 200);
+		contentGraphics.setColor(Color.BLUE);
+		contentGraphics.drawString("Hello", 5, 20);
+		contentGraphics.rotate(0.3);
+		contentGraphics.draw(new Ellipse2D.Double(0, 0, 40, 20));
+		contentGraphics.dispose();
+		g.drawLine(0, 0, 150, 150);
+	}
+
+	/**
+	 * Replaying a recording should draw exactly what drawing to the graphics
+	 * directly would have drawn.
+	 */
+	public void testReplayMatchesDirectDrawing() throws Exception {
+		BufferedImage direct = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D directGraphics = direct.createGraphics();
+		draw(directGraphics);
+		directGraphics.dispose();
+		
+		RecordingGraphics2D recording = new RecordingGraphics2D(200, 200);
+		draw(recording);
+		BufferedImage replayed = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D replayedGraphics = replayed.createGraphics();
+		recording.replay(replayedGraphics);
+		replayedGraphics.dispose();
+		
+		for (int x = 0; x < 200; x++) {
+			for (int y = 0; y < 200; y++) {
+				assertEquals("Pixel " + x + ", " + y + " differs", direct.getRGB(x, y), replayed.getRGB(x, y));
+			}
+		}
+	}
+
+	/**
+	 * The recording graphics should track its transform and clip so the code
+	 * drawing to it sees the same state it would on a real graphics.
+	 */
+	public void testStateTrackedForChildGraphics() throws Exception {
+		RecordingGraphics2D recording = new RecordingGraphics2D(200, 200);
+		assertEquals(new Rectangle(0, 0, 200, 200), recording.getClipBounds());
+		
+		Graphics2D child = (Graphics2D) recording.create(10, 20, 100, 50);
+		assertEquals(new Rectangle(0, 0, 100, 50), child.getClipBounds());
+		assertEquals(10.0, child.getTransform().getTranslateX());
+		assertEquals(20.0, child.getTransform().getTranslateY());
+		child.dispose();
+		
+		assertEquals(0.0, recording.getTransform().getTranslateX());
+	}
+}
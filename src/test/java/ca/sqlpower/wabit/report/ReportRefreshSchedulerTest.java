@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report;
+
+import java.util.Collection;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import ca.sqlpower.object.SPVariableResolver;
+import ca.sqlpower.wabit.WabitObject;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.report.selectors.Selector;
+import ca.sqlpower.wabit.report.selectors.TextBoxSelector;
+
+public class ReportRefreshSchedulerTest extends TestCase {
+
+	private Report report;
+	
+	private TextBoxSelector selector;
+	
+	private WabitLabel usingLabel;
+	
+	private WabitLabel otherLabel;
+	
+	private ReportRefreshScheduler scheduler;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		WabitWorkspace workspace = new WabitWorkspace();
+		report = new Report("report");
+		workspace.addReport(report);
+		
+		selector = new TextBoxSelector();
+		selector.setName("region");
+		report.addChild(selector, report.getSelectors().size());
+		
+		usingLabel = new WabitLabel("Sales for ${region}");
+		ContentBox usingBox = new ContentBox();
+		usingBox.setContentRenderer(usingLabel);
+		report.getPage().addContentBox(usingBox);
+		
+		otherLabel = new WabitLabel("Sales for every region");
+		ContentBox otherBox = new ContentBox();
+		otherBox.setContentRenderer(otherLabel);
+		report.getPage().addContentBox(otherBox);
+		
+		scheduler = new ReportRefreshScheduler(report, null);
+	}
+
+	/**
+	 * Nothing needs refreshing while no selector changes.
+	 */
+	public void testNoChange() throws Exception {
+		assertTrue(scheduler.findChangedSelectors().isEmpty());
+	}
+
+	/**
+	 * Only the content referring to the changed selector is affected.
+	 */
+	public void testOnlyReferringContentAffected() throws Exception {
+		selector.setSelectedValue("North");
+		Collection<Selector> changed = scheduler.findChangedSelectors();
+		assertEquals(1, changed.size());
+		assertTrue(changed.contains(selector));
+		
+		Set<WabitObject> affected = scheduler.findAffected(changed);
+		assertTrue(affected.contains(usingLabel));
+		assertFalse(affected.contains(otherLabel));
+		
+		// The change was seen, the same value is not a change anymore.
+		assertTrue(scheduler.findChangedSelectors().isEmpty());
+	}
+
+	/**
+	 * A reference in the namespace of another object does not refer to the
+	 * selector even if the names match.
+	 */
+	public void testOtherNamespaceNotAffected() throws Exception {
+		usingLabel.setText("Sales for ${" + otherLabel.getUUID() + 
+				SPVariableResolver.NAMESPACE_DELIMITER + "region}");
+		selector.setSelectedValue("South");
+		Set<WabitObject> affected = scheduler.findAffected(scheduler.findChangedSelectors());
+		assertFalse(affected.contains(usingLabel));
+	}
+}
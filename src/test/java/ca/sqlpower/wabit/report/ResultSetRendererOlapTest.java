@@ -133,6 +133,10 @@ public class ResultSetRendererOlapTest extends AbstractWabitObjectTest {
     				throw new RuntimeException(e);
     			}
     	    }
+    		public void releaseConnection(Olap4jDataSource dataSource,
+    				OlapConnection connection, boolean broken) {
+    			// the connection is left open for the other queries
+    		}
         	
         };
         
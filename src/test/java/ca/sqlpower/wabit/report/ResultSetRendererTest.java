@@ -160,6 +160,10 @@ public class ResultSetRendererTest extends AbstractWabitObjectTest {
     				throw new RuntimeException(e);
     			}
     	    }
+    		public void releaseConnection(Olap4jDataSource dataSource,
+    				OlapConnection connection, boolean broken) {
+    			// the connection is left open for the other queries
+    		}
         	
         };
         
@@ -496,6 +500,10 @@ public class ResultSetRendererTest extends AbstractWabitObjectTest {
     				throw new RuntimeException(e);
     			}
     	    }
+    		public void releaseConnection(Olap4jDataSource dataSource,
+    				OlapConnection connection, boolean broken) {
+    			// the connection is left open for the other queries
+    		}
         	
         };
         
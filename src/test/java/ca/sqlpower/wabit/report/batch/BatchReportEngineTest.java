@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.sql.JDBCDataSource;
+import ca.sqlpower.sql.PlDotIni;
+import ca.sqlpower.wabit.StubWabitSession;
+import ca.sqlpower.wabit.StubWabitSessionContext;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.enterprise.client.ReportTask;
+import ca.sqlpower.wabit.report.ContentBox;
+import ca.sqlpower.wabit.report.Report;
+import ca.sqlpower.wabit.report.WabitLabel;
+import ca.sqlpower.wabit.report.batch.BatchReportEngine.OutputFormat;
+
+public class BatchReportEngineTest extends TestCase {
+
+	private WabitWorkspace workspace;
+	
+	private BatchReportEngine engine;
+	
+	/**
+	 * Keeps the files written by the engine in memory, by the UUID of their
+	 * task and their name.
+	 */
+	private final Map<String, ByteArrayOutputStream> files = 
+		new ConcurrentHashMap<String, ByteArrayOutputStream>();
+	
+	private final ReportOutput output = new ReportOutput() {
+		public OutputStream open(ReportTask task, String fileName) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			files.put(task.getUUID() + "/" + fileName, out);
+			return out;
+		}
+	};
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		workspace = new WabitWorkspace();
+		workspace.setSession(new StubWabitSession(new StubWabitSessionContext()));
+		engine = new BatchReportEngine(2);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		engine.shutdown();
+		super.tearDown();
+	}
+	
+	private ReportTask createTask(String reportName) {
+		Report report = workspace.getReportByName(reportName);
+		if (report == null) {
+			report = new Report(reportName);
+			ContentBox contentBox = new ContentBox();
+			contentBox.setContentRenderer(new WabitLabel("Page ${page_number} of ${page_count}"));
+			report.getPage().addContentBox(contentBox);
+			workspace.addReport(report);
+		}
+		ReportTask task = new ReportTask(report);
+		workspace.addReportTask(task);
+		return task;
+	}
+	
+	/**
+	 * Every task should get its own PDF and timings, including tasks sharing
+	 * a report.
+	 */
+	public void testRenderPDFs() throws Exception {
+		List<ReportTask> tasks = new ArrayList<ReportTask>();
+		tasks.add(createTask("first"));
+		tasks.add(createTask("second"));
+		tasks.add(createTask("first"));
+		
+		BatchRun batch = engine.render(workspace, tasks, EnumSet.of(OutputFormat.PDF), output);
+		
+		assertEquals(3, batch.getRuns().size());
+		assertEquals(0, batch.getFailureCount());
+		for (int i = 0; i < tasks.size(); i++) {
+			ReportRun run = batch.getRuns().get(i);
+			assertSame(tasks.get(i), run.getTask());
+			assertEquals(1, run.getPageCount());
+			assertEquals(0, run.getQueryCount());
+			assertEquals(1, run.getFileNames().size());
+			assertTrue(run.getLatencyMillis() <= batch.getElapsedMillis());
+		}
+		assertEquals(3, files.size());
+		assertTrue(files.get(tasks.get(0).getUUID() + "/first.pdf").size() > 0);
+		assertTrue(files.get(tasks.get(1).getUUID() + "/second.pdf").size() > 0);
+		assertTrue(files.get(tasks.get(2).getUUID() + "/first.pdf").size() > 0);
+		assertTrue(batch.getThroughput() > 0);
+		assertEquals(batch.getMaxLatencyMillis(), batch.getLatencyPercentile(1));
+	}
+	
+	/**
+	 * Tasks for the same report write their files to their own directories.
+	 */
+	public void testDirectoryOutputKeepsTasksApart() throws Exception {
+		File directory = File.createTempFile("batch-report-engine", "");
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+		try {
+			List<ReportTask> tasks = new ArrayList<ReportTask>();
+			tasks.add(createTask("first"));
+			tasks.add(createTask("first"));
+			
+			BatchRun batch = engine.render(workspace, tasks, EnumSet.of(OutputFormat.PDF), 
+					BatchReportEngine.directoryOutput(directory));
+			
+			assertEquals(0, batch.getFailureCount());
+			for (ReportTask task : tasks) {
+				File file = new File(new File(directory, task.getUUID()), "first.pdf");
+				assertTrue(file.length() > 0);
+			}
+		} finally {
+			for (File taskDirectory : directory.listFiles()) {
+				for (File file : taskDirectory.listFiles()) {
+					file.delete();
+				}
+				taskDirectory.delete();
+			}
+			directory.delete();
+		}
+	}
+	
+	/**
+	 * Tasks for reports that are not in the workspace are refused before
+	 * anything is rendered.
+	 */
+	public void testReportOutsideWorkspaceRefused() throws Exception {
+		ReportTask task = new ReportTask(new Report("elsewhere"));
+		try {
+			engine.render(workspace, Collections.singletonList(task), 
+					EnumSet.of(OutputFormat.PDF), output);
+			fail("The report is not in the workspace");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue(files.isEmpty());
+	}
+	
+	/**
+	 * Values with commas, quotes or line breaks are quoted and nulls are left
+	 * empty.
+	 */
+	public void testWriteCSV() throws Exception {
+		PlDotIni plIni = new PlDotIni();
+		plIni.read(new File("src/test/resources/pl.regression.ini"));
+		JDBCDataSource ds = plIni.getDataSource("regression_test", JDBCDataSource.class);
+		Connection con = ds.createConnection();
+		Statement stmt = con.createStatement();
+		stmt.execute("create table batch_csv_test (name varchar(50), amount integer)");
+		stmt.execute("insert into batch_csv_test (name, amount) values ('plain', 1)");
+		stmt.execute("insert into batch_csv_test (name, amount) values ('a, \"quoted\" value', null)");
+		CachedRowSet rs = new CachedRowSet();
+		rs.populate(stmt.executeQuery("select name, amount from batch_csv_test order by amount"));
+		stmt.execute("drop table batch_csv_test");
+		stmt.close();
+		con.close();
+		
+		StringWriter out = new StringWriter();
+		BatchReportEngine.writeCSV(rs, out);
+		String[] lines = out.toString().split("\r\n");
+		assertEquals(3, lines.length);
+		assertEquals("NAME,AMOUNT", lines[0].toUpperCase());
+		assertTrue(lines[1].equals("plain,1") || lines[2].equals("plain,1"));
+		assertTrue(lines[1].equals("\"a, \"\"quoted\"\" value\",") || 
+				lines[2].equals("\"a, \"\"quoted\"\" value\","));
+	}
+}
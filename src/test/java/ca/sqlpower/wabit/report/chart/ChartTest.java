@@ -19,11 +19,22 @@
 
 package ca.sqlpower.wabit.report.chart;
 
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
+import org.jfree.data.category.CategoryDataset;
+
+import ca.sqlpower.query.SQLObjectItem;
+import ca.sqlpower.query.TableContainer;
+import ca.sqlpower.sql.JDBCDataSource;
 import ca.sqlpower.wabit.AbstractWabitObjectTest;
 import ca.sqlpower.wabit.WabitObject;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.report.chart.ChartColumn.DataType;
+import ca.sqlpower.wabit.rs.query.QueryCache;
 
 public class ChartTest extends AbstractWabitObjectTest {
 
@@ -84,4 +95,121 @@ public class ChartTest extends AbstractWabitObjectTest {
         
     }
 
+    /**
+     * A chart copied for rendering with database aggregation charts the rows
+     * grouped by the database when its query has no row limit.
+     */
+    public void testRenderedCategoryChartGroupedByDatabase() throws Exception {
+        Chart renderedChart = createRenderedGroupTestChart(AggregateFunction.SUM, 0);
+        try {
+            CategoryDataset dataset = (CategoryDataset) renderedChart.createDataset(false);
+            assertTrue(renderedChart.isAggregatedInDatabase());
+            assertEquals(2, dataset.getColumnCount());
+            assertEquals(60, dataset.getValue("AMOUNT", "b").intValue());
+            assertEquals(3, dataset.getValue("AMOUNT", "d").intValue());
+        } finally {
+            renderedChart.cleanup();
+            dropGroupTestTable();
+        }
+    }
+    
+    /**
+     * Averages are not left to the database, which may truncate the average
+     * of an integer column, so they are exact even when they are not whole
+     * numbers.
+     */
+    public void testRenderedCategoryChartAveragesIntegers() throws Exception {
+        Chart renderedChart = createRenderedGroupTestChart(AggregateFunction.AVERAGE, 0);
+        try {
+            CategoryDataset dataset = (CategoryDataset) renderedChart.createDataset(false);
+            assertFalse(renderedChart.isAggregatedInDatabase());
+            assertEquals(30, dataset.getValue("AMOUNT", "b").doubleValue(), 0.0001);
+            assertEquals(1.5, dataset.getValue("AMOUNT", "d").doubleValue(), 0.0001);
+        } finally {
+            renderedChart.cleanup();
+            dropGroupTestTable();
+        }
+    }
+    
+    /**
+     * A rendered chart applies the query's row limit to the rows it
+     * aggregates, the same way the chart editor does, instead of to the
+     * categories a grouped query would return.
+     */
+    public void testRenderedCategoryChartRowLimitMatchesEditor() throws Exception {
+        Chart renderedChart = createRenderedGroupTestChart(AggregateFunction.SUM, 2);
+        try {
+            CategoryDataset dataset = (CategoryDataset) renderedChart.createDataset(false);
+            assertFalse(renderedChart.isAggregatedInDatabase());
+            chart.refresh(false);
+            CategoryDataset editorDataset = (CategoryDataset) chart.createDataset(false);
+            assertEquals(editorDataset.getColumnKeys(), dataset.getColumnKeys());
+            for (Object category : editorDataset.getColumnKeys()) {
+                assertEquals(editorDataset.getValue("AMOUNT", (Comparable) category).doubleValue(), 
+                        dataset.getValue("AMOUNT", (Comparable) category).doubleValue(), 0.0001);
+            }
+        } finally {
+            renderedChart.cleanup();
+            dropGroupTestTable();
+        }
+    }
+    
+    /**
+     * Sets up {@link #chart} as a bar chart of the amounts of a new
+     * chart_group_test table by category, and returns a refreshed copy of it
+     * made for rendering. The table is dropped by
+     * {@link #dropGroupTestTable()}.
+     */
+    private Chart createRenderedGroupTestChart(AggregateFunction aggregate, int rowLimit) throws Exception {
+        JDBCDataSource ds = getSession().getDataSources().getDataSource(
+                "regression_test", JDBCDataSource.class);
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table chart_group_test (category varchar(50), amount integer)");
+        stmt.execute("insert into chart_group_test (category, amount) values ('b', 20)");
+        stmt.execute("insert into chart_group_test (category, amount) values ('d', 1)");
+        stmt.execute("insert into chart_group_test (category, amount) values ('b', 40)");
+        stmt.execute("insert into chart_group_test (category, amount) values ('d', 2)");
+        stmt.close();
+        con.close();
+        
+        QueryCache query = new QueryCache(getContext());
+        getWorkspace().addQuery(query, getSession());
+        query.setDataSource(ds);
+        query.setRowLimit(rowLimit);
+        SQLObjectItem categoryItem = new SQLObjectItem("CATEGORY", "category-uuid");
+        SQLObjectItem amountItem = new SQLObjectItem("AMOUNT", "amount-uuid");
+        List<SQLObjectItem> items = new ArrayList<SQLObjectItem>();
+        items.add(categoryItem);
+        items.add(amountItem);
+        query.addTable(new TableContainer("chart-group-test", query.getDatabase(), 
+                "CHART_GROUP_TEST", "PUBLIC", null, items));
+        query.selectItem(categoryItem);
+        query.selectItem(amountItem);
+        
+        ChartColumn categoryColumn = new ChartColumn("CATEGORY", DataType.TEXT);
+        categoryColumn.setRoleInChart(ColumnRole.CATEGORY);
+        chart.addChartColumn(categoryColumn);
+        ChartColumn amountColumn = new ChartColumn("AMOUNT", DataType.NUMERIC);
+        amountColumn.setRoleInChart(ColumnRole.SERIES);
+        amountColumn.setAggregate(aggregate);
+        chart.addChartColumn(amountColumn);
+        chart.setType(ChartType.BAR);
+        chart.setQuery(query);
+        
+        Chart renderedChart = new Chart(chart, getWorkspace(), true);
+        renderedChart.refresh(false);
+        return renderedChart;
+    }
+    
+    private void dropGroupTestTable() throws Exception {
+        JDBCDataSource ds = getSession().getDataSources().getDataSource(
+                "regression_test", JDBCDataSource.class);
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("drop table chart_group_test");
+        stmt.close();
+        con.close();
+    }
+
 }
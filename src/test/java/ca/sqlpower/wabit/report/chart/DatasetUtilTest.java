@@ -21,18 +21,24 @@ package ca.sqlpower.wabit.report.chart;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.xy.XYDataset;
 
 import ca.sqlpower.sql.CachedRowSet;
 import ca.sqlpower.sql.JDBCDataSource;
 import ca.sqlpower.sql.PlDotIni;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.report.chart.ChartColumn.DataType;
 
 /**
@@ -140,4 +146,308 @@ public class DatasetUtilTest extends TestCase {
         assertEquals(30, dataset.getValue("series", row3ColKey).intValue());
     }
     
+    /**
+     * Rows with the same category are combined with each series' aggregate
+     * function, skipping nulls, and categories keep the order they were first
+     * seen in.
+     */
+    public void testCreateCategoryDatasetAggregates() throws Exception {
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table graph_test (category varchar(50), series integer)");
+        stmt.execute("insert into graph_test (category, series) values ('b', 10)");
+        stmt.execute("insert into graph_test (category, series) values ('a', 5)");
+        stmt.execute("insert into graph_test (category, series) values ('b', 30)");
+        stmt.execute("insert into graph_test (category, series) values ('b', null)");
+        stmt.execute("insert into graph_test (category, series) values ('c', null)");
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select category, series, series as series2, " +
+        		"series as series3, series as series4, series as series5 from graph_test"));
+        stmt.execute("drop table graph_test");
+        stmt.close();
+        con.close();
+        
+        List<ChartColumn> columnNamesInOrder = new ArrayList<ChartColumn>(); 
+        final ChartColumn categoryIdentifier = new ChartColumn("category", DataType.TEXT);
+        categoryIdentifier.setRoleInChart(ColumnRole.CATEGORY);
+        columnNamesInOrder.add(categoryIdentifier);
+        AggregateFunction[] functions = new AggregateFunction[] {AggregateFunction.SUM, 
+                AggregateFunction.COUNT, AggregateFunction.AVERAGE, 
+                AggregateFunction.MIN, AggregateFunction.MAX};
+        String[] seriesNames = new String[] {"series", "series2", "series3", "series4", "series5"};
+        for (int i = 0; i < functions.length; i++) {
+            ChartColumn seriesIdentifier = new ChartColumn(seriesNames[i], DataType.NUMERIC);
+            seriesIdentifier.setRoleInChart(ColumnRole.SERIES);
+            seriesIdentifier.setAggregate(functions[i]);
+            columnNamesInOrder.add(seriesIdentifier);
+        }
+        CategoryDataset dataset = DatasetUtil.createCategoryDataset(
+                columnNamesInOrder, rs, Arrays.asList(categoryIdentifier));
+        
+        assertEquals(Arrays.asList("b", "a", "c"), dataset.getColumnKeys());
+        assertEquals(5, dataset.getRowCount());
+        
+        assertEquals(40, dataset.getValue("series", "b").intValue());
+        assertEquals(2, dataset.getValue("series2", "b").intValue());
+        assertEquals(20, dataset.getValue("series3", "b").intValue());
+        assertEquals(10, dataset.getValue("series4", "b").intValue());
+        assertEquals(30, dataset.getValue("series5", "b").intValue());
+        
+        assertEquals(5, dataset.getValue("series3", "a").intValue());
+        
+        assertEquals(0, dataset.getValue("series", "c").intValue());
+        assertEquals(0, dataset.getValue("series2", "c").intValue());
+        assertNull(dataset.getValue("series3", "c"));
+        assertNull(dataset.getValue("series4", "c"));
+        assertNull(dataset.getValue("series5", "c"));
+    }
+    
+    /**
+     * Rows grouped by the database already hold the aggregate of each
+     * category, so a COUNT series must keep the counted value instead of
+     * counting the grouped rows again.
+     */
+    public void testCreateCategoryDatasetPreAggregated() throws Exception {
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table graph_test (category varchar(50), series integer)");
+        stmt.execute("insert into graph_test (category, series) values ('b', 10)");
+        stmt.execute("insert into graph_test (category, series) values ('a', 5)");
+        stmt.execute("insert into graph_test (category, series) values ('b', 30)");
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select category, count(series) as series, " +
+                "max(series) as series2 from graph_test group by category order by category"));
+        stmt.execute("drop table graph_test");
+        stmt.close();
+        con.close();
+        
+        List<ChartColumn> columnNamesInOrder = new ArrayList<ChartColumn>(); 
+        final ChartColumn categoryIdentifier = new ChartColumn("category", DataType.TEXT);
+        categoryIdentifier.setRoleInChart(ColumnRole.CATEGORY);
+        columnNamesInOrder.add(categoryIdentifier);
+        ChartColumn countIdentifier = new ChartColumn("series", DataType.NUMERIC);
+        countIdentifier.setRoleInChart(ColumnRole.SERIES);
+        countIdentifier.setAggregate(AggregateFunction.COUNT);
+        columnNamesInOrder.add(countIdentifier);
+        ChartColumn maxIdentifier = new ChartColumn("series2", DataType.NUMERIC);
+        maxIdentifier.setRoleInChart(ColumnRole.SERIES);
+        maxIdentifier.setAggregate(AggregateFunction.MAX);
+        columnNamesInOrder.add(maxIdentifier);
+        CategoryDataset dataset = DatasetUtil.createCategoryDataset(
+                columnNamesInOrder, rs, Arrays.asList(categoryIdentifier), true);
+        
+        assertEquals(Arrays.asList("a", "b"), dataset.getColumnKeys());
+        assertEquals(1, dataset.getValue("series", "a").intValue());
+        assertEquals(2, dataset.getValue("series", "b").intValue());
+        assertEquals(30, dataset.getValue("series2", "b").intValue());
+    }
+    
+    /**
+     * Grouped rows that end up in the same category are combined with the
+     * function that combines each series' aggregate: counts are added and
+     * the other functions are applied again.
+     */
+    public void testCreateCategoryDatasetPreAggregatedCombinesEachFunction() throws Exception {
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table graph_test (category varchar(50), series integer)");
+        stmt.execute("insert into graph_test (category, series) values ('b', 10)");
+        stmt.execute("insert into graph_test (category, series) values ('b', 30)");
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select category, series, series as series2, " +
+                "series as series3, series as series4, series as series5 from graph_test"));
+        stmt.execute("drop table graph_test");
+        stmt.close();
+        con.close();
+        
+        List<ChartColumn> columnNamesInOrder = new ArrayList<ChartColumn>(); 
+        final ChartColumn categoryIdentifier = new ChartColumn("category", DataType.TEXT);
+        categoryIdentifier.setRoleInChart(ColumnRole.CATEGORY);
+        columnNamesInOrder.add(categoryIdentifier);
+        AggregateFunction[] functions = new AggregateFunction[] {AggregateFunction.SUM, 
+                AggregateFunction.COUNT, AggregateFunction.AVERAGE, 
+                AggregateFunction.MIN, AggregateFunction.MAX};
+        String[] seriesNames = new String[] {"series", "series2", "series3", "series4", "series5"};
+        for (int i = 0; i < functions.length; i++) {
+            ChartColumn seriesIdentifier = new ChartColumn(seriesNames[i], DataType.NUMERIC);
+            seriesIdentifier.setRoleInChart(ColumnRole.SERIES);
+            seriesIdentifier.setAggregate(functions[i]);
+            columnNamesInOrder.add(seriesIdentifier);
+        }
+        CategoryDataset dataset = DatasetUtil.createCategoryDataset(
+                columnNamesInOrder, rs, Arrays.asList(categoryIdentifier), true);
+        
+        assertEquals(Arrays.asList("b"), dataset.getColumnKeys());
+        assertEquals(40, dataset.getValue("series", "b").intValue());
+        assertEquals(40, dataset.getValue("series2", "b").intValue());
+        assertEquals(20, dataset.getValue("series3", "b").intValue());
+        assertEquals(10, dataset.getValue("series4", "b").intValue());
+        assertEquals(30, dataset.getValue("series5", "b").intValue());
+    }
+    
+    /**
+     * Only the rows set in the row bitmap are charted, the others are skipped
+     * without copying the result set.
+     */
+    public void testCreateCategoryDatasetSkipsFilteredRows() throws Exception {
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table graph_test (category varchar(50), series integer)");
+        stmt.execute("insert into graph_test (category, series) values ('a', 1)");
+        stmt.execute("insert into graph_test (category, series) values ('b', 10)");
+        stmt.execute("insert into graph_test (category, series) values ('a', 100)");
+        stmt.execute("insert into graph_test (category, series) values ('c', 1000)");
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select * from graph_test"));
+        stmt.execute("drop table graph_test");
+        stmt.close();
+        con.close();
+        
+        List<ChartColumn> columnNamesInOrder = new ArrayList<ChartColumn>(); 
+        final ChartColumn categoryIdentifier = new ChartColumn("category", DataType.TEXT);
+        categoryIdentifier.setRoleInChart(ColumnRole.CATEGORY);
+        columnNamesInOrder.add(categoryIdentifier);
+        ChartColumn seriesIdentifier = new ChartColumn("series", DataType.NUMERIC);
+        seriesIdentifier.setRoleInChart(ColumnRole.SERIES);
+        columnNamesInOrder.add(seriesIdentifier);
+        BitSet rows = new BitSet();
+        rows.set(0);
+        rows.set(1);
+        rows.set(3);
+        CategoryDataset dataset = DatasetUtil.createCategoryDataset(
+                columnNamesInOrder, rs, Arrays.asList(categoryIdentifier), false, rows);
+        
+        assertEquals(Arrays.asList("a", "b", "c"), dataset.getColumnKeys());
+        assertEquals(1, dataset.getValue("series", "a").intValue());
+        assertEquals(10, dataset.getValue("series", "b").intValue());
+        assertEquals(1000, dataset.getValue("series", "c").intValue());
+    }
+    
+    /**
+     * A chart with tens of thousands of categories is built without searching
+     * the category list for every value, and categories are found by key.
+     */
+    public void testCreateCategoryDatasetManyCategories() throws Exception {
+        final int categoryCount = 50000;
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table graph_test (category varchar(50), series integer)");
+        PreparedStatement insert = con.prepareStatement(
+                "insert into graph_test (category, series) values (?, ?)");
+        for (int i = 0; i < categoryCount; i++) {
+            insert.setString(1, "c" + i);
+            insert.setInt(2, i);
+            insert.addBatch();
+            insert.setString(1, "c" + i);
+            insert.setInt(2, 1);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select category, series from graph_test"));
+        stmt.execute("drop table graph_test");
+        stmt.close();
+        con.close();
+        
+        List<ChartColumn> columnNamesInOrder = new ArrayList<ChartColumn>(); 
+        final ChartColumn categoryIdentifier = new ChartColumn("category", DataType.TEXT);
+        categoryIdentifier.setRoleInChart(ColumnRole.CATEGORY);
+        columnNamesInOrder.add(categoryIdentifier);
+        ChartColumn seriesIdentifier = new ChartColumn("series", DataType.NUMERIC);
+        seriesIdentifier.setRoleInChart(ColumnRole.SERIES);
+        columnNamesInOrder.add(seriesIdentifier);
+        CategoryDataset dataset = DatasetUtil.createCategoryDataset(
+                columnNamesInOrder, rs, Arrays.asList(categoryIdentifier));
+        
+        assertEquals(1, dataset.getRowCount());
+        assertEquals(categoryCount, dataset.getColumnCount());
+        for (int i = 0; i < categoryCount; i++) {
+            assertEquals(i, dataset.getColumnIndex("c" + i));
+            assertEquals(i + 1, dataset.getValue("series", "c" + i).intValue());
+        }
+        assertEquals(-1, dataset.getColumnIndex("not a category"));
+    }
+    
+    /**
+     * Series of XY datasets are reduced to the requested number of points
+     * and kept whole when no limit is given.
+     */
+    public void testCreateSeriesCollectionDownsampled() throws Exception {
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table graph_test (x integer, y integer)");
+        for (int i = 0; i < 100; i++) {
+            stmt.execute("insert into graph_test (x, y) values (" + i + ", " + (i % 10) + ")");
+        }
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select x, y from graph_test"));
+        stmt.execute("drop table graph_test");
+        stmt.close();
+        con.close();
+        
+        List<ChartColumn> columnNamesInOrder = new ArrayList<ChartColumn>(); 
+        final ChartColumn xIdentifier = new ChartColumn("x", DataType.NUMERIC);
+        final ChartColumn yIdentifier = new ChartColumn("y", DataType.NUMERIC);
+        yIdentifier.setRoleInChart(ColumnRole.SERIES);
+        yIdentifier.setXAxisIdentifier(xIdentifier);
+        columnNamesInOrder.add(xIdentifier);
+        columnNamesInOrder.add(yIdentifier);
+        
+        XYDataset full = DatasetUtil.createSeriesCollection(columnNamesInOrder, rs);
+        assertEquals(1, full.getSeriesCount());
+        assertEquals(100, full.getItemCount(0));
+        
+        XYDataset downsampled = DatasetUtil.createSeriesCollection(columnNamesInOrder, rs, 10);
+        assertEquals(10, downsampled.getItemCount(0));
+        assertEquals(0, downsampled.getXValue(0, 0), 0);
+        assertEquals(99, downsampled.getXValue(0, 9), 0);
+    }
+    
+    /**
+     * Rows with a null date on the x axis are left out of the series before
+     * it is downsampled, instead of being taken as points at time 0.
+     */
+    public void testCreateSeriesCollectionSkipsNullDates() throws Exception {
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table graph_test (x timestamp, y integer)");
+        PreparedStatement insert = con.prepareStatement("insert into graph_test (x, y) values (?, ?)");
+        long start = 1000000000000L;
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 == 0) {
+                insert.setNull(1, Types.TIMESTAMP);
+            } else {
+                insert.setTimestamp(1, new Timestamp(start + i * 60000L));
+            }
+            insert.setInt(2, i);
+            insert.executeUpdate();
+        }
+        insert.close();
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select x, y from graph_test"));
+        stmt.execute("drop table graph_test");
+        stmt.close();
+        con.close();
+        
+        List<ChartColumn> columnNamesInOrder = new ArrayList<ChartColumn>(); 
+        final ChartColumn xIdentifier = new ChartColumn("x", DataType.DATE);
+        final ChartColumn yIdentifier = new ChartColumn("y", DataType.NUMERIC);
+        yIdentifier.setRoleInChart(ColumnRole.SERIES);
+        yIdentifier.setXAxisIdentifier(xIdentifier);
+        columnNamesInOrder.add(xIdentifier);
+        columnNamesInOrder.add(yIdentifier);
+        
+        XYDataset full = DatasetUtil.createSeriesCollection(columnNamesInOrder, rs);
+        assertEquals(90, full.getItemCount(0));
+        
+        XYDataset downsampled = DatasetUtil.createSeriesCollection(columnNamesInOrder, rs, 10);
+        assertEquals(10, downsampled.getItemCount(0));
+        for (int i = 0; i < downsampled.getItemCount(0); i++) {
+            assertTrue(downsampled.getXValue(0, i) >= start);
+        }
+        assertEquals(start + 60000L, (long) downsampled.getXValue(0, 0));
+        assertEquals(start + 99 * 60000L, (long) downsampled.getXValue(0, 9));
+    }
+    
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.report.chart;
+
+import junit.framework.TestCase;
+
+public class SeriesDownsamplerTest extends TestCase {
+
+	/**
+	 * Series that already fit are kept whole, in x order.
+	 */
+	public void testSmallSeriesKept() throws Exception {
+		double[] x = new double[] {3, 1, 2};
+		double[] y = new double[] {30, 10, 20};
+		int[] kept = SeriesDownsampler.downsample(x, y, 3, 10);
+		assertEquals(3, kept.length);
+		assertEquals(1, kept[0]);
+		assertEquals(2, kept[1]);
+		assertEquals(0, kept[2]);
+		
+		assertEquals(3, SeriesDownsampler.downsample(x, y, 3, 0).length);
+	}
+
+	/**
+	 * The first and last points and the spikes of a flat line survive
+	 * downsampling.
+	 */
+	public void testDownsampleKeepsShape() throws Exception {
+		int count = 10000;
+		double[] x = new double[count];
+		double[] y = new double[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = i;
+		}
+		y[2500] = 100;
+		y[7500] = -100;
+		
+		int[] kept = SeriesDownsampler.downsample(x, y, count, 100);
+		assertEquals(100, kept.length);
+		assertEquals(0, kept[0]);
+		assertEquals(count - 1, kept[kept.length - 1]);
+		boolean peak = false;
+		boolean trough = false;
+		for (int i = 0; i < kept.length; i++) {
+			if (i > 0) {
+				assertTrue(x[kept[i - 1]] < x[kept[i]]);
+			}
+			peak |= kept[i] == 2500;
+			trough |= kept[i] == 7500;
+		}
+		assertTrue(peak);
+		assertTrue(trough);
+	}
+
+	/**
+	 * Points that are not in x order are sorted before the buckets are made.
+	 */
+	public void testUnsortedInput() throws Exception {
+		int count = 1000;
+		double[] x = new double[count];
+		double[] y = new double[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = count - i;
+			y[i] = i % 7;
+		}
+		int[] kept = SeriesDownsampler.downsample(x, y, count, 50);
+		assertEquals(50, kept.length);
+		assertEquals(count - 1, kept[0]);
+		assertEquals(0, kept[kept.length - 1]);
+		for (int i = 1; i < kept.length; i++) {
+			assertTrue(x[kept[i - 1]] < x[kept[i]]);
+		}
+	}
+}
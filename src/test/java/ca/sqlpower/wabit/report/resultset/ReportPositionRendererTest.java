@@ -22,11 +22,30 @@ package ca.sqlpower.wabit.report.resultset;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Insets;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.TestCase;
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.sql.JDBCDataSource;
+import ca.sqlpower.sql.PlDotIni;
+import ca.sqlpower.wabit.report.AggregateFunction;
 import ca.sqlpower.wabit.report.ColumnInfo;
+import ca.sqlpower.wabit.report.DataType;
+import ca.sqlpower.wabit.report.ColumnInfo.GroupAndBreak;
 import ca.sqlpower.wabit.report.ResultSetRenderer.BorderStyles;
 
 public class ReportPositionRendererTest extends TestCase {
@@ -99,4 +118,154 @@ public class ReportPositionRendererTest extends TestCase {
         assertTrue(defaultPadding.bottom < horizontalPadding.bottom);
     }
     
+
+    /**
+     * The pages of a paged layout must contain the same cells as the pages
+     * created all at once, no matter which order the pages are asked for in.
+     */
+    public void testPagedLayoutMatchesFullLayout() throws Exception {
+        PlDotIni plIni = new PlDotIni();
+        plIni.read(new File("src/test/resources/pl.regression.ini"));
+        JDBCDataSource ds = plIni.getDataSource("regression_test", JDBCDataSource.class);
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table paged_layout_test (section varchar(50), grp varchar(50), amount integer)");
+        for (int i = 0; i < 200; i++) {
+            stmt.execute("insert into paged_layout_test (section, grp, amount) values ('s" + (i / 50) + 
+                    "', 'g" + (i / 7) + "', " + i + ")");
+        }
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select section, grp, amount from paged_layout_test order by section, grp"));
+        CachedRowSet pagedRS = new CachedRowSet();
+        rs.beforeFirst();
+        pagedRS.populate(rs);
+        stmt.execute("drop table paged_layout_test");
+        stmt.close();
+        con.close();
+        
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+        columns.add(new ColumnInfo("section"));
+        columns.add(new ColumnInfo("grp"));
+        columns.add(new ColumnInfo("amount"));
+        for (ColumnInfo ci : columns) {
+            ci.setWidth(100);
+        }
+        columns.get(0).setWillGroupOrBreak(GroupAndBreak.BREAK);
+        columns.get(1).setWillGroupOrBreak(GroupAndBreak.GROUP);
+        columns.get(2).setDataType(DataType.NUMERIC);
+        columns.get(2).setWillSubtotal(true);
+        
+        Font font = graphics.getFont();
+        Graphics2D g = (Graphics2D) graphics;
+        rs.beforeFirst();
+        List<List<ResultSetCell>> fullLayout = new ReportPositionRenderer(font, font, Color.BLACK, Color.BLACK, 
+                BorderStyles.FULL, 1000, "").createResultSetLayout(g, rs, columns, 300, true);
+        ResultSetPageLayout pagedLayout = new ReportPositionRenderer(font, font, Color.BLACK, Color.BLACK, 
+                BorderStyles.FULL, 1000, "").createPagedLayout(g, pagedRS, columns, 300, true);
+        
+        assertTrue(fullLayout.size() > 2);
+        assertEquals(fullLayout.size(), pagedLayout.getPageCount());
+        for (int page = fullLayout.size() - 1; page >= 0; page--) {
+            List<ResultSetCell> expected = fullLayout.get(page);
+            List<ResultSetCell> actual = pagedLayout.getPageCells(g, page);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getText(), actual.get(i).getText());
+                assertEquals(expected.get(i).getBounds(), actual.get(i).getBounds());
+            }
+        }
+    }
+    
+    /**
+     * Subtotaled columns use their aggregate function for their grand total
+     * and skip null values.
+     */
+    public void testAggregateGrandTotals() throws Exception {
+        PlDotIni plIni = new PlDotIni();
+        plIni.read(new File("src/test/resources/pl.regression.ini"));
+        JDBCDataSource ds = plIni.getDataSource("regression_test", JDBCDataSource.class);
+        Connection con = ds.createConnection();
+        Statement stmt = con.createStatement();
+        stmt.execute("create table aggregate_totals_test (name varchar(50), amount integer, price decimal(10, 2))");
+        stmt.execute("insert into aggregate_totals_test (name, amount, price) values ('a', 3, 1.50)");
+        stmt.execute("insert into aggregate_totals_test (name, amount, price) values ('b', 7, 2.50)");
+        stmt.execute("insert into aggregate_totals_test (name, amount, price) values ('c', null, 2.00)");
+        stmt.execute("insert into aggregate_totals_test (name, amount, price) values ('d', 5, null)");
+        CachedRowSet rs = new CachedRowSet();
+        rs.populate(stmt.executeQuery("select name, amount, price from aggregate_totals_test order by name"));
+        stmt.execute("drop table aggregate_totals_test");
+        stmt.close();
+        con.close();
+        
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+        columns.add(new ColumnInfo("name"));
+        columns.add(new ColumnInfo("amount"));
+        columns.add(new ColumnInfo("price"));
+        columns.get(0).setDataType(DataType.TEXT);
+        columns.get(1).setDataType(DataType.NUMERIC);
+        columns.get(1).setWillSubtotal(true);
+        columns.get(1).setAggregate(AggregateFunction.MAX);
+        columns.get(2).setDataType(DataType.NUMERIC);
+        columns.get(2).setWillSubtotal(true);
+        columns.get(2).setAggregate(AggregateFunction.AVERAGE);
+        
+        Font font = graphics.getFont();
+        rs.beforeFirst();
+        List<List<ResultSetCell>> layout = new ReportPositionRenderer(font, font, Color.BLACK, Color.BLACK, 
+                BorderStyles.FULL, 1000, "").createResultSetLayout((Graphics2D) graphics, rs, columns, 1000, true);
+        
+        assertEquals(1, layout.size());
+        List<ResultSetCell> cells = layout.get(0);
+        assertEquals("2.00", cells.get(cells.size() - 1).getText());
+        assertEquals("7", cells.get(cells.size() - 2).getText());
+        assertEquals("Grand Total", cells.get(cells.size() - 3).getText());
+    }
+    
+    /**
+     * Totals of floating point columns that are infinite or NaN cannot be
+     * held in a BigDecimal and come back as doubles.
+     */
+    public void testNonFiniteDoubleTotals() throws Exception {
+        final double[] values = new double[] { 1.5, Double.POSITIVE_INFINITY };
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { ResultSetMetaData.class }, 
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getColumnType")) return Types.DOUBLE;
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        final int[] row = new int[1];
+        ResultSet rs = (ResultSet) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, 
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getDouble")) return values[row[0]];
+                        if (method.getName().equals("wasNull")) return false;
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+        columns.add(new ColumnInfo("amount"));
+        columns.get(0).setDataType(DataType.NUMERIC);
+        TotalsAccumulator.TotaledColumns totaledColumns = new TotalsAccumulator.TotaledColumns(columns, metaData);
+        TotalsAccumulator totals = totaledColumns.createGrandTotals();
+        TotalsAccumulator.RowValues rowValues = new TotalsAccumulator.RowValues(totaledColumns);
+        
+        rowValues.read(rs);
+        totals.add(rowValues);
+        assertEquals(new BigDecimal("1.5"), totals.getValue(0));
+        
+        row[0] = 1;
+        rowValues.read(rs);
+        totals.add(rowValues);
+        assertEquals(Double.valueOf(Double.POSITIVE_INFINITY), totals.getValue(0));
+        
+        values[0] = Double.NEGATIVE_INFINITY;
+        row[0] = 0;
+        rowValues.read(rs);
+        totals.add(rowValues);
+        assertTrue(Double.isNaN(totals.getValue(0).doubleValue()));
+    }
 }
@@ -19,12 +19,19 @@
 
 package ca.sqlpower.wabit.report.selectors;
 
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
 import ca.sqlpower.object.SPObject;
+import ca.sqlpower.object.SPVariableResolver;
+import ca.sqlpower.sql.JDBCDataSource;
 import ca.sqlpower.wabit.AbstractWabitObjectTest;
 import ca.sqlpower.wabit.report.Report;
+import ca.sqlpower.wabit.rs.ResultSetVariableResolver;
+import ca.sqlpower.wabit.rs.query.QueryCache;
 
 public class ComboBoxSelectorTest extends AbstractWabitObjectTest {
 
@@ -74,4 +81,81 @@ public class ComboBoxSelectorTest extends AbstractWabitObjectTest {
 	public SPObject getObjectUnderTest() {
 		return selector;
 	}
+
+	private static class CountingSelectorListener implements SelectorListener {
+		private int possibleValuesChanges;
+		public void selectionChanged(Selector source) {
+			// Only changes of the possible values are counted.
+		}
+		public void possibleValuesChanged(Selector source) {
+			possibleValuesChanges++;
+		}
+	}
+
+	/**
+	 * Creates a query in the workspace selecting the values of the
+	 * selector_test table starting with the given prefix, in a column named
+	 * COL.
+	 */
+	private QueryCache createSourceQuery(String prefix) throws Exception {
+		QueryCache query = new QueryCache(getContext());
+		getWorkspace().addQuery(query, getSession());
+		query.setDataSource((JDBCDataSource) getSession().getDataSources().getDataSource("regression_test"));
+		query.setUserModifiedQuery("select col from selector_test where col like '" + prefix + "%'");
+		return query;
+	}
+	
+	private static String sourceKey(QueryCache query) {
+		return "${" + query.getUUID() + SPVariableResolver.NAMESPACE_DELIMITER + "COL}";
+	}
+
+	/**
+	 * The selector takes its possible values from the query its source key
+	 * refers to, and tells its listeners when that query loads its values.
+	 * When the source key changes the selector takes the values of the new
+	 * query and stops following the old one.
+	 */
+	public void testPossibleValuesFollowSourceQuery() throws Exception {
+		JDBCDataSource ds = (JDBCDataSource) getSession().getDataSources().getDataSource("regression_test");
+		Connection con = ds.createConnection();
+		Statement stmt = con.createStatement();
+		stmt.execute("create table selector_test (col varchar(50))");
+		try {
+			stmt.execute("insert into selector_test (col) values ('a1')");
+			stmt.execute("insert into selector_test (col) values ('a2')");
+			stmt.execute("insert into selector_test (col) values ('b1')");
+			QueryCache aQuery = createSourceQuery("a");
+			QueryCache bQuery = createSourceQuery("b");
+			CountingSelectorListener listener = new CountingSelectorListener();
+			selector.addSelectorListener(listener);
+			
+			selector.setSourceKey(sourceKey(aQuery));
+			Collection<Object> values = selector.getPossibleValues();
+			assertEquals(2, values.size());
+			assertTrue(values.contains("a1"));
+			assertTrue(values.contains("a2"));
+			assertTrue(listener.possibleValuesChanges > 0);
+			
+			selector.setSourceKey(sourceKey(bQuery));
+			values = selector.getPossibleValues();
+			assertEquals(1, values.size());
+			assertTrue(values.contains("b1"));
+			
+			// Only the query the source key refers to now is followed.
+			listener.possibleValuesChanges = 0;
+			ResultSetVariableResolver aResolver = (ResultSetVariableResolver) aQuery.getVariableResolver();
+			aResolver.setUpdateNeeded(true);
+			aResolver.resolveCollection(aQuery.getUUID() + SPVariableResolver.NAMESPACE_DELIMITER + "COL");
+			assertEquals(0, listener.possibleValuesChanges);
+			
+			ResultSetVariableResolver bResolver = (ResultSetVariableResolver) bQuery.getVariableResolver();
+			bResolver.setUpdateNeeded(true);
+			bResolver.resolveCollection(bQuery.getUUID() + SPVariableResolver.NAMESPACE_DELIMITER + "COL");
+			assertEquals(1, listener.possibleValuesChanges);
+		} finally {
+			stmt.execute("drop table selector_test");
+			stmt.close();
+			con.close();
+		}
+	}
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import junit.framework.TestCase;
+
+public class ColumnarResultSetTest extends TestCase {
+
+	/**
+	 * Creates a forward-only result set over the given rows. Only the methods
+	 * {@link ColumnarResultSet#populate(ResultSet)} uses are implemented.
+	 */
+	private static ResultSet createResultSet(final String[] labels, final int[] types, 
+			final Object[][] rows) {
+		final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+				ResultSetMetaData.class.getClassLoader(), 
+				new Class<?>[] { ResultSetMetaData.class }, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getColumnCount")) {
+							return labels.length;
+						} else if (name.equals("getColumnLabel") || name.equals("getColumnName")) {
+							return labels[(Integer) args[0] - 1];
+						} else if (name.equals("getColumnType")) {
+							return types[(Integer) args[0] - 1];
+						} else if (method.getReturnType() == Integer.TYPE) {
+							return 0;
+						} else if (method.getReturnType() == Boolean.TYPE) {
+							return false;
+						}
+						return null;
+					}
+				});
+		return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(), 
+				new Class<?>[] { ResultSet.class }, 
+				new InvocationHandler() {
+					private int row = -1;
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("next")) {
+							row++;
+							return row < rows.length;
+						} else if (name.equals("getMetaData")) {
+							return metaData;
+						} else if (name.equals("getObject")) {
+							return rows[row][(Integer) args[0] - 1];
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+	
+	/**
+	 * Every kind of column gives back the values it was populated with, as
+	 * the same classes, and nulls are reported as null.
+	 */
+	public void testValuesRoundTrip() throws Exception {
+		Timestamp timestamp = Timestamp.valueOf("2010-03-04 05:06:07.123456789");
+		Object[][] rows = new Object[][] {
+				{ 1, 10000000000L, 1.5, new BigDecimal("12.34"), Date.valueOf("2010-01-02"), timestamp, "a", Boolean.TRUE },
+				{ null, null, null, null, null, null, null, null },
+				{ -3, -1L, -2.25, new BigDecimal("-0.50"), Date.valueOf("1999-12-31"), timestamp, "a", Boolean.FALSE }
+		};
+		ColumnarResultSet rs = new ColumnarResultSet();
+		rs.populate(createResultSet(
+				new String[] { "i", "l", "d", "dec", "date", "ts", "s", "b" }, 
+				new int[] { Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.DECIMAL, 
+						Types.DATE, Types.TIMESTAMP, Types.VARCHAR, Types.BOOLEAN }, 
+				rows));
+		
+		assertEquals(3, rs.getRowCount());
+		assertEquals(8, rs.getMetaData().getColumnCount());
+		for (Object[] row : rows) {
+			assertTrue(rs.next());
+			for (int i = 0; i < row.length; i++) {
+				assertEquals(row[i], rs.getObject(i + 1));
+				assertEquals(row[i] == null, rs.wasNull());
+				if (row[i] != null) {
+					assertEquals(row[i].getClass(), rs.getObject(i + 1).getClass());
+				}
+			}
+		}
+		assertFalse(rs.next());
+		
+		rs.absolute(2);
+		assertEquals(0.0, rs.getDouble(1));
+		assertTrue(rs.wasNull());
+		assertNull(rs.getString("s"));
+		rs.first();
+		assertEquals(1.0, rs.getDouble(1));
+		assertFalse(rs.wasNull());
+		assertEquals(12.34, rs.getDouble("dec"), 0.0001);
+		assertEquals("a", rs.getString("S"));
+		assertEquals(timestamp.getNanos(), rs.getTimestamp("ts").getNanos());
+	}
+
+	/**
+	 * Values the primitive storage of a column cannot represent switch the
+	 * column to storing objects without losing the values read before.
+	 */
+	public void testUnexpectedValuesFallBackToObjects() throws Exception {
+		Object[][] rows = new Object[][] {
+				{ 1, new BigDecimal("1.5") },
+				{ null, new BigDecimal("2.25") },
+				{ 3L, new BigDecimal("3") }
+		};
+		ColumnarResultSet rs = new ColumnarResultSet();
+		rs.populate(createResultSet(new String[] { "i", "dec" }, 
+				new int[] { Types.INTEGER, Types.DECIMAL }, rows));
+		
+		for (Object[] row : rows) {
+			assertTrue(rs.next());
+			assertEquals(row[0], rs.getObject(1));
+			assertEquals(row[1], rs.getObject(2));
+		}
+	}
+
+	/**
+	 * Shared result sets read the same rows with their own cursor.
+	 */
+	public void testSharedCursors() throws Exception {
+		ColumnarResultSet rs = new ColumnarResultSet();
+		rs.populate(createResultSet(new String[] { "i" }, new int[] { Types.INTEGER }, 
+				new Object[][] { { 1 }, { 2 }, { 3 } }));
+		ColumnarResultSet shared = rs.createShared();
+		
+		assertTrue(rs.last());
+		assertEquals(3, rs.getRow());
+		assertTrue(shared.isBeforeFirst());
+		assertTrue(shared.next());
+		assertEquals(1, shared.getInt(1));
+		assertEquals(3, rs.getInt(1));
+		
+		assertTrue(rs.absolute(-2));
+		assertEquals(2, rs.getInt("I"));
+		assertFalse(rs.relative(5));
+		assertTrue(rs.isAfterLast());
+		assertEquals(0, rs.getRow());
+	}
+	
+	private File spillDirectory;
+	
+	@Override
+	protected void setUp() throws Exception {
+		spillDirectory = File.createTempFile("ColumnarResultSetTest", "");
+		spillDirectory.delete();
+		spillDirectory.mkdir();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : spillDirectory.listFiles()) {
+			file.delete();
+		}
+		spillDirectory.delete();
+	}
+	
+	/**
+	 * Rows after the in memory limit are read back from the segment files
+	 * with the same values and classes, in any order.
+	 */
+	public void testSpilledRowsRoundTrip() throws Exception {
+		Timestamp timestamp = Timestamp.valueOf("2010-03-04 05:06:07.123456789");
+		Object[][] rows = new Object[7][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Object[] { i, (long) i, i / 2.0, BigDecimal.valueOf(i, 2), 
+					new Date(i * 86400000L), timestamp, "s" + (i % 2), Boolean.valueOf(i % 2 == 0) };
+		}
+		rows[3] = new Object[] { null, null, null, null, null, null, null, null };
+		rows[5][0] = 5L;
+		ColumnarResultSet rs = new ColumnarResultSet();
+		rs.populate(createResultSet(
+				new String[] { "i", "l", "d", "dec", "date", "ts", "s", "b" }, 
+				new int[] { Types.INTEGER, Types.BIGINT, Types.DOUBLE, Types.DECIMAL, 
+						Types.DATE, Types.TIMESTAMP, Types.VARCHAR, Types.BOOLEAN }, 
+				rows), 2, spillDirectory);
+		
+		assertEquals(7, rs.getRowCount());
+		assertEquals(5, rs.getSpilledRowCount());
+		assertEquals(3, spillDirectory.listFiles().length);
+		for (int r = rows.length; r >= 1; r--) {
+			assertTrue(rs.absolute(r));
+			for (int i = 0; i < rows[r - 1].length; i++) {
+				Object value = rs.getObject(i + 1);
+				assertEquals(rows[r - 1][i], value);
+				assertEquals(rows[r - 1][i] == null, rs.wasNull());
+				if (value != null) {
+					assertEquals(rows[r - 1][i].getClass(), value.getClass());
+				}
+			}
+		}
+		ColumnarResultSet shared = rs.createShared();
+		assertTrue(shared.last());
+		assertEquals(6.0, shared.getDouble("i"));
+		assertEquals(timestamp.getNanos(), shared.getTimestamp("ts").getNanos());
+	}
+
+	/**
+	 * A sorted result set goes through the rows, including spilled ones, in
+	 * order of the sort columns with nulls first, keeping the order of rows
+	 * with the same values, without moving the cursor of the original.
+	 */
+	public void testCreateSorted() throws Exception {
+		ColumnarResultSet rs = new ColumnarResultSet();
+		rs.populate(createResultSet(new String[] { "group", "id" }, 
+				new int[] { Types.VARCHAR, Types.INTEGER }, 
+				new Object[][] { { "b", 1 }, { "a", 2 }, { null, 3 }, { "b", 4 }, { "a", 5 }, { "c", 6 } }), 
+				2, spillDirectory);
+		assertTrue(rs.first());
+		
+		ColumnarResultSet sorted = rs.createSorted(1);
+		int[] expected = { 3, 2, 5, 1, 4, 6 };
+		for (int id : expected) {
+			assertTrue(sorted.next());
+			assertEquals(id, sorted.getInt("id"));
+		}
+		assertFalse(sorted.next());
+		assertEquals(1, rs.getRow());
+		assertEquals(1, rs.getInt("id"));
+		
+		ColumnarResultSet unsorted = rs.createSorted();
+		assertTrue(unsorted.last());
+		assertEquals(6, unsorted.getInt("id"));
+		rs.releaseSpillFiles();
+	}
+
+	/**
+	 * Releasing the spill files deletes them for every reader of the rows
+	 * while the rows kept in memory can still be read.
+	 */
+	public void testReleaseSpillFiles() throws Exception {
+		ColumnarResultSet rs = new ColumnarResultSet();
+		rs.populate(createResultSet(new String[] { "i" }, new int[] { Types.INTEGER }, 
+				new Object[][] { { 1 }, { 2 }, { 3 } }), 1, spillDirectory);
+		ColumnarResultSet shared = rs.createShared();
+		assertEquals(2, spillDirectory.listFiles().length);
+		
+		rs.releaseSpillFiles();
+		assertEquals(0, spillDirectory.listFiles().length);
+		assertTrue(shared.first());
+		assertEquals(1, shared.getInt(1));
+		assertTrue(shared.next());
+		try {
+			shared.getInt(1);
+			fail("The released rows should not be readable");
+		} catch (SQLException e) {
+			// expected
+		}
+	}
+}
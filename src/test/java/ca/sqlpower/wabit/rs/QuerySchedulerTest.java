@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ExecutionPriority;
+
+public class QuerySchedulerTest extends TestCase {
+
+	/**
+	 * A task that blocks until it is released.
+	 */
+	private static class BlockingTask implements Runnable {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		public void run() {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * A task that records its name in a shared list.
+	 */
+	private static class RecordingTask implements Runnable {
+		private final String name;
+		private final List<String> order;
+		private final CountDownLatch done;
+		RecordingTask(String name, List<String> order, CountDownLatch done) {
+			this.name = name;
+			this.order = order;
+			this.done = done;
+		}
+		public void run() {
+			order.add(name);
+			done.countDown();
+		}
+	}
+
+	public void testLimitPerDataSource() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(4, 1, 10);
+		BlockingTask first = new BlockingTask();
+		BlockingTask second = new BlockingTask();
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, first, false);
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, second, false);
+
+		assertTrue(first.started.await(5, TimeUnit.SECONDS));
+		assertFalse(second.started.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(1, scheduler.getMetrics("ds").getQueueDepth());
+		assertEquals(1, scheduler.getMetrics("ds").getRunningCount());
+
+		first.release.countDown();
+		assertTrue(second.started.await(5, TimeUnit.SECONDS));
+		second.release.countDown();
+	}
+
+	public void testOtherDataSourceNotBlocked() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(4, 1, 10);
+		BlockingTask first = new BlockingTask();
+		BlockingTask other = new BlockingTask();
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, first, false);
+		scheduler.submit("other", ExecutionPriority.BACKGROUND, other, false);
+
+		assertTrue(first.started.await(5, TimeUnit.SECONDS));
+		assertTrue(other.started.await(5, TimeUnit.SECONDS));
+		first.release.countDown();
+		other.release.countDown();
+	}
+
+	public void testInteractiveRunsBeforeBackground() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(4, 1, 10);
+		BlockingTask blocker = new BlockingTask();
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(2);
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, blocker, false);
+		assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, new RecordingTask("background", order, done), false);
+		scheduler.submit("ds", ExecutionPriority.INTERACTIVE, new RecordingTask("interactive", order, done), false);
+		blocker.release.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("interactive", order.get(0));
+		assertEquals("background", order.get(1));
+	}
+
+	public void testCancelWaitingTask() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(4, 1, 10);
+		BlockingTask blocker = new BlockingTask();
+		BlockingTask cancelled = new BlockingTask();
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, blocker, false);
+		QueryScheduler.Ticket ticket = scheduler.submit("ds", ExecutionPriority.BACKGROUND, cancelled, false);
+
+		assertTrue(ticket.cancel());
+		assertEquals(0, scheduler.getQueuedCount());
+		blocker.release.countDown();
+		assertFalse(cancelled.started.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, scheduler.getMetrics("ds").getCancelledCount());
+	}
+
+	public void testQueueIsBounded() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(4, 1, 1);
+		BlockingTask blocker = new BlockingTask();
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, blocker, false);
+		assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, new BlockingTask(), false);
+		try {
+			scheduler.submit("ds", ExecutionPriority.BACKGROUND, new BlockingTask(), false);
+			fail("The queue should be full");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertEquals(1, scheduler.getMetrics("ds").getRejectedCount());
+		blocker.release.countDown();
+	}
+
+	public void testLongRunningTaskDoesNotUseDataSourceLimit() throws Exception {
+		QueryScheduler scheduler = new QueryScheduler(4, 1, 10);
+		BlockingTask streaming = new BlockingTask();
+		BlockingTask query = new BlockingTask();
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, streaming, true);
+		scheduler.submit("ds", ExecutionPriority.BACKGROUND, query, false);
+
+		assertTrue(streaming.started.await(5, TimeUnit.SECONDS));
+		assertTrue(query.started.await(5, TimeUnit.SECONDS));
+		streaming.release.countDown();
+		query.release.countDown();
+	}
+}
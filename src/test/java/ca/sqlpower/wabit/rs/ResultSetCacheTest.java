@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs;
+
+import junit.framework.TestCase;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetStatus;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
+
+public class ResultSetCacheTest extends TestCase {
+
+	/**
+	 * Counts how many times the handle was cancelled, which is what
+	 * releasing the last reference to a handle does.
+	 */
+	private static class CancelCountingHandle extends ResultSetHandle {
+		private int cancelCount;
+		
+		CancelCountingHandle() {
+			super(ResultSetType.RELATIONAL, 0);
+		}
+		
+		@Override
+		public void cancel() {
+			cancelCount++;
+		}
+	}
+
+	private ResultSetCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		cache = new ResultSetCache(60000, 2);
+	}
+
+	public void testKeysWithSameQueryAreEqual() throws Exception {
+		ResultSetCache.Key key1 = new ResultSetCache.Key("ds", "select * from t where a = 1", ResultSetType.RELATIONAL, 100);
+		ResultSetCache.Key key2 = new ResultSetCache.Key("ds", "select * from t where a = 1", ResultSetType.RELATIONAL, 100);
+		assertEquals(key1, key2);
+		assertEquals(key1.hashCode(), key2.hashCode());
+	}
+
+	public void testKeysWithDifferentVariableValuesDiffer() throws Exception {
+		ResultSetCache.Key key1 = new ResultSetCache.Key("ds", "select * from t where a = 1", ResultSetType.RELATIONAL, 100);
+		ResultSetCache.Key key2 = new ResultSetCache.Key("ds", "select * from t where a = 2", ResultSetType.RELATIONAL, 100);
+		assertFalse(key1.equals(key2));
+		assertFalse(key1.equals(new ResultSetCache.Key("ds", "select * from t where a = 1", ResultSetType.RELATIONAL, 10)));
+		assertFalse(key1.equals(new ResultSetCache.Key("other", "select * from t where a = 1", ResultSetType.RELATIONAL, 100)));
+	}
+
+	/**
+	 * A handle that has not finished executing must be shared.
+	 */
+	public void testRunningHandleIsShared() throws Exception {
+		ResultSetCache.Key key = new ResultSetCache.Key("ds", "select 1", ResultSetType.RELATIONAL, 0);
+		ResultSetHandle handle = new ResultSetHandle(ResultSetType.RELATIONAL, 0);
+		cache.put(key, handle);
+		assertSame(handle, cache.get(key));
+	}
+
+	public void testLeastRecentlyUsedEntryEvicted() throws Exception {
+		ResultSetCache.Key key1 = new ResultSetCache.Key("ds", "select 1", ResultSetType.RELATIONAL, 0);
+		ResultSetCache.Key key2 = new ResultSetCache.Key("ds", "select 2", ResultSetType.RELATIONAL, 0);
+		ResultSetCache.Key key3 = new ResultSetCache.Key("ds", "select 3", ResultSetType.RELATIONAL, 0);
+		cache.put(key1, new ResultSetHandle(ResultSetType.RELATIONAL, 0));
+		cache.put(key2, new ResultSetHandle(ResultSetType.RELATIONAL, 0));
+		assertNotNull(cache.get(key1));
+		cache.put(key3, new ResultSetHandle(ResultSetType.RELATIONAL, 0));
+
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get(key1));
+		assertNull(cache.get(key2));
+		assertNotNull(cache.get(key3));
+	}
+
+	/**
+	 * Evicted handles nobody shares are cancelled, which deletes their
+	 * spilled rows, when the dropped handles are released.
+	 */
+	public void testEvictedHandleReleased() throws Exception {
+		CancelCountingHandle evicted = new CancelCountingHandle();
+		cache.put(new ResultSetCache.Key("ds", "select 1", ResultSetType.RELATIONAL, 0), evicted);
+		cache.put(new ResultSetCache.Key("ds", "select 2", ResultSetType.RELATIONAL, 0), new CancelCountingHandle());
+		cache.put(new ResultSetCache.Key("ds", "select 3", ResultSetType.RELATIONAL, 0), new CancelCountingHandle());
+		assertEquals(0, evicted.cancelCount);
+		
+		cache.releaseDropped();
+		assertEquals(1, evicted.cancelCount);
+		cache.releaseDropped();
+		assertEquals(1, evicted.cancelCount);
+	}
+
+	/**
+	 * An evicted handle is kept until the last handle sharing it is
+	 * cancelled, cancelling a shared handle twice releases it once.
+	 */
+	public void testEvictedHandleKeptWhileShared() throws Exception {
+		CancelCountingHandle evicted = new CancelCountingHandle();
+		cache.put(new ResultSetCache.Key("ds", "select 1", ResultSetType.RELATIONAL, 0), evicted);
+		SharedResultSetHandle first = new SharedResultSetHandle(evicted);
+		SharedResultSetHandle second = new SharedResultSetHandle(evicted);
+		cache.put(new ResultSetCache.Key("ds", "select 2", ResultSetType.RELATIONAL, 0), new CancelCountingHandle());
+		cache.put(new ResultSetCache.Key("ds", "select 3", ResultSetType.RELATIONAL, 0), new CancelCountingHandle());
+		cache.releaseDropped();
+		assertEquals(0, evicted.cancelCount);
+		
+		first.cancel();
+		first.cancel();
+		assertEquals(0, evicted.cancelCount);
+		second.cancel();
+		assertEquals(1, evicted.cancelCount);
+	}
+
+	/**
+	 * Completed handles past their time to live are released when they are
+	 * dropped.
+	 */
+	public void testExpiredHandleReleased() throws Exception {
+		cache = new ResultSetCache(0, 2);
+		ResultSetCache.Key key = new ResultSetCache.Key("ds", "select 1", ResultSetType.RELATIONAL, 0);
+		CancelCountingHandle expired = new CancelCountingHandle() {
+			@Override
+			public ResultSetStatus getStatus() {
+				return ResultSetStatus.SUCCESS;
+			}
+		};
+		cache.put(key, expired);
+		assertNull(cache.get(key));
+		cache.releaseDropped();
+		assertEquals(1, expired.cancelCount);
+	}
+
+	public void testClearReleasesHandles() throws Exception {
+		CancelCountingHandle handle = new CancelCountingHandle();
+		cache.put(new ResultSetCache.Key("ds", "select 1", ResultSetType.RELATIONAL, 0), handle);
+		cache.clear(false);
+		assertEquals(1, handle.cancelCount);
+	}
+
+	public void testClear() throws Exception {
+		ResultSetCache.Key key = new ResultSetCache.Key("ds", "select 1", ResultSetType.RELATIONAL, 0);
+		cache.put(key, new ResultSetHandle(ResultSetType.RELATIONAL, 0));
+		cache.clear(false);
+		assertEquals(0, cache.size());
+		assertNull(cache.get(key));
+	}
+}
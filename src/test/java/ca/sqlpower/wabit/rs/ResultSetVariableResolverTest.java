@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+import ca.sqlpower.object.SPVariableResolver;
+import ca.sqlpower.wabit.WabitWorkspace;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetStatus;
+import ca.sqlpower.wabit.rs.ResultSetHandle.ResultSetType;
+
+public class ResultSetVariableResolverTest extends TestCase {
+
+	private static final String NAMESPACE = "test-namespace";
+	
+	private static final String KEY = NAMESPACE + SPVariableResolver.NAMESPACE_DELIMITER + "COL";
+
+	/**
+	 * A handle that does not run a query, its result set is given to it.
+	 */
+	private static class StubHandle extends ResultSetHandle {
+		
+		private final ResultSet resultSet;
+		
+		private final ResultSetStatus status;
+		
+		StubHandle(ResultSetStatus status, Object... values) {
+			super(ResultSetType.RELATIONAL, 0);
+			this.status = status;
+			resultSet = createResultSet(values);
+		}
+		
+		@Override
+		public ResultSet getResultSet() {
+			return resultSet;
+		}
+		
+		@Override
+		public ResultSetStatus getStatus() {
+			return status;
+		}
+	}
+
+	/**
+	 * Records each load the resolver starts and gives it a handle the test
+	 * completes when it wants to.
+	 */
+	private static class StubResolver extends ResultSetVariableResolver {
+		
+		private final List<ResultSetListener> listeners = new ArrayList<ResultSetListener>();
+		
+		private final List<StubHandle> handles = new ArrayList<StubHandle>();
+		
+		private Object[] nextValues = new Object[0];
+		
+		private ResultSetStatus nextStatus = ResultSetStatus.SUCCESS;
+		
+		StubResolver() {
+			super(new WabitWorkspace(), NAMESPACE, "Test resolver");
+		}
+		
+		@Override
+		protected ResultSetHandle load(String column, ResultSetListener listener, boolean async) {
+			if (column != null) {
+				return null;
+			}
+			StubHandle handle = new StubHandle(nextStatus, nextValues);
+			handles.add(handle);
+			listeners.add(listener);
+			return handle;
+		}
+		
+		void complete(int load) {
+			listeners.get(load).executionComplete(
+					ResultSetEvent.getExecutionCompleteEvent(handles.get(load)));
+		}
+	}
+
+	private static class CountingValuesListener implements VariableValuesListener {
+		private int count;
+		public void variableValuesChanged(ResultSetVariableResolver source) {
+			count++;
+		}
+	}
+
+	/**
+	 * Creates a result set with one column named COL holding the given
+	 * values. Only the methods the resolver uses are implemented.
+	 */
+	private static ResultSet createResultSet(final Object[] values) {
+		final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+				ResultSetMetaData.class.getClassLoader(), 
+				new Class<?>[] { ResultSetMetaData.class }, 
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getColumnCount")) {
+							return 1;
+						} else if (name.equals("getColumnLabel") || name.equals("getColumnName")) {
+							return "COL";
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+		return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(), 
+				new Class<?>[] { ResultSet.class }, 
+				new InvocationHandler() {
+					private int row = -1;
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("first")) {
+							row = 0;
+							return values.length > 0;
+						} else if (name.equals("next")) {
+							row++;
+							return row < values.length;
+						} else if (name.equals("getMetaData")) {
+							return metaData;
+						} else if (name.equals("getObject")) {
+							return values[row];
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+
+	/**
+	 * Looks up the values of the variable on the Swing event thread, where
+	 * the resolver loads its values in the background.
+	 */
+	private static Collection<Object> resolveOnEventThread(final StubResolver resolver) 
+			throws Exception {
+		final List<Collection<Object>> result = new ArrayList<Collection<Object>>();
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				result.add(resolver.resolveCollection(KEY));
+			}
+		});
+		return result.get(0);
+	}
+
+	private static void completeOnEventThread(final StubResolver resolver, final int load) 
+			throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				resolver.complete(load);
+			}
+		});
+	}
+
+	/**
+	 * Lookups on other threads than the event thread wait for the values
+	 * and notify the listeners once they are stored.
+	 */
+	public void testValuesLoadedWhenLookedUp() throws Exception {
+		StubResolver resolver = new StubResolver();
+		CountingValuesListener listener = new CountingValuesListener();
+		resolver.addVariableValuesListener(listener);
+		resolver.nextValues = new Object[] { "a", "b" };
+		
+		Collection<Object> values = resolver.resolveCollection(KEY);
+		
+		assertEquals(2, values.size());
+		assertTrue(values.contains("a"));
+		assertTrue(values.contains("b"));
+		assertEquals(1, listener.count);
+		
+		// The values are kept until the producer changes.
+		resolver.resolveCollection(KEY);
+		assertEquals(1, resolver.handles.size());
+	}
+
+	/**
+	 * Lookups on the event thread do not wait, the listeners are notified
+	 * when the values arrive and the same load is not started twice.
+	 */
+	public void testBackgroundLoadNotifiesListeners() throws Exception {
+		StubResolver resolver = new StubResolver();
+		CountingValuesListener listener = new CountingValuesListener();
+		resolver.addVariableValuesListener(listener);
+		resolver.nextValues = new Object[] { "a" };
+		
+		assertTrue(resolveOnEventThread(resolver).isEmpty());
+		resolveOnEventThread(resolver);
+		assertEquals(1, resolver.handles.size());
+		assertEquals(0, listener.count);
+		
+		completeOnEventThread(resolver, 0);
+		
+		assertEquals(1, listener.count);
+		assertEquals(1, resolveOnEventThread(resolver).size());
+		assertEquals(1, resolver.handles.size());
+	}
+
+	/**
+	 * Values loaded for the producer before it changed are discarded when
+	 * they arrive, the values of the load started after the change are kept.
+	 */
+	public void testStaleValuesDiscarded() throws Exception {
+		StubResolver resolver = new StubResolver();
+		CountingValuesListener listener = new CountingValuesListener();
+		resolver.addVariableValuesListener(listener);
+		resolver.nextValues = new Object[] { "old" };
+		resolveOnEventThread(resolver);
+		
+		resolver.setUpdateNeeded(true);
+		resolver.nextValues = new Object[] { "new" };
+		resolveOnEventThread(resolver);
+		assertEquals(2, resolver.handles.size());
+		
+		completeOnEventThread(resolver, 0);
+		assertEquals(0, listener.count);
+		assertTrue(resolveOnEventThread(resolver).isEmpty());
+		
+		completeOnEventThread(resolver, 1);
+		assertEquals(1, listener.count);
+		Collection<Object> values = resolveOnEventThread(resolver);
+		assertEquals(1, values.size());
+		assertTrue(values.contains("new"));
+		assertEquals(2, resolver.handles.size());
+	}
+
+	/**
+	 * A query that fails is not run again on every lookup, only once the
+	 * producer changes.
+	 */
+	public void testFailedLoadNotRetriedUntilChanged() throws Exception {
+		StubResolver resolver = new StubResolver();
+		resolver.nextStatus = ResultSetStatus.ERROR;
+		resolveOnEventThread(resolver);
+		completeOnEventThread(resolver, 0);
+		
+		assertTrue(resolveOnEventThread(resolver).isEmpty());
+		resolveOnEventThread(resolver);
+		assertEquals(1, resolver.handles.size());
+		
+		resolver.setUpdateNeeded(true);
+		resolver.nextStatus = ResultSetStatus.SUCCESS;
+		resolver.nextValues = new Object[] { "a" };
+		resolveOnEventThread(resolver);
+		assertEquals(2, resolver.handles.size());
+		completeOnEventThread(resolver, 1);
+		assertEquals(1, resolveOnEventThread(resolver).size());
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ca.sqlpower.wabit.rs;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RowRingBufferTest extends TestCase {
+
+	private static Object[] row(int value) {
+		return new Object[] { value };
+	}
+
+	/**
+	 * A full bounded buffer drops its oldest row for each row added but keeps
+	 * numbering rows from the first one ever added.
+	 */
+	public void testBoundedBufferEvictsOldestRows() throws Exception {
+		RowRingBuffer buffer = new RowRingBuffer(3);
+		for (int i = 0; i < 5; i++) {
+			buffer.add(row(i));
+		}
+		assertEquals(3, buffer.size());
+		assertEquals(2, buffer.getStartRow());
+		assertEquals(5, buffer.getEndRow());
+		
+		List<Object[]> rows = buffer.getRows(0, buffer.getEndRow());
+		assertEquals(3, rows.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 2, rows.get(i)[0]);
+		}
+	}
+
+	/**
+	 * An unbounded buffer keeps every row in order as it grows.
+	 */
+	public void testUnboundedBufferGrows() throws Exception {
+		RowRingBuffer buffer = new RowRingBuffer(0);
+		for (int i = 0; i < 100; i++) {
+			buffer.add(row(i));
+		}
+		assertEquals(0, buffer.getCapacity());
+		assertEquals(100, buffer.size());
+		assertEquals(0, buffer.getStartRow());
+		
+		List<Object[]> rows = buffer.getRows(0, 100);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, rows.get(i)[0]);
+		}
+	}
+
+	/**
+	 * A bounded buffer whose capacity is larger than its first allocation
+	 * grows up to the capacity and wraps around afterwards.
+	 */
+	public void testBoundedBufferGrowsThenWraps() throws Exception {
+		RowRingBuffer buffer = new RowRingBuffer(1500);
+		for (int i = 0; i < 2000; i++) {
+			buffer.add(row(i));
+		}
+		assertEquals(1500, buffer.size());
+		assertEquals(500, buffer.getStartRow());
+		assertEquals(500, buffer.getRows(0, 2000).get(0)[0]);
+		assertEquals(1999, buffer.getRows(1999, 2000).get(0)[0]);
+	}
+
+	/**
+	 * Asking for rows outside of what the buffer holds returns only the rows
+	 * it still has.
+	 */
+	public void testGetRowsClampsToRetainedRows() throws Exception {
+		RowRingBuffer buffer = new RowRingBuffer(4);
+		for (int i = 0; i < 6; i++) {
+			buffer.add(row(i));
+		}
+		List<Object[]> rows = buffer.getRows(3, 10);
+		assertEquals(3, rows.size());
+		assertEquals(3, rows.get(0)[0]);
+		assertTrue(buffer.getRows(0, 2).isEmpty());
+		assertTrue(buffer.getRows(6, 8).isEmpty());
+	}
+}
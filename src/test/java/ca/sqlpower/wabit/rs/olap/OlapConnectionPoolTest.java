@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs.olap;
+
+import java.io.File;
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+import org.olap4j.OlapConnection;
+
+import ca.sqlpower.sql.JDBCDataSource;
+import ca.sqlpower.sql.Olap4jDataSource;
+import ca.sqlpower.sql.PlDotIni;
+import ca.sqlpower.sqlobject.SQLDatabase;
+import ca.sqlpower.sqlobject.SQLDatabaseMapping;
+
+public class OlapConnectionPoolTest extends TestCase {
+
+	private OlapConnectionPool pool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		PlDotIni plIni = new PlDotIni();
+		plIni.read(new File("src/test/resources/pl.regression.ini"));
+		final Olap4jDataSource ds = plIni.getDataSource("World Facts OLAP Connection", Olap4jDataSource.class);
+		pool = new OlapConnectionPool(ds, new SQLDatabaseMapping() {
+			private final SQLDatabase sqlDB = new SQLDatabase(ds.getDataSource());
+			public SQLDatabase getDatabase(JDBCDataSource ds) {
+				return sqlDB;
+			}
+		}, 2);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pool.disconnect();
+		super.tearDown();
+	}
+
+	/**
+	 * Queries running at the same time must get their own connections.
+	 */
+	public void testBorrowedConnectionsAreSeparate() throws Exception {
+		OlapConnection con1 = pool.borrowConnection();
+		OlapConnection con2 = pool.borrowConnection();
+		assertNotSame(con1, con2);
+		assertNotSame(pool.getConnection(), con1);
+		assertEquals(2, pool.getBorrowedCount());
+		pool.returnConnection(con1, false);
+		pool.returnConnection(con2, false);
+		assertEquals(0, pool.getBorrowedCount());
+		assertEquals(2, pool.getIdleCount());
+	}
+
+	public void testReturnedConnectionIsReused() throws Exception {
+		OlapConnection con = pool.borrowConnection();
+		pool.returnConnection(con, false);
+		assertSame(con, pool.borrowConnection());
+	}
+
+	/**
+	 * A connection that was closed or returned as broken must not be handed
+	 * out again.
+	 */
+	public void testBrokenConnectionReplaced() throws Exception {
+		OlapConnection con = pool.borrowConnection();
+		pool.returnConnection(con, true);
+		assertTrue(con.isClosed());
+		assertEquals(0, pool.getIdleCount());
+
+		OlapConnection closed = pool.borrowConnection();
+		pool.returnConnection(closed, false);
+		closed.close();
+		OlapConnection replacement = pool.borrowConnection();
+		assertNotSame(closed, replacement);
+		assertFalse(replacement.isClosed());
+	}
+
+	public void testSharedConnectionReopened() throws Exception {
+		OlapConnection shared = pool.getConnection();
+		shared.close();
+		assertFalse(pool.getConnection().isClosed());
+	}
+
+	public void testBorrowTimesOutWhenExhausted() throws Exception {
+		System.setProperty("ca.sqlpower.wabit.rs.olap.OlapConnectionPool.maxWait", "100");
+		try {
+			PlDotIni plIni = new PlDotIni();
+			plIni.read(new File("src/test/resources/pl.regression.ini"));
+			final Olap4jDataSource ds = plIni.getDataSource("World Facts OLAP Connection", Olap4jDataSource.class);
+			final SQLDatabase sqlDB = new SQLDatabase(ds.getDataSource());
+			OlapConnectionPool smallPool = new OlapConnectionPool(ds, new SQLDatabaseMapping() {
+				public SQLDatabase getDatabase(JDBCDataSource ds) {
+					return sqlDB;
+				}
+			}, 1);
+			smallPool.borrowConnection();
+			try {
+				smallPool.borrowConnection();
+				fail("The pool should have no connections left");
+			} catch (SQLException e) {
+				// expected
+			}
+			smallPool.disconnect();
+		} finally {
+			System.clearProperty("ca.sqlpower.wabit.rs.olap.OlapConnectionPool.maxWait");
+		}
+	}
+}
@@ -92,6 +92,11 @@ public class OlapQueryTest extends AbstractWabitObjectTest {
 				throw new RuntimeException(e);
 			}
 	    }
+		
+		public void releaseConnection(Olap4jDataSource dataSource,
+				OlapConnection connection, boolean broken) {
+			// the connection is left open for the other queries
+		}
     	
     };
     
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of Wabit.
+ *
+ * Wabit is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Wabit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.sqlpower.wabit.rs.query;
+
+import java.io.File;
+import java.sql.Connection;
+
+import junit.framework.TestCase;
+import ca.sqlpower.sql.JDBCDataSource;
+import ca.sqlpower.sql.PlDotIni;
+
+public class JDBCConnectionPoolTest extends TestCase {
+
+	private JDBCConnectionPool pool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		PlDotIni plIni = new PlDotIni();
+		plIni.read(new File("src/test/resources/pl.regression.ini"));
+		JDBCDataSource ds = plIni.getDataSource("regression_test", JDBCDataSource.class);
+		pool = new JDBCConnectionPool(ds);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pool.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Connections borrowed at the same time must be different connections.
+	 */
+	public void testConcurrentBorrowsGetSeparateConnections() throws Exception {
+		Connection con1 = pool.getConnection();
+		Connection con2 = pool.getConnection();
+		assertNotSame(con1, con2);
+		assertEquals(2, pool.getNumActive());
+		con1.close();
+		con2.close();
+	}
+
+	/**
+	 * Closing a borrowed connection returns it to the pool.
+	 */
+	public void testCloseReturnsConnection() throws Exception {
+		Connection con = pool.getConnection();
+		assertEquals(1, pool.getNumActive());
+		con.close();
+		assertEquals(0, pool.getNumActive());
+		assertEquals(1, pool.getNumIdle());
+
+		Connection reused = pool.getConnection();
+		assertFalse(reused.isClosed());
+		assertEquals(0, pool.getNumIdle());
+		reused.close();
+	}
+}
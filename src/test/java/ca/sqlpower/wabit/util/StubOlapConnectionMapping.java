@@ -51,4 +51,9 @@ public class StubOlapConnectionMapping implements OlapConnectionProvider {
 			throw new RuntimeException(e);
 		}
     }
+
+    public void releaseConnection(Olap4jDataSource dataSource,
+            OlapConnection connection, boolean broken) {
+        // no connections are handed out
+    }
 }